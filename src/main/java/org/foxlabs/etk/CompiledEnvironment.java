@@ -0,0 +1,162 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk;
+
+import org.foxlabs.etk.bean.BeanEntity;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.resource.ResourceManager;
+import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.support.Types;
+import org.foxlabs.etk.variable.VariableTable;
+
+// Immutable build time environment, which may be shared by any number of
+// threads. The variable table declares variables for decoding and supplies
+// their values unless an evaluation gives a table of its own. Per evaluation
+// state lives in evaluation contexts, which are pooled per thread, so
+// evaluation takes no locks. The pool is shared by all environments and
+// released contexts refer to none of them, so environments that are no
+// longer used are not kept by the threads that used them.
+public final class CompiledEnvironment implements Environment {
+    
+    private final ClassLoader classLoader;
+    private final VariableTable variableTable;
+    private final FunctionLoader functionLoader;
+    private final BeanManager beanManager;
+    
+    private static final ThreadLocal<EvaluationContext> pool = new ThreadLocal<EvaluationContext>();
+    
+    public CompiledEnvironment(ClassLoader classLoader,
+                               VariableTable variableTable,
+                               FunctionLoader functionLoader,
+                               BeanManager beanManager) {
+        if (classLoader == null)
+            throw new NullPointerException();
+        this.classLoader = classLoader;
+        this.variableTable = variableTable;
+        this.functionLoader = functionLoader;
+        this.beanManager = beanManager;
+    }
+    
+    // Snapshot of the current state of the given environment
+    public static CompiledEnvironment of(Environment context) {
+        if (context instanceof CompiledEnvironment)
+            return (CompiledEnvironment) context;
+        return new CompiledEnvironment(context.getClassLoader(),
+                                       context.getVariableTable(),
+                                       context.getFunctionLoader(),
+                                       context.getBeanManager());
+    }
+    
+    // Evaluation contexts
+    
+    public EvaluationContext acquireContext() {
+        return acquireContext(null);
+    }
+    
+    // Context of a single evaluation resolving variables through the given
+    // table or through the table of this environment if it is null. Contexts
+    // must be released by the thread that acquired them.
+    public EvaluationContext acquireContext(VariableTable table) {
+        EvaluationContext context = pool.get();
+        if (context == null)
+            return new EvaluationContext(this, table);
+        // Nested evaluations get contexts of their own
+        pool.set(null);
+        context.init(this, table);
+        return context;
+    }
+    
+    public void releaseContext(EvaluationContext context) {
+        if (context.getParent() != this)
+            throw new IllegalArgumentException();
+        context.release();
+        pool.set(context);
+    }
+    
+    public Object evaluate(Expression expression) throws EvaluationException {
+        return evaluate(expression, null);
+    }
+    
+    public Object evaluate(Expression expression, VariableTable table) throws EvaluationException {
+        EvaluationContext context = acquireContext(table);
+        try {
+            return expression.evaluate(context);
+        } finally {
+            releaseContext(context);
+        }
+    }
+    
+    // Environment
+    
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+    
+    public Class<?> resolveType(String name) throws EtkException {
+        try {
+            return Types.typeOf(name, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw ResourceManager.newEtkException("environment.typeNotFound",
+                    name);
+        }
+    }
+    
+    public Enum<?> resolveEnum(Class<?> type, String name) throws EtkException {
+        try {
+            return Types.enumvalueOf(type, name);
+        } catch (ClassCastException e) {
+            throw ResourceManager.newEtkException("environment.notAnEnumType",
+                    type.getName());
+        } catch (IllegalArgumentException e) {
+            throw ResourceManager.newEtkException("environment.invalidEnumLiteral",
+                    type.getName(), name);
+        }
+    }
+    
+    public VariableTable getVariableTable() {
+        return variableTable;
+    }
+    
+    public Object resolveVariable(String name) throws EtkException {
+        if (variableTable == null)
+            throw new UnsupportedOperationException();
+        return variableTable.resolveVariable(name, this);
+    }
+    
+    public FunctionLoader getFunctionLoader() {
+        return functionLoader;
+    }
+    
+    public Function resolveFunction(Signature signature) throws EtkException {
+        if (functionLoader == null)
+            throw new UnsupportedOperationException();
+        return functionLoader.loadFunction(signature);
+    }
+    
+    public BeanManager getBeanManager() {
+        return beanManager;
+    }
+    
+    public BeanEntity resolveEntity(Class<?> type) throws EtkException {
+        if (beanManager == null)
+            throw new UnsupportedOperationException();
+        return beanManager.getBeanEntity(type);
+    }
+    
+}
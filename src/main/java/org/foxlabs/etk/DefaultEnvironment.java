@@ -117,41 +117,54 @@ public class DefaultEnvironment implements Environment {
     
     // Global context
     
-    private static Environment globalContext;
+    private static volatile Environment globalContext;
     
+    // Created once and published safely, reads take no lock
     public static final Environment getGlobalContext() {
-        if (globalContext == null) {
-            ClassLoader cl = ResourceHelper.getClassLoader();
-            
-            globalContext = createEnvironmentEntity(Environment.class, cl);
-            if (globalContext == null) {
-                DefaultEnvironment context = new DefaultEnvironment(cl);
-                
-                context.variableTable = createEnvironmentEntity(VariableTable.class, cl);
-                if (context.variableTable == null) {
-                    context.variableTable = new DefaultVariableTable();
-                }
-                
-                context.functionLoader = createEnvironmentEntity(FunctionLoader.class, cl);
-                if (context.functionLoader == null) {
-                    context.functionLoader = FunctionLoader.getDefaultRootLoader();
-                }
-                
-                context.beanManager = createEnvironmentEntity(BeanManager.class, cl);
-                if (context.beanManager == null) {
-                    context.beanManager = BeanManager.getDefaultRootManager();
-                }
-                
-                globalContext = context;
+        Environment context = globalContext;
+        if (context == null) {
+            synchronized (DefaultEnvironment.class) {
+                context = globalContext;
+                if (context == null)
+                    globalContext = context = createGlobalContext();
             }
         }
-        return globalContext;
+        return context;
     }
     
     public static final void setGlobalContext(Environment context) {
         if (context == null)
             throw new NullPointerException();
-        globalContext = context;
+        synchronized (DefaultEnvironment.class) {
+            globalContext = context;
+        }
+    }
+    
+    private static Environment createGlobalContext() {
+        ClassLoader cl = ResourceHelper.getClassLoader();
+        
+        Environment global = createEnvironmentEntity(Environment.class, cl);
+        if (global != null)
+            return global;
+        
+        DefaultEnvironment context = new DefaultEnvironment(cl);
+        
+        context.variableTable = createEnvironmentEntity(VariableTable.class, cl);
+        if (context.variableTable == null) {
+            context.variableTable = new DefaultVariableTable();
+        }
+        
+        context.functionLoader = createEnvironmentEntity(FunctionLoader.class, cl);
+        if (context.functionLoader == null) {
+            context.functionLoader = FunctionLoader.getDefaultRootLoader();
+        }
+        
+        context.beanManager = createEnvironmentEntity(BeanManager.class, cl);
+        if (context.beanManager == null) {
+            context.beanManager = BeanManager.getDefaultRootManager();
+        }
+        
+        return context;
     }
     
     private static <T> T createEnvironmentEntity(Class<T> entity, ClassLoader cl) {
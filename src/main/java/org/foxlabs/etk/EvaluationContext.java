@@ -0,0 +1,136 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.foxlabs.etk.bean.BeanEntity;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.variable.VariableTable;
+
+// Environment of a single top level evaluation. Values of expression variables
+// are memoized for the lifetime of the context, so it should be cleared or
+// dropped when the evaluation is over. The memo is not synchronized and a
+// context must not be shared between threads. Slot variables of a wrapped
+// frame are resolved by name, which is slower than reading the frame directly.
+// The variable table of the parent may be replaced, for example by a scope of
+// per request variables.
+public class EvaluationContext implements Environment {
+    
+    // Returned by lookup() for keys having no value
+    public static final Object NO_VALUE = new Object();
+    
+    private static final Object NULL = new Object();
+    
+    private Environment parent;
+    private VariableTable variableTable;
+    private Map<Object, Object> memo;
+    
+    public EvaluationContext(Environment parent) {
+        this(parent, null);
+    }
+    
+    public EvaluationContext(Environment parent, VariableTable table) {
+        init(parent, table);
+    }
+    
+    // Pooled contexts are reinitialized for every evaluation
+    final void init(Environment parent, VariableTable table) {
+        if (parent == null)
+            throw new NullPointerException();
+        this.parent = parent;
+        this.variableTable = table;
+    }
+    
+    // Pooled contexts keep neither the environment nor the values of the
+    // last evaluation
+    final void release() {
+        clear();
+        this.parent = null;
+        this.variableTable = null;
+    }
+    
+    public final Environment getParent() {
+        return parent;
+    }
+    
+    // Memo
+    
+    public Object lookup(Object key) {
+        if (memo == null)
+            return NO_VALUE;
+        Object value = memo.get(key);
+        return value == null ? NO_VALUE : value == NULL ? null : value;
+    }
+    
+    public void memoize(Object key, Object value) {
+        if (memo == null)
+            memo = new IdentityHashMap<Object, Object>();
+        memo.put(key, value == null ? NULL : value);
+    }
+    
+    public void clear() {
+        if (memo != null)
+            memo.clear();
+    }
+    
+    // Environment
+    
+    public ClassLoader getClassLoader() {
+        return parent.getClassLoader();
+    }
+    
+    public Class<?> resolveType(String name) throws EtkException {
+        return parent.resolveType(name);
+    }
+    
+    public Enum<?> resolveEnum(Class<?> type, String name) throws EtkException {
+        return parent.resolveEnum(type, name);
+    }
+    
+    public VariableTable getVariableTable() {
+        return variableTable == null ? parent.getVariableTable() : variableTable;
+    }
+    
+    public Object resolveVariable(String name) throws EtkException {
+        VariableTable table = getVariableTable();
+        if (table == null)
+            throw new UnsupportedOperationException();
+        return table.resolveVariable(name, this);
+    }
+    
+    public FunctionLoader getFunctionLoader() {
+        return parent.getFunctionLoader();
+    }
+    
+    public Function resolveFunction(Signature signature) throws EtkException {
+        return parent.resolveFunction(signature);
+    }
+    
+    public BeanManager getBeanManager() {
+        return parent.getBeanManager();
+    }
+    
+    public BeanEntity resolveEntity(Class<?> type) throws EtkException {
+        return parent.resolveEntity(type);
+    }
+    
+}
@@ -0,0 +1,66 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk;
+
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.resource.ResourceManager;
+
+// Thrown often under load, so there is no stack trace and the message is
+// formatted on demand only
+public class EvaluationLimitException extends EvaluationException {
+    private static final long serialVersionUID = 2261948386913417574L;
+    
+    public static final int NODE_VISITS   = 1;
+    public static final int DEADLINE      = 2;
+    public static final int STRING_LENGTH = 3;
+    public static final int ARRAY_SIZE    = 4;
+    
+    private final int limit;
+    private final long value;
+    
+    public EvaluationLimitException(Node node, int limit, long value) {
+        super(node, (String) null);
+        this.limit = limit;
+        this.value = value;
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    public long getLimitValue() {
+        return value;
+    }
+    
+    public String getMessage() {
+        switch (limit) {
+            case NODE_VISITS:
+                return ResourceManager.getMessage("runtime.nodeVisitsExceeded", value);
+            case DEADLINE:
+                return ResourceManager.getMessage("runtime.deadlineExceeded");
+            case STRING_LENGTH:
+                return ResourceManager.getMessage("runtime.stringLengthExceeded", value);
+            default:
+                return ResourceManager.getMessage("runtime.arraySizeExceeded", value);
+        }
+    }
+    
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+    
+}
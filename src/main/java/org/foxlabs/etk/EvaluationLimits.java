@@ -0,0 +1,125 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk;
+
+import java.util.concurrent.TimeUnit;
+
+public final class EvaluationLimits {
+    
+    public static final EvaluationLimits NONE =
+        new EvaluationLimits(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    
+    private final long maxNodeVisits;
+    private final long timeout;
+    private final long deadline;
+    private final int maxStringLength;
+    private final int maxArraySize;
+    
+    private EvaluationLimits(long maxNodeVisits, long timeout, long deadline,
+            int maxStringLength, int maxArraySize) {
+        this.maxNodeVisits = maxNodeVisits;
+        this.timeout = timeout;
+        this.deadline = deadline;
+        this.maxStringLength = maxStringLength;
+        this.maxArraySize = maxArraySize;
+    }
+    
+    public long getMaxNodeVisits() {
+        return maxNodeVisits;
+    }
+    
+    public EvaluationLimits withMaxNodeVisits(long count) {
+        if (count < 0L)
+            throw new IllegalArgumentException();
+        return new EvaluationLimits(count, timeout, deadline, maxStringLength, maxArraySize);
+    }
+    
+    public long getTimeout(TimeUnit unit) {
+        return timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.convert(timeout, TimeUnit.NANOSECONDS);
+    }
+    
+    // Timeout is counted from the start of every evaluation
+    public EvaluationLimits withTimeout(long time, TimeUnit unit) {
+        if (time < 0L)
+            throw new IllegalArgumentException();
+        return new EvaluationLimits(maxNodeVisits, unit.toNanos(time), deadline, maxStringLength, maxArraySize);
+    }
+    
+    public boolean hasDeadline() {
+        return deadline != Long.MAX_VALUE;
+    }
+    
+    public long getDeadline() {
+        return deadline;
+    }
+    
+    // Deadline is an absolute System.nanoTime() value, shared by all the
+    // evaluations of a request for example
+    public EvaluationLimits withDeadline(long nanoTime) {
+        return new EvaluationLimits(maxNodeVisits, timeout, nanoTime, maxStringLength, maxArraySize);
+    }
+    
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+    
+    public EvaluationLimits withMaxStringLength(int length) {
+        if (length < 0)
+            throw new IllegalArgumentException();
+        return new EvaluationLimits(maxNodeVisits, timeout, deadline, length, maxArraySize);
+    }
+    
+    public int getMaxArraySize() {
+        return maxArraySize;
+    }
+    
+    public EvaluationLimits withMaxArraySize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException();
+        return new EvaluationLimits(maxNodeVisits, timeout, deadline, maxStringLength, size);
+    }
+    
+    public boolean isTimed() {
+        return timeout != Long.MAX_VALUE || deadline != Long.MAX_VALUE;
+    }
+    
+    public boolean isUnlimited() {
+        return maxNodeVisits == Long.MAX_VALUE && !isTimed() &&
+               maxStringLength == Integer.MAX_VALUE && maxArraySize == Integer.MAX_VALUE;
+    }
+    
+    // Returns the System.nanoTime() deadline of an evaluation started now
+    public long getDeadline(long startTime) {
+        if (timeout == Long.MAX_VALUE)
+            return deadline;
+        long end = startTime + timeout;
+        if (end - startTime < 0L)
+            end = Long.MAX_VALUE;
+        return hasDeadline() && deadline - end < 0L ? deadline : end;
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("maxNodeVisits=").append(maxNodeVisits);
+        buf.append(", timeout=").append(timeout).append("ns");
+        buf.append(", deadline=").append(deadline);
+        buf.append(", maxStringLength=").append(maxStringLength);
+        buf.append(", maxArraySize=").append(maxArraySize);
+        return buf.toString();
+    }
+    
+}
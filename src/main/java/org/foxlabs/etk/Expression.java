@@ -20,17 +20,23 @@ import java.io.Serializable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.CompletableFuture;
 
+import org.foxlabs.etk.function.AsyncEvaluation;
 import org.foxlabs.etk.io.NodeInputStream;
 import org.foxlabs.etk.io.NodeOutputStream;
 import org.foxlabs.etk.node.Node;
 import org.foxlabs.etk.node.NodeVisitor;
+import org.foxlabs.etk.program.Program;
+import org.foxlabs.etk.program.ProgramBuilder;
 
 public class Expression implements Serializable {
     private static final long serialVersionUID = 5608323719628721515L;
     
     private transient Node root;
     private transient int hash = 0;
+    private transient int async = 0;
+    private transient Program program;
     
     private String source;
     
@@ -62,6 +68,77 @@ public class Expression implements Serializable {
         }
     }
     
+    // Limited evaluation runs a debug program of the expression, plain
+    // evaluation is not affected. Without limits of its own, an expression
+    // evaluated within a limited evaluation of the same thread shares its
+    // limits.
+    public Object evaluate(Environment context, EvaluationLimits limits) throws EvaluationException {
+        if ((limits == null || limits.isUnlimited()) && !Program.isLimited())
+            return evaluate(context);
+        
+        Program program = this.program;
+        if (program == null)
+            this.program = program = ProgramBuilder.build(root, true);
+        try {
+            return program.evaluate(context, limits);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        try {
+            return root.evaluateBoolean(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        try {
+            return root.evaluateInt(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        try {
+            return root.evaluateLong(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        try {
+            return root.evaluateDouble(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    // Expressions without asynchronous functions are evaluated right away
+    public CompletableFuture<Object> evaluateAsync(Environment context) {
+        if (async == 0)
+            async = AsyncEvaluation.isAsync(root) ? 1 : -1;
+        if (async > 0)
+            return AsyncEvaluation.evaluate(this, context);
+        
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            future.complete(evaluate(context));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
     public final <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         root.accept(visitor);
     }
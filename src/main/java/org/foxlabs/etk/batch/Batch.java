@@ -0,0 +1,55 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class Batch {
+    
+    private final int size;
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+    
+    public Batch(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException();
+        this.size = size;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public Batch setColumn(String name, Column column) {
+        if (name == null || column == null)
+            throw new NullPointerException();
+        if (column.size() < size)
+            throw new IllegalArgumentException(name);
+        columns.put(name, column);
+        return this;
+    }
+    
+    public Column getColumn(String name) {
+        return columns.get(name);
+    }
+    
+    public Map<String, Column> getColumns() {
+        return Collections.unmodifiableMap(columns);
+    }
+    
+}
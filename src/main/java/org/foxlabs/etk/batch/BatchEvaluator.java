@@ -0,0 +1,129 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+
+public class BatchEvaluator {
+    
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    
+    private final Expression expression;
+    private final int batchSize;
+    
+    public BatchEvaluator(Expression expression) {
+        this(expression, DEFAULT_BATCH_SIZE);
+    }
+    
+    public BatchEvaluator(Expression expression, int batchSize) {
+        if (expression == null)
+            throw new NullPointerException();
+        if (batchSize <= 0)
+            throw new IllegalArgumentException();
+        this.expression = expression;
+        this.batchSize = batchSize;
+    }
+    
+    public final Expression getExpression() {
+        return expression;
+    }
+    
+    public final int getBatchSize() {
+        return batchSize;
+    }
+    
+    public final Class<?> getType() {
+        return expression.getType();
+    }
+    
+    // Variables that have a column in the batch are bound to the column, all
+    // other variables are resolved from the environment. The whole batch
+    // fails on the first failing row.
+    public Column evaluate(Batch batch, Environment context) throws EvaluationException {
+        int size = batch.size();
+        int capacity = Math.min(batchSize, Math.max(size, 1));
+        
+        Kernel kernel = new KernelBuilder(batch, context, capacity).build(expression.getRootNode());
+        Column result = new Column(expression.getType(), size);
+        
+        int[] selection = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            selection[i] = i;
+        
+        try {
+            for (int start = 0; start < size; start += capacity) {
+                int count = Math.min(capacity, size - start);
+                kernel.evaluate(start, selection, count);
+                result.copy(kernel.out, 0, selection, count, start);
+            }
+        } catch (EvaluationException e) {
+            e.setOwner(expression);
+            throw e;
+        }
+        
+        return result;
+    }
+    
+    // Filter mode
+    
+    public BitSet filter(Batch batch, Environment context) throws EvaluationException {
+        int[] rows = select(batch, context);
+        BitSet result = new BitSet(batch.size());
+        for (int row : rows)
+            result.set(row);
+        return result;
+    }
+    
+    // Conjuncts of AND chains run only on the rows that survived the previous
+    // ones and disjuncts of OR chains only on the rows not accepted yet
+    public int[] select(Batch batch, Environment context) throws EvaluationException {
+        int size = batch.size();
+        int capacity = Math.min(batchSize, Math.max(size, 1));
+        
+        Predicate predicate = new KernelBuilder(batch, context, capacity)
+            .buildPredicate(expression.getRootNode());
+        
+        int[] selection = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            selection[i] = i;
+        
+        int[] survivors = new int[capacity];
+        int[] result = new int[Math.min(size, capacity * 4)];
+        int count = 0;
+        
+        try {
+            for (int start = 0; start < size; start += capacity) {
+                int chunk = predicate.filter(start, selection, Math.min(capacity, size - start), survivors);
+                if (count + chunk > result.length)
+                    result = Arrays.copyOf(result, Math.min(size, Math.max(result.length * 2, count + chunk)));
+                for (int i = 0; i < chunk; i++)
+                    result[count++] = start + survivors[i];
+            }
+        } catch (EvaluationException e) {
+            e.setOwner(expression);
+            throw e;
+        }
+        
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+    
+}
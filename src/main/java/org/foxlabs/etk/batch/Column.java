@@ -0,0 +1,361 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public final class Column {
+    
+    static final int BOOLEAN = 0;
+    static final int INT     = 1;
+    static final int LONG    = 2;
+    static final int FLOAT   = 3;
+    static final int DOUBLE  = 4;
+    static final int OBJECT  = 5;
+    
+    final int kind;
+    final Class<?> type;
+    final int size;
+    
+    boolean[] booleans;
+    int[] ints;
+    long[] longs;
+    double[] doubles;
+    Object[] objects;
+    
+    // Bit is set for null rows, the array is allocated on demand
+    long[] nulls;
+    boolean nullable;
+    
+    Column(Class<?> type, int size) {
+        this.kind = kindOf(type);
+        this.type = type;
+        this.size = size;
+        switch (kind) {
+        case BOOLEAN:
+            booleans = new boolean[size];
+            break;
+        case INT:
+            ints = new int[size];
+            break;
+        case LONG:
+            longs = new long[size];
+            break;
+        case FLOAT:
+        case DOUBLE:
+            doubles = new double[size];
+            break;
+        default:
+            objects = new Object[size];
+        }
+    }
+    
+    private Column(Class<?> type, int size, BitSet nulls) {
+        this.kind = kindOf(type);
+        this.type = type;
+        this.size = size;
+        if (!(nulls == null || nulls.isEmpty())) {
+            if (nulls.length() > size)
+                throw new IllegalArgumentException();
+            this.nulls = Arrays.copyOf(nulls.toLongArray(), wordCount(size));
+            this.nullable = true;
+        }
+    }
+    
+    static int kindOf(Class<?> type) {
+        if (type == Boolean.class)
+            return BOOLEAN;
+        if (type == Integer.class)
+            return INT;
+        if (type == Long.class)
+            return LONG;
+        if (type == Float.class)
+            return FLOAT;
+        if (type == Double.class)
+            return DOUBLE;
+        return OBJECT;
+    }
+    
+    static int wordCount(int size) {
+        return (size + 63) >>> 6;
+    }
+    
+    // Factory methods
+    
+    public static Column of(boolean[] values) {
+        return of(values, null);
+    }
+    
+    public static Column of(boolean[] values, BitSet nulls) {
+        Column column = new Column(Boolean.class, values.length, nulls);
+        column.booleans = values;
+        return column;
+    }
+    
+    public static Column of(int[] values) {
+        return of(values, null);
+    }
+    
+    public static Column of(int[] values, BitSet nulls) {
+        Column column = new Column(Integer.class, values.length, nulls);
+        column.ints = values;
+        return column;
+    }
+    
+    public static Column of(long[] values) {
+        return of(values, null);
+    }
+    
+    public static Column of(long[] values, BitSet nulls) {
+        Column column = new Column(Long.class, values.length, nulls);
+        column.longs = values;
+        return column;
+    }
+    
+    public static Column of(float[] values) {
+        return of(values, null);
+    }
+    
+    public static Column of(float[] values, BitSet nulls) {
+        // Floats are kept widened, arithmetic rounds them back to float
+        Column column = new Column(Float.class, values.length, nulls);
+        column.doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            column.doubles[i] = values[i];
+        return column;
+    }
+    
+    public static Column of(double[] values) {
+        return of(values, null);
+    }
+    
+    public static Column of(double[] values, BitSet nulls) {
+        Column column = new Column(Double.class, values.length, nulls);
+        column.doubles = values;
+        return column;
+    }
+    
+    public static Column of(Object[] values, Class<?> type) {
+        if (kindOf(type) != OBJECT) {
+            Column column = new Column(type, values.length);
+            for (int i = 0; i < values.length; i++)
+                column.set(i, values[i]);
+            return column;
+        }
+        
+        Column column = new Column(type, values.length, null);
+        column.objects = values;
+        for (int i = 0; i < values.length; i++)
+            if (values[i] == null)
+                column.setNull(i);
+        return column;
+    }
+    
+    // Public interface
+    
+    public Class<?> getType() {
+        return type;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean hasNulls() {
+        if (nullable)
+            for (long word : nulls)
+                if (word != 0L)
+                    return true;
+        return false;
+    }
+    
+    public BitSet getNulls() {
+        return nullable ? BitSet.valueOf(nulls) : new BitSet();
+    }
+    
+    public boolean isNull(int row) {
+        return nullable && (nulls[row >>> 6] & (1L << row)) != 0L;
+    }
+    
+    public Object get(int row) {
+        if (isNull(row))
+            return null;
+        switch (kind) {
+        case BOOLEAN:
+            return Boolean.valueOf(booleans[row]);
+        case INT:
+            return Integer.valueOf(ints[row]);
+        case LONG:
+            return Long.valueOf(longs[row]);
+        case FLOAT:
+            return Float.valueOf((float) doubles[row]);
+        case DOUBLE:
+            return Double.valueOf(doubles[row]);
+        default:
+            return objects[row];
+        }
+    }
+    
+    public boolean getBoolean(int row) {
+        if (kind != BOOLEAN || isNull(row))
+            throw new ClassCastException();
+        return booleans[row];
+    }
+    
+    public int getInt(int row) {
+        if (kind != INT || isNull(row))
+            throw new ClassCastException();
+        return ints[row];
+    }
+    
+    public long getLong(int row) {
+        if (kind == INT)
+            return getInt(row);
+        if (kind != LONG || isNull(row))
+            throw new ClassCastException();
+        return longs[row];
+    }
+    
+    public double getDouble(int row) {
+        if (kind == INT || kind == LONG)
+            return getLong(row);
+        if ((kind != FLOAT && kind != DOUBLE) || isNull(row))
+            throw new ClassCastException();
+        return doubles[row];
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                buf.append(", ");
+            buf.append(get(i));
+        }
+        return buf.append(']').toString();
+    }
+    
+    // Internal interface
+    
+    void set(int row, Object value) {
+        if (value == null) {
+            setNull(row);
+            return;
+        }
+        
+        switch (kind) {
+        case BOOLEAN:
+            booleans[row] = ((Boolean) value).booleanValue();
+            break;
+        case INT:
+            ints[row] = ((Number) value).intValue();
+            break;
+        case LONG:
+            longs[row] = ((Number) value).longValue();
+            break;
+        case FLOAT:
+            doubles[row] = ((Number) value).floatValue();
+            break;
+        case DOUBLE:
+            doubles[row] = ((Number) value).doubleValue();
+            break;
+        default:
+            objects[row] = value;
+        }
+    }
+    
+    void setNull(int row) {
+        if (nulls == null)
+            nulls = new long[wordCount(size)];
+        nulls[row >>> 6] |= 1L << row;
+        nullable = true;
+    }
+    
+    void clearNulls() {
+        if (nullable) {
+            Arrays.fill(nulls, 0L);
+            nullable = false;
+        }
+    }
+    
+    int findNull(int[] selection, int count) {
+        if (nullable) {
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                if ((nulls[row >>> 6] & (1L << row)) != 0L)
+                    return row;
+            }
+        }
+        return -1;
+    }
+    
+    // Copies the selected rows of the source into rows shifted by offset
+    void copy(Column source, int sourceOffset, int[] selection, int count, int offset) {
+        int from = sourceOffset, to = offset;
+        if (kind != source.kind) {
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                set(row + to, source.get(row + from));
+            }
+            return;
+        }
+        
+        boolean dense = count == 0 || selection[count - 1] == count - 1;
+        switch (kind) {
+        case BOOLEAN:
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                booleans[row + to] = source.booleans[row + from];
+            }
+            break;
+        case INT:
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                ints[row + to] = source.ints[row + from];
+            }
+            break;
+        case LONG:
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                longs[row + to] = source.longs[row + from];
+            }
+            break;
+        case FLOAT:
+        case DOUBLE:
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                doubles[row + to] = source.doubles[row + from];
+            }
+            break;
+        default:
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                objects[row + to] = source.objects[row + from];
+            }
+        }
+        
+        if (source.nullable) {
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                if (source.isNull(row + from))
+                    setNull(row + to);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,843 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.resource.ResourceManager;
+import org.foxlabs.etk.support.Calculator;
+import org.foxlabs.etk.support.Comparator;
+import org.foxlabs.etk.support.Converter;
+
+import static org.foxlabs.etk.batch.Column.*;
+
+// Kernels evaluate a node for the selected rows of a chunk into their output
+// column, rows that are not selected are left undefined. Selections are
+// always ascending so that short circuit operators only evaluate operands
+// for the rows the tree walking evaluator would evaluate them for.
+abstract class Kernel {
+    
+    final Node node;
+    final Column out;
+    
+    Kernel(Node node, int capacity) {
+        this.node = node;
+        this.out = new Column(node.getType(), capacity);
+    }
+    
+    abstract void evaluate(int start, int[] selection, int count) throws EvaluationException;
+    
+    final void checkNotNull(Column column, int[] selection, int count) {
+        if (column.findNull(selection, count) >= 0)
+            throw new EvaluationException(node, ResourceManager.newNullPointerException());
+    }
+    
+    static boolean isDense(int[] selection, int count) {
+        return count == 0 || selection[count - 1] == count - 1;
+    }
+    
+    static boolean isNumeric(int kind) {
+        return kind == INT || kind == LONG || kind == FLOAT || kind == DOUBLE;
+    }
+    
+    // ConstantKernel
+    
+    static final class ConstantKernel extends Kernel {
+        
+        private final Environment context;
+        private boolean ready = false;
+        
+        ConstantKernel(Node node, int capacity, Environment context) {
+            super(node, capacity);
+            this.context = context;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            // Determined nodes are evaluated lazily so that failures in branches
+            // that are never taken do not fail the whole batch
+            if (!ready && count > 0) {
+                Object value = node.evaluate(context);
+                for (int i = 0; i < out.size; i++)
+                    out.set(i, value);
+                ready = true;
+            }
+        }
+        
+    }
+    
+    // ColumnKernel
+    
+    static final class ColumnKernel extends Kernel {
+        
+        private final Column column;
+        
+        ColumnKernel(Node node, int capacity, Column column) {
+            super(node, capacity);
+            this.column = column;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            out.clearNulls();
+            if (count == 0)
+                return;
+            
+            if (out.kind != column.kind) {
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    out.set(row, column.get(start + row));
+                }
+                return;
+            }
+            
+            // Selections are ascending so the chunk is copied up to the last row
+            int length = selection[count - 1] + 1;
+            switch (out.kind) {
+            case BOOLEAN:
+                System.arraycopy(column.booleans, start, out.booleans, 0, length);
+                break;
+            case INT:
+                System.arraycopy(column.ints, start, out.ints, 0, length);
+                break;
+            case LONG:
+                System.arraycopy(column.longs, start, out.longs, 0, length);
+                break;
+            case FLOAT:
+            case DOUBLE:
+                System.arraycopy(column.doubles, start, out.doubles, 0, length);
+                break;
+            default:
+                System.arraycopy(column.objects, start, out.objects, 0, length);
+            }
+            
+            if (column.nullable)
+                for (int row = 0; row < length; row++)
+                    if (column.isNull(start + row))
+                        out.setNull(row);
+        }
+        
+    }
+    
+    // RowKernel
+    
+    static final class RowKernel extends Kernel {
+        
+        private final RowEnvironment context;
+        
+        RowKernel(Node node, int capacity, RowEnvironment context) {
+            super(node, capacity);
+            this.context = context;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            out.clearNulls();
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                context.row = start + row;
+                out.set(row, node.evaluate(context));
+            }
+        }
+        
+    }
+    
+    // ConvertKernel
+    
+    static final class ConvertKernel extends Kernel {
+        
+        private final Converter converter;
+        private final Kernel operand;
+        
+        ConvertKernel(Node node, int capacity, Converter converter, Kernel operand) {
+            super(node, capacity);
+            this.converter = converter;
+            this.operand = operand;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            operand.evaluate(start, selection, count);
+            out.clearNulls();
+            
+            Column a = operand.out;
+            if (isNumeric(a.kind) && isNumeric(out.kind) && a.kind <= out.kind &&
+                    converter.getKind() != Converter.NARROWING) {
+                widen(a, selection, count);
+                return;
+            }
+            
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                try {
+                    out.set(row, converter.convert(a.get(row)));
+                } catch (Exception e) {
+                    throw new EvaluationException(node, e);
+                }
+            }
+        }
+        
+        private void widen(Column a, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            if (a.kind == out.kind || (a.kind == FLOAT && out.kind == DOUBLE)) {
+                out.copy(a, 0, selection, count, 0);
+                return;
+            }
+            
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                switch (out.kind) {
+                case LONG:
+                    out.longs[row] = a.ints[row];
+                    break;
+                case FLOAT:
+                    out.doubles[row] = a.kind == INT ? (float) a.ints[row] : (float) a.longs[row];
+                    break;
+                default:
+                    out.doubles[row] = a.kind == INT ? a.ints[row] : a.longs[row];
+                }
+            }
+            
+            // Widening conversions preserve nulls
+            if (a.nullable)
+                for (int i = 0; i < count; i++)
+                    if (a.isNull(selection[i]))
+                        out.setNull(selection[i]);
+        }
+        
+    }
+    
+    // ArithmeticKernel
+    
+    static final class ArithmeticKernel extends Kernel {
+        
+        static final int NEGATE   = 0;
+        static final int ADD      = 1;
+        static final int SUBTRACT = 2;
+        static final int MULTIPLY = 3;
+        
+        private final int operator;
+        private final Calculator calculator;
+        private final Kernel operand1;
+        private final Kernel operand2;
+        
+        ArithmeticKernel(Node node, int capacity, int operator, Calculator calculator,
+                Kernel operand1, Kernel operand2) {
+            super(node, capacity);
+            this.operator = operator;
+            this.calculator = calculator;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            operand1.evaluate(start, selection, count);
+            if (operand2 != null)
+                operand2.evaluate(start, selection, count);
+            out.clearNulls();
+            
+            Column a = operand1.out;
+            Column b = operand2 == null ? a : operand2.out;
+            if (out.kind == OBJECT || a.kind != out.kind || b.kind != out.kind) {
+                evaluateObjects(a, b, selection, count);
+                return;
+            }
+            
+            checkNotNull(a, selection, count);
+            checkNotNull(b, selection, count);
+            switch (out.kind) {
+            case INT:
+                evaluateInts(a.ints, b.ints, out.ints, selection, count);
+                break;
+            case LONG:
+                evaluateLongs(a.longs, b.longs, out.longs, selection, count);
+                break;
+            case FLOAT:
+                evaluateFloats(a.doubles, b.doubles, out.doubles, selection, count);
+                break;
+            default:
+                evaluateDoubles(a.doubles, b.doubles, out.doubles, selection, count);
+            }
+        }
+        
+        private void evaluateInts(int[] a, int[] b, int[] r, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            switch (operator) {
+            case NEGATE:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = -a[row];
+                }
+                break;
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] + b[row];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] - b[row];
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] * b[row];
+                }
+            }
+        }
+        
+        private void evaluateLongs(long[] a, long[] b, long[] r, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            switch (operator) {
+            case NEGATE:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = -a[row];
+                }
+                break;
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] + b[row];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] - b[row];
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] * b[row];
+                }
+            }
+        }
+        
+        // Floats are kept widened and rounded back after every operation
+        private void evaluateFloats(double[] a, double[] b, double[] r, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            switch (operator) {
+            case NEGATE:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = -(float) a[row];
+                }
+                break;
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = (float) a[row] + (float) b[row];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = (float) a[row] - (float) b[row];
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = (float) a[row] * (float) b[row];
+                }
+            }
+        }
+        
+        private void evaluateDoubles(double[] a, double[] b, double[] r, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            switch (operator) {
+            case NEGATE:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = -a[row];
+                }
+                break;
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] + b[row];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] - b[row];
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = a[row] * b[row];
+                }
+            }
+        }
+        
+        private void evaluateObjects(Column a, Column b, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                Object obj1 = a.get(row);
+                Object obj2 = b.get(row);
+                try {
+                    switch (operator) {
+                    case NEGATE:
+                        out.set(row, calculator.negate(obj1));
+                        break;
+                    case ADD:
+                        out.set(row, calculator.add(obj1, obj2));
+                        break;
+                    case SUBTRACT:
+                        out.set(row, calculator.subtract(obj1, obj2));
+                        break;
+                    default:
+                        out.set(row, calculator.multiply(obj1, obj2));
+                    }
+                } catch (Exception e) {
+                    throw new EvaluationException(node, e);
+                }
+            }
+        }
+        
+    }
+    
+    // CompareKernel
+    
+    static final class CompareKernel extends Kernel {
+        
+        private final Comparator comparator;
+        private final Kernel operand1;
+        private final Kernel operand2;
+        
+        // Results for the operands being less than, equal to and greater than
+        private final boolean lt, eq, gt;
+        
+        CompareKernel(Node node, int capacity, Comparator comparator, Kernel operand1, Kernel operand2,
+                boolean lt, boolean eq, boolean gt) {
+            super(node, capacity);
+            this.comparator = comparator;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+            this.lt = lt;
+            this.eq = eq;
+            this.gt = gt;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            operand1.evaluate(start, selection, count);
+            operand2.evaluate(start, selection, count);
+            out.clearNulls();
+            
+            Column a = operand1.out;
+            Column b = operand2.out;
+            int kind = Column.kindOf(comparator.getType());
+            if (!isNumeric(kind) || a.kind != kind || b.kind != kind) {
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    int c;
+                    try {
+                        c = comparator.compare(a.get(row), b.get(row));
+                    } catch (Exception e) {
+                        throw new EvaluationException(node, e);
+                    }
+                    out.booleans[row] = c < 0 ? lt : c > 0 ? gt : eq;
+                }
+                return;
+            }
+            
+            checkNotNull(a, selection, count);
+            checkNotNull(b, selection, count);
+            boolean[] r = out.booleans;
+            switch (kind) {
+            case INT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    int c = Integer.compare(a.ints[row], b.ints[row]);
+                    r[row] = c < 0 ? lt : c > 0 ? gt : eq;
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    int c = Long.compare(a.longs[row], b.longs[row]);
+                    r[row] = c < 0 ? lt : c > 0 ? gt : eq;
+                }
+                break;
+            case FLOAT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    int c = Float.compare((float) a.doubles[row], (float) b.doubles[row]);
+                    r[row] = c < 0 ? lt : c > 0 ? gt : eq;
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    int c = Double.compare(a.doubles[row], b.doubles[row]);
+                    r[row] = c < 0 ? lt : c > 0 ? gt : eq;
+                }
+            }
+        }
+        
+    }
+    
+    // NotKernel
+    
+    static final class NotKernel extends Kernel {
+        
+        private final Kernel operand;
+        
+        NotKernel(Node node, int capacity, Kernel operand) {
+            super(node, capacity);
+            this.operand = operand;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            operand.evaluate(start, selection, count);
+            checkNotNull(operand.out, selection, count);
+            boolean[] a = operand.out.booleans, r = out.booleans;
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                r[row] = !a[row];
+            }
+        }
+        
+    }
+    
+    // LogicalKernel
+    
+    static final class LogicalKernel extends Kernel {
+        
+        private final boolean and;
+        private final Kernel operand1;
+        private final Kernel operand2;
+        private final int[] subselection;
+        
+        LogicalKernel(Node node, int capacity, boolean and, Kernel operand1, Kernel operand2) {
+            super(node, capacity);
+            this.and = and;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+            this.subselection = new int[capacity];
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            operand1.evaluate(start, selection, count);
+            checkNotNull(operand1.out, selection, count);
+            
+            // Second operand is evaluated only for the rows it decides
+            boolean[] a = operand1.out.booleans, r = out.booleans;
+            int subcount = 0;
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                if (a[row] == and)
+                    subselection[subcount++] = row;
+                else
+                    r[row] = !and;
+            }
+            
+            if (subcount > 0) {
+                operand2.evaluate(start, subselection, subcount);
+                checkNotNull(operand2.out, subselection, subcount);
+                boolean[] b = operand2.out.booleans;
+                for (int i = 0; i < subcount; i++) {
+                    int row = subselection[i];
+                    r[row] = b[row];
+                }
+            }
+        }
+        
+    }
+    
+    // ConditionKernel
+    
+    static final class ConditionKernel extends Kernel {
+        
+        private final Kernel condition;
+        private final Kernel case1;
+        private final Kernel case2;
+        private final int[] selection1;
+        private final int[] selection2;
+        
+        ConditionKernel(Node node, int capacity, Kernel condition, Kernel case1, Kernel case2) {
+            super(node, capacity);
+            this.condition = condition;
+            this.case1 = case1;
+            this.case2 = case2;
+            this.selection1 = new int[capacity];
+            this.selection2 = new int[capacity];
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            condition.evaluate(start, selection, count);
+            checkNotNull(condition.out, selection, count);
+            
+            boolean[] flags = condition.out.booleans;
+            int count1 = 0, count2 = 0;
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                if (flags[row])
+                    selection1[count1++] = row;
+                else
+                    selection2[count2++] = row;
+            }
+            
+            out.clearNulls();
+            if (count1 > 0) {
+                case1.evaluate(start, selection1, count1);
+                out.copy(case1.out, 0, selection1, count1, 0);
+            }
+            if (count2 > 0) {
+                case2.evaluate(start, selection2, count2);
+                out.copy(case2.out, 0, selection2, count2, 0);
+            }
+        }
+        
+    }
+    
+    // MathKernel
+    
+    static final class MathKernel extends Kernel {
+        
+        static final int ABS   = 0;
+        static final int ACOS  = 1;
+        static final int ASIN  = 2;
+        static final int ATAN  = 3;
+        static final int CEIL  = 4;
+        static final int COS   = 5;
+        static final int COSH  = 6;
+        static final int EXP   = 7;
+        static final int FLOOR = 8;
+        static final int LOG   = 9;
+        static final int LOG10 = 10;
+        static final int SIN   = 11;
+        static final int SINH  = 12;
+        static final int SQRT  = 13;
+        static final int TAN   = 14;
+        static final int TANH  = 15;
+        static final int ATAN2 = 16;
+        static final int POWER = 17;
+        
+        private final int function;
+        private final Kernel[] arguments;
+        
+        MathKernel(Node node, int capacity, int function, Kernel[] arguments) {
+            super(node, capacity);
+            this.function = function;
+            this.arguments = arguments;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i].evaluate(start, selection, count);
+                if (arguments[i].out.findNull(selection, count) >= 0)
+                    throw new EvaluationException(node, ResourceManager.newNullPointerArgumentException(i + 1));
+            }
+            
+            if (function == ABS) {
+                evaluateAbs(arguments[0].out, selection, count);
+                return;
+            }
+            
+            double[] a = arguments[0].out.doubles, r = out.doubles;
+            switch (function) {
+            case ACOS:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.acos(a[row]);
+                }
+                break;
+            case ASIN:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.asin(a[row]);
+                }
+                break;
+            case ATAN:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.atan(a[row]);
+                }
+                break;
+            case CEIL:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.ceil(a[row]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.cos(a[row]);
+                }
+                break;
+            case COSH:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.cosh(a[row]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.exp(a[row]);
+                }
+                break;
+            case FLOOR:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.floor(a[row]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.log(a[row]);
+                }
+                break;
+            case LOG10:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.log10(a[row]);
+                }
+                break;
+            case SIN:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.sin(a[row]);
+                }
+                break;
+            case SINH:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.sinh(a[row]);
+                }
+                break;
+            case SQRT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.sqrt(a[row]);
+                }
+                break;
+            case TAN:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.tan(a[row]);
+                }
+                break;
+            case TANH:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.tanh(a[row]);
+                }
+                break;
+            case ATAN2: {
+                double[] b = arguments[1].out.doubles;
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.atan2(a[row], b[row]);
+                }
+                break;
+            }
+            default: {
+                double[] b = arguments[1].out.doubles;
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    r[row] = Math.pow(a[row], b[row]);
+                }
+            }
+            }
+        }
+        
+        private void evaluateAbs(Column a, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            switch (out.kind) {
+            case INT:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    out.ints[row] = Math.abs(a.ints[row]);
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    out.longs[row] = Math.abs(a.longs[row]);
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    int row = dense ? i : selection[i];
+                    out.doubles[row] = Math.abs(a.doubles[row]);
+                }
+            }
+        }
+        
+    }
+    
+    // FunctionKernel
+    
+    static final class FunctionKernel extends Kernel {
+        
+        private final Function function;
+        private final Kernel[] arguments;
+        private final RowEnvironment context;
+        
+        FunctionKernel(Node node, int capacity, Function function, Kernel[] arguments,
+                RowEnvironment context) {
+            super(node, capacity);
+            this.function = function;
+            this.arguments = arguments;
+            this.context = context;
+        }
+        
+        void evaluate(int start, int[] selection, int count) {
+            boolean dense = isDense(selection, count);
+            for (Kernel argument : arguments)
+                argument.evaluate(start, selection, count);
+            out.clearNulls();
+            
+            for (int i = 0; i < count; i++) {
+                int row = dense ? i : selection[i];
+                context.row = start + row;
+                try {
+                    if (arguments.length == 0) {
+                        out.set(row, function.evaluate(context));
+                    } else {
+                        Object[] argumentObjs = new Object[arguments.length];
+                        for (int j = 0; j < arguments.length; j++)
+                            argumentObjs[j] = arguments[j].out.get(row);
+                        out.set(row, function.evaluate(context, argumentObjs));
+                    }
+                } catch (Exception e) {
+                    throw new EvaluationException(node, e);
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,320 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.base.*;
+import org.foxlabs.etk.node.*;
+
+import org.foxlabs.etk.batch.Kernel.*;
+import org.foxlabs.etk.batch.Predicate.*;
+
+final class KernelBuilder implements NodeVisitor<RuntimeException> {
+    
+    private static final Map<Class<?>, Integer> mathFunctions = new HashMap<Class<?>, Integer>();
+    
+    static {
+        mathFunctions.put(Abs.IntegerImpl.class, MathKernel.ABS);
+        mathFunctions.put(Abs.LongImpl.class,    MathKernel.ABS);
+        mathFunctions.put(Abs.FloatImpl.class,   MathKernel.ABS);
+        mathFunctions.put(Abs.DoubleImpl.class,  MathKernel.ABS);
+        mathFunctions.put(Acos.class,            MathKernel.ACOS);
+        mathFunctions.put(Asin.class,            MathKernel.ASIN);
+        mathFunctions.put(Atan.class,            MathKernel.ATAN);
+        mathFunctions.put(Ceil.class,            MathKernel.CEIL);
+        mathFunctions.put(Cos.class,             MathKernel.COS);
+        mathFunctions.put(Cosh.class,            MathKernel.COSH);
+        mathFunctions.put(Exp.class,             MathKernel.EXP);
+        mathFunctions.put(Floor.class,           MathKernel.FLOOR);
+        mathFunctions.put(Log.class,             MathKernel.LOG);
+        mathFunctions.put(Log10.class,           MathKernel.LOG10);
+        mathFunctions.put(Sin.class,             MathKernel.SIN);
+        mathFunctions.put(Sinh.class,            MathKernel.SINH);
+        mathFunctions.put(Sqrt.class,            MathKernel.SQRT);
+        mathFunctions.put(Tan.class,             MathKernel.TAN);
+        mathFunctions.put(Tanh.class,            MathKernel.TANH);
+        mathFunctions.put(Atan2.class,           MathKernel.ATAN2);
+        mathFunctions.put(Power.class,           MathKernel.POWER);
+    }
+    
+    private final Batch batch;
+    private final Environment context;
+    private final RowEnvironment rowContext;
+    private final int capacity;
+    
+    private Kernel result;
+    
+    KernelBuilder(Batch batch, Environment context, int capacity) {
+        this.batch = batch;
+        this.context = context;
+        this.rowContext = new RowEnvironment(batch, context);
+        this.capacity = capacity;
+    }
+    
+    Kernel build(Node node) {
+        if (node.isDetermined())
+            return new ConstantKernel(node, capacity, context);
+        node.accept(this);
+        Kernel kernel = result;
+        result = null;
+        return kernel;
+    }
+    
+    Predicate buildPredicate(Node node) {
+        return buildPredicate(node, node);
+    }
+    
+    // Owner is the node that fails when the predicate yields null
+    private Predicate buildPredicate(Node node, Node owner) {
+        if (!node.isDetermined()) {
+            if (node instanceof AndNode) {
+                List<Predicate> operands = new ArrayList<Predicate>();
+                flatten((AndNode) node, operands);
+                return new ConjunctionPredicate(operands.toArray(new Predicate[operands.size()]), capacity);
+            }
+            if (node instanceof OrNode) {
+                List<Predicate> operands = new ArrayList<Predicate>();
+                flatten((OrNode) node, operands);
+                return new DisjunctionPredicate(operands.toArray(new Predicate[operands.size()]), capacity);
+            }
+            if (node instanceof NotNode) {
+                Predicate operand = buildPredicate(((NotNode) node).getOperand(), node);
+                return new NegationPredicate(operand, capacity);
+            }
+        }
+        return new KernelPredicate(build(node), owner);
+    }
+    
+    private void flatten(LogicalNode node, List<Predicate> operands) {
+        BinaryNode chain = (BinaryNode) node;
+        for (Node operand : new Node[] {chain.getOperand1(), chain.getOperand2()}) {
+            if (operand.getClass() == node.getClass() && !operand.isDetermined())
+                flatten((LogicalNode) operand, operands);
+            else
+                operands.add(buildPredicate(operand, chain));
+        }
+    }
+    
+    private Kernel[] build(Node[] nodes) {
+        Kernel[] kernels = new Kernel[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            kernels[i] = build(nodes[i]);
+        return kernels;
+    }
+    
+    private static boolean isBoolean(Kernel kernel) {
+        return kernel.out.kind == Column.BOOLEAN;
+    }
+    
+    private void fallback(Node node) {
+        result = new RowKernel(node, capacity, rowContext);
+    }
+    
+    // Literals
+    
+    public void visit(NullNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(TrueNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(FalseNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(EnumNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(CharNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(NumberNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(StringNode node) {
+        result = new ConstantKernel(node, capacity, context);
+    }
+    
+    public void visit(VariableNode node) {
+        Column column = batch.getColumn(node.getVariableName());
+        if (column == null) {
+            fallback(node);
+        } else {
+            // Primitive columns bind to variables of the same type only
+            int kind = Column.kindOf(node.getType());
+            if (!(kind == column.kind || kind == Column.OBJECT))
+                throw new IllegalArgumentException(node.getVariableName());
+            result = new ColumnKernel(node, capacity, column);
+        }
+    }
+    
+    // Operators
+    
+    public void visit(ArrayNode node) {
+        fallback(node);
+    }
+    
+    public void visit(FunctionNode node) {
+        Function function = node.getFunction();
+        Kernel[] arguments = build(node.getArguments());
+        
+        Integer math = mathFunctions.get(function.getClass());
+        if (math != null) {
+            int kind = Column.kindOf(node.getType());
+            boolean vectorizable = true;
+            for (Kernel argument : arguments)
+                vectorizable &= argument.out.kind == kind;
+            if (vectorizable) {
+                result = new MathKernel(node, capacity, math.intValue(), arguments);
+                return;
+            }
+        }
+        
+        result = new FunctionKernel(node, capacity, function, arguments, rowContext);
+    }
+    
+    public void visit(CastNode node) {
+        fallback(node);
+    }
+    
+    public void visit(ConvertNode node) {
+        result = new ConvertKernel(node, capacity, node.getConverter(), build(node.getOperand()));
+    }
+    
+    public void visit(NegateNode node) {
+        result = new ArithmeticKernel(node, capacity, ArithmeticKernel.NEGATE,
+                node.getCalculator(), build(node.getOperand()), null);
+    }
+    
+    public void visit(AddNode node) {
+        result = new ArithmeticKernel(node, capacity, ArithmeticKernel.ADD,
+                node.getCalculator(), build(node.getOperand1()), build(node.getOperand2()));
+    }
+    
+    public void visit(SubtractNode node) {
+        result = new ArithmeticKernel(node, capacity, ArithmeticKernel.SUBTRACT,
+                node.getCalculator(), build(node.getOperand1()), build(node.getOperand2()));
+    }
+    
+    public void visit(MultiplyNode node) {
+        result = new ArithmeticKernel(node, capacity, ArithmeticKernel.MULTIPLY,
+                node.getCalculator(), build(node.getOperand1()), build(node.getOperand2()));
+    }
+    
+    public void visit(DivideNode node) {
+        fallback(node);
+    }
+    
+    public void visit(ModuloNode node) {
+        fallback(node);
+    }
+    
+    public void visit(EqualNode node) {
+        fallback(node);
+    }
+    
+    public void visit(NotEqualNode node) {
+        fallback(node);
+    }
+    
+    public void visit(GreaterThanNode node) {
+        result = new CompareKernel(node, capacity, node.getComparator(),
+                build(node.getOperand1()), build(node.getOperand2()), false, false, true);
+    }
+    
+    public void visit(GreaterThanEqualNode node) {
+        result = new CompareKernel(node, capacity, node.getComparator(),
+                build(node.getOperand1()), build(node.getOperand2()), false, true, true);
+    }
+    
+    public void visit(LessThanNode node) {
+        result = new CompareKernel(node, capacity, node.getComparator(),
+                build(node.getOperand1()), build(node.getOperand2()), true, false, false);
+    }
+    
+    public void visit(LessThanEqualNode node) {
+        result = new CompareKernel(node, capacity, node.getComparator(),
+                build(node.getOperand1()), build(node.getOperand2()), true, true, false);
+    }
+    
+    public void visit(NotNode node) {
+        Kernel operand = build(node.getOperand());
+        if (isBoolean(operand))
+            result = new NotKernel(node, capacity, operand);
+        else
+            fallback(node);
+    }
+    
+    public void visit(AndNode node) {
+        Kernel operand1 = build(node.getOperand1());
+        Kernel operand2 = build(node.getOperand2());
+        if (isBoolean(operand1) && isBoolean(operand2))
+            result = new LogicalKernel(node, capacity, true, operand1, operand2);
+        else
+            fallback(node);
+    }
+    
+    public void visit(OrNode node) {
+        Kernel operand1 = build(node.getOperand1());
+        Kernel operand2 = build(node.getOperand2());
+        if (isBoolean(operand1) && isBoolean(operand2))
+            result = new LogicalKernel(node, capacity, false, operand1, operand2);
+        else
+            fallback(node);
+    }
+    
+    public void visit(ConditionNode node) {
+        Kernel condition = build(node.getOperand1());
+        if (isBoolean(condition))
+            result = new ConditionKernel(node, capacity, condition,
+                    build(node.getOperand2()), build(node.getOperand3()));
+        else
+            fallback(node);
+    }
+    
+    public void visit(ConcatNode node) {
+        fallback(node);
+    }
+    
+    public void visit(IndexNode node) {
+        fallback(node);
+    }
+    
+    public void visit(PropertyNode node) {
+        fallback(node);
+    }
+    
+    public void visit(MethodNode node) {
+        fallback(node);
+    }
+    
+    public void visit(InNode node) {
+        fallback(node);
+    }
+    
+}
@@ -0,0 +1,193 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.resource.ResourceManager;
+import org.foxlabs.etk.support.Operator;
+
+// Predicates narrow an ascending selection down to the rows for which a
+// boolean node is true, operands of AND and OR chains run only on the rows
+// that are still undecided
+abstract class Predicate {
+    
+    Predicate() {}
+    
+    // Writes surviving rows into result and returns their count
+    abstract int filter(int start, int[] selection, int count, int[] result)
+            throws EvaluationException;
+    
+    // KernelPredicate
+    
+    static final class KernelPredicate extends Predicate {
+        
+        private final Kernel kernel;
+        private final Node owner;
+        
+        KernelPredicate(Kernel kernel, Node owner) {
+            this.kernel = kernel;
+            this.owner = owner;
+        }
+        
+        int filter(int start, int[] selection, int count, int[] result) {
+            kernel.evaluate(start, selection, count);
+            
+            Column out = kernel.out;
+            if (out.kind != Column.BOOLEAN)
+                return filterObjects(out, selection, count, result);
+            if (out.findNull(selection, count) >= 0)
+                throw new EvaluationException(owner, ResourceManager.newNullPointerException());
+            
+            boolean[] flags = out.booleans;
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                if (flags[row])
+                    result[size++] = row;
+            }
+            return size;
+        }
+        
+        private int filterObjects(Column out, int[] selection, int count, int[] result) {
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                boolean flag;
+                try {
+                    flag = Operator.safeBooleanValueOf(out.get(row));
+                } catch (Exception e) {
+                    throw new EvaluationException(owner, e);
+                }
+                if (flag)
+                    result[size++] = row;
+            }
+            return size;
+        }
+        
+    }
+    
+    // ConjunctionPredicate
+    
+    static final class ConjunctionPredicate extends Predicate {
+        
+        private final Predicate[] operands;
+        private final int[] buffer1;
+        private final int[] buffer2;
+        
+        ConjunctionPredicate(Predicate[] operands, int capacity) {
+            this.operands = operands;
+            this.buffer1 = new int[capacity];
+            this.buffer2 = new int[capacity];
+        }
+        
+        int filter(int start, int[] selection, int count, int[] result) {
+            int[] survivors = selection;
+            for (int i = 0; i < operands.length && count > 0; i++) {
+                int[] target = survivors == buffer1 ? buffer2 : buffer1;
+                count = operands[i].filter(start, survivors, count, target);
+                survivors = target;
+            }
+            System.arraycopy(survivors, 0, result, 0, count);
+            return count;
+        }
+        
+    }
+    
+    // DisjunctionPredicate
+    
+    static final class DisjunctionPredicate extends Predicate {
+        
+        private final Predicate[] operands;
+        private final int[] buffer1;
+        private final int[] buffer2;
+        private final int[] accepted;
+        private final boolean[] flags;
+        
+        DisjunctionPredicate(Predicate[] operands, int capacity) {
+            this.operands = operands;
+            this.buffer1 = new int[capacity];
+            this.buffer2 = new int[capacity];
+            this.accepted = new int[capacity];
+            this.flags = new boolean[capacity];
+        }
+        
+        int filter(int start, int[] selection, int count, int[] result) {
+            // Rows accepted by an operand are not passed to the next one
+            int[] remaining = selection;
+            int remainingCount = count;
+            for (int i = 0; i < operands.length && remainingCount > 0; i++) {
+                int acceptedCount = operands[i].filter(start, remaining, remainingCount, accepted);
+                if (acceptedCount == 0)
+                    continue;
+                
+                int[] target = remaining == buffer1 ? buffer2 : buffer1;
+                int size = 0;
+                for (int j = 0, k = 0; j < remainingCount; j++) {
+                    int row = remaining[j];
+                    if (k < acceptedCount && accepted[k] == row) {
+                        flags[row] = true;
+                        k++;
+                    } else {
+                        target[size++] = row;
+                    }
+                }
+                remaining = target;
+                remainingCount = size;
+            }
+            
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                int row = selection[i];
+                if (flags[row]) {
+                    flags[row] = false;
+                    result[size++] = row;
+                }
+            }
+            return size;
+        }
+        
+    }
+    
+    // NegationPredicate
+    
+    static final class NegationPredicate extends Predicate {
+        
+        private final Predicate operand;
+        private final int[] buffer;
+        
+        NegationPredicate(Predicate operand, int capacity) {
+            this.operand = operand;
+            this.buffer = new int[capacity];
+        }
+        
+        int filter(int start, int[] selection, int count, int[] result) {
+            int survivors = operand.filter(start, selection, count, buffer);
+            int size = 0;
+            for (int i = 0, j = 0; i < count; i++) {
+                int row = selection[i];
+                if (j < survivors && buffer[j] == row)
+                    j++;
+                else
+                    result[size++] = row;
+            }
+            return size;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,125 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.batch;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EtkException;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.bean.BeanEntity;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.variable.VariableNotFoundException;
+import org.foxlabs.etk.variable.VariableTable;
+
+// Exposes a single row of the batch as variables for the nodes that are
+// evaluated row at a time
+final class RowEnvironment implements Environment, VariableTable {
+    
+    private final Batch batch;
+    private final Environment parent;
+    
+    int row;
+    
+    RowEnvironment(Batch batch, Environment parent) {
+        this.batch = batch;
+        this.parent = parent;
+    }
+    
+    // VariableTable
+    
+    public boolean hasVariable(String name) {
+        if (batch.getColumn(name) != null)
+            return true;
+        VariableTable table = parent.getVariableTable();
+        return table != null && table.hasVariable(name);
+    }
+    
+    public Iterator<String> getVariableNames() {
+        Set<String> names = new LinkedHashSet<String>(batch.getColumns().keySet());
+        VariableTable table = parent.getVariableTable();
+        if (table != null)
+            for (Iterator<String> i = table.getVariableNames(); i.hasNext();)
+                names.add(i.next());
+        return names.iterator();
+    }
+    
+    public Class<?> getVariableType(String name) throws VariableNotFoundException {
+        Column column = batch.getColumn(name);
+        if (column != null)
+            return column.getType();
+        VariableTable table = parent.getVariableTable();
+        if (table == null)
+            throw new VariableNotFoundException(name);
+        return table.getVariableType(name);
+    }
+    
+    public Object resolveVariable(String name, Environment context)
+            throws VariableNotFoundException, EvaluationException {
+        Column column = batch.getColumn(name);
+        if (column != null)
+            return column.get(row);
+        VariableTable table = parent.getVariableTable();
+        if (table == null)
+            throw new VariableNotFoundException(name);
+        return table.resolveVariable(name, parent);
+    }
+    
+    // Environment
+    
+    public ClassLoader getClassLoader() {
+        return parent.getClassLoader();
+    }
+    
+    public Class<?> resolveType(String name) throws EtkException {
+        return parent.resolveType(name);
+    }
+    
+    public Enum<?> resolveEnum(Class<?> type, String name) throws EtkException {
+        return parent.resolveEnum(type, name);
+    }
+    
+    public VariableTable getVariableTable() {
+        return this;
+    }
+    
+    public Object resolveVariable(String name) throws EtkException {
+        return resolveVariable(name, this);
+    }
+    
+    public FunctionLoader getFunctionLoader() {
+        return parent.getFunctionLoader();
+    }
+    
+    public Function resolveFunction(Signature signature) throws EtkException {
+        return parent.resolveFunction(signature);
+    }
+    
+    public BeanManager getBeanManager() {
+        return parent.getBeanManager();
+    }
+    
+    public BeanEntity resolveEntity(Class<?> type) throws EtkException {
+        return parent.resolveEntity(type);
+    }
+    
+}
@@ -16,6 +16,8 @@
 
 package org.foxlabs.etk.bean;
 
+import java.lang.ref.WeakReference;
+
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
@@ -25,10 +27,14 @@ import java.util.TreeSet;
 
 import org.foxlabs.etk.EtkException;
 import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.support.Symbol;
 
 public final class BeanEntity {
     
-    private final BeanManager manager;
+    // Entities are cached by the manager in class values, which must not be
+    // reachable from their values, or they are never expunged
+    private final WeakReference<BeanManager> manager;
+    private final boolean caseSensitive;
     
     private final Class<?> type;
     private BeanEntity parent;
@@ -40,7 +46,8 @@ public final class BeanEntity {
                          Class<?> type,
                          PropertyAccessor[] properties,
                          MethodAccessor[] methods) {
-        this.manager = manager;
+        this.manager = new WeakReference<BeanManager>(manager);
+        this.caseSensitive = manager.isCaseSensitive();
         this.type = type;
         
         propertyMap = new HashMap<String, PropertyAccessor>();
@@ -64,8 +71,9 @@ public final class BeanEntity {
         this.parent = parent;
     }
     
+    // Null if the manager is no longer used
     public BeanManager getBeanManager() {
-        return manager;
+        return manager.get();
     }
     
     public Class<?> getType() {
@@ -83,6 +91,9 @@ public final class BeanEntity {
         if (type == null)
             return this;
         
+        BeanManager manager = this.manager.get();
+        if (manager == null)
+            throw new IllegalStateException();
         try {
             return manager.getBeanEntity(type, false);
         } catch (BeanNotFoundException e) {
@@ -134,7 +145,7 @@ public final class BeanEntity {
     }
     
     private void copyPropertyAccessors(Map<String, PropertyAccessor> accessors) {
-        if (manager.isCaseSensitive()) {
+        if (caseSensitive) {
             accessors.putAll(propertyMap);
         } else {
             for (PropertyAccessor accessor : propertyMap.values())
@@ -213,7 +224,7 @@ public final class BeanEntity {
     }
     
     private void copyMethodAccessors(Map<Signature, MethodAccessor> accessors) {
-        if (manager.isCaseSensitive()) {
+        if (caseSensitive) {
             accessors.putAll(methodMap);
         } else {
             for (MethodAccessor accessor : methodMap.values())
@@ -222,11 +233,11 @@ public final class BeanEntity {
     }
     
     private String internalNameOf(String name) {
-        return manager.isCaseSensitive() ? name : name.toUpperCase();
+        return caseSensitive ? name : Symbol.fold(name);
     }
     
     private Signature internalSignatureOf(Signature signature) {
-        return manager.isCaseSensitive() ? signature : signature.toCaseInsensitive();
+        return caseSensitive ? signature : signature.toCaseInsensitive();
     }
     
 }
@@ -16,12 +16,14 @@
 
 package org.foxlabs.etk.bean;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.WeakHashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.foxlabs.etk.EtkException;
 import org.foxlabs.etk.support.Signature;
@@ -32,17 +34,28 @@ public abstract class BeanManager {
     protected static final PropertyAccessor[] NO_PROPERTIES = new PropertyAccessor[0];
     protected static final MethodAccessor[] NO_METHODS = new MethodAccessor[0];
     
-    private static BeanManager defaultRootManager;
+    public static final double DEFAULT_PROPERTY_COST = 3D;
+    public static final double DEFAULT_METHOD_COST = 10D;
+    
+    // Created once on first use, the class initialization is thread safe
+    private static final class DefaultRootManager {
+        static final BeanManager INSTANCE = new DefaultBeanManager();
+    }
     
     public static BeanManager getDefaultRootManager() {
-        if (defaultRootManager == null)
-            defaultRootManager = new DefaultBeanManager();
-        return defaultRootManager;
+        return DefaultRootManager.INSTANCE;
     }
     
     private BeanManager parent;
     private final boolean caseSensitive;
-    private Map<Class<?>, BeanEntity> cache = new HashMap<Class<?>, BeanEntity>();
+    
+    // Entries are stored in the classes themselves and do not prevent
+    // class loaders from being collected
+    private volatile ClassValue<CacheEntry> cache = new EntityCache();
+    private final Map<Class<?>, Boolean> cachedTypes =
+        Collections.synchronizedMap(new WeakHashMap<Class<?>, Boolean>());
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
     
     protected BeanManager() {
         this(null, true);
@@ -72,35 +85,47 @@ public abstract class BeanManager {
     
     public final BeanEntity getBeanEntity(Class<?> type, boolean recurse)
             throws BeanNotFoundException, EtkException {
-        BeanEntity entity;
-        
         // First, check if the bean entity has already been loaded.
-        synchronized (cache) {
-            entity = cache.get(type);
+        CacheEntry entry = cache.get(type);
+        BeanEntity entity = entry.entity;
+        // Types known to have no entity are not looked up under the lock
+        if (entity != null || entry.notFound) {
+            hitCount.increment();
+        } else {
+            entity = loadBeanEntity(entry);
         }
         if (entity != null)
             return entity;
         
-        try {
-            entity = findBeanEntity(type);
-            
-            synchronized (cache) {
-                cache.put(type, entity);
-            }
-            
-            return entity;
-        } catch (BeanNotFoundException e) {
-            // Still not found.
-            if (recurse) {
-                if (parent != null)
-                    return parent.getBeanEntity(type, true);
-            }
+        // Still not found.
+        if (recurse) {
+            if (parent != null)
+                return parent.getBeanEntity(type, true);
         }
         
         // Bean entity could not be found.
         throw new BeanNotFoundException(type);
     }
     
+    private BeanEntity loadBeanEntity(CacheEntry entry) throws EtkException {
+        // Only one thread introspects the type, others wait for its result
+        synchronized (entry) {
+            if (entry.entity != null || entry.notFound) {
+                hitCount.increment();
+                return entry.entity;
+            }
+            
+            missCount.increment();
+            try {
+                entry.entity = findBeanEntity(entry.type);
+                cachedTypes.put(entry.type, Boolean.TRUE);
+            } catch (BeanNotFoundException e) {
+                entry.notFound = true;
+            }
+            return entry.entity;
+        }
+    }
+    
     protected BeanEntity findBeanEntity(Class<?> type)
             throws BeanNotFoundException, EtkException {
         throw new BeanNotFoundException(type);
@@ -116,6 +141,16 @@ public abstract class BeanManager {
         return getBeanEntity(type).getMethodAccessor(signature);
     }
     
+    // Costs
+    
+    public double getPropertyCost(PropertyAccessor accessor) {
+        return DEFAULT_PROPERTY_COST;
+    }
+    
+    public double getMethodCost(MethodAccessor accessor) {
+        return DEFAULT_METHOD_COST;
+    }
+    
     public final Set<Class<?>> getAvailableTypes() throws EtkException {
         return getAvailableTypes(true, false);
     }
@@ -143,8 +178,8 @@ public abstract class BeanManager {
         while (i.hasNext())
             types.add(i.next());
         
-        synchronized (cache) {
-            types.addAll(cache.keySet());
+        synchronized (cachedTypes) {
+            types.addAll(cachedTypes.keySet());
         }
         
         return true;
@@ -158,11 +193,48 @@ public abstract class BeanManager {
         cleanup(true);
     }
     
-    public synchronized final void cleanup(boolean recurse) {
-        cache.clear();
+    public final void cleanup(boolean recurse) {
+        // Entries of the replaced cache are expunged with it
+        cache = new EntityCache();
+        cachedTypes.clear();
         
         if (recurse && parent != null)
             parent.cleanup(true);
     }
     
+    public final long getCacheHitCount() {
+        return hitCount.sum();
+    }
+    
+    public final long getCacheMissCount() {
+        return missCount.sum();
+    }
+    
+    public final void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+    }
+    
+    // EntityCache
+    
+    static final class EntityCache extends ClassValue<CacheEntry> {
+        
+        protected CacheEntry computeValue(Class<?> type) {
+            return new CacheEntry(type);
+        }
+        
+    }
+    
+    static final class CacheEntry {
+        
+        final Class<?> type;
+        volatile BeanEntity entity;
+        volatile boolean notFound;
+        
+        CacheEntry(Class<?> type) {
+            this.type = type;
+        }
+        
+    }
+    
 }
@@ -22,10 +22,20 @@ import java.beans.IntrospectionException;
 import java.beans.PropertyDescriptor;
 import java.beans.MethodDescriptor;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.function.Function;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.annotation.Cost;
 import org.foxlabs.etk.annotation.Determined;
 import org.foxlabs.etk.support.Signature;
 import org.foxlabs.etk.support.Types;
@@ -59,33 +69,101 @@ public class DefaultBeanManager extends BeanManager {
                               getMethodAccessors(type, info));
     }
     
-    private static PropertyAccessor[] getPropertyAccessors(BeanInfo info) {
+    private PropertyAccessor[] getPropertyAccessors(BeanInfo info) {
         PropertyDescriptor[] properties = info.getPropertyDescriptors();
         if (properties.length == 0)
             return NO_PROPERTIES;
         
         PropertyAccessor[] accessors = new PropertyAccessor[properties.length];
         for (int i = 0, count = properties.length; i < count; i++)
-            accessors[i] = new DefaultPropertyAccessor(properties[i]);
+            accessors[i] = createPropertyAccessor(properties[i]);
         
         return accessors;
     }
     
-    private static MethodAccessor[] getMethodAccessors(Class<?> type, BeanInfo info) {
+    private MethodAccessor[] getMethodAccessors(Class<?> type, BeanInfo info) {
         MethodDescriptor[] methods = info.getMethodDescriptors();
         if (methods.length == 0)
             return NO_METHODS;
         
         MethodAccessor[] accessors = new MethodAccessor[methods.length];
         for (int i = 0, count = methods.length; i < count; i++)
-            accessors[i] = new DefaultMethodAccessor(type, methods[i]);
+            accessors[i] = createMethodAccessor(type, methods[i]);
         
         return accessors;
     }
     
+    protected PropertyAccessor createPropertyAccessor(PropertyDescriptor descriptor) {
+        Method getter = descriptor.getReadMethod();
+        if (getter != null) {
+            if (isLinkable(getter)) {
+                try {
+                    return new FunctionPropertyAccessor(descriptor);
+                } catch (Throwable e) {
+                    // Fall back to method handle
+                }
+            }
+            try {
+                return new HandlePropertyAccessor(descriptor);
+            } catch (Throwable e) {
+                // Fall back to reflection
+            }
+        }
+        return new DefaultPropertyAccessor(descriptor);
+    }
+    
+    protected MethodAccessor createMethodAccessor(Class<?> type, MethodDescriptor descriptor) {
+        try {
+            return new HandleMethodAccessor(type, descriptor);
+        } catch (Throwable e) {
+            return new DefaultMethodAccessor(type, descriptor);
+        }
+    }
+    
+    public double getPropertyCost(PropertyAccessor accessor) {
+        Cost cost = getCostAnnotation(accessor);
+        return cost == null ? super.getPropertyCost(accessor) : cost.value();
+    }
+    
+    public double getMethodCost(MethodAccessor accessor) {
+        Cost cost = getCostAnnotation(accessor);
+        return cost == null ? super.getMethodCost(accessor) : cost.value();
+    }
+    
+    private static Cost getCostAnnotation(Object accessor) {
+        if (accessor instanceof ReflectiveAccessor) {
+            Method method = ((ReflectiveAccessor) accessor).getMethod();
+            return method == null ? null : method.getAnnotation(Cost.class);
+        }
+        return null;
+    }
+    
+    // Generated classes are defined in the class loader of this class and
+    // must not link to classes loaded by its children
+    private static boolean isLinkable(Method method) {
+        if (Modifier.isStatic(method.getModifiers()))
+            return false;
+        
+        Class<?> type = method.getDeclaringClass();
+        try {
+            ClassLoader cl = DefaultBeanManager.class.getClassLoader();
+            return Class.forName(type.getName(), false, cl) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+    
 }
 
-class DefaultPropertyAccessor implements PropertyAccessor {
+interface ReflectiveAccessor {
+    
+    Method getMethod();
+    
+}
+
+class DefaultPropertyAccessor implements PropertyAccessor, ReflectiveAccessor {
     
     private final Class<?> type;
     private final String name;
@@ -108,7 +186,7 @@ class DefaultPropertyAccessor implements PropertyAccessor {
     public Object resolve(Environment context, Object target)
             throws Throwable {
         try {
-            return getter.invoke(context, target);
+            return getter.invoke(target);
         } catch (InvocationTargetException e) {
             throw e.getTargetException();
         }
@@ -118,9 +196,13 @@ class DefaultPropertyAccessor implements PropertyAccessor {
         return getter.isAnnotationPresent(Determined.class);
     }
     
+    public Method getMethod() {
+        return getter;
+    }
+    
 }
 
-class DefaultMethodAccessor implements MethodAccessor {
+class DefaultMethodAccessor implements MethodAccessor, ReflectiveAccessor {
     
     private final Class<?> type;
     private final Signature signature;
@@ -145,7 +227,7 @@ class DefaultMethodAccessor implements MethodAccessor {
     public Object invoke(Environment context, Object target, Object... arguments)
             throws Throwable {
         try {
-            return method.invoke(context, target, arguments);
+            return method.invoke(target, arguments);
         } catch (InvocationTargetException e) {
             throw e.getTargetException();
         }
@@ -155,4 +237,142 @@ class DefaultMethodAccessor implements MethodAccessor {
         return method.isAnnotationPresent(Determined.class);
     }
     
+    public Method getMethod() {
+        return method;
+    }
+    
+}
+
+class FunctionPropertyAccessor implements PropertyAccessor, ReflectiveAccessor {
+    
+    private final Class<?> type;
+    private final String name;
+    private final Method getter;
+    private final Function<Object, Object> function;
+    
+    @SuppressWarnings("unchecked")
+    public FunctionPropertyAccessor(PropertyDescriptor descriptor) throws Throwable {
+        this.type = Types.wrapperOf(descriptor.getPropertyType());
+        this.name = descriptor.getName();
+        this.getter = descriptor.getReadMethod();
+        
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(getter);
+        CallSite site = LambdaMetafactory.metafactory(lookup,
+                "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                handle,
+                handle.type().wrap());
+        this.function = (Function<Object, Object>) site.getTarget().invokeExact();
+    }
+    
+    public Class<?> getType() {
+        return type;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Object resolve(Environment context, Object target)
+            throws Throwable {
+        return function.apply(target);
+    }
+    
+    public boolean isDetermined() {
+        return getter.isAnnotationPresent(Determined.class);
+    }
+    
+    public Method getMethod() {
+        return getter;
+    }
+    
+}
+
+class HandlePropertyAccessor implements PropertyAccessor, ReflectiveAccessor {
+    
+    private final Class<?> type;
+    private final String name;
+    private final Method getter;
+    private final MethodHandle handle;
+    
+    public HandlePropertyAccessor(PropertyDescriptor descriptor) throws Throwable {
+        this.type = Types.wrapperOf(descriptor.getPropertyType());
+        this.name = descriptor.getName();
+        this.getter = descriptor.getReadMethod();
+        
+        MethodHandle handle = MethodHandles.publicLookup().unreflect(getter);
+        if (Modifier.isStatic(getter.getModifiers()))
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        this.handle = handle.asType(MethodType.methodType(Object.class, Object.class));
+    }
+    
+    public Class<?> getType() {
+        return type;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Object resolve(Environment context, Object target)
+            throws Throwable {
+        return handle.invokeExact(target);
+    }
+    
+    public boolean isDetermined() {
+        return getter.isAnnotationPresent(Determined.class);
+    }
+    
+    public Method getMethod() {
+        return getter;
+    }
+    
+}
+
+class HandleMethodAccessor implements MethodAccessor, ReflectiveAccessor {
+    
+    private final Class<?> type;
+    private final Signature signature;
+    private final Method method;
+    private final MethodHandle handle;
+    
+    public HandleMethodAccessor(Class<?> type, MethodDescriptor descriptor) throws Throwable {
+        this.method = descriptor.getMethod();
+        this.type = Types.wrapperOf(method.getReturnType());
+        this.signature = new Signature(descriptor.getName(),
+                                       Types.toString(type),
+                                       method.getParameterTypes());
+        
+        MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+        if (Modifier.isStatic(method.getModifiers()))
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        // Variable arity methods take their trailing array as is, like reflection does
+        this.handle = handle.asFixedArity()
+            .asSpreader(Object[].class, method.getParameterTypes().length)
+            .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+    }
+    
+    public Class<?> getType() {
+        return type;
+    }
+    
+    public Signature getSignature() {
+        return signature;
+    }
+    
+    public Object invoke(Environment context, Object target, Object... arguments)
+            throws Throwable {
+        return handle.invokeExact(target, arguments);
+    }
+    
+    public boolean isDetermined() {
+        return method.isAnnotationPresent(Determined.class);
+    }
+    
+    public Method getMethod() {
+        return method;
+    }
+    
 }
@@ -0,0 +1,388 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.codec;
+
+import java.lang.ref.WeakReference;
+
+import java.io.Reader;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.variable.VariableTable;
+
+// Hits take no lock. Entries are stamped with a clock that advances on every
+// miss, so the eviction order is least recently used up to hits that happen
+// between the same two misses. Cached node trees are immutable and shared,
+// but every call returns its own Expression, so that setSource() of one
+// caller is never seen by another.
+public class CachingExpressionDecoder extends ExpressionDecoder {
+    
+    private final ExpressionDecoder decoder;
+    private final int maximumSize;
+    private final boolean weakValues;
+    
+    private final ConcurrentHashMap<CacheKey, CacheEntry> cache =
+        new ConcurrentHashMap<CacheKey, CacheEntry>();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    
+    public CachingExpressionDecoder(int maximumSize) {
+        this(ExpressionDecoder.getDefault(), maximumSize, false);
+    }
+    
+    public CachingExpressionDecoder(ExpressionDecoder decoder, int maximumSize, boolean weakValues) {
+        if (decoder == null)
+            throw new NullPointerException();
+        if (maximumSize < 0)
+            throw new IllegalArgumentException();
+        
+        this.decoder = decoder;
+        this.maximumSize = maximumSize;
+        this.weakValues = weakValues;
+    }
+    
+    public final ExpressionDecoder getDecoder() {
+        return decoder;
+    }
+    
+    public final int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    public final boolean isWeakValues() {
+        return weakValues;
+    }
+    
+    public String getGrammar() {
+        return decoder.getGrammar();
+    }
+    
+    public Expression decodeExpression(String text, Environment context) {
+        return new Expression(decode(text, context), text);
+    }
+    
+    public Node decode(String text, Environment context) {
+        CacheKey key = new CacheKey(text, context);
+        Node root = lookup(key);
+        if (root != null) {
+            hitCount.increment();
+            return root;
+        }
+        
+        // Parsing is done out of any lock, concurrent misses may parse twice
+        missCount.increment();
+        long start = System.nanoTime();
+        try {
+            root = decoder.decode(text, context);
+        } finally {
+            totalLoadTime.add(System.nanoTime() - start);
+        }
+        
+        if (maximumSize > 0) {
+            cache.put(key, new CacheEntry(root, weakValues, clock.incrementAndGet() << 1));
+            if (cache.size() > maximumSize)
+                evict();
+        }
+        return root;
+    }
+    
+    public Node decode(Reader in, Environment context) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        char[] chars = new char[256];
+        for (int count; (count = in.read(chars)) >= 0;)
+            buf.append(chars, 0, count);
+        return decode(buf.toString(), context);
+    }
+    
+    private Node lookup(CacheKey key) {
+        CacheEntry entry = cache.get(key);
+        if (entry == null)
+            return null;
+        
+        Node root = entry.get();
+        if (root == null) {
+            if (cache.remove(key, entry))
+                evictionCount.increment();
+            return null;
+        }
+        
+        // Hits rank above the entries inserted before them
+        entry.touch((clock.get() << 1) + 1);
+        return root;
+    }
+    
+    // Only one thread evicts at a time, the others leave the excess to it.
+    // Entries added while the lock was released are rechecked afterwards,
+    // so no excess is left behind once all callers return.
+    private void evict() {
+        do {
+            if (!evictionLock.tryLock())
+                return;
+            try {
+                evictExcess();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (cache.size() > maximumSize);
+    }
+    
+    // Entries are evicted in batches down to a tenth below the maximum size,
+    // so a full cache scans its entries once in that many misses rather than
+    // on every miss
+    private void evictExcess() {
+        while (cache.size() > maximumSize) {
+            List<Map.Entry<CacheKey, CacheEntry>> entries =
+                new ArrayList<Map.Entry<CacheKey, CacheEntry>>(cache.entrySet());
+            int excess = entries.size() - (maximumSize - maximumSize / 10);
+            if (entries.size() <= maximumSize)
+                break;
+            
+            // Stamps are copied since hits keep changing them
+            long[] stamps = new long[entries.size()];
+            for (int i = 0; i < stamps.length; i++)
+                stamps[i] = entries.get(i).getValue().access;
+            long threshold = select(stamps, excess - 1);
+            
+            for (Map.Entry<CacheKey, CacheEntry> e : entries) {
+                if (excess == 0)
+                    break;
+                if (e.getValue().access <= threshold && cache.remove(e.getKey(), e.getValue())) {
+                    evictionCount.increment();
+                    excess--;
+                }
+            }
+        }
+    }
+    
+    // Value the given index would have in the sorted array, found in linear
+    // time on average. The array is reordered.
+    static long select(long[] values, int index) {
+        int left = 0;
+        int right = values.length - 1;
+        while (left < right) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot)
+                    i++;
+                while (values[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    long temp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = temp;
+                }
+            }
+            if (index <= j)
+                right = j;
+            else if (index >= i)
+                left = i;
+            else
+                break;
+        }
+        return values[index];
+    }
+    
+    // Invalidation
+    
+    public void invalidate(String text, Environment context) {
+        cache.remove(new CacheKey(text, context));
+    }
+    
+    public void invalidate(Environment context) {
+        for (Iterator<CacheKey> i = cache.keySet().iterator(); i.hasNext(); )
+            if (i.next().context == context)
+                i.remove();
+    }
+    
+    public void invalidate(VariableTable table) {
+        invalidateComponent(table);
+    }
+    
+    public void invalidate(FunctionLoader loader) {
+        invalidateComponent(loader);
+    }
+    
+    public void invalidate(BeanManager manager) {
+        invalidateComponent(manager);
+    }
+    
+    private void invalidateComponent(Object component) {
+        for (Iterator<CacheKey> i = cache.keySet().iterator(); i.hasNext(); ) {
+            CacheKey key = i.next();
+            if (key.variableTable == component ||
+                    key.functionLoader == component ||
+                    key.beanManager == component)
+                i.remove();
+        }
+    }
+    
+    public void invalidateAll() {
+        cache.clear();
+    }
+    
+    public void setNamespaceAware(boolean awareness) {
+        decoder.setNamespaceAware(awareness);
+        super.setNamespaceAware(awareness);
+        invalidateAll();
+    }
+    
+    public Object getProperty(String name) {
+        return decoder.getProperty(name);
+    }
+    
+    public void setProperty(String name, Object value) {
+        decoder.setProperty(name, value);
+        invalidateAll();
+    }
+    
+    // Statistics
+    
+    public int size() {
+        return cache.size();
+    }
+    
+    public final long getHitCount() {
+        return hitCount.sum();
+    }
+    
+    public final long getMissCount() {
+        return missCount.sum();
+    }
+    
+    public final double getHitRatio() {
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        return requests == 0L ? 1D : (double) hits / requests;
+    }
+    
+    public final long getEvictionCount() {
+        return evictionCount.sum();
+    }
+    
+    public final long getTotalLoadTime() {
+        return totalLoadTime.sum();
+    }
+    
+    public final double getAverageLoadTime() {
+        long misses = missCount.sum();
+        return misses == 0L ? 0D : (double) totalLoadTime.sum() / misses;
+    }
+    
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+        totalLoadTime.reset();
+    }
+    
+    public String toString() {
+        return "size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() +
+               ", hitRatio=" + getHitRatio() + ", evictions=" + getEvictionCount() +
+               ", averageLoadTime=" + getAverageLoadTime() + "ns";
+    }
+    
+    // CacheEntry
+    
+    static final class CacheEntry {
+        
+        final Object value;
+        volatile long access;
+        
+        CacheEntry(Node root, boolean weak, long access) {
+            this.value = weak ? new WeakReference<Node>(root) : root;
+            this.access = access;
+        }
+        
+        @SuppressWarnings("unchecked")
+        Node get() {
+            return value instanceof Node ? (Node) value : ((WeakReference<Node>) value).get();
+        }
+        
+        // Entries hit many times between misses are written only once
+        void touch(long time) {
+            if (access < time)
+                access = time;
+        }
+        
+    }
+    
+    // CacheKey
+    
+    // Expressions are bound to the variable table, function loader and
+    // bean manager they were built against, replacing any of them in the
+    // environment changes the key
+    static final class CacheKey {
+        
+        final String text;
+        final Environment context;
+        final Object variableTable;
+        final Object functionLoader;
+        final Object beanManager;
+        final int hash;
+        
+        CacheKey(String text, Environment context) {
+            this.text = text;
+            this.context = context;
+            this.variableTable = context.getVariableTable();
+            this.functionLoader = context.getFunctionLoader();
+            this.beanManager = context.getBeanManager();
+            this.hash = 31 * text.hashCode() + System.identityHashCode(context);
+        }
+        
+        public int hashCode() {
+            return hash;
+        }
+        
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            
+            if (obj instanceof CacheKey) {
+                CacheKey other = (CacheKey) obj;
+                return context == other.context &&
+                       variableTable == other.variableTable &&
+                       functionLoader == other.functionLoader &&
+                       beanManager == other.beanManager &&
+                       text.equals(other.text);
+            }
+            
+            return false;
+        }
+        
+    }
+    
+}
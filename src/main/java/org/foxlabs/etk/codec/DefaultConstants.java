@@ -69,10 +69,12 @@ public abstract class DefaultConstants {
     public static final int TT_NULL         = 33;
     public static final int TT_TRUE         = 34;
     public static final int TT_FALSE        = 35;
+    public static final int TT_IN           = 36;
+    public static final int TT_NOTIN        = 37;
     
-    public static final int TT_IDENTIFIER   = 36;
+    public static final int TT_IDENTIFIER   = 38;
     
-    public static final int TOKEN_COUNT     = 37;
+    public static final int TOKEN_COUNT     = 39;
     
     // Token handler table
     
@@ -121,6 +123,9 @@ public abstract class DefaultConstants {
         tokenHandlers[TT_NULL]         = new KeywordHandler(TT_NULL, "null");
         tokenHandlers[TT_TRUE]         = new KeywordHandler(TT_TRUE, "true");
         tokenHandlers[TT_FALSE]        = new KeywordHandler(TT_FALSE, "false");
+        tokenHandlers[TT_IN]           = new KeywordHandler(TT_IN, "in");
+        // Only valid in front of the "in" keyword
+        tokenHandlers[TT_NOTIN]        = new KeywordHandler(TT_NOTIN, "not");
         
         tokenHandlers[TT_IDENTIFIER]   = new IdentifierHandler(TT_IDENTIFIER);
     }
@@ -49,7 +49,7 @@ public class DefaultDecoder extends ExpressionDecoder {
     
     public Node decode(Reader in, Environment context) throws IOException {
         Scanner scanner = new Scanner(in, context);
-        return scanner.scan();
+        return intern(optimize(scanner.scan(), context));
     }
     
     // Scanner
@@ -174,9 +174,15 @@ public class DefaultDecoder extends ExpressionDecoder {
         public boolean scanEquality() throws IOException {
             if (scanRelational()) {
                 Token firstToken;
-                while ((firstToken = tokenizer.next(TT_EQ, TT_NE)) != null) {
+                while ((firstToken = tokenizer.next(TT_EQ, TT_NE, TT_IN, TT_NOTIN)) != null) {
                     int opId = tokenizer.last().getId();
                     
+                    if (opId == TT_IN || opId == TT_NOTIN) {
+                        scanIn(opId == TT_NOTIN);
+                        setPosition(firstToken);
+                        continue;
+                    }
+                    
                     if (!scanRelational())
                         throw newParsingException("codec.grammar.expressionExpected");
                     
@@ -200,6 +206,30 @@ public class DefaultDecoder extends ExpressionDecoder {
             return false;
         }
         
+        public void scanIn(boolean negated) throws IOException {
+            if (negated && tokenizer.next(TT_IN) == null)
+                throw newParsingException("codec.grammar.tokenExpected",
+                        scanners[TT_IN].toString());
+            
+            if (tokenizer.next(TT_LPAREN) == null)
+                throw newParsingException("codec.grammar.tokenExpected",
+                        scanners[TT_LPAREN].toString());
+            
+            builder.mark();
+            if (scanArguments() == 0)
+                throw newParsingException("codec.grammar.expressionExpected");
+            
+            if (tokenizer.next(TT_RPAREN) == null)
+                throw newParsingException("codec.grammar.tokenExpected",
+                        scanners[TT_RPAREN].toString());
+            
+            if (negated) {
+                builder.notIn();
+            } else {
+                builder.in();
+            }
+        }
+        
         public boolean scanRelational() throws IOException {
             if (scanAdditive()) {
                 Token firstToken;
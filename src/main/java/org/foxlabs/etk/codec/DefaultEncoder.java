@@ -274,6 +274,39 @@ public class DefaultEncoder extends ExpressionEncoder {
             printers[TT_RPAREN].printToken(null, out);
         }
         
+        public void printIn(InNode node) throws IOException {
+            Node operand = node.getOperand();
+            boolean parenthesize = Node.getOperatorPrecedence(operand) < Node.getOperatorPrecedence(node);
+            
+            if (parenthesize)
+                printers[TT_LPAREN].printToken(null, out);
+            operand.accept(visitor);
+            if (parenthesize)
+                printers[TT_RPAREN].printToken(null, out);
+            
+            // Keywords are always separated from operands
+            out.write(' ');
+            if (node.isNegated()) {
+                printers[TT_NOTIN].printToken(null, out);
+                out.write(' ');
+            }
+            printers[TT_IN].printToken(null, out);
+            out.write(' ');
+            
+            printers[TT_LPAREN].printToken(null, out);
+            TokenPrinter comma = printers[TT_COMMA];
+            int count = node.getElementCount();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    comma.printToken(null, out);
+                    if (prettyPrint)
+                        out.write(' ');
+                }
+                node.getElement(i).accept(visitor);
+            }
+            printers[TT_RPAREN].printToken(null, out);
+        }
+        
         // Utility methods
         
         protected void printType(Class<?> type, Writer out) throws IOException {
@@ -485,6 +518,9 @@ public class DefaultEncoder extends ExpressionEncoder {
         public void visit(MethodNode node) throws IOException {
             printer.printMethod(node);
         }
+        public void visit(InNode node) throws IOException {
+            printer.printIn(node);
+        }
         
     }
     
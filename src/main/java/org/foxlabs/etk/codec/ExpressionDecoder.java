@@ -24,11 +24,18 @@ import java.io.IOException;
 
 import org.foxlabs.etk.Environment;
 import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeInterner;
+import org.foxlabs.etk.optimizer.ExpressionOptimizer;
 import org.foxlabs.util.resource.Service;
 
 public abstract class ExpressionDecoder {
     
+    public static final String OPTIMIZER_PROPERTY = "optimizer";
+    public static final String INTERNER_PROPERTY = "interner";
+    
     protected boolean namespaceAware = true;
+    protected ExpressionOptimizer optimizer = null;
+    protected NodeInterner interner = null;
     
     protected ExpressionDecoder() {}
     
@@ -69,6 +76,14 @@ public abstract class ExpressionDecoder {
     public abstract Node decode(Reader in, Environment context)
             throws IOException;
     
+    protected Node optimize(Node node, Environment context) {
+        return optimizer == null || node == null ? node : optimizer.optimize(node, context);
+    }
+    
+    protected Node intern(Node node) {
+        return interner == null || node == null ? node : interner.internTree(node);
+    }
+    
     public final boolean isNamespaceAware() {
         return namespaceAware;
     }
@@ -78,10 +93,36 @@ public abstract class ExpressionDecoder {
     }
     
     public Object getProperty(String name) {
+        if (OPTIMIZER_PROPERTY.equals(name))
+            return optimizer;
+        if (INTERNER_PROPERTY.equals(name))
+            return interner;
         throw new IllegalArgumentException(name);
     }
     
     public void setProperty(String name, Object value) {
+        if (OPTIMIZER_PROPERTY.equals(name)) {
+            // Either optimizer instance or comma separated list of pass names
+            if (value == null || value instanceof ExpressionOptimizer) {
+                optimizer = (ExpressionOptimizer) value;
+            } else if (value instanceof String) {
+                optimizer = ExpressionOptimizer.getInstance((String) value);
+            } else {
+                throw new IllegalArgumentException(name);
+            }
+            return;
+        }
+        if (INTERNER_PROPERTY.equals(name)) {
+            // Either interner instance or boolean flag for the default one
+            if (value == null || value instanceof NodeInterner) {
+                interner = (NodeInterner) value;
+            } else if (value instanceof Boolean) {
+                interner = ((Boolean) value).booleanValue() ? NodeInterner.getDefault() : null;
+            } else {
+                throw new IllegalArgumentException(name);
+            }
+            return;
+        }
         throw new IllegalArgumentException(name);
     }
     
@@ -0,0 +1,262 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+
+final class ClassFile {
+    
+    // Java 5 class file version does not require stack map frames
+    static final int MAJOR_VERSION = 49;
+    
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+    
+    static final int CONSTANT_UTF8        = 1;
+    static final int CONSTANT_INTEGER     = 3;
+    static final int CONSTANT_FLOAT       = 4;
+    static final int CONSTANT_LONG        = 5;
+    static final int CONSTANT_DOUBLE      = 6;
+    static final int CONSTANT_CLASS       = 7;
+    static final int CONSTANT_STRING      = 8;
+    static final int CONSTANT_FIELD       = 9;
+    static final int CONSTANT_METHOD      = 10;
+    static final int CONSTANT_IMETHOD     = 11;
+    static final int CONSTANT_NAMETYPE    = 12;
+    
+    private final String name;
+    private final String superName;
+    
+    private final ByteArrayOutputStream poolBuffer = new ByteArrayOutputStream(1024);
+    private final DataOutputStream pool = new DataOutputStream(poolBuffer);
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+    private int poolCount = 1;
+    
+    private final List<byte[]> methods = new ArrayList<byte[]>();
+    
+    ClassFile(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+    
+    String getName() {
+        return name;
+    }
+    
+    // Constant pool
+    
+    int utf8(String value) {
+        String key = "U" + value;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            try {
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e) {
+                throw new LimitExceededException();
+            }
+            poolIndex.put(key, index = poolCount++);
+        }
+        return index;
+    }
+    
+    int classRef(String internalName) {
+        return ref(CONSTANT_CLASS, "C" + internalName, utf8(internalName), -1);
+    }
+    
+    int string(String value) {
+        return ref(CONSTANT_STRING, "S" + value, utf8(value), -1);
+    }
+    
+    int integer(int value) {
+        String key = "I" + value;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            write(CONSTANT_INTEGER);
+            writeInt(value);
+            poolIndex.put(key, index = poolCount++);
+        }
+        return index;
+    }
+    
+    int floating(float value) {
+        String key = "F" + Float.floatToRawIntBits(value);
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            write(CONSTANT_FLOAT);
+            writeInt(Float.floatToRawIntBits(value));
+            poolIndex.put(key, index = poolCount++);
+        }
+        return index;
+    }
+    
+    int longInteger(long value) {
+        String key = "J" + value;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            write(CONSTANT_LONG);
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+            poolIndex.put(key, index = poolCount);
+            poolCount += 2;
+        }
+        return index;
+    }
+    
+    int longFloating(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        String key = "D" + bits;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            write(CONSTANT_DOUBLE);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+            poolIndex.put(key, index = poolCount);
+            poolCount += 2;
+        }
+        return index;
+    }
+    
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELD, owner, name, descriptor);
+    }
+    
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHOD, owner, name, descriptor);
+    }
+    
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_IMETHOD, owner, name, descriptor);
+    }
+    
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int nameType = ref(CONSTANT_NAMETYPE, "N" + name + ' ' + descriptor,
+                utf8(name), utf8(descriptor));
+        return ref(tag, "M" + tag + owner + '.' + name + descriptor,
+                classRef(owner), nameType);
+    }
+    
+    private int ref(int tag, String key, int index1, int index2) {
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            write(tag);
+            writeShort(index1);
+            if (index2 >= 0)
+                writeShort(index2);
+            poolIndex.put(key, index = poolCount++);
+        }
+        return index;
+    }
+    
+    private void write(int value) {
+        try {
+            pool.writeByte(value);
+        } catch (IOException e) {
+            throw new InternalError();
+        }
+    }
+    
+    private void writeShort(int value) {
+        try {
+            pool.writeShort(value);
+        } catch (IOException e) {
+            throw new InternalError();
+        }
+    }
+    
+    private void writeInt(int value) {
+        try {
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new InternalError();
+        }
+    }
+    
+    // Methods
+    
+    void addMethod(int access, String name, String descriptor, Code code) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(code.length() + 64);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            code.writeTo(out);
+            out.flush();
+            methods.add(buffer.toByteArray());
+        } catch (IOException e) {
+            throw new InternalError();
+        }
+    }
+    
+    byte[] toByteArray() {
+        int thisIndex = classRef(name);
+        int superIndex = classRef(superName);
+        
+        if (poolCount > 0xFFFF)
+            throw new LimitExceededException();
+        
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(poolBuffer.size() + 256);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBuffer.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+            out.writeShort(0); // attributes
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new InternalError();
+        }
+    }
+    
+    // LimitExceededException
+    
+    // Thrown when the tree does not fit into a class file or a method that
+    // HotSpot would still compile
+    static final class LimitExceededException extends RuntimeException {
+        private static final long serialVersionUID = 4127093368236451840L;
+        
+        LimitExceededException() {
+            super(null, null, false, false);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,311 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.IOException;
+import java.io.DataOutputStream;
+
+final class Code {
+    
+    static final int ACONST_NULL     = 0x01;
+    static final int ICONST_M1       = 0x02;
+    static final int ICONST_0        = 0x03;
+    static final int LCONST_0        = 0x09;
+    static final int FCONST_0        = 0x0B;
+    static final int DCONST_0        = 0x0E;
+    static final int BIPUSH          = 0x10;
+    static final int SIPUSH          = 0x11;
+    static final int LDC             = 0x12;
+    static final int LDC_W           = 0x13;
+    static final int LDC2_W          = 0x14;
+    static final int ILOAD           = 0x15;
+    static final int ALOAD           = 0x19;
+    static final int AALOAD          = 0x32;
+    static final int ISTORE          = 0x36;
+    static final int ASTORE          = 0x3A;
+    static final int AASTORE         = 0x53;
+    static final int POP             = 0x57;
+    static final int DUP             = 0x59;
+    static final int SWAP            = 0x5F;
+    static final int IADD            = 0x60;
+    static final int ISUB            = 0x64;
+    static final int IMUL            = 0x68;
+    static final int IDIV            = 0x6C;
+    static final int IREM            = 0x70;
+    static final int INEG            = 0x74;
+    static final int IXOR            = 0x82;
+    static final int I2L             = 0x85;
+    static final int I2F             = 0x86;
+    static final int I2D             = 0x87;
+    static final int L2F             = 0x89;
+    static final int L2D             = 0x8A;
+    static final int F2D             = 0x8D;
+    static final int LCMP            = 0x94;
+    static final int IFEQ            = 0x99;
+    static final int IFNE            = 0x9A;
+    static final int IFLT            = 0x9B;
+    static final int IFGE            = 0x9C;
+    static final int IFGT            = 0x9D;
+    static final int IFLE            = 0x9E;
+    static final int IF_ICMPEQ       = 0x9F;
+    static final int IF_ICMPNE       = 0xA0;
+    static final int IF_ICMPLT       = 0xA1;
+    static final int IF_ICMPGE       = 0xA2;
+    static final int IF_ICMPGT       = 0xA3;
+    static final int IF_ICMPLE       = 0xA4;
+    static final int GOTO            = 0xA7;
+    static final int IRETURN         = 0xAC;
+    static final int LRETURN         = 0xAD;
+    static final int FRETURN         = 0xAE;
+    static final int DRETURN         = 0xAF;
+    static final int ARETURN         = 0xB0;
+    static final int RETURN          = 0xB1;
+    static final int GETSTATIC       = 0xB2;
+    static final int GETFIELD        = 0xB4;
+    static final int INVOKEVIRTUAL   = 0xB6;
+    static final int INVOKESPECIAL   = 0xB7;
+    static final int INVOKESTATIC    = 0xB8;
+    static final int INVOKEINTERFACE = 0xB9;
+    static final int NEW             = 0xBB;
+    static final int ANEWARRAY       = 0xBD;
+    static final int ATHROW          = 0xBF;
+    static final int CHECKCAST       = 0xC0;
+    
+    // Offsets of the unconditional and conditional branches are signed 16 bit
+    static final int MAX_CODE_LENGTH = 0x7FFF;
+    
+    private final ClassFile cf;
+    
+    private byte[] code = new byte[256];
+    private int length = 0;
+    
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+    
+    private final List<int[]> handlers = new ArrayList<int[]>();
+    
+    Code(ClassFile cf, int maxLocals) {
+        this.cf = cf;
+        this.maxLocals = maxLocals;
+    }
+    
+    int length() {
+        return length;
+    }
+    
+    // Instructions
+    
+    void op(int opcode, int delta) {
+        put(opcode);
+        adjust(delta);
+    }
+    
+    void local(int opcode, int index, int delta) {
+        if (index > 0xFF)
+            throw new ClassFile.LimitExceededException();
+        put(opcode);
+        put(index);
+        maxLocals = Math.max(maxLocals, index + 1);
+        adjust(delta);
+    }
+    
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            put(BIPUSH);
+            put(value);
+            adjust(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            put(SIPUSH);
+            putShort(value);
+            adjust(1);
+        } else {
+            ldc(cf.integer(value), 1);
+        }
+    }
+    
+    void pushLong(long value) {
+        if (value == 0L || value == 1L) {
+            op(LCONST_0 + (int) value, 2);
+        } else {
+            put(LDC2_W);
+            putShort(cf.longInteger(value));
+            adjust(2);
+        }
+    }
+    
+    void pushFloat(float value) {
+        if (Float.floatToRawIntBits(value) == 0 || value == 1F || value == 2F) {
+            op(FCONST_0 + (int) value, 1);
+        } else {
+            ldc(cf.floating(value), 1);
+        }
+    }
+    
+    void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L || value == 1D) {
+            op(DCONST_0 + (int) value, 2);
+        } else {
+            put(LDC2_W);
+            putShort(cf.longFloating(value));
+            adjust(2);
+        }
+    }
+    
+    void pushString(String value) {
+        ldc(cf.string(value), 1);
+    }
+    
+    private void ldc(int index, int delta) {
+        if (index > 0xFF) {
+            put(LDC_W);
+            putShort(index);
+        } else {
+            put(LDC);
+            put(index);
+        }
+        adjust(delta);
+    }
+    
+    void type(int opcode, String internalName, int delta) {
+        put(opcode);
+        putShort(cf.classRef(internalName));
+        adjust(delta);
+    }
+    
+    void field(int opcode, String owner, String name, String descriptor) {
+        int size = sizeOf(descriptor.charAt(0));
+        put(opcode);
+        putShort(cf.fieldRef(owner, name, descriptor));
+        adjust(opcode == GETSTATIC ? size : size - 1);
+    }
+    
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        int argsize = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char ch = descriptor.charAt(i);
+            argsize += sizeOf(ch);
+            while (ch == '[')
+                ch = descriptor.charAt(++i);
+            i = ch == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+        if (opcode != INVOKESTATIC)
+            argsize++;
+        int retsize = sizeOf(descriptor.charAt(i + 1));
+        
+        put(opcode);
+        if (opcode == INVOKEINTERFACE) {
+            putShort(cf.interfaceMethodRef(owner, name, descriptor));
+            put(argsize);
+            put(0);
+        } else {
+            putShort(cf.methodRef(owner, name, descriptor));
+        }
+        adjust(retsize - argsize);
+    }
+    
+    private static int sizeOf(char ch) {
+        return ch == 'V' ? 0 : ch == 'J' || ch == 'D' ? 2 : 1;
+    }
+    
+    // Branches
+    
+    static final class Label {
+        
+        int offset = -1;
+        int stack = -1;
+        int[] jumps = new int[2];
+        int jumpCount = 0;
+        
+    }
+    
+    void jump(int opcode, Label label) {
+        adjust(opcode == GOTO ? 0 : opcode >= IF_ICMPEQ ? -2 : -1);
+        if (label.stack < 0)
+            label.stack = stack;
+        if (label.jumps.length == label.jumpCount)
+            label.jumps = Arrays.copyOf(label.jumps, label.jumpCount * 2);
+        label.jumps[label.jumpCount++] = length;
+        put(opcode);
+        putShort(0);
+    }
+    
+    void place(Label label) {
+        label.offset = length;
+        if (label.stack >= 0)
+            stack = label.stack;
+        for (int i = 0; i < label.jumpCount; i++) {
+            int at = label.jumps[i];
+            int offset = length - at;
+            code[at + 1] = (byte) (offset >>> 8);
+            code[at + 2] = (byte) offset;
+        }
+    }
+    
+    void handler(int start, int end, int handler) {
+        handlers.add(new int[]{start, end, handler});
+        stack = 1;
+        maxStack = Math.max(maxStack, 1);
+    }
+    
+    // Serialization
+    
+    void writeTo(DataOutputStream out) throws IOException {
+        if (length > MAX_CODE_LENGTH)
+            throw new ClassFile.LimitExceededException();
+        
+        out.writeInt(12 + length + handlers.size() * 8);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(handlers.size());
+        for (int[] handler : handlers) {
+            out.writeShort(handler[0]);
+            out.writeShort(handler[1]);
+            out.writeShort(handler[2]);
+            out.writeShort(0); // any
+        }
+        out.writeShort(0); // attributes
+    }
+    
+    private void adjust(int delta) {
+        stack += delta;
+        if (stack > maxStack)
+            maxStack = stack;
+    }
+    
+    private void put(int value) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) value;
+    }
+    
+    private void putShort(int value) {
+        put(value >>> 8);
+        put(value);
+    }
+    
+}
@@ -0,0 +1,706 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.IdentityHashMap;
+
+import org.foxlabs.etk.node.*;
+import org.foxlabs.etk.support.Calculator;
+import org.foxlabs.etk.support.Comparator;
+import org.foxlabs.etk.support.Converter;
+import org.foxlabs.etk.support.Operator;
+
+import static org.foxlabs.etk.compiler.Code.*;
+
+final class CodeGenerator {
+    
+    static final int OBJECT  = 0;
+    static final int BOOLEAN = 1;
+    static final int INT     = 2;
+    static final int LONG    = 3;
+    static final int FLOAT   = 4;
+    static final int DOUBLE  = 5;
+    
+    static final String EVALUATOR   = "org/foxlabs/etk/compiler/CompiledEvaluator";
+    static final String ENVIRONMENT = "org/foxlabs/etk/Environment";
+    static final String NODE        = "org/foxlabs/etk/node/Node";
+    static final String OPERATOR    = "org/foxlabs/etk/support/Operator";
+    static final String CALCULATOR  = "org/foxlabs/etk/support/Calculator";
+    static final String COMPARATOR  = "org/foxlabs/etk/support/Comparator";
+    static final String CONVERTER   = "org/foxlabs/etk/support/Converter";
+    static final String INDEXER     = "org/foxlabs/etk/support/Indexer";
+    
+    static final String[] boxTypes = {
+        "java/lang/Object",
+        "java/lang/Boolean",
+        "java/lang/Integer",
+        "java/lang/Long",
+        "java/lang/Float",
+        "java/lang/Double"
+    };
+    
+    static final String[] primitiveDescriptors = {"Ljava/lang/Object;", "Z", "I", "J", "F", "D"};
+    static final String[] unboxMethods = {null, "booleanValue", "intValue", "longValue", "floatValue", "doubleValue"};
+    static final String[] methodNames = {"evaluate", "evaluateBoolean", "evaluateInt", "evaluateLong", null, "evaluateDouble"};
+    static final int[] returnOpcodes = {ARETURN, IRETURN, IRETURN, LRETURN, FRETURN, DRETURN};
+    
+    // HotSpot does not JIT compile larger methods, the node tree is faster then
+    static final int HUGE_METHOD_LIMIT = 8000;
+    
+    // Local variables of the generated evaluate(Environment) method
+    static final int THIS      = 0;
+    static final int CONTEXT   = 1;
+    static final int INDEX     = 2;
+    static final int THROWABLE = 3;
+    
+    private final ClassFile cf;
+    private Code code;
+    
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<Node, Integer> nodeIndex = new IdentityHashMap<Node, Integer>();
+    private final List<Object> constants = new ArrayList<Object>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<Object, Integer>();
+    
+    private Node parent = null;
+    
+    CodeGenerator(String className) {
+        this.cf = new ClassFile(className, EVALUATOR);
+    }
+    
+    Node[] getNodes() {
+        return nodes.toArray(new Node[nodes.size()]);
+    }
+    
+    Object[] getConstants() {
+        return constants.toArray();
+    }
+    
+    byte[] generate(Node root) {
+        generateConstructor();
+        generateMethod(root, OBJECT, OBJECT);
+        
+        int kind = kindOf(root);
+        switch (kind) {
+        case BOOLEAN:
+            generateMethod(root, BOOLEAN, BOOLEAN);
+            break;
+        case INT:
+            generateMethod(root, INT, INT);
+            generateMethod(root, INT, LONG);
+            generateMethod(root, INT, DOUBLE);
+            break;
+        case LONG:
+            generateMethod(root, LONG, LONG);
+            generateMethod(root, LONG, DOUBLE);
+            break;
+        case FLOAT:
+        case DOUBLE:
+            generateMethod(root, kind, DOUBLE);
+            break;
+        }
+        
+        return cf.toByteArray();
+    }
+    
+    private void generateMethod(Node root, int kind, int returnKind) {
+        code = new Code(cf, THROWABLE + 1);
+        code.op(ICONST_M1, 1);
+        code.local(ISTORE, INDEX, -1);
+        int start = code.length();
+        generate(root, kind);
+        switch (kind * 8 + returnKind) {
+        case INT * 8 + LONG:
+            code.op(I2L, 1);
+            break;
+        case INT * 8 + DOUBLE:
+        case LONG * 8 + DOUBLE:
+            code.op(kind == INT ? I2D : L2D, kind == INT ? 1 : 0);
+            break;
+        case FLOAT * 8 + DOUBLE:
+            code.op(F2D, 1);
+            break;
+        }
+        code.op(returnOpcodes[returnKind], returnKind == LONG || returnKind == DOUBLE ? -2 : -1);
+        int end = code.length();
+        if (end > HUGE_METHOD_LIMIT)
+            throw new ClassFile.LimitExceededException();
+        
+        code.handler(start, end, end);
+        code.local(ASTORE, THROWABLE, -1);
+        code.local(ALOAD, THIS, 1);
+        code.local(ILOAD, INDEX, 1);
+        code.local(ALOAD, THROWABLE, 1);
+        code.invoke(INVOKEVIRTUAL, EVALUATOR, "failure",
+                "(ILjava/lang/Throwable;)Ljava/lang/Throwable;");
+        code.op(ATHROW, -1);
+        
+        cf.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, methodNames[returnKind],
+                "(L" + ENVIRONMENT + ";)" + primitiveDescriptors[returnKind], code);
+    }
+    
+    private void generateConstructor() {
+        Code init = new Code(cf, 3);
+        init.local(ALOAD, 0, 1);
+        init.local(ALOAD, 1, 1);
+        init.local(ALOAD, 2, 1);
+        init.invoke(INVOKESPECIAL, EVALUATOR, "<init>",
+                "([L" + NODE + ";[Ljava/lang/Object;)V");
+        init.op(RETURN, 0);
+        cf.addMethod(ClassFile.ACC_PUBLIC, "<init>",
+                "([L" + NODE + ";[Ljava/lang/Object;)V", init);
+    }
+    
+    // Value kinds
+    
+    static int kindOf(Class<?> type) {
+        if (type == Boolean.class)
+            return BOOLEAN;
+        if (type == Integer.class)
+            return INT;
+        if (type == Long.class)
+            return LONG;
+        if (type == Float.class)
+            return FLOAT;
+        if (type == Double.class)
+            return DOUBLE;
+        return OBJECT;
+    }
+    
+    static int kindOf(Node node) {
+        switch (node.getId()) {
+        case Node.TRUE_NODE:
+        case Node.FALSE_NODE:
+        case Node.EQ_NODE:
+        case Node.NE_NODE:
+        case Node.GT_NODE:
+        case Node.GE_NODE:
+        case Node.LT_NODE:
+        case Node.LE_NODE:
+        case Node.NOT_NODE:
+        case Node.AND_NODE:
+        case Node.OR_NODE:
+            return BOOLEAN;
+        case Node.NUMBER_NODE:
+            return kindOf(((NumberNode) node).getValue().getClass());
+        case Node.NEG_NODE:
+        case Node.ADD_NODE:
+        case Node.SUB_NODE:
+        case Node.MUL_NODE:
+        case Node.DIV_NODE:
+        case Node.MOD_NODE:
+            return kindOf(node.getType());
+        case Node.CONVERT_NODE:
+            return wideningKindOf((ConvertNode) node);
+        case Node.CONDITION_NODE:
+            ConditionNode condition = (ConditionNode) node;
+            int kind = kindOf(condition.getOperand2());
+            return kind == kindOf(condition.getOperand3()) ? kind : OBJECT;
+        default:
+            return OBJECT;
+        }
+    }
+    
+    static int wideningKindOf(ConvertNode node) {
+        int fromKind = kindOf(node.getOperand());
+        int toKind = kindOf(node.getType());
+        if (fromKind == OBJECT || fromKind == BOOLEAN || toKind == OBJECT || toKind == BOOLEAN)
+            return fromKind == toKind && node.getConverter().getKind() == Converter.IDENTITY
+                ? toKind
+                : OBJECT;
+        return fromKind <= toKind ? toKind : OBJECT;
+    }
+    
+    // Nodes
+    
+    private void generate(Node node, int kind) {
+        generate(node, kind, parent);
+    }
+    
+    private void generate(Node node, int kind, Node owner) {
+        int natural = kindOf(node);
+        int index = register(node);
+        
+        Node outer = parent;
+        parent = node;
+        
+        switch (node.getId()) {
+        case Node.NULL_NODE:
+            code.op(ACONST_NULL, 1);
+            break;
+        case Node.TRUE_NODE:
+            code.pushInt(1);
+            break;
+        case Node.FALSE_NODE:
+            code.pushInt(0);
+            break;
+        case Node.NUMBER_NODE:
+            generateNumber((NumberNode) node, natural);
+            break;
+        case Node.STRING_NODE:
+            generateString((StringNode) node);
+            break;
+        case Node.CHAR_NODE:
+        case Node.ENUM_NODE:
+            loadConstant(((LiteralNode<?>) node).getValue(), null);
+            break;
+        case Node.VARIABLE_NODE:
+            generateVariable((VariableNode) node, index);
+            break;
+        case Node.FUNCTION_NODE:
+            generateFunction((FunctionNode) node, index);
+            break;
+        case Node.CONVERT_NODE:
+            generateConvert((ConvertNode) node, natural, index);
+            break;
+        case Node.CAST_NODE:
+            CastNode cast = (CastNode) node;
+            generateOperator(cast.getConverter(), CONVERTER, index, "convert",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;", cast.getOperand());
+            break;
+        case Node.NEG_NODE:
+            generateNegate((NegateNode) node, natural, index);
+            break;
+        case Node.ADD_NODE:
+            generateArithmetic((AddNode) node, ((AddNode) node).getCalculator(), natural, index, "add");
+            break;
+        case Node.SUB_NODE:
+            generateArithmetic((SubtractNode) node, ((SubtractNode) node).getCalculator(), natural, index, "subtract");
+            break;
+        case Node.MUL_NODE:
+            generateArithmetic((MultiplyNode) node, ((MultiplyNode) node).getCalculator(), natural, index, "multiply");
+            break;
+        case Node.DIV_NODE:
+            generateArithmetic((DivideNode) node, ((DivideNode) node).getCalculator(), natural, index, "divide");
+            break;
+        case Node.MOD_NODE:
+            generateArithmetic((ModuloNode) node, ((ModuloNode) node).getCalculator(), natural, index, "modulo");
+            break;
+        case Node.EQ_NODE:
+        case Node.NE_NODE:
+            generateEquality((BinaryNode) node, index);
+            break;
+        case Node.GT_NODE:
+            generateRelational((GreaterThanNode) node, ((GreaterThanNode) node).getComparator(), index, IFGT);
+            break;
+        case Node.GE_NODE:
+            generateRelational((GreaterThanEqualNode) node, ((GreaterThanEqualNode) node).getComparator(), index, IFGE);
+            break;
+        case Node.LT_NODE:
+            generateRelational((LessThanNode) node, ((LessThanNode) node).getComparator(), index, IFLT);
+            break;
+        case Node.LE_NODE:
+            generateRelational((LessThanEqualNode) node, ((LessThanEqualNode) node).getComparator(), index, IFLE);
+            break;
+        case Node.NOT_NODE:
+            generate(((NotNode) node).getOperand(), BOOLEAN);
+            code.pushInt(1);
+            code.op(IXOR, -1);
+            break;
+        case Node.AND_NODE:
+        case Node.OR_NODE:
+            generateLogical((BinaryNode) node);
+            break;
+        case Node.CONDITION_NODE:
+            generateCondition((ConditionNode) node, natural);
+            break;
+        case Node.CONCAT_NODE:
+            generateConcat((ConcatNode) node);
+            break;
+        case Node.INDEX_NODE:
+            IndexNode indexNode = (IndexNode) node;
+            generateOperator(indexNode.getIndexer(), INDEXER, index, "lookup",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;",
+                    indexNode.getCollection(), indexNode.getKey());
+            break;
+        case Node.PROPERTY_NODE:
+            generateProperty((PropertyNode) node, index);
+            break;
+        case Node.METHOD_NODE:
+            generateMethod((MethodNode) node, index);
+            break;
+        default:
+            generateFallback(index);
+            break;
+        }
+        
+        parent = outer;
+        adapt(natural, kind, owner);
+    }
+    
+    private void generateNumber(NumberNode node, int kind) {
+        Number value = node.getValue();
+        switch (kind) {
+        case INT:
+            code.pushInt(value.intValue());
+            break;
+        case LONG:
+            code.pushLong(value.longValue());
+            break;
+        case FLOAT:
+            code.pushFloat(value.floatValue());
+            break;
+        case DOUBLE:
+            code.pushDouble(value.doubleValue());
+            break;
+        default:
+            loadConstant(value, null);
+            break;
+        }
+    }
+    
+    private void generateString(StringNode node) {
+        String value = node.getValue();
+        // Modified UTF-8 of a constant pool entry is limited to 65535 bytes
+        if (value.length() > 0x3FFF) {
+            loadConstant(value, "java/lang/String");
+        } else {
+            code.pushString(value);
+        }
+    }
+    
+    private void generateVariable(VariableNode node, int index) {
+        if (node.getVariableSlot() >= 0) {
+            // Slot lookup is cheaper than resolving by name
+            generateFallback(index);
+            return;
+        }
+        
+        setIndex(index);
+        code.local(ALOAD, CONTEXT, 1);
+        code.invoke(INVOKEINTERFACE, ENVIRONMENT, "getVariableTable",
+                "()Lorg/foxlabs/etk/variable/VariableTable;");
+        code.pushString(node.getVariableName());
+        code.local(ALOAD, CONTEXT, 1);
+        code.invoke(INVOKEINTERFACE, "org/foxlabs/etk/variable/VariableTable", "resolveVariable",
+                "(Ljava/lang/String;L" + ENVIRONMENT + ";)Ljava/lang/Object;");
+    }
+    
+    private void generateFunction(FunctionNode node, int index) {
+        loadConstant(node.getFunction(), "org/foxlabs/etk/function/Function");
+        code.local(ALOAD, CONTEXT, 1);
+        generateArguments(node.getArguments());
+        setIndex(index);
+        code.invoke(INVOKEVIRTUAL, "org/foxlabs/etk/function/Function", "evaluate",
+                "(L" + ENVIRONMENT + ";[Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    
+    private void generateProperty(PropertyNode node, int index) {
+        loadConstant(node.getAccessor(), "org/foxlabs/etk/bean/PropertyAccessor");
+        code.local(ALOAD, CONTEXT, 1);
+        generate(node.getObject(), OBJECT);
+        setIndex(index);
+        invokeSafeValueOf();
+        code.invoke(INVOKEINTERFACE, "org/foxlabs/etk/bean/PropertyAccessor", "resolve",
+                "(L" + ENVIRONMENT + ";Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    
+    private void generateMethod(MethodNode node, int index) {
+        loadConstant(node.getAccessor(), "org/foxlabs/etk/bean/MethodAccessor");
+        code.local(ALOAD, CONTEXT, 1);
+        generate(node.getObject(), OBJECT);
+        generateArguments(node.getArguments());
+        setIndex(index);
+        code.op(SWAP, 0);
+        invokeSafeValueOf();
+        code.op(SWAP, 0);
+        code.invoke(INVOKEINTERFACE, "org/foxlabs/etk/bean/MethodAccessor", "invoke",
+                "(L" + ENVIRONMENT + ";Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    
+    private void generateArguments(Node[] arguments) {
+        code.pushInt(arguments.length);
+        code.type(ANEWARRAY, "java/lang/Object", 0);
+        for (int i = 0; i < arguments.length; i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            generate(arguments[i], OBJECT);
+            code.op(AASTORE, -3);
+        }
+    }
+    
+    private void generateConvert(ConvertNode node, int kind, int index) {
+        if (kind == OBJECT) {
+            generateOperator(node.getConverter(), CONVERTER, index, "convert",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;", node.getOperand());
+            return;
+        }
+        
+        int fromKind = kindOf(node.getOperand());
+        generate(node.getOperand(), fromKind);
+        switch (fromKind * 8 + kind) {
+        case INT * 8 + LONG:
+            code.op(I2L, 1);
+            break;
+        case INT * 8 + FLOAT:
+            code.op(I2F, 0);
+            break;
+        case INT * 8 + DOUBLE:
+            code.op(I2D, 1);
+            break;
+        case LONG * 8 + FLOAT:
+            code.op(L2F, -1);
+            break;
+        case LONG * 8 + DOUBLE:
+            code.op(L2D, 0);
+            break;
+        case FLOAT * 8 + DOUBLE:
+            code.op(F2D, 1);
+            break;
+        }
+    }
+    
+    private void generateNegate(NegateNode node, int kind, int index) {
+        if (kind == OBJECT) {
+            generateOperator(node.getCalculator(), CALCULATOR, index, "negate",
+                    "(Ljava/lang/Object;)Ljava/lang/Number;", node.getOperand());
+            return;
+        }
+        
+        generate(node.getOperand(), kind);
+        code.op(INEG + kind - INT, 0);
+    }
+    
+    private void generateArithmetic(BinaryNode node, Calculator calculator, int kind, int index,
+            String method) {
+        // The first operand must not be unboxed before the second one is
+        // evaluated, so boxed operands go through the calculator as in
+        // the interpreter
+        if (kind == OBJECT || kindOf(node.getOperand1()) == OBJECT) {
+            generateOperator(calculator, CALCULATOR, index, method,
+                    "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Number;",
+                    node.getOperand1(), node.getOperand2());
+            if (kind != OBJECT) {
+                code.invoke(INVOKEVIRTUAL, "java/lang/Number", unboxMethods[kind],
+                        "()" + primitiveDescriptors[kind]);
+            }
+            return;
+        }
+        
+        int size = kind == LONG || kind == DOUBLE ? 2 : 1;
+        generate(node.getOperand1(), kind);
+        generate(node.getOperand2(), kind);
+        
+        int opcode;
+        switch (node.getId()) {
+        case Node.ADD_NODE:
+            opcode = IADD;
+            break;
+        case Node.SUB_NODE:
+            opcode = ISUB;
+            break;
+        case Node.MUL_NODE:
+            opcode = IMUL;
+            break;
+        case Node.DIV_NODE:
+            opcode = IDIV;
+            break;
+        default:
+            opcode = IREM;
+            break;
+        }
+        
+        if (opcode == IDIV || opcode == IREM) {
+            setIndex(index);
+            String descriptor = primitiveDescriptors[kind];
+            code.invoke(INVOKESTATIC, OPERATOR, "safeDivisorOf",
+                    "(" + descriptor + ")" + descriptor);
+        }
+        
+        code.op(opcode + kind - INT, -size);
+    }
+    
+    private void generateEquality(BinaryNode node, int index) {
+        generate(node.getOperand1(), OBJECT);
+        generate(node.getOperand2(), OBJECT);
+        setIndex(index);
+        code.invoke(INVOKESTATIC, COMPARATOR, "isEqual",
+                "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+        if (node.getId() == Node.NE_NODE) {
+            code.pushInt(1);
+            code.op(IXOR, -1);
+        }
+    }
+    
+    private void generateRelational(BinaryNode node, Comparator comparator, int index, int opcode) {
+        int kind = kindOf(comparator.getType());
+        // Boxed first operands are compared after both are evaluated
+        if (kindOf(node.getOperand1()) == OBJECT)
+            kind = OBJECT;
+        switch (kind) {
+        case INT:
+            generate(node.getOperand1(), INT);
+            generate(node.getOperand2(), INT);
+            generateFlag(opcode + IF_ICMPEQ - IFEQ);
+            return;
+        case LONG:
+            generate(node.getOperand1(), LONG);
+            generate(node.getOperand2(), LONG);
+            code.op(LCMP, -3);
+            break;
+        case FLOAT:
+            generate(node.getOperand1(), FLOAT);
+            generate(node.getOperand2(), FLOAT);
+            code.invoke(INVOKESTATIC, "java/lang/Float", "compare", "(FF)I");
+            break;
+        case DOUBLE:
+            generate(node.getOperand1(), DOUBLE);
+            generate(node.getOperand2(), DOUBLE);
+            code.invoke(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+            break;
+        default:
+            generateOperator(comparator, COMPARATOR, index, "compare",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)I",
+                    node.getOperand1(), node.getOperand2());
+            break;
+        }
+        generateFlag(opcode);
+    }
+    
+    private void generateFlag(int opcode) {
+        Label ok = new Label();
+        Label end = new Label();
+        code.jump(opcode, ok);
+        code.pushInt(0);
+        code.jump(GOTO, end);
+        code.place(ok);
+        code.pushInt(1);
+        code.place(end);
+    }
+    
+    private void generateLogical(BinaryNode node) {
+        int opcode = node.getId() == Node.AND_NODE ? IFEQ : IFNE;
+        Label shortcut = new Label();
+        Label end = new Label();
+        generate(node.getOperand1(), BOOLEAN);
+        code.jump(opcode, shortcut);
+        generate(node.getOperand2(), BOOLEAN);
+        code.jump(opcode, shortcut);
+        code.pushInt(opcode == IFEQ ? 1 : 0);
+        code.jump(GOTO, end);
+        code.place(shortcut);
+        code.pushInt(opcode == IFEQ ? 0 : 1);
+        code.place(end);
+    }
+    
+    private void generateCondition(ConditionNode node, int kind) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        generate(node.getOperand1(), BOOLEAN);
+        code.jump(IFEQ, otherwise);
+        generate(node.getOperand2(), kind);
+        code.jump(GOTO, end);
+        code.place(otherwise);
+        generate(node.getOperand3(), kind);
+        code.place(end);
+    }
+    
+    private void generateConcat(ConcatNode node) {
+        code.type(NEW, "java/lang/StringBuilder", 1);
+        code.op(DUP, 1);
+        code.invoke(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V");
+        for (Node operand : node.getOperands()) {
+            int kind = kindOf(operand);
+            generate(operand, kind);
+            setIndex(-1);
+            if (kind == OBJECT) {
+                code.invoke(INVOKESTATIC, EVALUATOR, "append",
+                        "(Ljava/lang/StringBuilder;Ljava/lang/Object;)Ljava/lang/StringBuilder;");
+            } else {
+                code.invoke(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(" + primitiveDescriptors[kind] + ")Ljava/lang/StringBuilder;");
+            }
+        }
+        code.invoke(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;");
+    }
+    
+    private void generateOperator(Operator operator, String owner, int index, String method,
+            String descriptor, Node... operands) {
+        loadConstant(operator, owner);
+        for (Node operand : operands)
+            generate(operand, OBJECT);
+        setIndex(index);
+        code.invoke(INVOKEVIRTUAL, owner, method, descriptor);
+    }
+    
+    private void generateFallback(int index) {
+        code.local(ALOAD, THIS, 1);
+        code.field(GETFIELD, EVALUATOR, "nodes", "[L" + NODE + ";");
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        code.local(ALOAD, CONTEXT, 1);
+        setIndex(-1);
+        code.invoke(INVOKEVIRTUAL, NODE, "evaluate", "(L" + ENVIRONMENT + ";)Ljava/lang/Object;");
+    }
+    
+    // Utility methods
+    
+    private void adapt(int from, int to, Node owner) {
+        if (from == to)
+            return;
+        
+        if (from != OBJECT) {
+            code.invoke(INVOKESTATIC, boxTypes[from], "valueOf",
+                    "(" + primitiveDescriptors[from] + ")L" + boxTypes[from] + ";");
+        }
+        
+        if (to != OBJECT) {
+            setIndex(register(owner));
+            invokeSafeValueOf();
+            code.type(CHECKCAST, boxTypes[to], 0);
+            code.invoke(INVOKEVIRTUAL, boxTypes[to], unboxMethods[to],
+                    "()" + primitiveDescriptors[to]);
+        }
+    }
+    
+    private void invokeSafeValueOf() {
+        code.invoke(INVOKESTATIC, OPERATOR, "safeValueOf",
+                "(Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    
+    private void setIndex(int index) {
+        code.pushInt(index);
+        code.local(ISTORE, INDEX, -1);
+    }
+    
+    private int register(Node node) {
+        Integer index = nodeIndex.get(node);
+        if (index == null) {
+            nodeIndex.put(node, index = nodes.size());
+            nodes.add(node);
+        }
+        return index;
+    }
+    
+    private void loadConstant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            constantIndex.put(value, index = constants.size());
+            constants.add(value);
+        }
+        code.local(ALOAD, THIS, 1);
+        code.field(GETFIELD, EVALUATOR, "constants", "[Ljava/lang/Object;");
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if (type != null)
+            code.type(CHECKCAST, type, 0);
+    }
+    
+}
@@ -0,0 +1,96 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.PropertyNode;
+import org.foxlabs.etk.node.MethodNode;
+import org.foxlabs.etk.support.Operator;
+
+public abstract class CompiledEvaluator {
+    
+    protected final Node[] nodes;
+    protected final Object[] constants;
+    
+    protected CompiledEvaluator(Node[] nodes, Object[] constants) {
+        this.nodes = nodes;
+        this.constants = constants;
+    }
+    
+    public final Node getRootNode() {
+        return nodes[0];
+    }
+    
+    public abstract Object evaluate(Environment context) throws EvaluationException;
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeBooleanValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(nodes[0], e);
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeIntValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(nodes[0], e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeLongValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(nodes[0], e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeDoubleValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(nodes[0], e);
+        }
+    }
+    
+    // Runtime support
+    
+    protected final Throwable failure(int index, Throwable t) {
+        if (index < 0)
+            return t;
+        
+        Node node = nodes[index];
+        if (t instanceof Exception || node instanceof PropertyNode || node instanceof MethodNode)
+            return new EvaluationException(node, t);
+        
+        return t;
+    }
+    
+    protected static StringBuilder append(StringBuilder buf, Object obj) {
+        return obj == null ? buf : buf.append(obj);
+    }
+    
+}
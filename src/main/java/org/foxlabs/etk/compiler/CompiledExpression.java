@@ -0,0 +1,89 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.io.ObjectStreamException;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+
+public class CompiledExpression extends Expression {
+    private static final long serialVersionUID = -2739618404512470562L;
+    
+    private final transient CompiledEvaluator evaluator;
+    
+    CompiledExpression(Expression expression, CompiledEvaluator evaluator) {
+        super(expression.getRootNode(), expression.getSource());
+        this.evaluator = evaluator;
+    }
+    
+    public final CompiledEvaluator getEvaluator() {
+        return evaluator;
+    }
+    
+    public Object evaluate(Environment context) throws EvaluationException {
+        try {
+            return evaluator.evaluate(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        try {
+            return evaluator.evaluateBoolean(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        try {
+            return evaluator.evaluateInt(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        try {
+            return evaluator.evaluateLong(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        try {
+            return evaluator.evaluateDouble(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    private Object writeReplace() throws ObjectStreamException {
+        return new Expression(getRootNode(), getSource());
+    }
+    
+}
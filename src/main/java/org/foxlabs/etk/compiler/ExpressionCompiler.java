@@ -0,0 +1,91 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.node.Node;
+
+public class ExpressionCompiler {
+    
+    private static final ExpressionCompiler defaultInstance = new ExpressionCompiler();
+    
+    private static final AtomicInteger classCounter = new AtomicInteger();
+    
+    protected ExpressionCompiler() {}
+    
+    public static ExpressionCompiler getDefault() {
+        return defaultInstance;
+    }
+    
+    public Expression compile(Expression expression) {
+        if (expression instanceof CompiledExpression)
+            return expression;
+        
+        CompiledEvaluator evaluator = compile(expression.getRootNode());
+        return evaluator == null
+            ? expression
+            : new CompiledExpression(expression, evaluator);
+    }
+    
+    // Returns null if the tree is too large or too deep to be compiled.
+    // Invalid bytecode is a bug of the compiler and is not hidden.
+    public CompiledEvaluator compile(Node root) {
+        String name = CompiledEvaluator.class.getName() + "$" + classCounter.incrementAndGet();
+        CodeGenerator generator = new CodeGenerator(name.replace('.', '/'));
+        byte[] bytecode;
+        try {
+            bytecode = generate(generator, root);
+        } catch (ClassFile.LimitExceededException e) {
+            return null;
+        } catch (StackOverflowError e) {
+            return null;
+        }
+        
+        EvaluatorLoader loader = new EvaluatorLoader(CompiledEvaluator.class.getClassLoader());
+        Class<?> type = loader.define(name, bytecode);
+        try {
+            return (CompiledEvaluator) type
+                .getConstructor(Node[].class, Object[].class)
+                .newInstance(generator.getNodes(), generator.getConstants());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    byte[] generate(CodeGenerator generator, Node root) {
+        return generator.generate(root);
+    }
+    
+    // Each evaluator class has its own loader so that it can be unloaded
+    // as soon as the compiled expression becomes unreachable
+    
+    static final class EvaluatorLoader extends ClassLoader {
+        
+        EvaluatorLoader(ClassLoader parent) {
+            super(parent);
+        }
+        
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+        
+    }
+    
+}
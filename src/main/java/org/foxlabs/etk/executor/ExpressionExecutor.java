@@ -0,0 +1,348 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.Expression;
+
+// Evaluates expressions against many environments in parallel. Every
+// environment is one item, all expressions are evaluated against it by the
+// same task and failures are collected per expression in its result.
+//
+// Thread safety of the pieces shared between tasks:
+// - Expression and node trees are immutable and may be evaluated by any
+//   number of threads at once.
+// - DefaultEnvironment may be shared once configured, its setters must not
+//   be called while tasks are running. CompiledEnvironment is immutable and
+//   is the safer choice. The global context is published safely.
+// - DefaultVariableTable is backed by a concurrent map, variables put while
+//   tasks are running are seen by the tasks started afterwards.
+// - SlotVariableTable may be shared, but a Frame may not, every item needs
+//   a frame of its own.
+// - EvaluationContext memo is not synchronized, every item needs a context
+//   of its own as well. CompiledEnvironment pools them per thread.
+// - FunctionLoader and BeanManager caches are concurrent. Functions and
+//   bean accessors themselves must be thread safe.
+// - ExpressionGroup and RuleSet keep their per evaluation state in thread
+//   locals and may be shared.
+// - AdaptiveExpression may be shared, but its chain statistics and purity
+//   flags are written by all threads without synchronization. Statistics
+//   are approximate then and a reorder may use stale flags. Results stay
+//   exact since chains retry failures in source order.
+public class ExpressionExecutor {
+    
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    
+    // Tasks split until there are about this many leaf tasks per worker
+    static final int TASKS_PER_THREAD = 8;
+    
+    private final Executor executor;
+    private final int queueCapacity;
+    
+    public ExpressionExecutor() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public ExpressionExecutor(Executor executor) {
+        this(executor, DEFAULT_QUEUE_CAPACITY);
+    }
+    
+    // Any executor may be used, e.g. an unbounded one when functions block
+    // on I/O, fork join pools split lists of items with work stealing
+    public ExpressionExecutor(Executor executor, int queueCapacity) {
+        if (executor == null)
+            throw new NullPointerException();
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException();
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+    }
+    
+    public final Executor getExecutor() {
+        return executor;
+    }
+    
+    public final int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    // Lists
+    
+    public List<Result> evaluate(Expression expression, List<? extends Environment> contexts)
+            throws InterruptedException {
+        return evaluate(Collections.singletonList(expression), contexts);
+    }
+    
+    // Results are in the order of the environments
+    public List<Result> evaluate(List<? extends Expression> expressions,
+            List<? extends Environment> contexts) throws InterruptedException {
+        Expression[] exprs = expressions.toArray(new Expression[expressions.size()]);
+        Environment[] items = contexts.toArray(new Environment[contexts.size()]);
+        Result[] results = new Result[items.length];
+        
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            int threshold = Math.max(1, items.length / (pool.getParallelism() * TASKS_PER_THREAD));
+            pool.invoke(new ListTask(exprs, items, results, 0, items.length, threshold));
+        } else {
+            evaluate(exprs, items, results);
+        }
+        
+        return Arrays.asList(results);
+    }
+    
+    private void evaluate(Expression[] exprs, Environment[] items, Result[] results)
+            throws InterruptedException {
+        // Items are split into at most queue capacity tasks, which are all
+        // submitted at once
+        int batch = Math.max(1, (items.length + queueCapacity - 1) / queueCapacity);
+        int count = (items.length + batch - 1) / batch;
+        CountDownLatch latch = new CountDownLatch(count);
+        Throwable[] errors = new Throwable[1];
+        for (int i = 0; i < count; i++) {
+            final int from = i * batch;
+            final int to = Math.min(items.length, from + batch);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = from; j < to; j++)
+                            results[j] = evaluate(exprs, items[j], j);
+                    } catch (Throwable e) {
+                        errors[0] = e;
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        latch.await();
+        if (errors[0] != null)
+            throw propagate(errors[0]);
+    }
+    
+    // Streams
+    
+    public long execute(Expression expression, Iterator<? extends Environment> contexts,
+            boolean ordered, Handler handler) throws InterruptedException {
+        return execute(Collections.singletonList(expression), contexts, ordered, handler);
+    }
+    
+    // Environments are taken from the source only while fewer than queue
+    // capacity items are in flight, so a slow handler or slow evaluation
+    // throttles the source. The handler is always called on the calling
+    // thread, either in the order of the environments or as soon as
+    // results are available.
+    public long execute(List<? extends Expression> expressions,
+            Iterator<? extends Environment> contexts, boolean ordered, Handler handler)
+            throws InterruptedException {
+        Expression[] exprs = expressions.toArray(new Expression[expressions.size()]);
+        BlockingQueue<Result> completed = new LinkedBlockingQueue<Result>();
+        Map<Long, Result> pending = ordered ? new HashMap<Long, Result>() : null;
+        
+        long submitted = 0L;
+        long delivered = 0L;
+        while (true) {
+            if (submitted - delivered < queueCapacity && contexts.hasNext()) {
+                submit(exprs, contexts.next(), submitted++, completed);
+                continue;
+            }
+            if (delivered == submitted)
+                return submitted;
+            
+            Result result = completed.take();
+            if (result.error != null)
+                throw propagate(result.error);
+            if (ordered) {
+                pending.put(result.index, result);
+                while ((result = pending.remove(delivered)) != null) {
+                    delivered++;
+                    handler.handle(result);
+                }
+            } else {
+                delivered++;
+                handler.handle(result);
+            }
+        }
+    }
+    
+    private void submit(final Expression[] exprs, final Environment context, final long index,
+            final BlockingQueue<Result> completed) {
+        executor.execute(new Runnable() {
+            public void run() {
+                Result result;
+                try {
+                    result = evaluate(exprs, context, index);
+                } catch (Throwable e) {
+                    result = new Result(index, context, exprs.length);
+                    result.error = e;
+                }
+                completed.add(result);
+            }
+        });
+    }
+    
+    // Utility methods
+    
+    static Result evaluate(Expression[] exprs, Environment context, long index) {
+        Result result = new Result(index, context, exprs.length);
+        for (int i = 0; i < exprs.length; i++) {
+            try {
+                result.values[i] = exprs[i].evaluate(context);
+            } catch (RuntimeException e) {
+                result.failures[i] = e;
+                result.failureCount++;
+            }
+        }
+        return result;
+    }
+    
+    static RuntimeException propagate(Throwable e) {
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e instanceof RuntimeException)
+            return (RuntimeException) e;
+        return new IllegalStateException(e);
+    }
+    
+    // Handler
+    
+    public interface Handler {
+        
+        void handle(Result result);
+        
+    }
+    
+    // Result
+    
+    public static final class Result {
+        
+        final long index;
+        final Environment context;
+        final Object[] values;
+        final RuntimeException[] failures;
+        int failureCount = 0;
+        Throwable error;
+        
+        Result(long index, Environment context, int count) {
+            this.index = index;
+            this.context = context;
+            this.values = new Object[count];
+            this.failures = new RuntimeException[count];
+        }
+        
+        public long getIndex() {
+            return index;
+        }
+        
+        public Environment getEnvironment() {
+            return context;
+        }
+        
+        public int getExpressionCount() {
+            return values.length;
+        }
+        
+        public Object getValue() {
+            return values[0];
+        }
+        
+        public Object getValue(int expression) {
+            return values[expression];
+        }
+        
+        public RuntimeException getFailure() {
+            return failures[0];
+        }
+        
+        public RuntimeException getFailure(int expression) {
+            return failures[expression];
+        }
+        
+        public boolean isFailed() {
+            return failureCount > 0;
+        }
+        
+        public int getFailureCount() {
+            return failureCount;
+        }
+        
+        public List<RuntimeException> getFailures() {
+            List<RuntimeException> list = new ArrayList<RuntimeException>(failureCount);
+            for (RuntimeException failure : failures)
+                if (failure != null)
+                    list.add(failure);
+            return list;
+        }
+        
+        public String toString() {
+            return index + ": " + (values.length == 1
+                ? String.valueOf(failures[0] == null ? values[0] : failures[0])
+                : Arrays.toString(values) + (isFailed() ? " " + getFailures() : ""));
+        }
+        
+    }
+    
+    // ListTask
+    
+    static final class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = -2717356387216539411L;
+        
+        final Expression[] exprs;
+        final Environment[] items;
+        final Result[] results;
+        final int from;
+        final int to;
+        final int threshold;
+        
+        ListTask(Expression[] exprs, Environment[] items, Result[] results,
+                int from, int to, int threshold) {
+            this.exprs = exprs;
+            this.items = items;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+        
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++)
+                    results[i] = evaluate(exprs, items[i], i);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ListTask(exprs, items, results, from, middle, threshold),
+                          new ListTask(exprs, items, results, middle, to, threshold));
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,376 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.function;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.node.AndNode;
+import org.foxlabs.etk.node.ConditionNode;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeFactory;
+import org.foxlabs.etk.node.NodeTransformer;
+import org.foxlabs.etk.node.OrNode;
+
+// Evaluates an expression that calls asynchronous functions without
+// blocking. The expression is evaluated in stages: before every stage all
+// asynchronous calls that are reached unconditionally and whose arguments
+// are available are started, then the expression is evaluated with the
+// results of completed calls. A stage that needs the result of a call in
+// progress is abandoned and the next stage starts when any of the calls
+// in progress completes. Operators and variables are therefore evaluated
+// once per stage, while results of method calls, property reads and calls
+// of functions that are not determined are kept for later stages, so they
+// run once per evaluation like in a synchronous one. Calls may be started
+// ahead of a failure that would have prevented them. Stages never overlap,
+// the next one is started by the completion of a call.
+//
+// Every call in the expression is started once, with its arguments
+// evaluated once, so later stages take its result even when the arguments
+// would evaluate differently, as in SLOW(RANDOM()). Asynchronous functions
+// reached outside of the expression, for example through expression
+// variables, block.
+public final class AsyncEvaluation {
+    
+    private final Expression expression;
+    private final Environment context;
+    private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+    private final List<CallSite> calls = new ArrayList<CallSite>();
+    
+    // Source nodes of the rewritten nodes, failures are reported against them
+    private final Map<Node, Node> origins = new IdentityHashMap<Node, Node>();
+    private final Node root;
+    
+    private AsyncEvaluation(Expression expression, Environment context) {
+        this.expression = expression;
+        this.context = context;
+        this.root = new Binding().transform(expression.getRootNode());
+    }
+    
+    public static CompletableFuture<Object> evaluate(Expression expression, Environment context) {
+        AsyncEvaluation evaluation = new AsyncEvaluation(expression, context);
+        evaluation.run();
+        return evaluation.result;
+    }
+    
+    public static boolean isAsync(Node node) {
+        AsyncCheck check = new AsyncCheck();
+        check.transform(node);
+        return check.async;
+    }
+    
+    // Stages
+    
+    private void run() {
+        for (;;) {
+            Object value;
+            try {
+                new Prefetch().transform(root);
+                value = root.evaluate(context);
+            } catch (Throwable e) {
+                if (!isBlocked(e)) {
+                    if (e instanceof EvaluationException) {
+                        e = trace((EvaluationException) e);
+                        ((EvaluationException) e).setOwner(expression);
+                    }
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (await())
+                    return;
+                continue;
+            }
+            result.complete(value);
+            return;
+        }
+    }
+    
+    // Returns false when all calls have completed in the meantime and the
+    // next stage may run right away
+    private boolean await() {
+        List<CompletableFuture<?>> pending = new ArrayList<CompletableFuture<?>>();
+        for (CallSite call : calls)
+            if (call.future != null && !call.future.isDone())
+                pending.add(call.future);
+        if (pending.isEmpty())
+            return false;
+        
+        CompletableFuture.anyOf(pending.toArray(new CompletableFuture<?>[pending.size()]))
+            .whenComplete(new BiConsumer<Object, Throwable>() {
+                public void accept(Object value, Throwable failure) {
+                    run();
+                }
+            });
+        return true;
+    }
+    
+    static boolean isBlocked(Throwable e) {
+        for (; e != null; e = e.getCause())
+            if (e == Blocked.INSTANCE)
+                return true;
+        return false;
+    }
+    
+    // Failures are reported as they would be by the source expression, not
+    // as failures of the call sites
+    private EvaluationException trace(EvaluationException e) {
+        while ((isCallSite(e.getNode()) || isMemo(e.getNode())) &&
+                e.getCause() instanceof EvaluationException)
+            e = (EvaluationException) e.getCause();
+        Node origin = origins.get(e.getNode());
+        return origin == null ? e : new EvaluationException(origin, e.getMessage(), e.getCause());
+    }
+    
+    static boolean isCallSite(Node node) {
+        return node instanceof FunctionNode &&
+               ((FunctionNode) node).getFunction() instanceof CallSite;
+    }
+    
+    static boolean isMemo(Node node) {
+        return node instanceof FunctionNode &&
+               ((FunctionNode) node).getFunction() instanceof Memo;
+    }
+    
+    // Binding
+    
+    // Replaces asynchronous calls with call sites of this evaluation and
+    // wraps synchronous nodes that are not stable into memos
+    final class Binding extends NodeTransformer {
+        
+        public Node transform(Node node) {
+            Node result = super.transform(node);
+            if (result != node)
+                origins.put(result, node);
+            if (!isVolatile(node))
+                return result;
+            
+            Node memo = NodeFactory.createFunctionNode(new Memo(result));
+            memo.setSourcePosition(node.getSourceLine(), node.getSourceColumn());
+            origins.put(memo, node);
+            return memo;
+        }
+        
+        public void visit(FunctionNode node) {
+            if (!(node.getFunction() instanceof AsyncFunction)) {
+                super.visit(node);
+                return;
+            }
+            
+            Node[] arguments = new Node[node.getArgumentCount()];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = transform(node.getArgument(i));
+            CallSite call = new CallSite((AsyncFunction) node.getFunction(), arguments);
+            calls.add(call);
+            setResult(NodeFactory.createFunctionNode(call));
+        }
+        
+    }
+    
+    // Prefetch
+    
+    // Starts calls whose arguments can be evaluated, skipping operands that
+    // are evaluated only on condition
+    final class Prefetch extends NodeTransformer {
+        
+        public void visit(AndNode node) {
+            transform(node.getOperand1());
+            setResult(node);
+        }
+        
+        public void visit(OrNode node) {
+            transform(node.getOperand1());
+            setResult(node);
+        }
+        
+        public void visit(ConditionNode node) {
+            transform(node.getOperand1());
+            setResult(node);
+        }
+        
+        public void visit(FunctionNode node) {
+            if (node.getFunction() instanceof Memo) {
+                Memo memo = (Memo) node.getFunction();
+                if (!memo.done)
+                    transform(memo.body);
+                setResult(node);
+                return;
+            }
+            if (!(node.getFunction() instanceof CallSite)) {
+                super.visit(node);
+                return;
+            }
+            
+            CallSite call = (CallSite) node.getFunction();
+            for (Node argument : call.arguments)
+                transform(argument);
+            try {
+                call.start(context);
+            } catch (RuntimeException e) {
+                // Arguments are not available yet or the call would
+                // fail anyway, the evaluation itself will find out
+            }
+            setResult(node);
+        }
+        
+    }
+    
+    static boolean isVolatile(Node node) {
+        switch (node.getId()) {
+            case Node.FUNCTION_NODE:
+                Function function = ((FunctionNode) node).getFunction();
+                return !(function instanceof AsyncFunction || function.isDetermined());
+            case Node.PROPERTY_NODE:
+            case Node.METHOD_NODE:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    // AsyncCheck
+    
+    static final class AsyncCheck extends NodeTransformer {
+        
+        boolean async = false;
+        
+        public void visit(FunctionNode node) {
+            async |= node.getFunction() instanceof AsyncFunction;
+            super.visit(node);
+        }
+        
+    }
+    
+    // CallSite
+    
+    // Single call of an asynchronous function, started on first evaluation
+    static final class CallSite extends Function {
+        
+        final AsyncFunction function;
+        final Node[] arguments;
+        CompletableFuture<?> future;
+        
+        CallSite(AsyncFunction function, Node[] arguments) {
+            super(function.getLocalName(), function.getNamespace(), function.getType());
+            this.function = function;
+            this.arguments = arguments;
+        }
+        
+        void start(Environment context) throws EvaluationException {
+            if (future != null)
+                return;
+            
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = arguments[i].evaluate(context);
+            
+            try {
+                future = function.evaluateAsync(context, values);
+                if (future == null)
+                    throw new NullPointerException(function.getQualifiedName());
+            } catch (Throwable e) {
+                CompletableFuture<Object> failed = new CompletableFuture<Object>();
+                failed.completeExceptionally(e);
+                future = failed;
+            }
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) throws Exception {
+            start(context);
+            if (!future.isDone())
+                throw Blocked.INSTANCE;
+            try {
+                return future.join();
+            } catch (Throwable e) {
+                throw AsyncFunction.causeOf(e);
+            }
+        }
+        
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+        
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+        
+    }
+    
+    // Memo
+    
+    // Synchronous node evaluated once per evaluation, its result or failure
+    // is kept unless the stage was abandoned while evaluating it
+    static final class Memo extends Function {
+        
+        final Node body;
+        boolean done;
+        Object value;
+        Exception failure;
+        
+        Memo(Node body) {
+            super("$", null, body.getType());
+            this.body = body;
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) throws Exception {
+            if (!done) {
+                try {
+                    value = body.evaluate(context);
+                } catch (RuntimeException e) {
+                    if (isBlocked(e))
+                        throw e;
+                    failure = e;
+                }
+                done = true;
+            }
+            if (failure != null)
+                throw failure;
+            return value;
+        }
+        
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+        
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+        
+    }
+    
+    // Blocked
+    
+    // Thrown through the nodes to abandon a stage
+    static final class Blocked extends RuntimeException {
+        private static final long serialVersionUID = -5125458366425208113L;
+        
+        static final Blocked INSTANCE = new Blocked();
+        
+        private Blocked() {
+            super(null, null, false, false);
+        }
+        
+    }
+    
+}
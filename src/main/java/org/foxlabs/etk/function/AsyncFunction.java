@@ -0,0 +1,64 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.support.Signature;
+
+public abstract class AsyncFunction extends Function {
+    
+    protected AsyncFunction(String name, String namespace, Class<?> type, Class<?>... argtypes) {
+        super(name, namespace, type, argtypes);
+    }
+    
+    protected AsyncFunction(Signature signature, Class<?> type) {
+        super(signature, type);
+    }
+    
+    public abstract CompletableFuture<?> evaluateAsync(Environment context, Object... arguments)
+            throws Exception;
+    
+    // Synchronous evaluation blocks until the result is available, an
+    // asynchronous evaluation of the expression starts its calls itself
+    public final Object evaluate(Environment context, Object... arguments) throws Exception {
+        CompletableFuture<?> future = evaluateAsync(context, arguments);
+        if (future == null)
+            throw new NullPointerException(getQualifiedName());
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw causeOf(e);
+        }
+    }
+    
+    // Utility methods
+    
+    static Exception causeOf(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) &&
+                cause.getCause() != null)
+            cause = cause.getCause();
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return (Exception) cause;
+    }
+    
+}
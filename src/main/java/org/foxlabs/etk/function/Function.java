@@ -17,6 +17,7 @@
 package org.foxlabs.etk.function;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.annotation.Cost;
 import org.foxlabs.etk.annotation.Determined;
 import org.foxlabs.etk.support.Operator;
 import org.foxlabs.etk.support.Signature;
@@ -24,6 +25,8 @@ import org.foxlabs.etk.support.Types;
 
 public abstract class Function extends Operator {
     
+    public static final double DEFAULT_COST = 5D;
+    
     private final Signature signature;
     private final Class<?> type;
     
@@ -89,6 +92,19 @@ public abstract class Function extends Operator {
         return getClass().isAnnotationPresent(Determined.class);
     }
     
+    // Determined functions that never fail and never return null when their
+    // arguments are not null, and their regular expression arguments, if
+    // any, are valid
+    public boolean isSafe() {
+        return false;
+    }
+    
+    // Estimated cost relative to a simple arithmetic operation
+    public double getCost() {
+        Cost cost = getClass().getAnnotation(Cost.class);
+        return cost == null ? DEFAULT_COST : cost.value();
+    }
+    
     public abstract Object evaluate(Environment context, Object... arguments)
             throws Exception;
     
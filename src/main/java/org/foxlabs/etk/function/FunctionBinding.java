@@ -0,0 +1,51 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.function;
+
+import org.foxlabs.etk.support.Converter;
+import org.foxlabs.etk.support.Signature;
+
+public final class FunctionBinding {
+    
+    private final Function function;
+    private final Converter[] converters;
+    
+    int version;
+    
+    public FunctionBinding(Function function, Converter... converters) {
+        this.function = function;
+        this.converters = converters;
+    }
+    
+    public Function getFunction() {
+        return function;
+    }
+    
+    public Signature getSignature() {
+        return function.getSignature();
+    }
+    
+    public int getArgumentCount() {
+        return converters.length;
+    }
+    
+    // Returns null if argument is passed as is
+    public Converter getConverter(int index) {
+        return converters[index];
+    }
+    
+}
@@ -20,15 +20,15 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
 import java.util.Iterator;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.foxlabs.etk.EtkException;
 import org.foxlabs.etk.resource.ResourceManager;
 import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.support.Symbol;
 
 public abstract class FunctionLoader {
     
@@ -37,18 +37,22 @@ public abstract class FunctionLoader {
         String.class  // Namespace
     };
     
-    private static FunctionLoader defaultRootLoader;
+    // Created once on first use, the class initialization is thread safe
+    private static final class DefaultRootLoader {
+        static final FunctionLoader INSTANCE = new DefaultFunctionLoader(
+                DefaultFunctionLoader.BASE_FUNCTIONS_PKG);
+    }
     
     public static FunctionLoader getDefaultRootLoader() {
-        if (defaultRootLoader == null)
-            defaultRootLoader = new DefaultFunctionLoader(
-                    DefaultFunctionLoader.BASE_FUNCTIONS_PKG);
-        return defaultRootLoader;
+        return DefaultRootLoader.INSTANCE;
     }
     
     private FunctionLoader parent;
     private final boolean caseSensitive;
-    private Map<String, NamespaceCache> cache = new HashMap<String, NamespaceCache>();
+    private final SymbolMap<NamespaceCache> cache = new SymbolMap<NamespaceCache>();
+    private final ConcurrentHashMap<Signature, FunctionBinding> bindings =
+        new ConcurrentHashMap<Signature, FunctionBinding>();
+    private volatile int version = 0;
     
     protected FunctionLoader() {
         this(null, false);
@@ -73,35 +77,15 @@ public abstract class FunctionLoader {
     
     public final Function loadFunction(Signature signature)
             throws FunctionNotFoundException, EtkException {
-        String namespace = signature.getNamespace();
-        String internalNamespace = internalNamespaceOf(namespace);
-        
         // First, check if the function has already been loaded.
-        NamespaceCache scope;
-        synchronized (cache) {
-            scope = cache.get(internalNamespace);
-        }
-        if (scope != null) {
-            Function function = scope.get(signature);
-            if (function != null)
-                return function;
-        }
+        Function function = getCachedFunction(signature);
+        if (function != null)
+            return function;
         
         try {
-            Function function = findFunction(signature);
+            function = findFunction(signature);
             function.loader = this;
-            
-            if (scope == null) {
-                synchronized (cache) {
-                    scope = cache.get(internalNamespace);
-                    if (scope == null) {
-                        scope = new NamespaceCache(namespace);
-                        cache.put(internalNamespace, scope);
-                    }
-                }
-            }
-            
-            return scope.put(function);
+            return putFunction(function);
         } catch (FunctionNotFoundException e) {
             // Still not found.
             if (parent != null)
@@ -112,22 +96,44 @@ public abstract class FunctionLoader {
         throw new FunctionNotFoundException(signature);
     }
     
-    protected synchronized final void preloadFunctions(Iterator<Function> i) {
+    protected final void preloadFunctions(Iterator<Function> i) {
         while (i.hasNext()) {
             Function function = i.next();
             function.loader = this;
-            Signature signature = function.getSignature();
-            String namespace = signature.getNamespace();
-            String internalNamespace = internalNamespaceOf(namespace);
-            
-            NamespaceCache scope = cache.get(internalNamespace);
-            if (scope == null) {
-                scope = new NamespaceCache(namespace);
-                cache.put(internalNamespace, scope);
-            }
-            
-            scope.put(function);
+            putFunction(function);
+        }
+    }
+    
+    private Function getCachedFunction(Signature signature) {
+        NamespaceCache scope = cache.get(signature.getNamespace());
+        if (scope == null)
+            return null;
+        CacheEntry entry = scope.entries.get(signature.getLocalName());
+        return entry == null ? null : entry.get(signature);
+    }
+    
+    // Writes are rare and serialized, reads never lock
+    private synchronized Function putFunction(Function function) {
+        Signature signature = function.getSignature();
+        String namespace = signature.getNamespace();
+        
+        NamespaceCache scope = cache.get(namespace);
+        if (scope == null) {
+            scope = new NamespaceCache(namespace);
+            cache.put(internalNamespaceOf(namespace), scope);
+        }
+        
+        String name = signature.getLocalName();
+        CacheEntry entry = scope.entries.get(name);
+        if (entry == null) {
+            entry = new CacheEntry();
+            scope.entries.put(internalNameOf(name), entry);
         }
+        
+        Function result = entry.put(function);
+        if (result == function)
+            version++;
+        return result;
     }
     
     protected Function findFunction(Signature signature)
@@ -160,14 +166,8 @@ public abstract class FunctionLoader {
             while (i.hasNext())
                 namespaces.add(i.next());
         
-        synchronized (cache) {
-            if (caseSensitive) {
-                namespaces.addAll(cache.keySet());
-            } else {
-                for (NamespaceCache scope : cache.values())
-                    namespaces.add(scope.namespace);
-            }
-        }
+        for (NamespaceCache scope : cache.values())
+            namespaces.add(scope.namespace);
     }
     
     protected Iterator<String> findNamespaces() throws EtkException {
@@ -201,15 +201,10 @@ public abstract class FunctionLoader {
                 signatures.add(i.next());
         
         if (namespace == null) {
-            synchronized (cache) {
-                for (NamespaceCache scope : cache.values())
-                    scope.getSignatures(signatures, name);
-            }
+            for (NamespaceCache scope : cache.values())
+                scope.getSignatures(signatures, name);
         } else {
-            NamespaceCache scope;
-            synchronized (cache) {
-                scope = cache.get(internalNamespaceOf(namespace));
-            }
+            NamespaceCache scope = cache.get(namespace);
             if (scope != null)
                 scope.getSignatures(signatures, name);
         }
@@ -220,40 +215,69 @@ public abstract class FunctionLoader {
         return null;
     }
     
-    private class NamespaceCache {
+    // Overload resolution cache
+    
+    public final FunctionBinding getCachedBinding(Signature call) {
+        FunctionBinding binding = bindings.get(call);
+        return binding == null || binding.version != getVersion() ? null : binding;
+    }
+    
+    public final FunctionBinding cacheBinding(Signature call, FunctionBinding binding) {
+        binding.version = getVersion();
+        bindings.put(call, binding);
+        return binding;
+    }
+    
+    // Functions registered by parents may change the resolution as well
+    private int getVersion() {
+        int sum = 0;
+        for (FunctionLoader loader = this; loader != null; loader = loader.parent)
+            sum += loader.version;
+        return sum;
+    }
+    
+    // SymbolMap
+    
+    private final class SymbolMap<V> {
         
-        String namespace;
-        Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+        final ConcurrentHashMap<String, V> map = new ConcurrentHashMap<String, V>();
         
-        NamespaceCache(String namespace) {
-            this.namespace = namespace;
+        V get(String name) {
+            V value = map.get(name);
+            if (value == null && !caseSensitive) {
+                // Folded spellings are interned, so the lookup allocates nothing
+                String key = Symbol.fold(name);
+                if (key != name)
+                    value = map.get(key);
+            }
+            return value;
         }
         
-        synchronized Function get(Signature signature) {
-            String internalName = internalNameOf(signature.getLocalName());
-            CacheEntry entry = entries.get(internalName);
-            return entry == null ? null : entry.get(signature);
+        void put(String key, V value) {
+            map.put(key, value);
         }
         
-        synchronized Function put(Function function) {
-            String name = function.getSignature().getLocalName();
-            String internalName = internalNameOf(name);
-            
-            CacheEntry entry = entries.get(internalName);
-            if (entry == null) {
-                entry = new CacheEntry();
-                entries.put(internalName, entry);
-            }
-            
-            return entry.put(function);
+        Iterable<V> values() {
+            return map.values();
         }
         
-        synchronized void getSignatures(Set<Signature> set, String name) {
+    }
+    
+    private class NamespaceCache {
+        
+        final String namespace;
+        final SymbolMap<CacheEntry> entries = new SymbolMap<CacheEntry>();
+        
+        NamespaceCache(String namespace) {
+            this.namespace = namespace;
+        }
+        
+        void getSignatures(Set<Signature> set, String name) {
             if (name == null) {
                 for (CacheEntry entry : entries.values())
                     entry.getSignatures(set);
             } else {
-                CacheEntry entry  = entries.get(internalNameOf(name));
+                CacheEntry entry  = entries.get(name);
                 if (entry != null)
                     entry.getSignatures(set);
             }
@@ -263,48 +287,44 @@ public abstract class FunctionLoader {
     
     private static class CacheEntry {
         
-        Function[] functions = new Function[2];
-        int count = 0;
+        // Replaced as a whole on write
+        volatile Function[] functions = new Function[0];
         
         Function get(Signature signature) {
-            for (int i = 0; i < count; i++)
-                if (signature.isSameArguments(functions[i].getSignature()))
-                    return functions[i];
+            for (Function function : functions)
+                if (signature.isSameArguments(function.getSignature()))
+                    return function;
             
             return null;
         }
         
         Function put(Function function) {
-            Signature signature = function.getSignature();
-            
-            for (int i = 0; i < count; i++)
-                if (signature.isSameArguments(functions[i].getSignature()))
-                    return functions[i];
-            
-            if (count == functions.length) {
-                Function[] temp = new Function[functions.length + 4];
-                System.arraycopy(functions, 0, temp, 0, functions.length);
-                functions = temp;
-            }
+            Function existing = get(function.getSignature());
+            if (existing != null)
+                return existing;
             
-            return functions[count++] = function;
+            Function[] temp = new Function[functions.length + 1];
+            System.arraycopy(functions, 0, temp, 0, functions.length);
+            temp[functions.length] = function;
+            functions = temp;
+            return function;
         }
         
         void getSignatures(Set<Signature> set) {
-            for (int i = 0; i < count; i++)
-                set.add(functions[i].getSignature());
+            for (Function function : functions)
+                set.add(function.getSignature());
         }
         
     }
     
     private String internalNameOf(String name) {
-        return caseSensitive ? name : name.toUpperCase();
+        return caseSensitive ? name : Symbol.fold(name);
     }
     
     private String internalNamespaceOf(String namespace) {
         return caseSensitive || namespace == Signature.NULL_NS
             ? namespace
-            : namespace.toUpperCase();
+            : Symbol.fold(namespace);
     }
     
     // Utility
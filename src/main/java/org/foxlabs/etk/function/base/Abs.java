@@ -34,6 +34,10 @@ public abstract class Abs extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class IntegerImpl extends Abs {
         
         public IntegerImpl(String name, String namespace) {
@@ -31,6 +31,10 @@ public abstract class EndsWith extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class CharImpl extends EndsWith {
         
         public CharImpl(String name, String namespace) {
@@ -34,6 +34,10 @@ public abstract class IsEmpty extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class ObjectImpl extends IsEmpty {
         
         public ObjectImpl(String name, String namespace) {
@@ -34,6 +34,10 @@ public abstract class Length extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class StringImpl extends Length {
         
         public StringImpl(String name, String namespace) {
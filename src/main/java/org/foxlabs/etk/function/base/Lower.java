@@ -31,6 +31,10 @@ public abstract class Lower extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class CharImpl extends Lower {
         
         public CharImpl(String name, String namespace) {
@@ -17,24 +17,30 @@
 package org.foxlabs.etk.function.base;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.annotation.Cost;
 import org.foxlabs.etk.annotation.FxNames;
 import org.foxlabs.etk.function.Function;
 
+@Cost(value = 20, regex = 1)
 @FxNames({"MATCH", "MATCHES"})
 public class Match extends Function {
     
     public Match(String name, String namespace) {
-        super(name, namespace, String.class, String.class, String.class);
+        super(name, namespace, Boolean.class, String.class, String.class);
     }
     
     public boolean isDetermined() {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public Object evaluate(Environment context, Object... arguments) {
         String string = safeArgumentOf(arguments, 0);
         String regex = safeArgumentOf(arguments, 1);
-        return string.matches(regex);
+        return Patterns.compile(regex).matcher(string).matches();
     }
     
 }
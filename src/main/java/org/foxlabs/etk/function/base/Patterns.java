@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.function.base;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+// Regular expressions compiled by the regex functions. Constant regular
+// expression arguments are compiled once, others only until the cache is
+// full, after that they are compiled on every call.
+final class Patterns {
+    
+    static final int MAX_PATTERNS = 256;
+    
+    private static final ConcurrentMap<String, Pattern> patterns =
+            new ConcurrentHashMap<String, Pattern>();
+    
+    private Patterns() {}
+    
+    static Pattern compile(String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            if (patterns.size() < MAX_PATTERNS) {
+                Pattern cached = patterns.putIfAbsent(regex, pattern);
+                if (cached != null)
+                    pattern = cached;
+            }
+        }
+        return pattern;
+    }
+    
+}
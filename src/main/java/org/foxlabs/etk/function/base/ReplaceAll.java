@@ -17,9 +17,11 @@
 package org.foxlabs.etk.function.base;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.annotation.Cost;
 import org.foxlabs.etk.annotation.FxNames;
 import org.foxlabs.etk.function.Function;
 
+@Cost(value = 20, regex = 1)
 @FxNames("REPLACEALL")
 public class ReplaceAll extends Function {
     
@@ -35,7 +37,7 @@ public class ReplaceAll extends Function {
         String string = safeArgumentOf(arguments, 0);
         String regex = safeArgumentOf(arguments, 1);
         String replacement = safeArgumentOf(arguments, 2);
-        return string.replaceAll(regex, replacement);
+        return Patterns.compile(regex).matcher(string).replaceAll(replacement);
     }
     
 }
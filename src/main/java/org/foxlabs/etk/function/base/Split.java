@@ -17,9 +17,11 @@
 package org.foxlabs.etk.function.base;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.annotation.Cost;
 import org.foxlabs.etk.annotation.FxNames;
 import org.foxlabs.etk.function.Function;
 
+@Cost(value = 20, regex = 1)
 @FxNames("SPLIT")
 public class Split extends Function {
     
@@ -31,10 +33,14 @@ public class Split extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public Object evaluate(Environment context, Object... arguments) {
         String string = safeArgumentOf(arguments, 0);
         String regex = safeArgumentOf(arguments, 1);
-        return string.split(regex);
+        return Patterns.compile(regex).split(string);
     }
     
 }
@@ -31,6 +31,10 @@ public abstract class StartsWith extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class CharImpl extends StartsWith {
         
         public CharImpl(String name, String namespace) {
@@ -31,6 +31,10 @@ public class ToString extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public Object evaluate(Environment context, Object... arguments) {
         return arguments[0] == null ? "" : arguments[0].toString();
     }
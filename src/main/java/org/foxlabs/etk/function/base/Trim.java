@@ -31,6 +31,10 @@ public class Trim extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public Object evaluate(Environment context, Object... arguments) {
         String string = safeArgumentOf(arguments, 0);
         return string.trim();
@@ -31,6 +31,10 @@ public abstract class Upper extends Function {
         return true;
     }
     
+    public boolean isSafe() {
+        return true;
+    }
+    
     public static class CharImpl extends Upper {
         
         public CharImpl(String name, String namespace) {
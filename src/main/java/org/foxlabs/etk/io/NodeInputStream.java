@@ -242,6 +242,14 @@ public class NodeInputStream extends ObjectInputStream {
                     readMethod();
                     break;
                     
+                case IN_NODE:
+                    readIn();
+                    break;
+                    
+                case NOT_IN_NODE:
+                    readNotIn();
+                    break;
+                    
                 default:
                     throw ResourceManager.newIOException(
                             "io.corruptedInputStream");
@@ -458,6 +466,20 @@ public class NodeInputStream extends ObjectInputStream {
             builder.method(name);
         }
         
+        public void readIn() throws IOException {
+            readNode();
+            builder.mark();
+            readNary();
+            builder.in();
+        }
+        
+        public void readNotIn() throws IOException {
+            readNode();
+            builder.mark();
+            readNary();
+            builder.notIn();
+        }
+        
         // Utility methods
         
         protected void readUnary() throws IOException {
@@ -326,6 +326,15 @@ public class NodeOutputStream extends ObjectOutputStream {
             
         }
         
+        public void writeIn(InNode node) throws IOException {
+            writeHeader(node);
+            node.getOperand().accept(visitor);
+            int count = node.getElementCount();
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+                node.getElement(i).accept(visitor);
+        }
+        
         // Utility methods
         
         protected void writeHeader(Node node) throws IOException {
@@ -468,6 +477,9 @@ public class NodeOutputStream extends ObjectOutputStream {
         public void visit(MethodNode node) throws IOException {
             writer.writeMethod(node);
         }
+        public void visit(InNode node) throws IOException {
+            writer.writeIn(node);
+        }
         
     }
     
@@ -54,6 +54,15 @@ public final class AndNode extends BinaryNode implements LogicalNode {
         return Boolean.TRUE;
     }
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        return evaluateCondition(operand1, context) &&
+               evaluateCondition(operand2, context);
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
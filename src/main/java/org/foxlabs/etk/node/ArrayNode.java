@@ -27,8 +27,6 @@ public final class ArrayNode extends Node {
     private final Node[] items;
     private final Class<?> type;
     
-    private transient int hash = 0;
-    
     ArrayNode(Node... items) {
         Class<?>[] types = new Class<?>[items.length];
         for (int i = 0; i < types.length; i++)
@@ -81,21 +79,25 @@ public final class ArrayNode extends Node {
         return true;
     }
     
-    public int hashCode() {
-        if (hash == 0) {
-            hash = getId();
-            for (Node item : items)
-                hash = 31 * hash + item.hashCode();
-        }
+    long computeFingerprint() {
+        long hash = getId();
+        for (Node item : items)
+            hash = fingerprint(hash, item);
         return hash;
     }
     
+    public int hashCode() {
+        return fingerprintHash();
+    }
+    
     public boolean equals(Object obj) {
         if (obj == this)
             return true;
         
         if (obj instanceof ArrayNode) {
             ArrayNode other = (ArrayNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             if (getType() == other.getType()) {
                 int itemcount = items.length;
                 if (itemcount == other.items.length) {
@@ -16,6 +16,10 @@
 
 package org.foxlabs.etk.node;
 
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.support.Comparator;
+
 public abstract class BinaryNode extends Node implements OperatorNode {
     
     final Node operand1;
@@ -42,16 +46,76 @@ public abstract class BinaryNode extends Node implements OperatorNode {
         return operand2;
     }
     
+    // Comparison of relational operators, primitive operands are not boxed
+    final int compareOperands(Comparator comparator, Environment context)
+            throws EvaluationException {
+        Class<?> type = comparator.getType();
+        if (type == Integer.class) {
+            Object obj1 = evaluateBoxed(operand1, context);
+            int v1 = obj1 == TYPED ? operand1.evaluateInt(context) : 0;
+            Object obj2 = evaluateBoxed(operand2, context);
+            int v2 = obj2 == TYPED ? operand2.evaluateInt(context) : 0;
+            try {
+                return Integer.compare(intValueOf(obj1, v1), intValueOf(obj2, v2));
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        if (type == Long.class) {
+            Object obj1 = evaluateBoxed(operand1, context);
+            long v1 = obj1 == TYPED ? operand1.evaluateLong(context) : 0L;
+            Object obj2 = evaluateBoxed(operand2, context);
+            long v2 = obj2 == TYPED ? operand2.evaluateLong(context) : 0L;
+            try {
+                return Long.compare(longValueOf(obj1, v1), longValueOf(obj2, v2));
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        if (type == Float.class) {
+            Object obj1 = evaluateBoxed(operand1, context);
+            float v1 = obj1 == TYPED ? (float) operand1.evaluateDouble(context) : 0F;
+            Object obj2 = evaluateBoxed(operand2, context);
+            float v2 = obj2 == TYPED ? (float) operand2.evaluateDouble(context) : 0F;
+            try {
+                return Float.compare(floatValueOf(obj1, v1), floatValueOf(obj2, v2));
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        if (type == Double.class) {
+            Object obj1 = evaluateBoxed(operand1, context);
+            double v1 = obj1 == TYPED ? operand1.evaluateDouble(context) : 0D;
+            Object obj2 = evaluateBoxed(operand2, context);
+            double v2 = obj2 == TYPED ? operand2.evaluateDouble(context) : 0D;
+            try {
+                return Double.compare(doubleValueOf(obj1, v1), doubleValueOf(obj2, v2));
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        
+        Object obj1 = operand1.evaluate(context);
+        Object obj2 = operand2.evaluate(context);
+        try {
+            return comparator.compare(obj1, obj2);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
     public boolean isDetermined() {
         return operand1.isDetermined() &&
                operand2.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), operand1);
+        return fingerprint(hash, operand2);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + operand1.hashCode();
-        hash = 31 * hash + operand2.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -60,6 +124,8 @@ public abstract class BinaryNode extends Node implements OperatorNode {
         
         if (obj instanceof BinaryNode) {
             BinaryNode other = (BinaryNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getId() == other.getId() &&
                    getType() == other.getType() &&
                    operand1.equals(other.operand1) &&
@@ -38,6 +38,10 @@ public final class CastNode extends Node {
         return converter.getType();
     }
     
+    public Converter getConverter() {
+        return converter;
+    }
+    
     public Node getOperand() {
         return operand;
     }
@@ -59,11 +63,13 @@ public final class CastNode extends Node {
         return operand.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), converter.getType().hashCode());
+        return fingerprint(hash, operand);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + converter.getType().hashCode();
-        hash = 31 * hash + operand.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -72,6 +78,8 @@ public final class CastNode extends Node {
         
         if (obj instanceof CastNode) {
             CastNode other = (CastNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getType() == other.getType() &&
                    operand.equals(other.operand);
         }
@@ -53,6 +53,59 @@ public final class ConditionNode extends TernaryNode {
         return operand3.evaluate(context);
     }
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        Node operand = evaluateCondition(operand1, context) ? operand2 : operand3;
+        if (operand.isPrimitive(context))
+            return operand.evaluateBoolean(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeBooleanValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        Node operand = evaluateCondition(operand1, context) ? operand2 : operand3;
+        if (operand.isPrimitive(context))
+            return operand.evaluateInt(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeIntValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Node operand = evaluateCondition(operand1, context) ? operand2 : operand3;
+        if (operand.isPrimitive(context))
+            return operand.evaluateLong(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeLongValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Node operand = evaluateCondition(operand1, context) ? operand2 : operand3;
+        if (operand.isPrimitive(context))
+            return operand.evaluateDouble(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeDoubleValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return operand2.isPrimitive(context) &&
+               operand3.isPrimitive(context);
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
@@ -19,6 +19,7 @@ package org.foxlabs.etk.node;
 import org.foxlabs.etk.Environment;
 import org.foxlabs.etk.EvaluationException;
 import org.foxlabs.etk.support.Converter;
+import org.foxlabs.etk.support.Operator;
 
 public final class ConvertNode extends Node {
     
@@ -38,6 +39,10 @@ public final class ConvertNode extends Node {
         return converter.getType();
     }
     
+    public Converter getConverter() {
+        return converter;
+    }
+    
     public Node getOperand() {
         return operand;
     }
@@ -51,6 +56,62 @@ public final class ConvertNode extends Node {
         }
     }
     
+    public int evaluateInt(Environment context) throws EvaluationException {
+        if (getType() != Integer.class || converter.getKind() == Converter.NARROWING)
+            return super.evaluateInt(context);
+        if (operand.isPrimitive(context))
+            return operand.evaluateInt(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeIntValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Class<?> type = getType();
+        if (type == Integer.class)
+            return evaluateInt(context);
+        if (type != Long.class || converter.getKind() == Converter.NARROWING)
+            return super.evaluateLong(context);
+        if (operand.isPrimitive(context))
+            return operand.evaluateLong(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeLongValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Class<?> type = getType();
+        if (type == Integer.class || type == Long.class)
+            return evaluateLong(context);
+        if (type != Float.class && type != Double.class || converter.getKind() == Converter.NARROWING)
+            return super.evaluateDouble(context);
+        boolean exact = type == Double.class || operand.getType() == Float.class;
+        if (operand.isPrimitive(context)) {
+            return exact
+                ? operand.evaluateDouble(context)
+                : (float) operand.evaluateLong(context);
+        }
+        Object obj = operand.evaluate(context);
+        try {
+            return exact
+                ? Operator.safeDoubleValueOf(obj)
+                : (float) Operator.safeLongValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return converter.getKind() != Converter.NARROWING &&
+               operand.isPrimitive(context);
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
@@ -59,11 +120,13 @@ public final class ConvertNode extends Node {
         return operand.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), converter.getType().hashCode());
+        return fingerprint(hash, operand);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + converter.getType().hashCode();
-        hash = 31 * hash + operand.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -72,6 +135,8 @@ public final class ConvertNode extends Node {
         
         if (obj instanceof ConvertNode) {
             ConvertNode other = (ConvertNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getType() == other.getType() &&
                    operand.equals(other.operand);
         }
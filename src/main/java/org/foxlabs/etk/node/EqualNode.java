@@ -18,6 +18,7 @@ package org.foxlabs.etk.node;
 
 import org.foxlabs.etk.Environment;
 import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.support.Comparator;
 
 public final class EqualNode extends BinaryNode implements RelationalNode {
     
@@ -37,23 +38,26 @@ public final class EqualNode extends BinaryNode implements RelationalNode {
         Object obj1 = operand1.evaluate(context);
         Object obj2 = operand2.evaluate(context);
         try {
-            if (obj1 == obj2)
-                return Boolean.TRUE;
-            
-            if (obj1 == null || obj2 == null)
-                return Boolean.FALSE;
-            
-            if (obj1.equals(obj2)) {
-                if (obj1.getClass() == obj2.getClass() || obj2.equals(obj1))
-                    return Boolean.TRUE;
-            }
-            
-            return Boolean.FALSE;
+            return Boolean.valueOf(Comparator.isEqual(obj1, obj2));
         } catch (Exception e) {
             throw new EvaluationException(this, e);
         }
     }
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        Object obj1 = operand1.evaluate(context);
+        Object obj2 = operand2.evaluate(context);
+        try {
+            return Comparator.isEqual(obj1, obj2);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
@@ -25,8 +25,6 @@ public final class FunctionNode extends Node {
     private final Function function;
     private final Node[] arguments;
     
-    private transient int hash = 0;
-    
     FunctionNode(Function function, Node... arguments) {
         this.function = function;
         this.arguments = arguments;
@@ -104,21 +102,25 @@ public final class FunctionNode extends Node {
         return true;
     }
     
-    public int hashCode() {
-        if (hash == 0) {
-            hash = getId() ^ function.hashCode();
-            for (Node argument : arguments)
-                hash = 31 * hash + argument.hashCode();
-        }
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), function.hashCode());
+        for (Node argument : arguments)
+            hash = fingerprint(hash, argument);
         return hash;
     }
     
+    public int hashCode() {
+        return fingerprintHash();
+    }
+    
     public boolean equals(Object obj) {
         if (obj == this)
             return true;
         
         if (obj instanceof FunctionNode) {
             FunctionNode other = (FunctionNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             int argcount = arguments.length;
             if (argcount == other.arguments.length) {
                 if (function.equals(other.function)) {
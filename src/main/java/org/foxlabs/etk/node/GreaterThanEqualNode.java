@@ -37,6 +37,10 @@ public final class GreaterThanEqualNode extends BinaryNode implements Relational
         return Boolean.class;
     }
     
+    public Comparator getComparator() {
+        return comparator;
+    }
+    
     public Boolean evaluate(Environment context) throws EvaluationException {
         Object obj1 = operand1.evaluate(context);
         Object obj2 = operand2.evaluate(context);
@@ -48,6 +52,14 @@ public final class GreaterThanEqualNode extends BinaryNode implements Relational
         }
     }
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        return compareOperands(comparator, context) >= 0;
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
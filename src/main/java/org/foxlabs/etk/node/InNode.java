@@ -0,0 +1,232 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.node;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.support.Comparator;
+
+public final class InNode extends NaryNode implements RelationalNode {
+    
+    private final boolean negated;
+    
+    // Constant elements are looked up at once, the rest are compared in order
+    private final ValueSet constants;
+    private final Node[] variables;
+    
+    InNode(boolean negated, Node... operands) {
+        super(operands);
+        this.negated = negated;
+        
+        Object[] values = new Object[operands.length - 1];
+        Node[] variables = new Node[operands.length - 1];
+        int valueCount = 0, variableCount = 0;
+        for (int i = 1; i < operands.length; i++) {
+            if (isConstant(operands[i])) {
+                try {
+                    values[valueCount] = operands[i].evaluate(null);
+                    valueCount++;
+                    continue;
+                } catch (RuntimeException e) {
+                    // Failures are left to be reported at evaluation time
+                }
+            }
+            variables[variableCount++] = operands[i];
+        }
+        
+        this.constants = ValueSet.create(Arrays.copyOf(values, valueCount));
+        this.variables = Arrays.copyOf(variables, variableCount);
+    }
+    
+    public int getId() {
+        return negated ? NOT_IN_NODE : IN_NODE;
+    }
+    
+    public Class<Boolean> getType() {
+        return Boolean.class;
+    }
+    
+    public boolean isNegated() {
+        return negated;
+    }
+    
+    public Node getOperand() {
+        return operands[0];
+    }
+    
+    public int getElementCount() {
+        return operands.length - 1;
+    }
+    
+    public Node getElement(int index) {
+        return operands[index + 1];
+    }
+    
+    public Node[] getElements() {
+        return Arrays.copyOfRange(operands, 1, operands.length);
+    }
+    
+    public Boolean evaluate(Environment context) throws EvaluationException {
+        return Boolean.valueOf(evaluateBoolean(context));
+    }
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        return test(operands[0].evaluate(context), context);
+    }
+    
+    public Node[] getVariableElements() {
+        return variables.clone();
+    }
+    
+    public boolean test(Object value, Environment context) throws EvaluationException {
+        boolean found = testConstants(value);
+        for (int i = 0; !found && i < variables.length; i++) {
+            Object element = variables[i].evaluate(context);
+            try {
+                found = Comparator.isEqual(value, element);
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        
+        return found != negated;
+    }
+    
+    // Membership among the constant elements only, regardless of negation
+    public boolean testConstants(Object value) throws EvaluationException {
+        try {
+            return constants.contains(value);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
+    public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
+        visitor.visit(this);
+    }
+    
+    // Literals converted to the operand type are constants too
+    static boolean isConstant(Node node) {
+        if (node instanceof ConvertNode)
+            node = ((ConvertNode) node).getOperand();
+        return node instanceof LiteralNode<?>;
+    }
+    
+}
+
+// ============================================================================
+
+abstract class ValueSet {
+    
+    static final ValueSet EMPTY = new HashValueSet(new HashSet<Object>());
+    
+    abstract boolean contains(Object value);
+    
+    // Numbers of the same type are kept in a sorted array of keys, since
+    // equality of boxed numbers never holds across types
+    static ValueSet create(Object[] values) {
+        if (values.length == 0)
+            return EMPTY;
+        
+        Class<?> type = null;
+        int nullCount = 0;
+        for (Object value : values) {
+            if (value == null) {
+                nullCount++;
+            } else if (type == null) {
+                type = value.getClass();
+            } else if (type != value.getClass()) {
+                type = Object.class;
+            }
+        }
+        
+        if (NumberValueSet.isSupported(type)) {
+            long[] keys = new long[values.length - nullCount];
+            for (int i = 0, j = 0; i < values.length; i++)
+                if (values[i] != null)
+                    keys[j++] = NumberValueSet.keyOf((Number) values[i]);
+            return new NumberValueSet(type, keys, nullCount > 0);
+        }
+        
+        return new HashValueSet(new HashSet<Object>(Arrays.asList(values)));
+    }
+    
+}
+
+// ============================================================================
+
+final class HashValueSet extends ValueSet {
+    
+    private final Set<Object> values;
+    
+    HashValueSet(Set<Object> values) {
+        this.values = values;
+    }
+    
+    boolean contains(Object value) {
+        return values.contains(value);
+    }
+    
+}
+
+// ============================================================================
+
+final class NumberValueSet extends ValueSet {
+    
+    private final Class<?> type;
+    private final long[] keys;
+    private final boolean containsNull;
+    
+    NumberValueSet(Class<?> type, long[] keys, boolean containsNull) {
+        Arrays.sort(keys);
+        this.type = type;
+        this.keys = keys;
+        this.containsNull = containsNull;
+    }
+    
+    boolean contains(Object value) {
+        if (value == null)
+            return containsNull;
+        if (value.getClass() != type)
+            return false;
+        return Arrays.binarySearch(keys, keyOf((Number) value)) >= 0;
+    }
+    
+    static boolean isSupported(Class<?> type) {
+        return type == Integer.class || type == Long.class ||
+               type == Double.class || type == Float.class ||
+               type == Short.class || type == Byte.class;
+    }
+    
+    // Floating point keys follow equals() that compares bit patterns
+    static long keyOf(Number value) {
+        if (value instanceof Double)
+            return Double.doubleToLongBits(value.doubleValue());
+        if (value instanceof Float)
+            return Float.floatToIntBits(value.floatValue());
+        return value.longValue();
+    }
+    
+}
@@ -48,6 +48,10 @@ public final class IndexNode extends Node implements OperatorNode {
         return indexer.getType();
     }
     
+    public Indexer getIndexer() {
+        return indexer;
+    }
+    
     public Node getCollection() {
         return collection;
     }
@@ -75,11 +79,13 @@ public final class IndexNode extends Node implements OperatorNode {
                key.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), collection);
+        return fingerprint(hash, key);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + collection.hashCode();
-        hash = 31 * hash + key.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -88,6 +94,8 @@ public final class IndexNode extends Node implements OperatorNode {
         
         if (obj instanceof IndexNode) {
             IndexNode other = (IndexNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getType() == other.getType() &&
                    collection.equals(other.collection) &&
                    key.equals(other.key);
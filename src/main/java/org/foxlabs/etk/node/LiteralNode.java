@@ -26,6 +26,10 @@ public abstract class LiteralNode<T> extends Node {
     
     public abstract T evaluate(Environment context);
     
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public int hashCode() {
         return getId() ^ getValue().hashCode();
     }
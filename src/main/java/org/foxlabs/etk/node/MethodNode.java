@@ -28,8 +28,6 @@ public final class MethodNode extends Node implements OperatorNode {
     private final Node[] arguments;
     private final MethodAccessor accessor;
     
-    private transient int hash = 0;
-    
     MethodNode(MethodAccessor accessor, Node object, Node... arguments) {
         this.object = object;
         this.arguments = arguments;
@@ -60,6 +58,10 @@ public final class MethodNode extends Node implements OperatorNode {
         return accessor.getType();
     }
     
+    public MethodAccessor getAccessor() {
+        return accessor;
+    }
+    
     public Node getObject() {
         return object;
     }
@@ -116,23 +118,26 @@ public final class MethodNode extends Node implements OperatorNode {
         return true;
     }
     
-    public int hashCode() {
-        if (hash == 0) {
-            hash = getId();
-            hash = 31 * hash + getMethodName().hashCode();
-            hash = 31 * hash + object.hashCode();
-            for (Node argument : arguments)
-                hash = 31 * hash + argument.hashCode();
-        }
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), getMethodName().hashCode());
+        hash = fingerprint(hash, object);
+        for (Node argument : arguments)
+            hash = fingerprint(hash, argument);
         return hash;
     }
     
+    public int hashCode() {
+        return fingerprintHash();
+    }
+    
     public boolean equals(Object obj) {
         if (obj == this)
             return true;
         
         if (obj instanceof MethodNode) {
             MethodNode other = (MethodNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             if (getType() == other.getType()) {
                 int argcount = arguments.length;
                 if (argcount == other.arguments.length) {
@@ -20,8 +20,6 @@ public abstract class NaryNode extends Node implements OperatorNode {
     
     final Node[] operands;
     
-    private transient int hash = 0;
-    
     NaryNode(Node... operands) {
         this.operands = operands;
     }
@@ -53,21 +51,25 @@ public abstract class NaryNode extends Node implements OperatorNode {
         return true;
     }
     
-    public int hashCode() {
-        if (hash == 0) {
-            hash = getId();
-            for (Node operand : operands)
-                hash = 31 * hash + operand.hashCode();
-        }
+    long computeFingerprint() {
+        long hash = getId();
+        for (Node operand : operands)
+            hash = fingerprint(hash, operand);
         return hash;
     }
     
+    public int hashCode() {
+        return fingerprintHash();
+    }
+    
     public boolean equals(Object obj) {
         if (obj == this)
             return true;
         
         if (obj instanceof NaryNode) {
             NaryNode other = (NaryNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             if (getId() == other.getId()) {
                 if (getType() == other.getType()) {
                     int opcount = operands.length;
@@ -37,6 +37,10 @@ public final class NegateNode extends UnaryNode implements ArithmeticalNode {
         return calculator.getType();
     }
     
+    public Calculator getCalculator() {
+        return calculator;
+    }
+    
     public Number evaluate(Environment context) throws EvaluationException {
         Object obj = operand.evaluate(context);
         try {
@@ -46,6 +50,61 @@ public final class NegateNode extends UnaryNode implements ArithmeticalNode {
         }
     }
     
+    public int evaluateInt(Environment context) throws EvaluationException {
+        if (calculator.getType() != Integer.class)
+            return super.evaluateInt(context);
+        Object obj = evaluateBoxed(operand, context);
+        int v = obj == TYPED ? operand.evaluateInt(context) : 0;
+        try {
+            return -intValueOf(obj, v);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Class<?> type = calculator.getType();
+        if (type == Integer.class)
+            return evaluateInt(context);
+        if (type != Long.class)
+            return super.evaluateLong(context);
+        Object obj = evaluateBoxed(operand, context);
+        long v = obj == TYPED ? operand.evaluateLong(context) : 0L;
+        try {
+            return -longValueOf(obj, v);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Class<?> type = calculator.getType();
+        if (type == Integer.class || type == Long.class)
+            return evaluateLong(context);
+        if (type == Float.class) {
+            Object obj = evaluateBoxed(operand, context);
+            float v = obj == TYPED ? (float) operand.evaluateDouble(context) : 0F;
+            try {
+                return -floatValueOf(obj, v);
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        if (type != Double.class)
+            return super.evaluateDouble(context);
+        Object obj = evaluateBoxed(operand, context);
+        double v = obj == TYPED ? operand.evaluateDouble(context) : 0D;
+        try {
+            return -doubleValueOf(obj, v);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
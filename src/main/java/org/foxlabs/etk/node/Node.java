@@ -21,6 +21,7 @@ import java.util.Arrays;
 import org.foxlabs.etk.Environment;
 import org.foxlabs.etk.EvaluationException;
 import org.foxlabs.etk.codec.ExpressionEncoder;
+import org.foxlabs.etk.support.Operator;
 
 public abstract class Node {
     
@@ -56,8 +57,10 @@ public abstract class Node {
     public static final int INDEX_NODE     = 30;
     public static final int PROPERTY_NODE  = 31;
     public static final int METHOD_NODE    = 32;
+    public static final int IN_NODE        = 33;
+    public static final int NOT_IN_NODE    = 34;
     
-    public static final int NODE_COUNT    = 33;
+    public static final int NODE_COUNT    = 35;
     
     static final int[] operatorPrecedences = new int[NODE_COUNT];
     
@@ -84,6 +87,8 @@ public abstract class Node {
         operatorPrecedences[INDEX_NODE]     = 1000;
         operatorPrecedences[PROPERTY_NODE]  = 1000;
         operatorPrecedences[METHOD_NODE]    = 1000;
+        operatorPrecedences[IN_NODE]        = 500;
+        operatorPrecedences[NOT_IN_NODE]    = 500;
     }
     
     public static int getOperatorPrecedence(int nodeId) {
@@ -119,6 +124,8 @@ public abstract class Node {
         operatorSymbols[INDEX_NODE]     = "[]";
         operatorSymbols[PROPERTY_NODE]  = ".";
         operatorSymbols[METHOD_NODE]    = ".";
+        operatorSymbols[IN_NODE]        = "in";
+        operatorSymbols[NOT_IN_NODE]    = "not in";
     }
     
     public static String getOperatorSymbol(int nodeId) {
@@ -133,6 +140,8 @@ public abstract class Node {
     
     private int line = -1, column = -1;
     
+    private transient volatile long fingerprint = 0L;
+    
     Node() {}
     
     public abstract int getId();
@@ -141,6 +150,87 @@ public abstract class Node {
     
     public abstract Object evaluate(Environment context) throws EvaluationException;
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeBooleanValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeIntValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeLongValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Object obj = evaluate(context);
+        try {
+            return Operator.safeDoubleValueOf(obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    // Typed evaluation of a primitive node never unboxes a missing value, so
+    // operators evaluate such operands typed and fail exactly as evaluate()
+    boolean isPrimitive(Environment context) {
+        return false;
+    }
+    
+    // Typed operators evaluate other operands boxed and unbox them once all
+    // their operands are evaluated, as evaluate() does, so failures are
+    // reported in the same order and on the same nodes. Values of operands
+    // evaluated typed are marked by TYPED.
+    static final Object TYPED = new Object();
+    
+    static Object evaluateBoxed(Node operand, Environment context) throws EvaluationException {
+        return operand.isPrimitive(context) ? TYPED : operand.evaluate(context);
+    }
+    
+    static int intValueOf(Object obj, int value) {
+        return obj == TYPED ? value : Operator.safeValueOf((Integer) obj);
+    }
+    
+    static long longValueOf(Object obj, long value) {
+        return obj == TYPED ? value : Operator.safeValueOf((Long) obj);
+    }
+    
+    static float floatValueOf(Object obj, float value) {
+        return obj == TYPED ? value : Operator.safeValueOf((Float) obj);
+    }
+    
+    static double doubleValueOf(Object obj, double value) {
+        return obj == TYPED ? value : Operator.safeValueOf((Double) obj);
+    }
+    
+    // Boolean operands are unboxed as soon as evaluated, as logical operators
+    // and conditions short-circuit
+    final boolean evaluateCondition(Node operand, Environment context) throws EvaluationException {
+        if (operand.isPrimitive(context))
+            return operand.evaluateBoolean(context);
+        Object obj = operand.evaluate(context);
+        try {
+            return Operator.safeValueOf((Boolean) obj);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
     public abstract <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T;
     
     public final int getSourceLine() {
@@ -160,6 +250,38 @@ public abstract class Node {
         return true;
     }
     
+    // Structural fingerprint
+    
+    public final long getFingerprint() {
+        // Nodes are immutable so the fingerprint is computed only once
+        long hash = fingerprint;
+        if (hash == 0L) {
+            hash = computeFingerprint();
+            if (hash == 0L)
+                hash = 1L;
+            fingerprint = hash;
+        }
+        return hash;
+    }
+    
+    long computeFingerprint() {
+        return fingerprint(getId(), hashCode());
+    }
+    
+    final int fingerprintHash() {
+        long hash = getFingerprint();
+        return (int) (hash ^ (hash >>> 32));
+    }
+    
+    static long fingerprint(long hash, Node node) {
+        return fingerprint(hash, node.getFingerprint());
+    }
+    
+    static long fingerprint(long hash, long value) {
+        hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 31);
+    }
+    
     public String toString() {
         return ExpressionEncoder.getDefault().encode(this);
     }
@@ -30,6 +30,7 @@ public final class NodeBuilder {
     private static final int INITIAL_CAPACITY = 20;
     
     private Environment context;
+    private NodeInterner interner;
     
     private Node[] oldQueue = new Node[INITIAL_CAPACITY];
     private Node[] newQueue = new Node[INITIAL_CAPACITY];
@@ -42,15 +43,28 @@ public final class NodeBuilder {
     private int marker = 0;
     
     public NodeBuilder(Environment context) {
+        this(context, null);
+    }
+    
+    public NodeBuilder(Environment context, NodeInterner interner) {
         if (context == null)
             throw new NullPointerException();
         this.context = context;
+        this.interner = interner;
     }
     
     public Environment getEnvironment() {
         return context;
     }
     
+    public NodeInterner getInterner() {
+        return interner;
+    }
+    
+    public void setInterner(NodeInterner interner) {
+        this.interner = interner;
+    }
+    
     public boolean isEmpty() {
         return size() == 0;
     }
@@ -104,7 +118,7 @@ public final class NodeBuilder {
         if (newSize == 0 || (marker > 0 && marks[marker - 1] == newSize))
             throw new IllegalStateException();
         
-        Node result = newQueue[--newSize];
+        Node result = intern(newQueue[--newSize]);
         newQueue[newSize] = null;
         
         if (popSize > newSize)
@@ -120,7 +134,7 @@ public final class NodeBuilder {
         
         Node[] result = new Node[count];
         for (int i = 0, j = newSize - count; i < count; i++, j++) {
-            result[i] = newQueue[j];
+            result[i] = intern(newQueue[j]);
             newQueue[j] = null;
         }
         
@@ -134,6 +148,13 @@ public final class NodeBuilder {
         return result;
     }
     
+    // Nodes are interned only when they are popped, so children are always
+    // canonical before their parent is created and the source position of
+    // the node on top of the queue can still be assigned
+    private Node intern(Node node) {
+        return interner == null ? node : interner.intern(node);
+    }
+    
     private void commit() {
         if (newSize > popSize)
             System.arraycopy(newQueue, popSize, oldQueue, popSize, newSize - popSize);
@@ -370,6 +391,30 @@ public final class NodeBuilder {
         }
     }
     
+    public NodeBuilder in() throws EtkException {
+        try {
+            Node[] elements = popn();
+            Node operand = pop();
+            push(NodeFactory.createInNode(operand, elements));
+            commit();
+            return this;
+        } finally {
+            rollback();
+        }
+    }
+    
+    public NodeBuilder notIn() throws EtkException {
+        try {
+            Node[] elements = popn();
+            Node operand = pop();
+            push(NodeFactory.createNotInNode(operand, elements));
+            commit();
+            return this;
+        } finally {
+            rollback();
+        }
+    }
+    
     public NodeBuilder gt() throws EtkException {
         try {
             Node operand2 = pop();
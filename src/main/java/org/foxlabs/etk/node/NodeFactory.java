@@ -28,10 +28,12 @@ import org.foxlabs.etk.bean.MethodAccessor;
 import org.foxlabs.etk.bean.MethodNotFoundException;
 import org.foxlabs.etk.bean.PropertyAccessor;
 import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionBinding;
 import org.foxlabs.etk.function.FunctionLoader;
 import org.foxlabs.etk.function.FunctionNotFoundException;
 import org.foxlabs.etk.support.*;
 import org.foxlabs.etk.variable.VariableTable;
+import org.foxlabs.etk.variable.SlotVariableTable;
 
 public class NodeFactory {
     
@@ -187,6 +189,37 @@ public class NodeFactory {
                                 convertNodeIfNecessary(operand2, type));
     }
     
+    public static InNode createInNode(Node operand, Node... elements)
+            throws EtkException {
+        return createInNode(false, operand, elements);
+    }
+    
+    public static InNode createNotInNode(Node operand, Node... elements)
+            throws EtkException {
+        return createInNode(true, operand, elements);
+    }
+    
+    private static InNode createInNode(boolean negated, Node operand, Node[] elements)
+            throws EtkException {
+        int id = negated ? Node.NOT_IN_NODE : Node.IN_NODE;
+        
+        // Elements are compared against the operand in the widest equality type
+        Class<?> type = operand.getType();
+        Class<?> commonType = Object.class;
+        for (Node element : elements) {
+            Class<?> elementType = getEqualityType(id, type, element.getType());
+            if (elementType != Object.class)
+                type = commonType = elementType;
+        }
+        
+        Node[] operands = new Node[elements.length + 1];
+        operands[0] = convertNodeIfNecessary(operand, commonType);
+        for (int i = 0; i < elements.length; i++)
+            operands[i + 1] = convertNodeIfNecessary(elements[i], commonType);
+        
+        return new InNode(negated, operands);
+    }
+    
     public static GreaterThanNode createGreaterThanNode(Node operand1, Node operand2)
             throws EtkException {
         Comparator comparator = getComparator(Node.GT_NODE,
@@ -287,8 +320,14 @@ public class NodeFactory {
     
     public static VariableNode createVariableNode(VariableTable table, String name)
             throws EtkException {
-        Class<?> type = Types.wrapperOf(table.getVariableType(name));
-        return new VariableNode(type, name);
+        Class<?> declaredType = table.getVariableType(name);
+        Class<?> type = Types.wrapperOf(declaredType);
+        boolean primitive = declaredType != null && declaredType.isPrimitive();
+        if (table instanceof SlotVariableTable) {
+            SlotVariableTable slots = (SlotVariableTable) table;
+            return new VariableNode(type, name, primitive, slots, slots.getVariableSlot(name));
+        }
+        return new VariableNode(type, name, primitive);
     }
     
     public static FunctionNode createFunctionNode(FunctionLoader loader,
@@ -297,25 +336,36 @@ public class NodeFactory {
         Class<?>[] argtypes = getNodeTypes(arguments);
         
         Signature signature = new Signature(name, namespace, argtypes);
-        Set<Signature> candidates = loader.getSignatures(namespace, name);
-        if (candidates.isEmpty())
-            throw new FunctionNotFoundException(signature);
-        
-        Signature choice = retainCandidates(candidates, argtypes);
-        
-        if (choice == null) {
+        FunctionBinding binding = loader.getCachedBinding(signature);
+        if (binding == null) {
+            Set<Signature> candidates = loader.getSignatures(namespace, name);
             if (candidates.isEmpty())
                 throw new FunctionNotFoundException(signature);
             
-            reduceCandidates(candidates);
-            if (candidates.size() > 1)
-                throw new FunctionAmbiguityException(signature);
+            Signature choice = retainCandidates(candidates, argtypes);
             
-            choice = candidates.iterator().next();
+            if (choice == null) {
+                if (candidates.isEmpty())
+                    throw new FunctionNotFoundException(signature);
+                
+                reduceCandidates(candidates);
+                if (candidates.size() > 1)
+                    throw new FunctionAmbiguityException(signature);
+                
+                choice = candidates.iterator().next();
+            }
+            
+            Function function = loader.loadFunction(choice);
+            binding = loader.cacheBinding(signature,
+                    new FunctionBinding(function, getConverters(choice, argtypes)));
         }
         
-        Function function = loader.loadFunction(choice);
-        return new FunctionNode(function, convertNodesIfNecessary(choice, arguments));
+        return new FunctionNode(binding.getFunction(), convertNodesIfNecessary(binding, arguments));
+    }
+
+    public static FunctionNode createFunctionNode(Function function, Node... arguments)
+            throws SemanticException {
+        return new FunctionNode(function, convertNodesIfNecessary(function.getSignature(), arguments));
     }
     
     public static PropertyNode createPropertyNode(BeanManager manager, String name, Node object)
@@ -381,6 +431,29 @@ public class NodeFactory {
         return result;
     }
     
+    private static Node[] convertNodesIfNecessary(FunctionBinding binding, Node[] nodes) {
+        Node[] result = new Node[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Converter converter = binding.getConverter(i);
+            result[i] = converter == null ? nodes[i] : new ConvertNode(converter, nodes[i]);
+        }
+        return result;
+    }
+    
+    private static Converter[] getConverters(Signature signature, Class<?>[] types)
+            throws SemanticException {
+        Converter[] converters = new Converter[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Class<?> toType = signature.getArgumentType(i);
+            Converter converter = Converter.getInstance(types[i], toType);
+            if (converter == null || converter.getKind() == Converter.NARROWING)
+                throw new CannotConvertException(types[i], toType);
+            if (converter.getKind() != Converter.IDENTITY)
+                converters[i] = converter;
+        }
+        return converters;
+    }
+    
     private static Converter getConverter(Class<?> fromType, Class<?> toType)
             throws SemanticException {
         Converter converter = Converter.getInstance(fromType, toType);
@@ -0,0 +1,217 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.node;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import org.foxlabs.etk.Expression;
+
+public final class NodeInterner {
+    
+    private static final NodeInterner defaultInterner = new NodeInterner();
+    
+    private final ConcurrentHashMap<Long, Entry> table = new ConcurrentHashMap<Long, Entry>();
+    private final ReferenceQueue<Node> queue = new ReferenceQueue<Node>();
+    
+    private final AtomicLong internCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    
+    public NodeInterner() {}
+    
+    public static NodeInterner getDefault() {
+        return defaultInterner;
+    }
+    
+    // Interning
+    
+    // Interns the node itself only, its children are expected to be
+    // interned already (as NodeBuilder does while building bottom-up)
+    public Node intern(Node node) {
+        expungeStaleEntries();
+        internCount.incrementAndGet();
+        
+        Long key = Long.valueOf(node.getFingerprint());
+        for (;;) {
+            Entry head = table.get(key);
+            for (Entry entry = head; entry != null; entry = entry.next) {
+                Node canonical = entry.get();
+                if (canonical != null && canonical.equals(node)) {
+                    hitCount.incrementAndGet();
+                    return canonical;
+                }
+            }
+            
+            // Chains are immutable so a failed CAS means a concurrent update
+            Entry entry = new Entry(node, key, head, queue);
+            if (head == null ? table.putIfAbsent(key, entry) == null : table.replace(key, head, entry))
+                return node;
+        }
+    }
+    
+    public Node internTree(Node node) {
+        return node == null ? null : new Interning().transform(node);
+    }
+    
+    public Expression intern(Expression expr) {
+        Node root = expr.getRootNode();
+        Node interned = internTree(root);
+        return interned == root ? expr : new Expression(interned, expr.getSource());
+    }
+    
+    public int size() {
+        expungeStaleEntries();
+        int size = 0;
+        for (Entry head : table.values())
+            for (Entry entry = head; entry != null; entry = entry.next)
+                if (entry.get() != null)
+                    size++;
+        return size;
+    }
+    
+    public void clear() {
+        table.clear();
+        while (queue.poll() != null);
+    }
+    
+    private void expungeStaleEntries() {
+        for (Object stale; (stale = queue.poll()) != null;) {
+            Long key = ((Entry) stale).key;
+            for (;;) {
+                Entry head = table.get(key);
+                if (head == null)
+                    break;
+                Entry live = copyLiveEntries(head);
+                if (live == null ? table.remove(key, head) : table.replace(key, head, live))
+                    break;
+            }
+        }
+    }
+    
+    private Entry copyLiveEntries(Entry entry) {
+        if (entry == null)
+            return null;
+        Entry next = copyLiveEntries(entry.next);
+        Node node = entry.get();
+        if (node == null)
+            return next;
+        return next == entry.next ? entry : new Entry(node, entry.key, next, queue);
+    }
+    
+    // Statistics
+    
+    public long getInternCount() {
+        return internCount.get();
+    }
+    
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    public double getDedupRatio() {
+        long interns = internCount.get();
+        return interns == 0L ? 0D : (double) hitCount.get() / interns;
+    }
+    
+    public void resetStatistics() {
+        internCount.set(0L);
+        hitCount.set(0L);
+    }
+    
+    public String toString() {
+        return "size=" + size() + ", interns=" + getInternCount() + ", hits=" + getHitCount() +
+               ", dedupRatio=" + getDedupRatio();
+    }
+    
+    // Memory report
+    
+    public static long countNodes(Node... roots) {
+        Counter counter = new Counter(null);
+        for (Node root : roots)
+            counter.transform(root);
+        return counter.count;
+    }
+    
+    public static long countDistinctNodes(Node... roots) {
+        Counter counter = new Counter(new IdentityHashMap<Node, Node>());
+        for (Node root : roots)
+            counter.transform(root);
+        return counter.count;
+    }
+    
+    // Reports how many node instances the given trees retain compared to
+    // the number of nodes they would retain without any sharing
+    public static String getMemoryReport(Node... roots) {
+        long nodes = countNodes(roots);
+        long distinct = countDistinctNodes(roots);
+        double ratio = nodes == 0L ? 0D : 1D - (double) distinct / nodes;
+        return "trees=" + roots.length + ", nodes=" + nodes + ", distinct=" + distinct +
+               ", shared=" + (nodes - distinct) + ", dedupRatio=" + ratio;
+    }
+    
+    // Entry
+    
+    static final class Entry extends WeakReference<Node> {
+        
+        final Long key;
+        final Entry next;
+        
+        Entry(Node node, Long key, Entry next, ReferenceQueue<Node> queue) {
+            super(node, queue);
+            this.key = key;
+            this.next = next;
+        }
+        
+    }
+    
+    // Interning transformer
+    
+    final class Interning extends NodeTransformer {
+        
+        public Node transform(Node node) {
+            return intern(super.transform(node));
+        }
+        
+    }
+    
+    // Counter
+    
+    static final class Counter extends NodeTransformer {
+        
+        final Map<Node, Node> visited;
+        long count = 0L;
+        
+        Counter(Map<Node, Node> visited) {
+            this.visited = visited;
+        }
+        
+        public Node transform(Node node) {
+            if (visited == null || visited.put(node, node) == null) {
+                count++;
+                super.transform(node);
+            }
+            return node;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,282 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.node;
+
+public class NodeTransformer implements NodeVisitor<RuntimeException> {
+    
+    private Node result;
+    
+    public Node transform(Node node) {
+        node.accept(this);
+        Node transformed = result;
+        result = null;
+        // Literals may be shared instances and never fail at runtime
+        if (transformed != node && transformed.getSourceLine() < 0 &&
+                !(transformed instanceof LiteralNode<?>))
+            transformed.setSourcePosition(node.getSourceLine(), node.getSourceColumn());
+        return transformed;
+    }
+    
+    protected final void setResult(Node node) {
+        result = node;
+    }
+    
+    protected final Node[] transform(Node[] nodes) {
+        Node[] transformed = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = transform(nodes[i]);
+            if (node != nodes[i]) {
+                if (transformed == nodes)
+                    transformed = nodes.clone();
+                transformed[i] = node;
+            }
+        }
+        return transformed;
+    }
+    
+    // Literals
+    
+    public void visit(NullNode node) {
+        result = node;
+    }
+    
+    public void visit(TrueNode node) {
+        result = node;
+    }
+    
+    public void visit(FalseNode node) {
+        result = node;
+    }
+    
+    public void visit(EnumNode node) {
+        result = node;
+    }
+    
+    public void visit(CharNode node) {
+        result = node;
+    }
+    
+    public void visit(NumberNode node) {
+        result = node;
+    }
+    
+    public void visit(StringNode node) {
+        result = node;
+    }
+    
+    public void visit(VariableNode node) {
+        result = node;
+    }
+    
+    // Operators
+    
+    public void visit(ArrayNode node) {
+        Node[] items = node.getItems();
+        Node[] transformed = transform(items);
+        result = transformed == items
+            ? node
+            : new ArrayNode(transformed);
+    }
+    
+    public void visit(FunctionNode node) {
+        Node[] arguments = node.getArguments();
+        Node[] transformed = transform(arguments);
+        result = transformed == arguments
+            ? node
+            : new FunctionNode(node.getFunction(), transformed);
+    }
+    
+    public void visit(CastNode node) {
+        Node operand = transform(node.getOperand());
+        result = operand == node.getOperand()
+            ? node
+            : new CastNode(node.getConverter(), operand);
+    }
+    
+    public void visit(ConvertNode node) {
+        Node operand = transform(node.getOperand());
+        result = operand == node.getOperand()
+            ? node
+            : new ConvertNode(node.getConverter(), operand);
+    }
+    
+    public void visit(NegateNode node) {
+        Node operand = transform(node.operand);
+        result = operand == node.operand
+            ? node
+            : new NegateNode(node.getCalculator(), operand);
+    }
+    
+    public void visit(AddNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new AddNode(node.getCalculator(), operand1, operand2);
+    }
+    
+    public void visit(SubtractNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new SubtractNode(node.getCalculator(), operand1, operand2);
+    }
+    
+    public void visit(MultiplyNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new MultiplyNode(node.getCalculator(), operand1, operand2);
+    }
+    
+    public void visit(DivideNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new DivideNode(node.getCalculator(), operand1, operand2);
+    }
+    
+    public void visit(ModuloNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new ModuloNode(node.getCalculator(), operand1, operand2);
+    }
+    
+    public void visit(EqualNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new EqualNode(operand1, operand2);
+    }
+    
+    public void visit(NotEqualNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new NotEqualNode(operand1, operand2);
+    }
+    
+    public void visit(GreaterThanNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new GreaterThanNode(node.getComparator(), operand1, operand2);
+    }
+    
+    public void visit(GreaterThanEqualNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new GreaterThanEqualNode(node.getComparator(), operand1, operand2);
+    }
+    
+    public void visit(LessThanNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new LessThanNode(node.getComparator(), operand1, operand2);
+    }
+    
+    public void visit(LessThanEqualNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new LessThanEqualNode(node.getComparator(), operand1, operand2);
+    }
+    
+    public void visit(NotNode node) {
+        Node operand = transform(node.operand);
+        result = operand == node.operand
+            ? node
+            : new NotNode(operand);
+    }
+    
+    public void visit(AndNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new AndNode(operand1, operand2);
+    }
+    
+    public void visit(OrNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        result = operand1 == node.operand1 && operand2 == node.operand2
+            ? node
+            : new OrNode(operand1, operand2);
+    }
+    
+    public void visit(ConditionNode node) {
+        Node operand1 = transform(node.operand1);
+        Node operand2 = transform(node.operand2);
+        Node operand3 = transform(node.operand3);
+        result = operand1 == node.operand1 && operand2 == node.operand2 && operand3 == node.operand3
+            ? node
+            : new ConditionNode(operand1, operand2, operand3);
+    }
+    
+    public void visit(ConcatNode node) {
+        Node[] operands = transform(node.operands);
+        result = operands == node.operands
+            ? node
+            : new ConcatNode(operands);
+    }
+    
+    public void visit(IndexNode node) {
+        Node collection = transform(node.getCollection());
+        Node key = transform(node.getKey());
+        result = collection == node.getCollection() && key == node.getKey()
+            ? node
+            : new IndexNode(node.getIndexer(), collection, key);
+    }
+    
+    public void visit(PropertyNode node) {
+        Node object = transform(node.getObject());
+        result = object == node.getObject()
+            ? node
+            : new PropertyNode(node.getAccessor(), object);
+    }
+    
+    public void visit(MethodNode node) {
+        Node object = transform(node.getObject());
+        Node[] arguments = node.getArguments();
+        Node[] transformed = transform(arguments);
+        result = object == node.getObject() && transformed == arguments
+            ? node
+            : new MethodNode(node.getAccessor(), object, transformed);
+    }
+    
+    public void visit(InNode node) {
+        Node[] operands = transform(node.operands);
+        result = operands == node.operands
+            ? node
+            : new InNode(node.isNegated(), operands);
+    }
+    
+}
@@ -82,4 +82,6 @@ public interface NodeVisitor<T extends Throwable> {
     
     void visit(MethodNode node) throws T;
     
+    void visit(InNode node) throws T;
+    
 }
@@ -45,6 +45,14 @@ public final class NotNode extends UnaryNode implements LogicalNode {
         }
     }
     
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        return !evaluateCondition(operand, context);
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
@@ -40,6 +40,10 @@ public final class NullNode extends LiteralNode<Object> {
         return null;
     }
     
+    boolean isPrimitive(Environment context) {
+        return false;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
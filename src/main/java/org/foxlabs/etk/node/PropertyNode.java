@@ -51,6 +51,10 @@ public final class PropertyNode extends Node implements OperatorNode {
         return accessor.getType();
     }
     
+    public PropertyAccessor getAccessor() {
+        return accessor;
+    }
+    
     public Node getObject() {
         return object;
     }
@@ -73,11 +77,13 @@ public final class PropertyNode extends Node implements OperatorNode {
                object.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), getPropertyName().hashCode());
+        return fingerprint(hash, object);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + getPropertyName().hashCode();
-        hash = 31 * hash + object.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -86,6 +92,8 @@ public final class PropertyNode extends Node implements OperatorNode {
         
         if (obj instanceof PropertyNode) {
             PropertyNode other = (PropertyNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getType() == other.getType() &&
                    getPropertyName().equals(other.getPropertyName()) &&
                    object.equals(other.object);
@@ -37,6 +37,10 @@ public final class SubtractNode extends BinaryNode implements ArithmeticalNode {
         return calculator.getType();
     }
     
+    public Calculator getCalculator() {
+        return calculator;
+    }
+    
     public Number evaluate(Environment context) throws EvaluationException {
         Object obj1 = operand1.evaluate(context);
         Object obj2 = operand2.evaluate(context);
@@ -47,6 +51,69 @@ public final class SubtractNode extends BinaryNode implements ArithmeticalNode {
         }
     }
     
+    public int evaluateInt(Environment context) throws EvaluationException {
+        if (calculator.getType() != Integer.class)
+            return super.evaluateInt(context);
+        Object obj1 = evaluateBoxed(operand1, context);
+        int v1 = obj1 == TYPED ? operand1.evaluateInt(context) : 0;
+        Object obj2 = evaluateBoxed(operand2, context);
+        int v2 = obj2 == TYPED ? operand2.evaluateInt(context) : 0;
+        try {
+            return intValueOf(obj1, v1) - intValueOf(obj2, v2);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Class<?> type = calculator.getType();
+        if (type == Integer.class)
+            return evaluateInt(context);
+        if (type != Long.class)
+            return super.evaluateLong(context);
+        Object obj1 = evaluateBoxed(operand1, context);
+        long v1 = obj1 == TYPED ? operand1.evaluateLong(context) : 0L;
+        Object obj2 = evaluateBoxed(operand2, context);
+        long v2 = obj2 == TYPED ? operand2.evaluateLong(context) : 0L;
+        try {
+            return longValueOf(obj1, v1) - longValueOf(obj2, v2);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Class<?> type = calculator.getType();
+        if (type == Integer.class || type == Long.class)
+            return evaluateLong(context);
+        if (type == Float.class) {
+            Object obj1 = evaluateBoxed(operand1, context);
+            float v1 = obj1 == TYPED ? (float) operand1.evaluateDouble(context) : 0F;
+            Object obj2 = evaluateBoxed(operand2, context);
+            float v2 = obj2 == TYPED ? (float) operand2.evaluateDouble(context) : 0F;
+            try {
+                return floatValueOf(obj1, v1) - floatValueOf(obj2, v2);
+            } catch (Exception e) {
+                throw new EvaluationException(this, e);
+            }
+        }
+        if (type != Double.class)
+            return super.evaluateDouble(context);
+        Object obj1 = evaluateBoxed(operand1, context);
+        double v1 = obj1 == TYPED ? operand1.evaluateDouble(context) : 0D;
+        Object obj2 = evaluateBoxed(operand2, context);
+        double v2 = obj2 == TYPED ? operand2.evaluateDouble(context) : 0D;
+        try {
+            return doubleValueOf(obj1, v1) - doubleValueOf(obj2, v2);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return true;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
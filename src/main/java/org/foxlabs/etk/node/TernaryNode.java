@@ -54,12 +54,14 @@ public abstract class TernaryNode extends Node implements OperatorNode {
                operand3.isDetermined();
     }
     
+    long computeFingerprint() {
+        long hash = fingerprint(getId(), operand1);
+        hash = fingerprint(hash, operand2);
+        return fingerprint(hash, operand3);
+    }
+    
     public int hashCode() {
-        int hash = getId();
-        hash = 31 * hash + operand1.hashCode();
-        hash = 31 * hash + operand2.hashCode();
-        hash = 31 * hash + operand3.hashCode();
-        return hash;
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -68,6 +70,8 @@ public abstract class TernaryNode extends Node implements OperatorNode {
         
         if (obj instanceof TernaryNode) {
             TernaryNode other = (TernaryNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getId() == other.getId() &&
                    getType() == other.getType() &&
                    operand1.equals(other.operand1) &&
@@ -40,8 +40,12 @@ public abstract class UnaryNode extends Node implements OperatorNode {
         return operand.isDetermined();
     }
     
+    long computeFingerprint() {
+        return fingerprint(getId(), operand);
+    }
+    
     public int hashCode() {
-        return getId() ^ operand.hashCode();
+        return fingerprintHash();
     }
     
     public boolean equals(Object obj) {
@@ -50,6 +54,8 @@ public abstract class UnaryNode extends Node implements OperatorNode {
         
         if (obj instanceof UnaryNode) {
             UnaryNode other = (UnaryNode) obj;
+            if (getFingerprint() != other.getFingerprint())
+                return false;
             return getId() == other.getId() &&
                    getType() == other.getType() &&
                    operand.equals(other.operand);
@@ -17,16 +17,29 @@
 package org.foxlabs.etk.node;
 
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationContext;
 import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
 
 public final class VariableNode extends Node {
     
     private final Class<?> type;
     private final String name;
+    private final boolean primitive;
+    private final SlotVariableTable table;
+    private final int slot;
     
-    VariableNode(Class<?> type, String name) {
+    VariableNode(Class<?> type, String name, boolean primitive) {
+        this(type, name, primitive, null, -1);
+    }
+    
+    VariableNode(Class<?> type, String name, boolean primitive, SlotVariableTable table, int slot) {
         this.type = type;
         this.name = name;
+        this.primitive = primitive;
+        this.table = table;
+        this.slot = slot;
     }
     
     public int getId() {
@@ -41,14 +54,96 @@ public final class VariableNode extends Node {
         return name;
     }
     
+    // Variable is declared with a primitive type and is never null
+    public boolean isPrimitiveVariable() {
+        return primitive;
+    }
+    
+    public SlotVariableTable getSlotTable() {
+        return table;
+    }
+    
+    public int getVariableSlot() {
+        return slot;
+    }
+    
     public Object evaluate(Environment context) {
+        Frame frame = frameOf(context);
+        try {
+            return frame == null
+                ? context.getVariableTable().resolveVariable(name, context)
+                : frame.get(slot);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        Frame frame = frameOf(context);
+        if (frame == null)
+            return super.evaluateBoolean(context);
+        try {
+            return frame.getBoolean(slot);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public int evaluateInt(Environment context) throws EvaluationException {
+        Frame frame = frameOf(context);
+        if (frame == null)
+            return super.evaluateInt(context);
+        try {
+            return frame.getInt(slot);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    public long evaluateLong(Environment context) throws EvaluationException {
+        Frame frame = frameOf(context);
+        if (frame == null)
+            return super.evaluateLong(context);
         try {
-            return context.getVariableTable().resolveVariable(name, context);
+            return frame.getLong(slot);
         } catch (Exception e) {
             throw new EvaluationException(this, e);
         }
     }
     
+    public double evaluateDouble(Environment context) throws EvaluationException {
+        Frame frame = frameOf(context);
+        if (frame == null)
+            return super.evaluateDouble(context);
+        try {
+            return frame.getDouble(slot);
+        } catch (Exception e) {
+            throw new EvaluationException(this, e);
+        }
+    }
+    
+    boolean isPrimitive(Environment context) {
+        return frameOf(context) != null && table.isPrimitiveVariable(slot);
+    }
+    
+    // Frames of other tables are resolved by name. Evaluation contexts
+    // wrapping the frame are looked through unless they replace its table.
+    private Frame frameOf(Environment context) {
+        if (table == null)
+            return null;
+        while (context instanceof EvaluationContext) {
+            if (context.getVariableTable() != table)
+                return null;
+            context = ((EvaluationContext) context).getParent();
+        }
+        if (context instanceof Frame) {
+            Frame frame = (Frame) context;
+            if (frame.getVariableTable() == table)
+                return frame;
+        }
+        return null;
+    }
+    
     public <T extends Throwable> void accept(NodeVisitor<T> visitor) throws T {
         visitor.visit(this);
     }
@@ -71,6 +166,7 @@ public final class VariableNode extends Node {
         if (obj instanceof VariableNode) {
             VariableNode other = (VariableNode) obj;
             return getType() == other.getType() &&
+                   table == other.table &&
                    name.equals(other.name);
         }
         
@@ -0,0 +1,631 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.annotation.Cost;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.node.AddNode;
+import org.foxlabs.etk.node.AndNode;
+import org.foxlabs.etk.node.BinaryNode;
+import org.foxlabs.etk.node.ConditionNode;
+import org.foxlabs.etk.node.ConvertNode;
+import org.foxlabs.etk.node.EqualNode;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.node.GreaterThanEqualNode;
+import org.foxlabs.etk.node.GreaterThanNode;
+import org.foxlabs.etk.node.InNode;
+import org.foxlabs.etk.node.LessThanEqualNode;
+import org.foxlabs.etk.node.LessThanNode;
+import org.foxlabs.etk.node.LiteralNode;
+import org.foxlabs.etk.node.MethodNode;
+import org.foxlabs.etk.node.MultiplyNode;
+import org.foxlabs.etk.node.NegateNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeTransformer;
+import org.foxlabs.etk.node.NotEqualNode;
+import org.foxlabs.etk.node.NotNode;
+import org.foxlabs.etk.node.NullNode;
+import org.foxlabs.etk.node.OrNode;
+import org.foxlabs.etk.node.PropertyNode;
+import org.foxlabs.etk.node.StringNode;
+import org.foxlabs.etk.node.SubtractNode;
+import org.foxlabs.etk.node.VariableNode;
+import org.foxlabs.etk.support.Converter;
+import org.foxlabs.etk.support.Operator;
+import org.foxlabs.etk.support.Types;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class AdaptiveExpression extends Expression {
+    private static final long serialVersionUID = 3514108917412632127L;
+    
+    // Variables resolve to the same values during an evaluation and without
+    // failing. Without REORDER_FAILING only operands that cannot fail are
+    // moved: literals, safe functions and operators over them and variables
+    // that are primitive or compared by == and !=. Operands using nullable
+    // variables otherwise stay in source order, so the default mode fully
+    // covers only rules over primitive frame slots.
+    public static final int PURE_VARIABLES  = 1;
+    public static final int PURE_PROPERTIES = 2;
+    public static final int PURE_METHODS    = 4;
+    
+    // Operands that may fail are reordered as well. A failing operand that
+    // the new order skips is not reported then, so the result may be false
+    // or true where evaluation in source order would fail.
+    public static final int REORDER_FAILING = 8;
+    
+    public static final int DEFAULT_REORDER_INTERVAL = 1024;
+    
+    // Every 16th evaluation of a chain is timed
+    static final int SAMPLE_MASK = 15;
+    
+    private final transient Test test;
+    private final transient List<Chain> chains;
+    private final transient int reorderInterval;
+    
+    private transient volatile boolean pinned = false;
+    
+    public AdaptiveExpression(Expression expression) {
+        this(expression, PURE_VARIABLES, DEFAULT_REORDER_INTERVAL);
+    }
+    
+    public AdaptiveExpression(Expression expression, int purity, int reorderInterval) {
+        super(expression.getRootNode(), expression.getSource());
+        if (reorderInterval <= 0)
+            throw new IllegalArgumentException();
+        
+        this.reorderInterval = reorderInterval;
+        List<Chain> chains = new ArrayList<Chain>();
+        Node root = getRootNode();
+        this.test = isLogical(root) ? createTest(root, null, purity, chains) : null;
+        this.chains = Collections.unmodifiableList(chains);
+    }
+    
+    public final List<Chain> getChains() {
+        return chains;
+    }
+    
+    public final boolean isPinned() {
+        return pinned;
+    }
+    
+    // Pinned chains keep their current order but still collect statistics
+    public final void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+    
+    public void reorder() {
+        for (Chain chain : chains)
+            chain.reorder();
+    }
+    
+    public void restoreOrder() {
+        for (Chain chain : chains)
+            chain.restoreOrder();
+    }
+    
+    public void resetStatistics() {
+        for (Chain chain : chains)
+            chain.resetStatistics();
+    }
+    
+    public String getReport() {
+        StringBuilder buf = new StringBuilder();
+        for (Chain chain : chains)
+            buf.append(chain).append('\n');
+        return buf.toString();
+    }
+    
+    // Evaluation
+    
+    public Object evaluate(Environment context) throws EvaluationException {
+        if (test == null)
+            return super.evaluate(context);
+        return Boolean.valueOf(evaluateBoolean(context));
+    }
+    
+    public boolean evaluateBoolean(Environment context) throws EvaluationException {
+        if (test == null)
+            return super.evaluateBoolean(context);
+        try {
+            return test.test(context);
+        } catch (EvaluationException e) {
+            e.setOwner(this);
+            throw e;
+        }
+    }
+    
+    private Object writeReplace() throws ObjectStreamException {
+        return new Expression(getRootNode(), getSource());
+    }
+    
+    // Plan
+    
+    private static boolean isLogical(Node node) {
+        return !node.isDetermined() &&
+               (node instanceof AndNode || node instanceof OrNode || node instanceof NotNode);
+    }
+    
+    private Test createTest(Node node, Node parent, int purity, List<Chain> chains) {
+        if (!isLogical(node))
+            return new NodeTest(node, parent);
+        if (node instanceof NotNode)
+            return new NotTest(createTest(((NotNode) node).getOperand(), node, purity, chains));
+        
+        List<Node> operands = new ArrayList<Node>();
+        List<Node> parents = new ArrayList<Node>();
+        flatten((BinaryNode) node, operands, parents);
+        
+        Test[] tests = new Test[operands.size()];
+        boolean[] pure = new boolean[tests.length];
+        // Nested chains are registered before the enclosing one
+        for (int i = 0; i < tests.length; i++) {
+            tests[i] = createTest(operands.get(i), parents.get(i), purity, chains);
+            pure[i] = PurityCheck.isPure(operands.get(i), purity) &&
+                      ((purity & REORDER_FAILING) != 0 || SafetyCheck.isSafe(operands.get(i), purity));
+        }
+        
+        Chain chain = new Chain(this, node, node instanceof AndNode, operands.toArray(new Node[tests.length]),
+                tests, pure);
+        chains.add(chain);
+        return chain;
+    }
+    
+    private static void flatten(BinaryNode node, List<Node> operands, List<Node> parents) {
+        for (Node operand : new Node[] {node.getOperand1(), node.getOperand2()}) {
+            if (operand.getClass() == node.getClass() && !operand.isDetermined()) {
+                flatten((BinaryNode) operand, operands, parents);
+            } else {
+                operands.add(operand);
+                parents.add(node);
+            }
+        }
+    }
+    
+    // Test
+    
+    abstract static class Test {
+        
+        abstract boolean test(Environment context) throws EvaluationException;
+        
+    }
+    
+    static final class NodeTest extends Test {
+        
+        final Node node;
+        final Node parent;
+        
+        NodeTest(Node node, Node parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+        
+        // Operands are unboxed on behalf of the logical node as in evaluate()
+        boolean test(Environment context) throws EvaluationException {
+            Object value = node.evaluate(context);
+            try {
+                return Operator.safeValueOf((Boolean) value);
+            } catch (Exception e) {
+                throw new EvaluationException(parent, e);
+            }
+        }
+        
+    }
+    
+    static final class NotTest extends Test {
+        
+        final Test operand;
+        
+        NotTest(Test operand) {
+            this.operand = operand;
+        }
+        
+        boolean test(Environment context) throws EvaluationException {
+            return !operand.test(context);
+        }
+        
+    }
+    
+    // Chain
+    
+    // Flattened AND or OR chain. Maximal runs of pure operands are sorted by
+    // the expected cost of reaching a decision, that is the average cost of
+    // an operand divided by the rate at which it decides the chain. Impure
+    // operands and operands that may fail keep their position, so the chain
+    // fails exactly when it fails in source order. Statistics are updated
+    // without any synchronization and are approximate under concurrent
+    // evaluation.
+    public static final class Chain extends Test {
+        
+        private final AdaptiveExpression owner;
+        private final Node node;
+        private final boolean conjunction;
+        private final Node[] operands;
+        private final Test[] tests;
+        private final boolean[] pure;
+        private final int[] sourceOrder;
+        
+        private volatile int[] order;
+        
+        private long evaluationCount = 0L;
+        private final long[] operandCounts;
+        private final long[] decisionCounts;
+        private final long[] sampleCounts;
+        private final long[] sampleTimes;
+        
+        Chain(AdaptiveExpression owner, Node node, boolean conjunction, Node[] operands,
+                Test[] tests, boolean[] pure) {
+            this.owner = owner;
+            this.node = node;
+            this.conjunction = conjunction;
+            this.operands = operands;
+            this.tests = tests;
+            this.pure = pure;
+            this.sourceOrder = new int[operands.length];
+            for (int i = 0; i < sourceOrder.length; i++)
+                sourceOrder[i] = i;
+            this.order = sourceOrder;
+            this.operandCounts = new long[operands.length];
+            this.decisionCounts = new long[operands.length];
+            this.sampleCounts = new long[operands.length];
+            this.sampleTimes = new long[operands.length];
+        }
+        
+        public Node getNode() {
+            return node;
+        }
+        
+        public boolean isConjunction() {
+            return conjunction;
+        }
+        
+        public int getOperandCount() {
+            return operands.length;
+        }
+        
+        public Node getOperand(int index) {
+            return operands[index];
+        }
+        
+        public boolean isPure(int index) {
+            return pure[index];
+        }
+        
+        public int[] getOrder() {
+            return order.clone();
+        }
+        
+        public long getEvaluationCount() {
+            return evaluationCount;
+        }
+        
+        public long getEvaluationCount(int index) {
+            return operandCounts[index];
+        }
+        
+        // Rate at which the operand lets evaluation continue to the next one
+        public double getPassRate(int index) {
+            long count = operandCounts[index];
+            return count == 0L ? 1D : 1D - (double) decisionCounts[index] / count;
+        }
+        
+        public double getAverageCost(int index) {
+            long count = sampleCounts[index];
+            return count == 0L ? 0D : (double) sampleTimes[index] / count;
+        }
+        
+        boolean test(Environment context) throws EvaluationException {
+            long count = ++evaluationCount;
+            int[] order = this.order;
+            
+            boolean result;
+            try {
+                result = test(context, order, (count & SAMPLE_MASK) == 0L);
+            } catch (EvaluationException e) {
+                // Moved operands may still fail under REORDER_FAILING or in an
+                // environment the operands were not decoded for, source order
+                // decides the outcome then
+                if (order == sourceOrder)
+                    throw e;
+                result = test(context, sourceOrder, false);
+            }
+            
+            if (count % owner.reorderInterval == 0L && !owner.pinned)
+                reorder();
+            return result;
+        }
+        
+        private boolean test(Environment context, int[] order, boolean sample)
+                throws EvaluationException {
+            for (int index : order) {
+                boolean result;
+                try {
+                    if (sample) {
+                        long time = System.nanoTime();
+                        result = tests[index].test(context);
+                        sampleTimes[index] += System.nanoTime() - time;
+                        sampleCounts[index]++;
+                    } else {
+                        result = tests[index].test(context);
+                    }
+                } catch (EvaluationException e) {
+                    // Operands that fail are not moved any more
+                    if (pure[index]) {
+                        pure[index] = false;
+                        this.order = computeOrder();
+                    }
+                    throw e;
+                }
+                
+                operandCounts[index]++;
+                if (result != conjunction) {
+                    decisionCounts[index]++;
+                    return result;
+                }
+            }
+            return conjunction;
+        }
+        
+        public void reorder() {
+            order = computeOrder();
+            
+            // Older observations fade out so that drifting data is followed
+            for (int i = 0; i < operands.length; i++) {
+                operandCounts[i] >>>= 1;
+                decisionCounts[i] >>>= 1;
+                sampleCounts[i] >>>= 1;
+                sampleTimes[i] >>>= 1;
+            }
+        }
+        
+        private int[] computeOrder() {
+            final double[] ranks = new double[operands.length];
+            for (int i = 0; i < ranks.length; i++) {
+                double decisionRate = 1D - getPassRate(i);
+                // Operands that were never reached keep their relative position
+                ranks[i] = operandCounts[i] == 0L || decisionRate == 0D
+                    ? Double.POSITIVE_INFINITY
+                    : Math.max(getAverageCost(i), 1D) / decisionRate;
+            }
+            
+            Integer[] sorted = new Integer[operands.length];
+            for (int i = 0; i < sorted.length; i++)
+                sorted[i] = Integer.valueOf(i);
+            
+            Comparator<Integer> comparator = new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Double.compare(ranks[i1.intValue()], ranks[i2.intValue()]);
+                }
+            };
+            for (int start = 0, end; start < sorted.length; start = end + 1) {
+                for (end = start; end < sorted.length && pure[end]; end++);
+                Arrays.sort(sorted, start, end, comparator);
+            }
+            
+            int[] newOrder = new int[sorted.length];
+            for (int i = 0; i < newOrder.length; i++)
+                newOrder[i] = sorted[i].intValue();
+            return Arrays.equals(newOrder, sourceOrder) ? sourceOrder : newOrder;
+        }
+        
+        public void restoreOrder() {
+            order = sourceOrder;
+        }
+        
+        public void resetStatistics() {
+            evaluationCount = 0L;
+            Arrays.fill(operandCounts, 0L);
+            Arrays.fill(decisionCounts, 0L);
+            Arrays.fill(sampleCounts, 0L);
+            Arrays.fill(sampleTimes, 0L);
+        }
+        
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            buf.append(conjunction ? "AND" : "OR").append(' ').append(node);
+            buf.append(" (").append(evaluationCount).append(" evaluations)");
+            for (int index : order) {
+                buf.append("\n  #").append(index).append(' ').append(operands[index]);
+                buf.append(pure[index] ? "" : " [impure]");
+                buf.append(": evaluations=").append(operandCounts[index]);
+                buf.append(", passRate=").append(getPassRate(index));
+                buf.append(", averageCost=").append(getAverageCost(index)).append("ns");
+            }
+            return buf.toString();
+        }
+        
+    }
+    
+    // PurityCheck
+    
+    static final class PurityCheck extends NodeTransformer {
+        
+        private final int purity;
+        private boolean pure = true;
+        
+        private PurityCheck(int purity) {
+            this.purity = purity;
+        }
+        
+        static boolean isPure(Node node, int purity) {
+            if (node.isDetermined())
+                return true;
+            PurityCheck check = new PurityCheck(purity);
+            check.transform(node);
+            return check.pure;
+        }
+        
+        public void visit(VariableNode node) {
+            pure &= (purity & PURE_VARIABLES) != 0;
+            super.visit(node);
+        }
+        
+        public void visit(FunctionNode node) {
+            pure &= node.getFunction().isDetermined();
+            super.visit(node);
+        }
+        
+        public void visit(PropertyNode node) {
+            pure &= (purity & PURE_PROPERTIES) != 0;
+            super.visit(node);
+        }
+        
+        public void visit(MethodNode node) {
+            pure &= (purity & PURE_METHODS) != 0;
+            super.visit(node);
+        }
+        
+    }
+    
+    // SafetyCheck
+    
+    // Operands that cannot fail are the only ones that can be moved without
+    // changing the outcome, since an operand that fails in source order may
+    // be skipped in another one. Only slot variables, variables of other
+    // tables if they are pure, literals, safe functions and operators that
+    // never fail on non-null values of built-in types qualify.
+    static final class SafetyCheck {
+        
+        private SafetyCheck() {}
+        
+        // Chain operands are unboxed and must not be null either
+        static boolean isSafe(Node node, int purity) {
+            return isSafe(node, false, purity);
+        }
+        
+        static boolean isSafe(Node node, boolean nullable) {
+            return isSafe(node, nullable, 0);
+        }
+        
+        // Nullable values may be null, operators decide whether they fail then
+        static boolean isSafe(Node node, boolean nullable, int purity) {
+            if (node instanceof NullNode)
+                return nullable;
+            if (node instanceof LiteralNode)
+                return true;
+            if (node instanceof VariableNode) {
+                VariableNode variable = (VariableNode) node;
+                SlotVariableTable table = variable.getSlotTable();
+                if (table != null)
+                    return nullable || table.isPrimitiveVariable(variable.getVariableSlot());
+                // Variables of other tables may evaluate expressions
+                return (purity & PURE_VARIABLES) != 0 &&
+                       (nullable || variable.isPrimitiveVariable());
+            }
+            if (node instanceof FunctionNode)
+                return isSafe((FunctionNode) node, purity);
+            if (node instanceof ConvertNode) {
+                ConvertNode convert = (ConvertNode) node;
+                return convert.getConverter().getKind() != Converter.NARROWING &&
+                       isSafe(convert.getOperand(), nullable, purity);
+            }
+            if (node instanceof NotNode)
+                return isSafe(((NotNode) node).getOperand(), false, purity);
+            if (node instanceof NegateNode) {
+                NegateNode negate = (NegateNode) node;
+                return isBuiltin(negate.getCalculator()) && isSafe(negate.getOperand(), false, purity);
+            }
+            if (node instanceof AndNode || node instanceof OrNode)
+                return hasSafeOperands((BinaryNode) node, false, purity);
+            if (node instanceof EqualNode || node instanceof NotEqualNode)
+                return hasSafeOperands((BinaryNode) node, true, purity);
+            Operator operator = operatorOf(node);
+            if (operator != null)
+                return isBuiltin(operator) && hasSafeOperands((BinaryNode) node, false, purity);
+            if (node instanceof InNode) {
+                for (Node operand : ((InNode) node).getOperands())
+                    if (!isSafe(operand, true, purity))
+                        return false;
+                return true;
+            }
+            if (node instanceof ConditionNode) {
+                ConditionNode condition = (ConditionNode) node;
+                return isSafe(condition.getOperand1(), false, purity) &&
+                       isSafe(condition.getOperand2(), nullable, purity) &&
+                       isSafe(condition.getOperand3(), nullable, purity);
+            }
+            // Division, properties, methods, indexes and casts
+            return false;
+        }
+        
+        private static boolean hasSafeOperands(BinaryNode node, boolean nullable, int purity) {
+            return isSafe(node.getOperand1(), nullable, purity) &&
+                   isSafe(node.getOperand2(), nullable, purity);
+        }
+        
+        // Arguments of safe functions must not be null, constant regular
+        // expressions are checked here
+        private static boolean isSafe(FunctionNode node, int purity) {
+            Function function = node.getFunction();
+            if (!function.isDetermined() || !function.isSafe())
+                return false;
+            Node[] arguments = node.getArguments();
+            for (Node argument : arguments)
+                if (!isSafe(argument, false, purity))
+                    return false;
+            Cost cost = function.getClass().getAnnotation(Cost.class);
+            if (cost == null || cost.regex() < 0 || cost.regex() >= arguments.length)
+                return true;
+            Node regex = arguments[cost.regex()];
+            if (!(regex instanceof StringNode))
+                return false;
+            try {
+                Pattern.compile(((StringNode) regex).getValue());
+                return true;
+            } catch (PatternSyntaxException e) {
+                return false;
+            }
+        }
+        
+        // Calculator or comparator of a binary arithmetic or relational node
+        private static Operator operatorOf(Node node) {
+            if (node instanceof AddNode)
+                return ((AddNode) node).getCalculator();
+            if (node instanceof SubtractNode)
+                return ((SubtractNode) node).getCalculator();
+            if (node instanceof MultiplyNode)
+                return ((MultiplyNode) node).getCalculator();
+            if (node instanceof GreaterThanNode)
+                return ((GreaterThanNode) node).getComparator();
+            if (node instanceof GreaterThanEqualNode)
+                return ((GreaterThanEqualNode) node).getComparator();
+            if (node instanceof LessThanNode)
+                return ((LessThanNode) node).getComparator();
+            if (node instanceof LessThanEqualNode)
+                return ((LessThanEqualNode) node).getComparator();
+            return null;
+        }
+        
+        // Built-in calculators and comparators never fail on non-null values
+        private static boolean isBuiltin(Operator operator) {
+            return Types.indexOf(operator.getType()) > Types.NULL;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,180 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.math.BigInteger;
+import java.math.BigDecimal;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.node.*;
+
+public class AlgebraicSimplification extends OptimizerPass {
+    
+    public static final String NAME = "algebraicSimplification";
+    
+    public String getName() {
+        return NAME;
+    }
+    
+    protected NodeTransformer createTransformer(Environment context) {
+        return new NodeTransformer() {
+            
+            public Node transform(Node node) {
+                Node source = super.transform(node);
+                Node result = simplify(source);
+                // Parent nodes were built against the original type
+                return result.getType() == source.getType() ? result : source;
+            }
+            
+        };
+    }
+    
+    // Operands that may evaluate to null are kept, since the operator
+    // would fail on them at evaluation time
+    
+    static Node simplify(Node node) {
+        switch (node.getId()) {
+            case Node.ADD_NODE: {
+                AddNode add = (AddNode) node;
+                if (isZero(add.getOperand1(), true) && isNotNull(add.getOperand2()))
+                    return add.getOperand2();
+                if (isZero(add.getOperand2(), true) && isNotNull(add.getOperand1()))
+                    return add.getOperand1();
+                break;
+            }
+            case Node.SUB_NODE: {
+                SubtractNode sub = (SubtractNode) node;
+                if (isZero(sub.getOperand2(), false) && isNotNull(sub.getOperand1()))
+                    return sub.getOperand1();
+                break;
+            }
+            case Node.MUL_NODE: {
+                MultiplyNode mul = (MultiplyNode) node;
+                if (isOne(mul.getOperand1()) && isNotNull(mul.getOperand2()))
+                    return mul.getOperand2();
+                if (isOne(mul.getOperand2()) && isNotNull(mul.getOperand1()))
+                    return mul.getOperand1();
+                break;
+            }
+            case Node.DIV_NODE: {
+                DivideNode div = (DivideNode) node;
+                if (div.getType() != BigDecimal.class &&
+                        isOne(div.getOperand2()) && isNotNull(div.getOperand1()))
+                    return div.getOperand1();
+                break;
+            }
+            case Node.NOT_NODE: {
+                Node operand = ((NotNode) node).getOperand();
+                if (operand.getId() == Node.NOT_NODE) {
+                    Node inner = ((NotNode) operand).getOperand();
+                    if (isNotNull(inner))
+                        return inner;
+                }
+                break;
+            }
+            case Node.AND_NODE: {
+                AndNode and = (AndNode) node;
+                Node operand1 = and.getOperand1(), operand2 = and.getOperand2();
+                if (operand1.getId() == Node.FALSE_NODE)
+                    return operand1;
+                if (operand1.getId() == Node.TRUE_NODE && isNotNull(operand2))
+                    return operand2;
+                if (operand2.getId() == Node.TRUE_NODE && isNotNull(operand1))
+                    return operand1;
+                break;
+            }
+            case Node.OR_NODE: {
+                OrNode or = (OrNode) node;
+                Node operand1 = or.getOperand1(), operand2 = or.getOperand2();
+                if (operand1.getId() == Node.TRUE_NODE)
+                    return operand1;
+                if (operand1.getId() == Node.FALSE_NODE && isNotNull(operand2))
+                    return operand2;
+                if (operand2.getId() == Node.FALSE_NODE && isNotNull(operand1))
+                    return operand1;
+                break;
+            }
+            case Node.CONDITION_NODE: {
+                ConditionNode condition = (ConditionNode) node;
+                Node choice = null;
+                if (condition.getOperand1().getId() == Node.TRUE_NODE)
+                    choice = condition.getOperand2();
+                if (condition.getOperand1().getId() == Node.FALSE_NODE)
+                    choice = condition.getOperand3();
+                if (choice != null && choice.getType() == condition.getType())
+                    return choice;
+                break;
+            }
+        }
+        return node;
+    }
+    
+    // Utility methods
+    
+    static boolean isNotNull(Node node) {
+        switch (node.getId()) {
+            case Node.NULL_NODE:
+            case Node.VARIABLE_NODE:
+            case Node.FUNCTION_NODE:
+            case Node.CAST_NODE:
+            case Node.INDEX_NODE:
+            case Node.PROPERTY_NODE:
+            case Node.METHOD_NODE:
+                return false;
+            case Node.CONVERT_NODE:
+                return isNotNull(((ConvertNode) node).getOperand());
+            case Node.CONDITION_NODE:
+                ConditionNode condition = (ConditionNode) node;
+                return isNotNull(condition.getOperand2()) &&
+                       isNotNull(condition.getOperand3());
+            default:
+                return true;
+        }
+    }
+    
+    static boolean isOne(Node node) {
+        if (node.getId() != Node.NUMBER_NODE)
+            return false;
+        
+        Number value = ((NumberNode) node).getValue();
+        if (value instanceof BigInteger)
+            return value.equals(BigInteger.ONE);
+        if (value instanceof BigDecimal)
+            return value.equals(BigDecimal.ONE);
+        if (value instanceof Float || value instanceof Double)
+            return value.doubleValue() == 1D;
+        return value.longValue() == 1L;
+    }
+    
+    static boolean isZero(Node node, boolean negative) {
+        if (node.getId() != Node.NUMBER_NODE)
+            return false;
+        
+        // x + 0.0 is not x for -0.0 and scale of the BigDecimal sum may differ
+        Number value = ((NumberNode) node).getValue();
+        if (value instanceof BigDecimal)
+            return false;
+        if (value instanceof BigInteger)
+            return ((BigInteger) value).signum() == 0;
+        if (value instanceof Float || value instanceof Double) {
+            double d = value.doubleValue();
+            return d == 0D && (1D / d < 0D) == negative;
+        }
+        return value.longValue() == 0L;
+    }
+    
+}
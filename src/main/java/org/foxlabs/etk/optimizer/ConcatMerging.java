@@ -0,0 +1,83 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.node.ConcatNode;
+import org.foxlabs.etk.node.LiteralNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeFactory;
+import org.foxlabs.etk.node.NodeTransformer;
+
+public class ConcatMerging extends OptimizerPass {
+    
+    public static final String NAME = "concatMerging";
+    
+    public String getName() {
+        return NAME;
+    }
+    
+    protected NodeTransformer createTransformer(Environment context) {
+        return new NodeTransformer() {
+            
+            public Node transform(Node node) {
+                Node result = super.transform(node);
+                return result.getId() == Node.CONCAT_NODE ? merge((ConcatNode) result) : result;
+            }
+            
+        };
+    }
+    
+    static Node merge(ConcatNode node) {
+        Node[] source = node.getOperands();
+        List<Node> operands = new ArrayList<Node>(source.length);
+        
+        for (int i = 0; i < source.length;) {
+            if (!(source[i] instanceof LiteralNode<?>)) {
+                operands.add(source[i++]);
+                continue;
+            }
+            
+            int start = i;
+            StringBuilder buf = new StringBuilder();
+            for (; i < source.length && source[i] instanceof LiteralNode<?>; i++) {
+                Object value = ((LiteralNode<?>) source[i]).getValue();
+                if (value != null)
+                    buf.append(value);
+            }
+            
+            if (i - start == 1 && source[start].getId() == Node.STRING_NODE && buf.length() > 0) {
+                operands.add(source[start]);
+            } else if (buf.length() > 0) {
+                operands.add(NodeFactory.createLiteralNode(buf.toString()));
+            }
+        }
+        
+        if (operands.isEmpty())
+            return NodeFactory.createLiteralNode("");
+        if (operands.size() == 1 && operands.get(0).getId() == Node.STRING_NODE)
+            return operands.get(0);
+        // Single operand would not be printed as concatenation
+        if (operands.size() == 1 || operands.size() == source.length)
+            return node;
+        return NodeFactory.createConcatNode(operands.toArray(new Node[operands.size()]));
+    }
+    
+}
@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.node.LiteralNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeFactory;
+import org.foxlabs.etk.node.NodeTransformer;
+
+public class ConstantFolding extends OptimizerPass {
+    
+    public static final String NAME = "constantFolding";
+    
+    public String getName() {
+        return NAME;
+    }
+    
+    protected NodeTransformer createTransformer(final Environment context) {
+        return new NodeTransformer() {
+            
+            public Node transform(Node node) {
+                if (!(node instanceof LiteralNode<?>) && node.isDetermined()) {
+                    Node literal = fold(node, context);
+                    if (literal != null)
+                        return literal;
+                }
+                return super.transform(node);
+            }
+            
+        };
+    }
+    
+    static Node fold(Node node, Environment context) {
+        try {
+            Node literal = NodeFactory.createLiteralNode(node.evaluate(context));
+            // Parent nodes were built against the original type
+            return literal.getType() == node.getType() ? literal : null;
+        } catch (RuntimeException e) {
+            // Failures are left to be reported at evaluation time
+            return null;
+        }
+    }
+    
+}
@@ -0,0 +1,179 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.node.*;
+
+public class EqualityMerging extends OptimizerPass {
+    
+    public static final String NAME = "equalityMerging";
+    
+    public String getName() {
+        return NAME;
+    }
+    
+    protected NodeTransformer createTransformer(Environment context) {
+        return new NodeTransformer() {
+            
+            public Node transform(Node node) {
+                // Whole chains are merged at once, so long chains are not
+                // rebuilt for every nesting level
+                if (node.getId() == Node.OR_NODE || node.getId() == Node.AND_NODE) {
+                    List<Node> terms = new ArrayList<Node>();
+                    flatten((BinaryNode) node, node.getId(), terms);
+                    boolean changed = false;
+                    for (int i = 0; i < terms.size(); i++) {
+                        Node term = transform(terms.get(i));
+                        changed |= term != terms.get(i);
+                        terms.set(i, term);
+                    }
+                    return merge(node, terms, changed);
+                }
+                return super.transform(node);
+            }
+            
+        };
+    }
+    
+    static void flatten(BinaryNode node, int id, List<Node> terms) {
+        for (Node operand : new Node[] {node.getOperand1(), node.getOperand2()}) {
+            if (operand.getId() == id)
+                flatten((BinaryNode) operand, id, terms);
+            else
+                terms.add(operand);
+        }
+    }
+    
+    // x == a || x == b becomes x in (a, b) and x != a && x != b becomes
+    // x not in (a, b). Only consecutive terms are merged, so evaluation of
+    // the other terms is not reordered.
+    static Node merge(Node node, List<Node> terms, boolean changed) {
+        boolean disjunction = node.getId() == Node.OR_NODE;
+        List<Node> result = new ArrayList<Node>(terms.size());
+        
+        for (int i = 0; i < terms.size();) {
+            Node operand = getOperand(terms.get(i), disjunction);
+            if (operand == null) {
+                result.add(terms.get(i++));
+                continue;
+            }
+            
+            int start = i;
+            List<Node> elements = new ArrayList<Node>();
+            for (; i < terms.size() && operand.equals(getOperand(terms.get(i), disjunction)); i++)
+                addElements(terms.get(i), operand, elements);
+            
+            if (i - start == 1) {
+                result.add(terms.get(start));
+            } else {
+                Node[] array = elements.toArray(new Node[elements.size()]);
+                Node merged = disjunction
+                    ? NodeFactory.createInNode(operand, array)
+                    : NodeFactory.createNotInNode(operand, array);
+                merged.setSourcePosition(terms.get(start).getSourceLine(),
+                                         terms.get(start).getSourceColumn());
+                result.add(merged);
+                changed = true;
+            }
+        }
+        
+        if (!changed)
+            return node;
+        
+        Node chain = result.get(0);
+        for (int i = 1; i < result.size(); i++) {
+            chain = disjunction
+                ? NodeFactory.createOrNode(chain, result.get(i))
+                : NodeFactory.createAndNode(chain, result.get(i));
+            chain.setSourcePosition(node.getSourceLine(), node.getSourceColumn());
+        }
+        return chain;
+    }
+    
+    // Returns the tested operand of an equality with a constant, or of an
+    // in node that contains constants only
+    static Node getOperand(Node term, boolean disjunction) {
+        if (term.getId() == (disjunction ? Node.EQ_NODE : Node.NE_NODE)) {
+            BinaryNode equality = (BinaryNode) term;
+            if (isConstant(equality.getOperand2()) && isStable(equality.getOperand1()))
+                return equality.getOperand1();
+            if (isConstant(equality.getOperand1()) && isStable(equality.getOperand2()))
+                return equality.getOperand2();
+        } else if (term.getId() == (disjunction ? Node.IN_NODE : Node.NOT_IN_NODE)) {
+            InNode in = (InNode) term;
+            for (int i = 0; i < in.getElementCount(); i++)
+                if (!isConstant(in.getElement(i)))
+                    return null;
+            if (isStable(in.getOperand()))
+                return in.getOperand();
+        }
+        return null;
+    }
+    
+    static void addElements(Node term, Node operand, List<Node> elements) {
+        if (term instanceof InNode) {
+            InNode in = (InNode) term;
+            for (int i = 0; i < in.getElementCount(); i++)
+                elements.add(in.getElement(i));
+        } else {
+            BinaryNode equality = (BinaryNode) term;
+            elements.add(operand.equals(equality.getOperand1())
+                ? equality.getOperand2()
+                : equality.getOperand1());
+        }
+    }
+    
+    // Utility methods
+    
+    static boolean isConstant(Node node) {
+        if (node.getId() == Node.CONVERT_NODE)
+            node = ((ConvertNode) node).getOperand();
+        return node instanceof LiteralNode<?>;
+    }
+    
+    // The operand is evaluated once instead of once per term
+    static boolean isStable(Node node) {
+        if (node.isDetermined())
+            return false;
+        StabilityCheck check = new StabilityCheck();
+        check.transform(node);
+        return check.stable;
+    }
+    
+    // StabilityCheck
+    
+    static final class StabilityCheck extends NodeTransformer {
+        
+        boolean stable = true;
+        
+        public void visit(FunctionNode node) {
+            stable &= node.getFunction().isDetermined();
+            super.visit(node);
+        }
+        
+        public void visit(MethodNode node) {
+            stable = false;
+            super.visit(node);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,321 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.annotation.Cost;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.node.*;
+
+// Costs are relative to a simple arithmetic operation and may be scaled to
+// nanoseconds by calibration against measured timings
+public class ExpressionCostModel {
+    
+    public static final double DEFAULT_REGEX_MULTIPLIER = 4D;
+    
+    private final BeanManager beanManager;
+    private final double[] nodeCosts = new double[Node.NODE_COUNT];
+    private double regexMultiplier = DEFAULT_REGEX_MULTIPLIER;
+    private double nanosPerUnit = Double.NaN;
+    
+    public ExpressionCostModel() {
+        this(BeanManager.getDefaultRootManager());
+    }
+    
+    public ExpressionCostModel(BeanManager beanManager) {
+        this.beanManager = beanManager;
+        
+        Arrays.fill(nodeCosts, 1D);
+        nodeCosts[Node.NULL_NODE]      = 0.5D;
+        nodeCosts[Node.TRUE_NODE]      = 0.5D;
+        nodeCosts[Node.FALSE_NODE]     = 0.5D;
+        nodeCosts[Node.ENUM_NODE]      = 0.5D;
+        nodeCosts[Node.CHAR_NODE]      = 0.5D;
+        nodeCosts[Node.NUMBER_NODE]    = 0.5D;
+        nodeCosts[Node.STRING_NODE]    = 0.5D;
+        nodeCosts[Node.ARRAY_NODE]     = 2D;
+        nodeCosts[Node.NOT_NODE]       = 0.5D;
+        nodeCosts[Node.AND_NODE]       = 0.5D;
+        nodeCosts[Node.OR_NODE]        = 0.5D;
+        nodeCosts[Node.CONCAT_NODE]    = 2D;
+        nodeCosts[Node.INDEX_NODE]     = 3D;
+        nodeCosts[Node.IN_NODE]        = 2D;
+        nodeCosts[Node.NOT_IN_NODE]    = 2D;
+    }
+    
+    public final BeanManager getBeanManager() {
+        return beanManager;
+    }
+    
+    // Own cost of nodes with the given id, excluding their children and
+    // functions, properties and methods which have costs of their own
+    public double getNodeCost(int nodeId) {
+        return nodeCosts[nodeId];
+    }
+    
+    public void setNodeCost(int nodeId, double cost) {
+        if (cost < 0D)
+            throw new IllegalArgumentException();
+        nodeCosts[nodeId] = cost;
+    }
+    
+    public double getRegexMultiplier() {
+        return regexMultiplier;
+    }
+    
+    // Applies to functions whose regular expression argument is not constant
+    // and may have to be compiled on every call, constant ones are compiled
+    // once
+    public void setRegexMultiplier(double multiplier) {
+        if (multiplier < 1D)
+            throw new IllegalArgumentException();
+        regexMultiplier = multiplier;
+    }
+    
+    public boolean isCalibrated() {
+        return !Double.isNaN(nanosPerUnit);
+    }
+    
+    public double getNanosPerUnit() {
+        return nanosPerUnit;
+    }
+    
+    // Estimation
+    
+    public Estimate estimate(Expression expression) {
+        return estimate(expression.getRootNode());
+    }
+    
+    public Estimate estimate(Node root) {
+        Map<Node, Double> costs = new IdentityHashMap<Node, Double>();
+        List<Node> nodes = new ArrayList<Node>();
+        double total = estimate(root, costs, nodes);
+        return new Estimate(root, total, costs, nodes, nanosPerUnit);
+    }
+    
+    private double estimate(Node node, Map<Node, Double> costs, List<Node> nodes) {
+        double cost = getOwnCost(node);
+        switch (node.getId()) {
+            case Node.CONDITION_NODE:
+                // Only one of the branches is evaluated, so the worst case is taken
+                ConditionNode condition = (ConditionNode) node;
+                cost += estimate(condition.getOperand1(), costs, nodes);
+                cost += Math.max(estimate(condition.getOperand2(), costs, nodes),
+                                 estimate(condition.getOperand3(), costs, nodes));
+                break;
+            default:
+                for (Node child : getChildren(node))
+                    cost += estimate(child, costs, nodes);
+        }
+        // Shared subtrees are listed once
+        if (costs.put(node, cost) == null)
+            nodes.add(node);
+        return cost;
+    }
+    
+    protected double getOwnCost(Node node) {
+        switch (node.getId()) {
+            case Node.FUNCTION_NODE:
+                FunctionNode function = (FunctionNode) node;
+                return getFunctionCost(function.getFunction(), function.getArguments());
+            case Node.PROPERTY_NODE:
+                return beanManager.getPropertyCost(((PropertyNode) node).getAccessor());
+            case Node.METHOD_NODE:
+                return beanManager.getMethodCost(((MethodNode) node).getAccessor());
+            default:
+                return nodeCosts[node.getId()];
+        }
+    }
+    
+    protected double getFunctionCost(Function function, Node[] arguments) {
+        double cost = function.getCost();
+        Cost annotation = function.getClass().getAnnotation(Cost.class);
+        if (annotation != null && annotation.regex() >= 0 && annotation.regex() < arguments.length) {
+            if (!isConstant(arguments[annotation.regex()]))
+                cost *= regexMultiplier;
+        }
+        return cost;
+    }
+    
+    private static boolean isConstant(Node node) {
+        while (node instanceof ConvertNode || node instanceof CastNode)
+            node = node instanceof ConvertNode
+                ? ((ConvertNode) node).getOperand()
+                : ((CastNode) node).getOperand();
+        return node instanceof LiteralNode<?>;
+    }
+    
+    static Node[] getChildren(Node node) {
+        if (node instanceof UnaryNode)
+            return new Node[] {((UnaryNode) node).getOperand()};
+        if (node instanceof BinaryNode)
+            return new Node[] {((BinaryNode) node).getOperand1(),
+                               ((BinaryNode) node).getOperand2()};
+        if (node instanceof TernaryNode)
+            return new Node[] {((TernaryNode) node).getOperand1(),
+                               ((TernaryNode) node).getOperand2(),
+                               ((TernaryNode) node).getOperand3()};
+        if (node instanceof NaryNode)
+            return ((NaryNode) node).getOperands();
+        
+        switch (node.getId()) {
+            case Node.CONVERT_NODE:
+                return new Node[] {((ConvertNode) node).getOperand()};
+            case Node.CAST_NODE:
+                return new Node[] {((CastNode) node).getOperand()};
+            case Node.ARRAY_NODE:
+                return ((ArrayNode) node).getItems();
+            case Node.FUNCTION_NODE:
+                return ((FunctionNode) node).getArguments();
+            case Node.INDEX_NODE:
+                return new Node[] {((IndexNode) node).getCollection(),
+                                   ((IndexNode) node).getKey()};
+            case Node.PROPERTY_NODE:
+                return new Node[] {((PropertyNode) node).getObject()};
+            case Node.METHOD_NODE:
+                Node[] arguments = ((MethodNode) node).getArguments();
+                Node[] children = new Node[arguments.length + 1];
+                children[0] = ((MethodNode) node).getObject();
+                System.arraycopy(arguments, 0, children, 1, arguments.length);
+                return children;
+            default:
+                return NO_NODES;
+        }
+    }
+    
+    private static final Node[] NO_NODES = new Node[0];
+    
+    // Calibration
+    
+    // Fits the scale of estimated costs to the measured evaluation times with
+    // least squares through the origin. Expressions that fail in the given
+    // environment are skipped.
+    public double calibrate(Collection<? extends Expression> expressions,
+            Environment context, int iterations) {
+        if (iterations <= 0)
+            throw new IllegalArgumentException();
+        
+        double sumXY = 0D, sumXX = 0D;
+        for (Expression expression : expressions) {
+            double cost = estimate(expression).getTotal();
+            double nanos = measure(expression, context, iterations);
+            if (Double.isNaN(nanos) || cost <= 0D)
+                continue;
+            sumXY += cost * nanos;
+            sumXX += cost * cost;
+        }
+        
+        if (sumXX > 0D)
+            nanosPerUnit = sumXY / sumXX;
+        return nanosPerUnit;
+    }
+    
+    private static double measure(Expression expression, Environment context, int iterations) {
+        try {
+            // Warm up before measuring
+            for (int i = 0; i < iterations; i++)
+                expression.evaluate(context);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                expression.evaluate(context);
+            return (double) (System.nanoTime() - start) / iterations;
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+    
+    // Estimate
+    
+    public static final class Estimate {
+    
+        private final Node root;
+        private final double total;
+        private final Map<Node, Double> costs;
+        private final List<Node> nodes;
+        private final double nanosPerUnit;
+        
+        Estimate(Node root, double total, Map<Node, Double> costs, List<Node> nodes,
+                double nanosPerUnit) {
+            this.root = root;
+            this.total = total;
+            this.costs = costs;
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.nanosPerUnit = nanosPerUnit;
+        }
+        
+        public Node getRootNode() {
+            return root;
+        }
+        
+        public double getTotal() {
+            return total;
+        }
+        
+        // Cost of the subtree rooted at the given node or NaN if the node
+        // does not belong to the estimated tree
+        public double getCost(Node node) {
+            Double cost = costs.get(node);
+            return cost == null ? Double.NaN : cost.doubleValue();
+        }
+        
+        // Subtrees in evaluation order, so the root comes last
+        public List<Node> getNodes() {
+            return nodes;
+        }
+        
+        public boolean isCalibrated() {
+            return !Double.isNaN(nanosPerUnit);
+        }
+        
+        public double getNanos() {
+            return total * nanosPerUnit;
+        }
+        
+        public double getNanos(Node node) {
+            return getCost(node) * nanosPerUnit;
+        }
+        
+        public String getReport() {
+            StringBuilder buf = new StringBuilder();
+            buf.append("total: ").append(String.format("%.1f", total));
+            if (isCalibrated())
+                buf.append(" (").append(String.format("%.0f", getNanos())).append(" ns)");
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                Node node = nodes.get(i);
+                double cost = costs.get(node);
+                buf.append('\n').append(String.format("%8.1f", cost)).append("  ").append(node);
+            }
+            return buf.toString();
+        }
+        
+        public String toString() {
+            return getReport();
+        }
+    
+    }
+    
+}
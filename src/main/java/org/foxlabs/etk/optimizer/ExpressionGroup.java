@@ -0,0 +1,465 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.node.BinaryNode;
+import org.foxlabs.etk.node.CastNode;
+import org.foxlabs.etk.node.ConvertNode;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeFactory;
+import org.foxlabs.etk.node.NodeInterner;
+import org.foxlabs.etk.node.NodeTransformer;
+
+public class ExpressionGroup {
+    
+    private final Expression[] expressions;
+    private final Node[] roots;
+    private final Node[] sharedNodes;
+    private final Node[] sharedBodies;
+    private final int[] sharedReferences;
+    
+    // Source nodes of the rewritten nodes, failures are reported against them
+    private final Map<Node, Node> origins = new IdentityHashMap<Node, Node>();
+    
+    // Memo of the group evaluation in progress on the current thread
+    private final ThreadLocal<Memo> memos = new ThreadLocal<Memo>();
+    
+    public ExpressionGroup(Expression... expressions) {
+        this(Arrays.asList(expressions));
+    }
+    
+    public ExpressionGroup(Collection<? extends Expression> expressions) {
+        this.expressions = expressions.toArray(new Expression[expressions.size()]);
+        
+        // Subtrees are keyed by their canonical form, so that a + b and b + a
+        // are found to be the same subtree. The shared subtree is the first
+        // one found and evaluated trees keep their source operand order.
+        Canonicalizer canonicalizer = new Canonicalizer();
+        
+        // Every repeated subtree gets a memo slot first, then the slots that
+        // end up referenced once (repeated only within a shared parent) are
+        // inlined back
+        Counter counter = new Counter(canonicalizer);
+        for (Expression expression : this.expressions)
+            counter.transform(expression.getRootNode());
+        Sharing sharing = new Sharing(canonicalizer, counter.counts);
+        Node[] shared = new Node[this.expressions.length];
+        for (int i = 0; i < shared.length; i++)
+            shared[i] = sharing.transform(this.expressions[i].getRootNode());
+        Inlining inlining = new Inlining(sharing.slots.size());
+        for (Node root : shared)
+            inlining.count(root);
+        for (MemoFunction slot : sharing.slots)
+            inlining.count(slot.body);
+        
+        this.roots = new Node[shared.length];
+        for (int i = 0; i < shared.length; i++)
+            roots[i] = inlining.transform(shared[i]);
+        
+        int count = inlining.slots.size();
+        this.sharedNodes = new Node[count];
+        this.sharedBodies = new Node[count];
+        this.sharedReferences = new int[count];
+        for (int i = 0; i < count; i++) {
+            MemoFunction slot = inlining.slots.get(i);
+            sharedNodes[i] = slot.node;
+            sharedBodies[i] = slot.body;
+            sharedReferences[i] = inlining.references[slot.origin];
+        }
+    }
+    
+    public final int size() {
+        return expressions.length;
+    }
+    
+    public final Expression getExpression(int index) {
+        return expressions[index];
+    }
+    
+    public final List<Expression> getExpressions() {
+        return Collections.unmodifiableList(Arrays.asList(expressions));
+    }
+    
+    public final int getSharedCount() {
+        return sharedNodes.length;
+    }
+    
+    public final Node getSharedNode(int index) {
+        return sharedNodes[index];
+    }
+    
+    public final int getSharedReferenceCount(int index) {
+        return sharedReferences[index];
+    }
+    
+    // Evaluation
+    
+    public Object[] evaluate(Environment context) throws EvaluationException {
+        Object[] results = new Object[expressions.length];
+        evaluate(context, results);
+        return results;
+    }
+    
+    public void evaluate(Environment context, Object[] results) throws EvaluationException {
+        if (results.length < expressions.length)
+            throw new IllegalArgumentException();
+        
+        Memo previous = memos.get();
+        memos.set(new Memo(sharedNodes.length));
+        try {
+            for (int i = 0; i < roots.length; i++) {
+                try {
+                    results[i] = roots[i].evaluate(context);
+                } catch (EvaluationException e) {
+                    EvaluationException cause = trace(unwrap(e));
+                    cause.setOwner(expressions[i]);
+                    throw cause;
+                }
+            }
+        } finally {
+            if (previous == null)
+                memos.remove();
+            else
+                memos.set(previous);
+        }
+    }
+    
+    Memo getMemo() {
+        return memos.get();
+    }
+    
+    // Failures of shared subtrees are reported as they would be without
+    // sharing, not as failures of the memo function calls
+    private static EvaluationException unwrap(EvaluationException e) {
+        while (isMemoCall(e.getNode()) && e.getCause() instanceof EvaluationException)
+            e = (EvaluationException) e.getCause();
+        return e;
+    }
+    
+    private EvaluationException trace(EvaluationException e) {
+        Node origin = origins.get(e.getNode());
+        return origin == null ? e : new EvaluationException(origin, e.getMessage(), e.getCause());
+    }
+    
+    // Memo calls are never source nodes, inlined bodies are traced by themselves
+    Node trace(Node node, Node result) {
+        if (result != node && !origins.containsKey(result) && !isMemoCall(node)) {
+            Node origin = origins.get(node);
+            origins.put(result, origin == null ? node : origin);
+        }
+        return result;
+    }
+    
+    // Statistics
+    
+    public String getReport() {
+        long nodes = NodeInterner.countNodes(getRootNodes());
+        long evaluated = NodeInterner.countNodes(roots);
+        for (Node body : sharedBodies)
+            evaluated += NodeInterner.countNodes(body);
+        StringBuilder buf = new StringBuilder();
+        buf.append("expressions: ").append(expressions.length);
+        buf.append(", nodes: ").append(nodes);
+        buf.append(", evaluated nodes: ").append(evaluated);
+        buf.append(", shared: ").append(sharedNodes.length);
+        return buf.toString();
+    }
+    
+    public String toString() {
+        return getReport();
+    }
+    
+    private Node[] getRootNodes() {
+        Node[] nodes = new Node[expressions.length];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = expressions[i].getRootNode();
+        return nodes;
+    }
+    
+    // Canonicalizer
+    
+    // Canonical forms are sharing keys only and are never evaluated. Two
+    // subtrees differing in operand order share the evaluation of the first
+    // one, so operands are swapped only when the subtree cannot fail.
+    static final class Canonicalizer extends NodeTransformer {
+        
+        private final Map<Node, Node> keys = new IdentityHashMap<Node, Node>();
+        
+        public Node transform(Node node) {
+            Node key = keys.get(node);
+            if (key == null) {
+                key = canonicalize(super.transform(node));
+                keys.put(node, key);
+            }
+            return key;
+        }
+        
+        static Node canonicalize(Node node) {
+            switch (node.getId()) {
+                case Node.ADD_NODE:
+                case Node.MUL_NODE:
+                case Node.EQ_NODE:
+                case Node.NE_NODE:
+                    // Null operands of + and * fail, == and != compare them
+                    boolean nullable = node.getId() == Node.EQ_NODE || node.getId() == Node.NE_NODE;
+                    BinaryNode binary = (BinaryNode) node;
+                    Node operand1 = binary.getOperand1();
+                    Node operand2 = binary.getOperand2();
+                    if (operand1.getFingerprint() > operand2.getFingerprint() &&
+                            isPure(operand1) && isPure(operand2) &&
+                            AdaptiveExpression.SafetyCheck.isSafe(operand1, nullable) &&
+                            AdaptiveExpression.SafetyCheck.isSafe(operand2, nullable))
+                        return swap(node.getId(), operand1, operand2);
+            }
+            return node;
+        }
+        
+        static Node swap(int id, Node operand1, Node operand2) {
+            switch (id) {
+                case Node.ADD_NODE:
+                    return NodeFactory.createAddNode(operand2, operand1);
+                case Node.MUL_NODE:
+                    return NodeFactory.createMultiplyNode(operand2, operand1);
+                case Node.EQ_NODE:
+                    return NodeFactory.createEqualNode(operand2, operand1);
+                default:
+                    return NodeFactory.createNotEqualNode(operand2, operand1);
+            }
+        }
+        
+    }
+    
+    // Sharing
+    
+    static final class Counter extends NodeTransformer {
+        
+        final Canonicalizer canonicalizer;
+        final Map<Node, Integer> counts = new HashMap<Node, Integer>();
+        
+        Counter(Canonicalizer canonicalizer) {
+            this.canonicalizer = canonicalizer;
+        }
+        
+        public Node transform(Node node) {
+            Node key = canonicalizer.transform(node);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+            return super.transform(node);
+        }
+        
+    }
+    
+    final class Sharing extends NodeTransformer {
+        
+        final Canonicalizer canonicalizer;
+        final Map<Node, Integer> counts;
+        final Map<Node, Node> calls = new HashMap<Node, Node>();
+        final List<MemoFunction> slots = new ArrayList<MemoFunction>();
+        
+        Sharing(Canonicalizer canonicalizer, Map<Node, Integer> counts) {
+            this.canonicalizer = canonicalizer;
+            this.counts = counts;
+        }
+        
+        public Node transform(Node node) {
+            Node key = canonicalizer.transform(node);
+            if (counts.get(key) < 2 || !isShareable(node))
+                return trace(node, super.transform(node));
+            
+            Node call = calls.get(key);
+            if (call == null) {
+                Node body = trace(node, super.transform(node));
+                MemoFunction slot = new MemoFunction(ExpressionGroup.this, slots.size(), slots.size(), node, body);
+                slots.add(slot);
+                call = NodeFactory.createFunctionNode(slot);
+                calls.put(key, call);
+            }
+            return call;
+        }
+        
+    }
+    
+    final class Inlining extends NodeTransformer {
+        
+        final int[] references;
+        final Node[] calls;
+        final List<MemoFunction> slots = new ArrayList<MemoFunction>();
+        
+        Inlining(int count) {
+            this.references = new int[count];
+            this.calls = new Node[count];
+        }
+        
+        public Node transform(Node node) {
+            return trace(node, super.transform(node));
+        }
+        
+        void count(Node node) {
+            new NodeTransformer() {
+                public void visit(FunctionNode node) {
+                    if (node.getFunction() instanceof MemoFunction)
+                        references[((MemoFunction) node.getFunction()).slot]++;
+                    super.visit(node);
+                }
+            }.transform(node);
+        }
+        
+        public void visit(FunctionNode node) {
+            if (!(node.getFunction() instanceof MemoFunction)) {
+                super.visit(node);
+                return;
+            }
+            
+            MemoFunction origin = (MemoFunction) node.getFunction();
+            if (references[origin.slot] < 2) {
+                setResult(transform(origin.body));
+            } else {
+                Node call = calls[origin.slot];
+                if (call == null) {
+                    Node body = transform(origin.body);
+                    MemoFunction slot = new MemoFunction(ExpressionGroup.this, slots.size(), origin.slot, origin.node, body);
+                    slots.add(slot);
+                    call = NodeFactory.createFunctionNode(slot);
+                    calls[origin.slot] = call;
+                }
+                setResult(call);
+            }
+        }
+        
+    }
+    
+    // Utility methods
+    
+    // Variables and constants are as cheap to evaluate as a memo lookup
+    static boolean isShareable(Node node) {
+        switch (node.getId()) {
+            case Node.VARIABLE_NODE:
+                return false;
+            case Node.CONVERT_NODE:
+                return !isTrivial(((ConvertNode) node).getOperand()) &&
+                       EqualityMerging.isStable(node);
+            case Node.CAST_NODE:
+                return !isTrivial(((CastNode) node).getOperand()) &&
+                       EqualityMerging.isStable(node);
+            default:
+                return EqualityMerging.isStable(node);
+        }
+    }
+    
+    static boolean isMemoCall(Node node) {
+        return node instanceof FunctionNode &&
+               ((FunctionNode) node).getFunction() instanceof MemoFunction;
+    }
+    
+    static boolean isTrivial(Node node) {
+        return node.isDetermined() || node.getId() == Node.VARIABLE_NODE;
+    }
+    
+    static boolean isPure(Node node) {
+        return node.isDetermined() || EqualityMerging.isStable(node);
+    }
+    
+}
+
+// ============================================================================
+
+// Zero argument function that evaluates a shared subtree once per group
+// evaluation. Outside of a group evaluation the subtree is just evaluated.
+final class MemoFunction extends Function {
+    
+    final ExpressionGroup group;
+    final int slot;
+    final int origin;
+    final Node node;
+    final Node body;
+    
+    MemoFunction(ExpressionGroup group, int slot, int origin, Node node, Node body) {
+        super("$" + slot, null, body.getType());
+        this.group = group;
+        this.slot = slot;
+        this.origin = origin;
+        this.node = node;
+        this.body = body;
+    }
+    
+    public Object evaluate(Environment context, Object... arguments) throws Exception {
+        Memo memo = group.getMemo();
+        return memo == null ? body.evaluate(context) : memo.evaluate(this, context);
+    }
+    
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+    
+    public boolean equals(Object obj) {
+        return obj == this;
+    }
+    
+}
+
+// ============================================================================
+
+final class Memo {
+    
+    static final byte NONE    = 0;
+    static final byte VALUE   = 1;
+    static final byte FAILURE = 2;
+    
+    final byte[] states;
+    final Object[] values;
+    
+    Memo(int count) {
+        this.states = new byte[count];
+        this.values = new Object[count];
+    }
+    
+    Object evaluate(MemoFunction function, Environment context) throws EvaluationException {
+        int slot = function.slot;
+        switch (states[slot]) {
+            case VALUE:
+                return values[slot];
+            case FAILURE:
+                throw (EvaluationException) values[slot];
+        }
+        
+        try {
+            Object value = function.body.evaluate(context);
+            values[slot] = value;
+            states[slot] = VALUE;
+            return value;
+        } catch (EvaluationException e) {
+            values[slot] = e;
+            states[slot] = FAILURE;
+            throw e;
+        }
+    }
+    
+}
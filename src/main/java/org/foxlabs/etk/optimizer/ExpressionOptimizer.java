@@ -0,0 +1,103 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.node.Node;
+
+public class ExpressionOptimizer {
+    
+    private final OptimizerPass[] passes;
+    
+    public ExpressionOptimizer(OptimizerPass... passes) {
+        this.passes = passes.clone();
+    }
+    
+    public static ExpressionOptimizer getDefault() {
+        return new ExpressionOptimizer(
+            new ConstantFolding(),
+            new AlgebraicSimplification(),
+            new ConcatMerging(),
+            new EqualityMerging());
+    }
+    
+    public static ExpressionOptimizer getInstance(String passNames) {
+        List<OptimizerPass> passes = new ArrayList<OptimizerPass>();
+        for (String name : passNames.split(",")) {
+            name = name.trim();
+            if (name.length() > 0)
+                passes.add(createPass(name));
+        }
+        return new ExpressionOptimizer(passes.toArray(new OptimizerPass[passes.size()]));
+    }
+    
+    static OptimizerPass createPass(String name) {
+        if (ConstantFolding.NAME.equals(name))
+            return new ConstantFolding();
+        if (AlgebraicSimplification.NAME.equals(name))
+            return new AlgebraicSimplification();
+        if (ConcatMerging.NAME.equals(name))
+            return new ConcatMerging();
+        if (EqualityMerging.NAME.equals(name))
+            return new EqualityMerging();
+        throw new IllegalArgumentException(name);
+    }
+    
+    public final List<OptimizerPass> getPasses() {
+        return Arrays.asList(passes.clone());
+    }
+    
+    public String getPassNames() {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < passes.length; i++) {
+            if (i > 0)
+                buf.append(',');
+            buf.append(passes[i].getName());
+        }
+        return buf.toString();
+    }
+    
+    public Node optimize(Node node, Environment context) {
+        for (OptimizerPass pass : passes)
+            node = pass.optimize(node, context);
+        return node;
+    }
+    
+    public Expression optimize(Expression expression, Environment context) {
+        Node root = expression.getRootNode();
+        Node node = optimize(root, context);
+        return node == root ? expression : new Expression(node, expression.getSource());
+    }
+    
+    public void resetStatistics() {
+        for (OptimizerPass pass : passes)
+            pass.resetStatistics();
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (OptimizerPass pass : passes)
+            buf.append(pass).append('\n');
+        return buf.toString();
+    }
+    
+}
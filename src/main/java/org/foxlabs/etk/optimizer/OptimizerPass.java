@@ -0,0 +1,83 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeTransformer;
+
+public abstract class OptimizerPass {
+    
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong removedNodeCount = new AtomicLong();
+    
+    protected OptimizerPass() {}
+    
+    public abstract String getName();
+    
+    protected abstract NodeTransformer createTransformer(Environment context);
+    
+    public Node optimize(Node node, Environment context) {
+        int oldCount = NodeCounter.count(node);
+        Node result = createTransformer(context).transform(node);
+        int newCount = result == node ? oldCount : NodeCounter.count(result);
+        
+        runCount.incrementAndGet();
+        removedNodeCount.addAndGet(oldCount - newCount);
+        return result;
+    }
+    
+    public final long getRunCount() {
+        return runCount.get();
+    }
+    
+    public final long getRemovedNodeCount() {
+        return removedNodeCount.get();
+    }
+    
+    public void resetStatistics() {
+        runCount.set(0L);
+        removedNodeCount.set(0L);
+    }
+    
+    public String toString() {
+        return getName() + ": " + getRemovedNodeCount() + " nodes removed in " +
+               getRunCount() + " runs";
+    }
+    
+    // NodeCounter
+    
+    static final class NodeCounter extends NodeTransformer {
+        
+        private int count = 0;
+        
+        public Node transform(Node node) {
+            count++;
+            return super.transform(node);
+        }
+        
+        static int count(Node node) {
+            NodeCounter counter = new NodeCounter();
+            counter.transform(node);
+            return counter.count;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,493 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.program;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.EvaluationLimitException;
+import org.foxlabs.etk.EvaluationLimits;
+import org.foxlabs.etk.bean.MethodAccessor;
+import org.foxlabs.etk.bean.PropertyAccessor;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.node.InNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.VariableNode;
+import org.foxlabs.etk.support.Calculator;
+import org.foxlabs.etk.support.Comparator;
+import org.foxlabs.etk.support.Converter;
+import org.foxlabs.etk.support.Indexer;
+import org.foxlabs.etk.support.Operator;
+
+public final class Program {
+    
+    // Instruction word is opcode in the lower 8 bits and operand in the upper 24 bits
+    
+    static final int CONST     = 0;  // push constant
+    static final int VARIABLE  = 1;  // resolve variable by name constant
+    static final int SLOT      = 2;  // resolve variable node constant
+    static final int ARRAY     = 3;  // pop operand items into array
+    static final int FUNCTION  = 4;  // invoke function constant, next word is argument count
+    static final int CONVERT   = 5;  // convert with converter constant
+    static final int NEGATE    = 6;  // negate with calculator constant
+    static final int ADD       = 7;
+    static final int SUBTRACT  = 8;
+    static final int MULTIPLY  = 9;
+    static final int DIVIDE    = 10;
+    static final int MODULO    = 11;
+    static final int EQUAL     = 12;
+    static final int NOT_EQUAL = 13;
+    static final int GT        = 14; // compare with comparator constant
+    static final int GE        = 15;
+    static final int LT        = 16;
+    static final int LE        = 17;
+    static final int NOT       = 18;
+    static final int BOOLEAN   = 19; // check boolean on top
+    static final int AND       = 20; // short circuit to operand on false
+    static final int OR        = 21; // short circuit to operand on true
+    static final int IF_FALSE  = 22; // jump to operand on false
+    static final int GOTO      = 23;
+    static final int CONCAT    = 24; // pop operand values into string
+    static final int INDEX     = 25; // lookup with indexer constant
+    static final int PROPERTY  = 26; // resolve with accessor constant
+    static final int METHOD    = 27; // invoke accessor constant, next word is argument count
+    static final int IN        = 28; // test membership with in node constant
+    static final int IN_CONST  = 29; // test constants of in node constant, next word is jump on found
+    static final int IN_EQUAL  = 30; // jump to operand on equal element
+    
+    static final int MAX_OPERAND = 0xFFFFFF;
+    
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    
+    static final ThreadLocal<Stack> stacks = new ThreadLocal<Stack>() {
+        protected Stack initialValue() {
+            return new Stack();
+        }
+    };
+    
+    private final int[] code;
+    private final Object[] constants;
+    private final int maxStack;
+    private final Class<?> type;
+    private final Node[] nodes;
+    
+    Program(int[] code, Object[] constants, int maxStack, Class<?> type, Node[] nodes) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+        this.type = type;
+        this.nodes = nodes;
+    }
+    
+    public Class<?> getType() {
+        return type;
+    }
+    
+    public int getCodeLength() {
+        return code.length;
+    }
+    
+    public int getConstantCount() {
+        return constants.length;
+    }
+    
+    public int getMaxStack() {
+        return maxStack;
+    }
+    
+    public boolean hasDebugInfo() {
+        return nodes != null;
+    }
+    
+    public Object evaluate(Environment context) throws EvaluationException {
+        return evaluate(context, null);
+    }
+    
+    // Nested evaluations without limits of their own, such as those of
+    // expression variables, count against the budget of the limited
+    // evaluation in progress on the same thread
+    public Object evaluate(Environment context, EvaluationLimits limits) throws EvaluationException {
+        // Stack is shared by nested evaluations of the same thread
+        Stack stack = stacks.get();
+        Budget outer = stack.budget;
+        Budget budget = limits == null || limits.isUnlimited() ? outer : new Budget(limits);
+        int base = stack.top;
+        Object[] slots = stack.reserve(maxStack);
+        stack.budget = budget;
+        try {
+            return execute(context, slots, base, budget);
+        } finally {
+            Arrays.fill(slots, base, base + maxStack, null);
+            // Nested evaluations may have grown the stack with a copy of this range
+            if (stack.slots != slots)
+                Arrays.fill(stack.slots, base, base + maxStack, null);
+            stack.top = base;
+            stack.budget = outer;
+        }
+    }
+    
+    public static boolean isLimited() {
+        return stacks.get().budget != null;
+    }
+    
+    private Object execute(Environment context, Object[] stack, int sp, Budget budget)
+            throws EvaluationException {
+        final int[] code = this.code;
+        final Object[] constants = this.constants;
+        
+        int pc = 0;
+        int insn = 0;
+        int end = code.length;
+        // Remaining node visits are kept local, the budget is consulted on
+        // overrun and periodically when timed only, and is updated around
+        // variable resolution that may evaluate nested expressions
+        long visits = budget == null ? Long.MAX_VALUE : budget.remaining;
+        boolean timed = budget != null && budget.timed;
+        try {
+            while (pc < end) {
+                insn = code[pc];
+                int operand = insn >>> 8;
+                if (--visits < 0L || timed && (visits & 63L) == 0L)
+                    budget.visit(nodeAt(pc), visits);
+                switch (insn & 0xFF) {
+                    case CONST:
+                        stack[sp++] = constants[operand];
+                        break;
+                    case VARIABLE:
+                        if (budget != null)
+                            budget.remaining = visits;
+                        stack[sp++] = context.getVariableTable().resolveVariable(
+                                (String) constants[operand], context);
+                        if (budget != null)
+                            visits = budget.remaining;
+                        break;
+                    case SLOT:
+                        if (budget != null)
+                            budget.remaining = visits;
+                        stack[sp++] = ((VariableNode) constants[operand]).evaluate(context);
+                        if (budget != null)
+                            visits = budget.remaining;
+                        break;
+                    case ARRAY: {
+                        if (budget != null && operand > budget.maxArraySize)
+                            throw budget.exceeded(nodeAt(pc), EvaluationLimitException.ARRAY_SIZE);
+                        Object[] items = operand == 0 ? NO_ARGUMENTS : new Object[operand];
+                        sp -= operand;
+                        System.arraycopy(stack, sp, items, 0, operand);
+                        stack[sp++] = items;
+                        break;
+                    }
+                    case FUNCTION: {
+                        int count = code[++pc];
+                        Object[] arguments = count == 0 ? NO_ARGUMENTS : new Object[count];
+                        sp -= count;
+                        System.arraycopy(stack, sp, arguments, 0, count);
+                        if (budget != null)
+                            budget.checkArguments(nodeAt(pc - 1), null, arguments);
+                        stack[sp++] = ((Function) constants[operand]).evaluate(context, arguments);
+                        if (budget != null)
+                            budget.checkResult(nodeAt(pc - 1), stack[sp - 1]);
+                        break;
+                    }
+                    case CONVERT:
+                        stack[sp - 1] = ((Converter) constants[operand]).convert(stack[sp - 1]);
+                        break;
+                    case NEGATE:
+                        stack[sp - 1] = ((Calculator) constants[operand]).negate(stack[sp - 1]);
+                        break;
+                    case ADD:
+                        sp--;
+                        stack[sp - 1] = ((Calculator) constants[operand]).add(stack[sp - 1], stack[sp]);
+                        break;
+                    case SUBTRACT:
+                        sp--;
+                        stack[sp - 1] = ((Calculator) constants[operand]).subtract(stack[sp - 1], stack[sp]);
+                        break;
+                    case MULTIPLY:
+                        sp--;
+                        stack[sp - 1] = ((Calculator) constants[operand]).multiply(stack[sp - 1], stack[sp]);
+                        break;
+                    case DIVIDE:
+                        sp--;
+                        stack[sp - 1] = ((Calculator) constants[operand]).divide(stack[sp - 1], stack[sp]);
+                        break;
+                    case MODULO:
+                        sp--;
+                        stack[sp - 1] = ((Calculator) constants[operand]).modulo(stack[sp - 1], stack[sp]);
+                        break;
+                    case EQUAL:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(Comparator.isEqual(stack[sp - 1], stack[sp]));
+                        break;
+                    case NOT_EQUAL:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(!Comparator.isEqual(stack[sp - 1], stack[sp]));
+                        break;
+                    case GT:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(((Comparator) constants[operand]).compare(stack[sp - 1], stack[sp]) > 0);
+                        break;
+                    case GE:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(((Comparator) constants[operand]).compare(stack[sp - 1], stack[sp]) >= 0);
+                        break;
+                    case LT:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(((Comparator) constants[operand]).compare(stack[sp - 1], stack[sp]) < 0);
+                        break;
+                    case LE:
+                        sp--;
+                        stack[sp - 1] = Boolean.valueOf(((Comparator) constants[operand]).compare(stack[sp - 1], stack[sp]) <= 0);
+                        break;
+                    case NOT:
+                        stack[sp - 1] = Operator.safeValueOf((Boolean) stack[sp - 1])
+                            ? Boolean.FALSE
+                            : Boolean.TRUE;
+                        break;
+                    case BOOLEAN:
+                        stack[sp - 1] = Operator.safeValueOf((Boolean) stack[sp - 1])
+                            ? Boolean.TRUE
+                            : Boolean.FALSE;
+                        break;
+                    case AND:
+                        if (!Operator.safeValueOf((Boolean) stack[--sp])) {
+                            stack[sp++] = Boolean.FALSE;
+                            pc = operand;
+                            continue;
+                        }
+                        break;
+                    case OR:
+                        if (Operator.safeValueOf((Boolean) stack[--sp])) {
+                            stack[sp++] = Boolean.TRUE;
+                            pc = operand;
+                            continue;
+                        }
+                        break;
+                    case IF_FALSE:
+                        if (!Operator.safeValueOf((Boolean) stack[--sp])) {
+                            pc = operand;
+                            continue;
+                        }
+                        break;
+                    case GOTO:
+                        pc = operand;
+                        continue;
+                    case CONCAT: {
+                        StringBuilder buf = new StringBuilder();
+                        sp -= operand;
+                        for (int i = 0; i < operand; i++) {
+                            Object obj = stack[sp + i];
+                            if (obj != null)
+                                buf.append(obj);
+                            if (budget != null && buf.length() > budget.maxStringLength)
+                                throw budget.exceeded(nodeAt(pc), EvaluationLimitException.STRING_LENGTH);
+                        }
+                        stack[sp++] = buf.toString();
+                        break;
+                    }
+                    case INDEX:
+                        sp--;
+                        stack[sp - 1] = ((Indexer) constants[operand]).lookup(stack[sp - 1], stack[sp]);
+                        break;
+                    case PROPERTY:
+                        stack[sp - 1] = ((PropertyAccessor) constants[operand]).resolve(context,
+                                Operator.safeValueOf(stack[sp - 1]));
+                        break;
+                    case METHOD: {
+                        int count = code[++pc];
+                        Object[] arguments = count == 0 ? NO_ARGUMENTS : new Object[count];
+                        sp -= count;
+                        System.arraycopy(stack, sp, arguments, 0, count);
+                        if (budget != null)
+                            budget.checkArguments(nodeAt(pc - 1), stack[sp - 1], arguments);
+                        stack[sp - 1] = ((MethodAccessor) constants[operand]).invoke(context,
+                                Operator.safeValueOf(stack[sp - 1]), arguments);
+                        if (budget != null)
+                            budget.checkResult(nodeAt(pc - 1), stack[sp - 1]);
+                        break;
+                    }
+                    case IN:
+                        stack[sp - 1] = Boolean.valueOf(((InNode) constants[operand]).test(stack[sp - 1], context));
+                        break;
+                    case IN_CONST:
+                        if (((InNode) constants[operand]).testConstants(stack[sp - 1])) {
+                            stack[sp - 1] = Boolean.TRUE;
+                            pc = code[pc + 1];
+                            continue;
+                        }
+                        pc++;
+                        break;
+                    case IN_EQUAL:
+                        sp--;
+                        if (Comparator.isEqual(stack[sp - 1], stack[sp])) {
+                            stack[sp - 1] = Boolean.TRUE;
+                            pc = operand;
+                            continue;
+                        }
+                        break;
+                    default:
+                        throw new InternalError();
+                }
+                pc++;
+            }
+        } catch (Throwable t) {
+            throw failure(pc, insn & 0xFF, t);
+        } finally {
+            if (budget != null)
+                budget.remaining = visits;
+        }
+        return stack[sp - 1];
+    }
+    
+    private Node nodeAt(int pc) {
+        return nodes == null ? null : nodes[pc];
+    }
+    
+    private EvaluationException failure(int pc, int opcode, Throwable t) {
+        if (t instanceof Error && opcode != PROPERTY && opcode != METHOD)
+            throw (Error) t;
+        if (t instanceof EvaluationLimitException)
+            return (EvaluationException) t;
+        // Slot variable and in nodes report their own failures
+        if ((opcode == SLOT || opcode == IN || opcode == IN_CONST) && t instanceof EvaluationException)
+            return (EvaluationException) t;
+        // Operands are evaluated before the instruction, so the failure is
+        // always attributed to the node of the failed instruction
+        if (opcode == FUNCTION || opcode == METHOD)
+            pc--;
+        return new EvaluationException(nodeAt(pc), t);
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc++) {
+            int opcode = code[pc] & 0xFF;
+            buf.append(pc).append(": ").append(opcode).append(' ').append(code[pc] >>> 8);
+            if (opcode == FUNCTION || opcode == METHOD || opcode == IN_CONST)
+                buf.append(' ').append(code[++pc]);
+            buf.append('\n');
+        }
+        return buf.toString();
+    }
+    
+    // Budget
+    
+    // Limits of a single evaluation and of the nested evaluations sharing
+    // them. Instructions are counted as node visits, the clock is read every
+    // 64 instructions and around calls.
+    static final class Budget {
+        
+        final long maxNodeVisits;
+        final long deadline;
+        final boolean timed;
+        final int maxStringLength;
+        final int maxArraySize;
+        
+        long remaining;
+        
+        Budget(EvaluationLimits limits) {
+            this.maxNodeVisits = limits.getMaxNodeVisits();
+            this.timed = limits.isTimed();
+            this.deadline = timed ? limits.getDeadline(System.nanoTime()) : 0L;
+            this.maxStringLength = limits.getMaxStringLength();
+            this.maxArraySize = limits.getMaxArraySize();
+            this.remaining = maxNodeVisits;
+        }
+        
+        void visit(Node node, long remaining) {
+            if (remaining < 0L)
+                throw exceeded(node, EvaluationLimitException.NODE_VISITS);
+            checkDeadline(node);
+        }
+        
+        void checkDeadline(Node node) {
+            if (System.nanoTime() - deadline > 0L)
+                throw exceeded(node, EvaluationLimitException.DEADLINE);
+        }
+        
+        // Inputs are checked before the call, so that functions like SPLIT
+        // or REPLACEALL never start on strings or arrays beyond the limits
+        void checkArguments(Node node, Object target, Object[] arguments) {
+            if (timed)
+                checkDeadline(node);
+            checkSize(node, target);
+            for (Object argument : arguments)
+                checkSize(node, argument);
+        }
+        
+        // Strings and arrays are limited whatever function or method
+        // produced them
+        void checkResult(Node node, Object value) {
+            if (timed)
+                checkDeadline(node);
+            checkSize(node, value);
+        }
+        
+        void checkSize(Node node, Object value) {
+            if (value instanceof CharSequence) {
+                if (((CharSequence) value).length() > maxStringLength)
+                    throw exceeded(node, EvaluationLimitException.STRING_LENGTH);
+            } else if (value instanceof Collection<?>) {
+                if (((Collection<?>) value).size() > maxArraySize)
+                    throw exceeded(node, EvaluationLimitException.ARRAY_SIZE);
+            } else if (value != null && value.getClass().isArray()) {
+                if (Array.getLength(value) > maxArraySize)
+                    throw exceeded(node, EvaluationLimitException.ARRAY_SIZE);
+            }
+        }
+        
+        EvaluationLimitException exceeded(Node node, int limit) {
+            long value;
+            switch (limit) {
+                case EvaluationLimitException.NODE_VISITS:
+                    value = maxNodeVisits;
+                    break;
+                case EvaluationLimitException.STRING_LENGTH:
+                    value = maxStringLength;
+                    break;
+                case EvaluationLimitException.ARRAY_SIZE:
+                    value = maxArraySize;
+                    break;
+                default:
+                    value = deadline;
+            }
+            return new EvaluationLimitException(node, limit, value);
+        }
+        
+    }
+    
+    // Stack
+    
+    static final class Stack {
+        
+        Object[] slots = new Object[64];
+        int top = 0;
+        Budget budget;
+        
+        Object[] reserve(int size) {
+            if (top + size > slots.length)
+                slots = Arrays.copyOf(slots, Math.max(slots.length * 2, top + size));
+            top += size;
+            return slots;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,315 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.foxlabs.etk.node.*;
+
+public class ProgramBuilder implements NodeVisitor<RuntimeException> {
+    
+    private final boolean debug;
+    
+    private int[] code = new int[16];
+    private Node[] nodes;
+    private int length = 0;
+    
+    private final List<Object> constants = new ArrayList<Object>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<Object, Integer>();
+    
+    private int depth = 0;
+    private int maxDepth = 0;
+    
+    protected ProgramBuilder(boolean debug) {
+        this.debug = debug;
+        this.nodes = debug ? new Node[16] : null;
+    }
+    
+    public static Program build(Node root) {
+        return build(root, false);
+    }
+    
+    // Debug programs keep the nodes to attribute evaluation failures
+    public static Program build(Node root, boolean debug) {
+        ProgramBuilder builder = new ProgramBuilder(debug);
+        root.accept(builder);
+        return builder.toProgram(root.getType());
+    }
+    
+    protected Program toProgram(Class<?> type) {
+        return new Program(Arrays.copyOf(code, length),
+                           constants.toArray(),
+                           maxDepth,
+                           type,
+                           nodes == null ? null : Arrays.copyOf(nodes, length));
+    }
+    
+    // Literals
+    
+    public void visit(NullNode node) {
+        emit(node, Program.CONST, constant(null), 1);
+    }
+    
+    public void visit(TrueNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    public void visit(FalseNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    public void visit(EnumNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    public void visit(CharNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    public void visit(NumberNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    public void visit(StringNode node) {
+        emit(node, Program.CONST, constant(node.getValue()), 1);
+    }
+    
+    // Variables
+    
+    public void visit(VariableNode node) {
+        if (node.getVariableSlot() < 0) {
+            emit(node, Program.VARIABLE, constant(node.getVariableName()), 1);
+        } else {
+            emit(node, Program.SLOT, constant(node), 1);
+        }
+    }
+    
+    // Arrays
+    
+    public void visit(ArrayNode node) {
+        Node[] items = node.getItems();
+        for (Node item : items)
+            item.accept(this);
+        emit(node, Program.ARRAY, items.length, 1 - items.length);
+    }
+    
+    // Functions
+    
+    public void visit(FunctionNode node) {
+        Node[] arguments = node.getArguments();
+        for (Node argument : arguments)
+            argument.accept(this);
+        emit(node, Program.FUNCTION, constant(node.getFunction()), 1 - arguments.length);
+        append(arguments.length, null);
+    }
+    
+    // Operators
+    
+    public void visit(CastNode node) {
+        node.getOperand().accept(this);
+        emit(node, Program.CONVERT, constant(node.getConverter()), 0);
+    }
+    
+    public void visit(ConvertNode node) {
+        node.getOperand().accept(this);
+        emit(node, Program.CONVERT, constant(node.getConverter()), 0);
+    }
+    
+    public void visit(NegateNode node) {
+        node.getOperand().accept(this);
+        emit(node, Program.NEGATE, constant(node.getCalculator()), 0);
+    }
+    
+    public void visit(AddNode node) {
+        binary(node, Program.ADD, node.getCalculator());
+    }
+    
+    public void visit(SubtractNode node) {
+        binary(node, Program.SUBTRACT, node.getCalculator());
+    }
+    
+    public void visit(MultiplyNode node) {
+        binary(node, Program.MULTIPLY, node.getCalculator());
+    }
+    
+    public void visit(DivideNode node) {
+        binary(node, Program.DIVIDE, node.getCalculator());
+    }
+    
+    public void visit(ModuloNode node) {
+        binary(node, Program.MODULO, node.getCalculator());
+    }
+    
+    public void visit(EqualNode node) {
+        binary(node, Program.EQUAL, null);
+    }
+    
+    public void visit(NotEqualNode node) {
+        binary(node, Program.NOT_EQUAL, null);
+    }
+    
+    public void visit(GreaterThanNode node) {
+        binary(node, Program.GT, node.getComparator());
+    }
+    
+    public void visit(GreaterThanEqualNode node) {
+        binary(node, Program.GE, node.getComparator());
+    }
+    
+    public void visit(LessThanNode node) {
+        binary(node, Program.LT, node.getComparator());
+    }
+    
+    public void visit(LessThanEqualNode node) {
+        binary(node, Program.LE, node.getComparator());
+    }
+    
+    public void visit(NotNode node) {
+        node.getOperand().accept(this);
+        emit(node, Program.NOT, 0, 0);
+    }
+    
+    public void visit(AndNode node) {
+        logical(node, Program.AND);
+    }
+    
+    public void visit(OrNode node) {
+        logical(node, Program.OR);
+    }
+    
+    public void visit(ConditionNode node) {
+        node.getOperand1().accept(this);
+        int branch = emit(node, Program.IF_FALSE, 0, -1);
+        node.getOperand2().accept(this);
+        // Second case starts with the stack depth of the first one
+        int jump = emit(node, Program.GOTO, 0, -1);
+        patch(branch, length);
+        node.getOperand3().accept(this);
+        patch(jump, length);
+    }
+    
+    public void visit(ConcatNode node) {
+        Node[] operands = node.getOperands();
+        for (Node operand : operands)
+            operand.accept(this);
+        emit(node, Program.CONCAT, operands.length, 1 - operands.length);
+    }
+    
+    public void visit(IndexNode node) {
+        node.getCollection().accept(this);
+        node.getKey().accept(this);
+        emit(node, Program.INDEX, constant(node.getIndexer()), -1);
+    }
+    
+    public void visit(PropertyNode node) {
+        node.getObject().accept(this);
+        emit(node, Program.PROPERTY, constant(node.getAccessor()), 0);
+    }
+    
+    public void visit(MethodNode node) {
+        Node[] arguments = node.getArguments();
+        node.getObject().accept(this);
+        for (Node argument : arguments)
+            argument.accept(this);
+        emit(node, Program.METHOD, constant(node.getAccessor()), -arguments.length);
+        append(arguments.length, null);
+    }
+    
+    public void visit(InNode node) {
+        node.getOperand().accept(this);
+        Node[] variables = node.getVariableElements();
+        if (variables.length == 0) {
+            emit(node, Program.IN, constant(node), 0);
+            return;
+        }
+        
+        // Elements that need evaluation are compared in the program, so that
+        // they are counted against the budget like any other operand
+        int[] branches = new int[variables.length];
+        branches[0] = emit(node, Program.IN_CONST, constant(node), 0);
+        append(0, null);
+        for (int i = 0; i < variables.length; i++) {
+            variables[i].accept(this);
+            if (i + 1 < variables.length) {
+                branches[i + 1] = emit(node, Program.IN_EQUAL, 0, -1);
+            } else {
+                emit(node, Program.EQUAL, 0, -1);
+            }
+        }
+        code[branches[0] + 1] = length;
+        for (int i = 1; i < branches.length; i++)
+            patch(branches[i], length);
+        if (node.isNegated())
+            emit(node, Program.NOT, 0, 0);
+    }
+    
+    // Utility methods
+    
+    private void binary(BinaryNode node, int opcode, Object operator) {
+        node.getOperand1().accept(this);
+        node.getOperand2().accept(this);
+        emit(node, opcode, operator == null ? 0 : constant(operator), -1);
+    }
+    
+    private void logical(BinaryNode node, int opcode) {
+        node.getOperand1().accept(this);
+        int branch = emit(node, opcode, 0, -1);
+        node.getOperand2().accept(this);
+        emit(node, Program.BOOLEAN, 0, 0);
+        patch(branch, length);
+    }
+    
+    private int constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+    
+    private int emit(Node node, int opcode, int operand, int stackDelta) {
+        if (operand > Program.MAX_OPERAND)
+            throw new IllegalStateException();
+        
+        depth += stackDelta;
+        maxDepth = Math.max(maxDepth, depth);
+        return append(opcode | operand << 8, node);
+    }
+    
+    private int append(int word, Node node) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+            if (nodes != null)
+                nodes = Arrays.copyOf(nodes, length * 2);
+        }
+        if (nodes != null)
+            nodes[length] = node;
+        code[length] = word;
+        return length++;
+    }
+    
+    private void patch(int pc, int target) {
+        code[pc] = (code[pc] & 0xFF) | target << 8;
+    }
+    
+}
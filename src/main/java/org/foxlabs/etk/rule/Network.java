@@ -0,0 +1,573 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.node.*;
+import org.foxlabs.etk.support.Comparator;
+
+// Alpha network of a rule set. Every rule is split into the conjuncts of
+// its top level AND chain. Equal conjuncts of different rules are the same
+// test, and tests against the same path share a single evaluation of the
+// path. One equality test of a rule is chosen as its key, and rules are
+// hash indexed by key value, so only rules whose key matches are examined.
+// When failures are collected, rules keyed on a failing path and rules
+// having conjuncts ahead of their key are examined as well, so that exactly
+// the rules whose expression would fail are reported.
+final class Network {
+    
+    static final int[] NO_RULES = new int[0];
+    
+    final String[] ruleIds;
+    final Test[][] ruleTests;
+    final Node[] paths;
+    final Test[] tests;
+    final Index[] indexes;
+    final int[] unindexedRules;
+    
+    // Memories do not refer to the network, so the entries of a dropped
+    // network go stale in the threads that matched it
+    private final ThreadLocal<Memory> memories = new ThreadLocal<Memory>() {
+        protected Memory initialValue() {
+            return newMemory();
+        }
+    };
+    
+    Network(Map<String, Expression> rules) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, Expression> entry : rules.entrySet())
+            builder.add(entry.getKey(), entry.getValue().getRootNode());
+        
+        this.ruleIds = builder.ruleIds.toArray(new String[builder.ruleIds.size()]);
+        this.ruleTests = builder.ruleTests.toArray(new Test[builder.ruleTests.size()][]);
+        this.paths = builder.paths.toArray(new Node[builder.paths.size()]);
+        this.tests = builder.tests.toArray(new Test[builder.tests.size()]);
+        this.indexes = builder.createIndexes();
+        this.unindexedRules = builder.createUnindexedRules();
+    }
+    
+    int match(Environment context, Collection<? super String> result,
+            Map<? super String, ? super RuntimeException> failures) {
+        // Nested matches of the same thread get their own memory
+        Memory memory = memories.get();
+        if (memory.busy)
+            memory = newMemory();
+        memory.busy = true;
+        try {
+            return match(context, memory, result, failures);
+        } finally {
+            memory.reset();
+            memory.busy = false;
+        }
+    }
+    
+    private Memory newMemory() {
+        return new Memory(paths.length, tests.length, ruleIds.length);
+    }
+    
+    private int match(Environment context, Memory memory, Collection<? super String> result,
+            Map<? super String, ? super RuntimeException> failures) {
+        boolean collect = failures != null;
+        for (Index index : indexes) {
+            int[] rules;
+            try {
+                rules = index.lookup(memory.evaluatePath(this, index.path, context));
+            } catch (RuntimeException e) {
+                // Rules keyed on a failing path fail when their key is tested
+                rules = collect ? index.rules : NO_RULES;
+            }
+            for (int rule : rules)
+                check(rule, context, memory);
+            // Conjuncts ahead of a mismatching key may still fail
+            if (collect)
+                for (int rule : index.guardedRules)
+                    check(rule, context, memory);
+        }
+        for (int rule : unindexedRules)
+            check(rule, context, memory);
+        
+        // Rules are reported in the order they were added
+        int[] matches = memory.matches;
+        int count = memory.matchCount;
+        Arrays.sort(matches, 0, count);
+        for (int i = 0; i < count; i++)
+            result.add(ruleIds[matches[i]]);
+        
+        if (collect) {
+            int[] failed = memory.failures;
+            Arrays.sort(failed, 0, memory.failureCount);
+            for (int i = 0; i < memory.failureCount; i++)
+                failures.put(ruleIds[failed[i]], memory.ruleErrors[failed[i]]);
+        }
+        return count;
+    }
+    
+    // Rules are examined at most once per match, as a rule may be reached
+    // through its index as well as among the guarded rules
+    private void check(int rule, Environment context, Memory memory) {
+        if (memory.ruleStamps[rule] == memory.generation)
+            return;
+        memory.ruleStamps[rule] = memory.generation;
+        try {
+            for (Test test : ruleTests[rule])
+                if (!memory.evaluateTest(this, test, context))
+                    return;
+            memory.matches[memory.matchCount++] = rule;
+        } catch (RuntimeException e) {
+            memory.ruleErrors[rule] = e;
+            memory.failures[memory.failureCount++] = rule;
+        }
+    }
+    
+    int getIndexedRuleCount() {
+        return ruleIds.length - unindexedRules.length;
+    }
+    
+    int getTestReferenceCount() {
+        int count = 0;
+        for (Test[] tests : ruleTests)
+            count += tests.length;
+        return count;
+    }
+    
+    // Builder
+    
+    static final class Builder {
+        
+        final List<String> ruleIds = new ArrayList<String>();
+        final List<Test[]> ruleTests = new ArrayList<Test[]>();
+        final List<Node> paths = new ArrayList<Node>();
+        final List<Test> tests = new ArrayList<Test>();
+        final Map<Node, Integer> pathIndexes = new HashMap<Node, Integer>();
+        final Map<Node, Test> testIndexes = new HashMap<Node, Test>();
+        final Map<Integer, Map<Object, List<Integer>>> keys = new HashMap<Integer, Map<Object, List<Integer>>>();
+        final Map<Integer, List<Integer>> keyedRules = new HashMap<Integer, List<Integer>>();
+        final Map<Integer, List<Integer>> guardedRules = new HashMap<Integer, List<Integer>>();
+        final List<Integer> unindexed = new ArrayList<Integer>();
+        
+        void add(String id, Node root) {
+            int rule = ruleIds.size();
+            List<Node> conjuncts = new ArrayList<Node>();
+            flatten(root, conjuncts);
+            
+            List<Test> checks = new ArrayList<Test>(conjuncts.size());
+            boolean indexed = false;
+            for (Node conjunct : conjuncts) {
+                // The key test stays among the checks, the index only
+                // narrows down candidates
+                Test test = getTest(conjunct);
+                if (!indexed && test.isKey()) {
+                    addKeys(rule, (PathTest) test, !checks.isEmpty());
+                    indexed = true;
+                }
+                checks.add(test);
+            }
+            
+            if (!indexed)
+                unindexed.add(rule);
+            ruleIds.add(id);
+            ruleTests.add(checks.toArray(new Test[checks.size()]));
+        }
+        
+        private void flatten(Node node, List<Node> conjuncts) {
+            if (node.getId() == Node.AND_NODE) {
+                flatten(((AndNode) node).getOperand1(), conjuncts);
+                flatten(((AndNode) node).getOperand2(), conjuncts);
+            } else {
+                conjuncts.add(node);
+            }
+        }
+        
+        private Test getTest(Node conjunct) {
+            Test test = testIndexes.get(conjunct);
+            if (test == null) {
+                test = createTest(conjunct);
+                test.index = tests.size();
+                tests.add(test);
+                testIndexes.put(conjunct, test);
+            }
+            return test;
+        }
+        
+        private Test createTest(Node conjunct) {
+            switch (conjunct.getId()) {
+                case Node.EQ_NODE:
+                case Node.NE_NODE:
+                case Node.GT_NODE:
+                case Node.GE_NODE:
+                case Node.LT_NODE:
+                case Node.LE_NODE: {
+                    BinaryNode binary = (BinaryNode) conjunct;
+                    if (isPath(binary.getOperand1()) && isConstant(binary.getOperand2()))
+                        return createPathTest(binary, binary.getOperand1(), binary.getOperand2(), false);
+                    if (isConstant(binary.getOperand1()) && isPath(binary.getOperand2()))
+                        return createPathTest(binary, binary.getOperand2(), binary.getOperand1(), true);
+                    break;
+                }
+                case Node.IN_NODE:
+                case Node.NOT_IN_NODE: {
+                    InNode in = (InNode) conjunct;
+                    if (isPath(in.getOperand()))
+                        return new PathTest(in, getPath(in.getOperand()), null, null, false);
+                    break;
+                }
+            }
+            return new NodeTest(conjunct);
+        }
+        
+        private Test createPathTest(BinaryNode node, Node path, Node constant, boolean reversed) {
+            Object value;
+            try {
+                value = constant.evaluate(null);
+            } catch (RuntimeException e) {
+                return new NodeTest(node);
+            }
+            Comparator comparator = node instanceof EqualNode || node instanceof NotEqualNode
+                ? null
+                : getComparator(node);
+            return new PathTest(node, getPath(path), value, comparator, reversed);
+        }
+        
+        private int getPath(Node path) {
+            Integer index = pathIndexes.get(path);
+            if (index == null) {
+                index = paths.size();
+                paths.add(path);
+                pathIndexes.put(path, index);
+            }
+            return index;
+        }
+        
+        private void addKeys(int rule, PathTest test, boolean guarded) {
+            Map<Object, List<Integer>> values = keys.get(test.path);
+            if (values == null) {
+                values = new HashMap<Object, List<Integer>>();
+                keys.put(test.path, values);
+                keyedRules.put(test.path, new ArrayList<Integer>());
+                guardedRules.put(test.path, new ArrayList<Integer>());
+            }
+            keyedRules.get(test.path).add(rule);
+            if (guarded)
+                guardedRules.get(test.path).add(rule);
+            if (test.node.getId() == Node.IN_NODE) {
+                InNode in = (InNode) test.node;
+                for (int i = 0; i < in.getElementCount(); i++)
+                    addKey(values, in.getElement(i).evaluate(null), rule);
+            } else {
+                addKey(values, test.value, rule);
+            }
+        }
+        
+        private static void addKey(Map<Object, List<Integer>> values, Object value, int rule) {
+            List<Integer> rules = values.get(value);
+            if (rules == null) {
+                rules = new ArrayList<Integer>(1);
+                values.put(value, rules);
+            } else if (rules.get(rules.size() - 1) == rule) {
+                return;
+            }
+            rules.add(rule);
+        }
+        
+        Index[] createIndexes() {
+            List<Index> indexes = new ArrayList<Index>(keys.size());
+            for (Map.Entry<Integer, Map<Object, List<Integer>>> entry : keys.entrySet()) {
+                Map<Object, int[]> values = new HashMap<Object, int[]>();
+                for (Map.Entry<Object, List<Integer>> value : entry.getValue().entrySet())
+                    values.put(value.getKey(), toArray(value.getValue()));
+                indexes.add(new Index(entry.getKey(), values,
+                                      toArray(keyedRules.get(entry.getKey())),
+                                      toArray(guardedRules.get(entry.getKey()))));
+            }
+            return indexes.toArray(new Index[indexes.size()]);
+        }
+        
+        int[] createUnindexedRules() {
+            return toArray(unindexed);
+        }
+        
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = list.get(i);
+            return array;
+        }
+        
+    }
+    
+    // Utility methods
+    
+    // Paths are variables with property and constant index accessors on top
+    static boolean isPath(Node node) {
+        switch (node.getId()) {
+            case Node.VARIABLE_NODE:
+                return true;
+            case Node.CONVERT_NODE:
+                return isPath(((ConvertNode) node).getOperand());
+            case Node.PROPERTY_NODE:
+                return isPath(((PropertyNode) node).getObject());
+            case Node.INDEX_NODE:
+                IndexNode index = (IndexNode) node;
+                return isConstant(index.getKey()) && isPath(index.getCollection());
+            default:
+                return false;
+        }
+    }
+    
+    static boolean isConstant(Node node) {
+        if (node.getId() == Node.CONVERT_NODE)
+            node = ((ConvertNode) node).getOperand();
+        return node instanceof LiteralNode<?>;
+    }
+    
+    static Comparator getComparator(BinaryNode node) {
+        switch (node.getId()) {
+            case Node.GT_NODE:
+                return ((GreaterThanNode) node).getComparator();
+            case Node.GE_NODE:
+                return ((GreaterThanEqualNode) node).getComparator();
+            case Node.LT_NODE:
+                return ((LessThanNode) node).getComparator();
+            default:
+                return ((LessThanEqualNode) node).getComparator();
+        }
+    }
+    
+}
+
+// ============================================================================
+
+abstract class Test {
+    
+    final Node node;
+    int index;
+    
+    Test(Node node) {
+        this.node = node;
+    }
+    
+    boolean isKey() {
+        return false;
+    }
+    
+    abstract boolean test(Network network, Environment context, Memory memory)
+            throws EvaluationException;
+    
+}
+
+// ============================================================================
+
+final class NodeTest extends Test {
+    
+    NodeTest(Node node) {
+        super(node);
+    }
+    
+    boolean test(Network network, Environment context, Memory memory)
+            throws EvaluationException {
+        return node.evaluateBoolean(context);
+    }
+    
+}
+
+// ============================================================================
+
+final class PathTest extends Test {
+    
+    final int path;
+    final Object value;
+    final Comparator comparator;
+    final boolean reversed;
+    
+    PathTest(Node node, int path, Object value, Comparator comparator, boolean reversed) {
+        super(node);
+        this.path = path;
+        this.value = value;
+        this.comparator = comparator;
+        this.reversed = reversed;
+    }
+    
+    boolean isKey() {
+        if (node.getId() == Node.EQ_NODE)
+            return true;
+        if (node.getId() != Node.IN_NODE)
+            return false;
+        InNode in = (InNode) node;
+        for (int i = 0; i < in.getElementCount(); i++)
+            if (!Network.isConstant(in.getElement(i)))
+                return false;
+        return true;
+    }
+    
+    // Failures are reported on the operator node as its evaluation does
+    boolean test(Network network, Environment context, Memory memory)
+            throws EvaluationException {
+        Object operand = memory.evaluatePath(network, path, context);
+        switch (node.getId()) {
+            case Node.EQ_NODE:
+                return Comparator.isEqual(operand, value);
+            case Node.NE_NODE:
+                return !Comparator.isEqual(operand, value);
+            case Node.IN_NODE:
+            case Node.NOT_IN_NODE:
+                return ((InNode) node).test(operand, context);
+        }
+        
+        int result;
+        try {
+            result = reversed
+                ? comparator.compare(value, operand)
+                : comparator.compare(operand, value);
+        } catch (Exception e) {
+            throw new EvaluationException(node, e);
+        }
+        switch (node.getId()) {
+            case Node.GT_NODE:
+                return result > 0;
+            case Node.GE_NODE:
+                return result >= 0;
+            case Node.LT_NODE:
+                return result < 0;
+            default:
+                return result <= 0;
+        }
+    }
+    
+}
+
+// ============================================================================
+
+final class Index {
+    
+    final int path;
+    final int[] rules;
+    final int[] guardedRules;
+    private final Map<Object, int[]> keys;
+    
+    // Guarded rules have conjuncts ahead of their key test
+    Index(int path, Map<Object, int[]> keys, int[] rules, int[] guardedRules) {
+        this.path = path;
+        this.keys = keys;
+        this.rules = rules;
+        this.guardedRules = guardedRules;
+    }
+    
+    int[] lookup(Object value) {
+        int[] result = keys.get(value);
+        return result == null ? Network.NO_RULES : result;
+    }
+    
+}
+
+// ============================================================================
+
+// Per thread state of a match. Results of paths, tests and rules are valid
+// only when their stamp equals the current generation, so stamps are not
+// cleared between matches. Values and failures are, so that an idle thread
+// keeps no input alive. Failures of shared paths and tests are rethrown to
+// every rule that reaches them.
+final class Memory {
+    
+    boolean busy = false;
+    int generation = 1;
+    
+    final int[] pathStamps;
+    final Object[] pathValues;
+    final RuntimeException[] pathErrors;
+    final int[] testStamps;
+    final boolean[] testResults;
+    final RuntimeException[] testErrors;
+    final int[] ruleStamps;
+    final RuntimeException[] ruleErrors;
+    final int[] matches;
+    final int[] failures;
+    int matchCount;
+    int failureCount;
+    
+    Memory(int paths, int tests, int rules) {
+        this.pathStamps = new int[paths];
+        this.pathValues = new Object[paths];
+        this.pathErrors = new RuntimeException[paths];
+        this.testStamps = new int[tests];
+        this.testResults = new boolean[tests];
+        this.testErrors = new RuntimeException[tests];
+        this.ruleStamps = new int[rules];
+        this.ruleErrors = new RuntimeException[rules];
+        this.matches = new int[rules];
+        this.failures = new int[rules];
+    }
+    
+    // Called when a match is over
+    void reset() {
+        if (++generation == 0) {
+            Arrays.fill(pathStamps, 0);
+            Arrays.fill(testStamps, 0);
+            Arrays.fill(ruleStamps, 0);
+            generation = 1;
+        }
+        Arrays.fill(pathValues, null);
+        Arrays.fill(pathErrors, null);
+        Arrays.fill(testErrors, null);
+        for (int i = 0; i < failureCount; i++)
+            ruleErrors[failures[i]] = null;
+        matchCount = 0;
+        failureCount = 0;
+    }
+    
+    Object evaluatePath(Network network, int path, Environment context) {
+        if (pathStamps[path] != generation) {
+            try {
+                pathValues[path] = network.paths[path].evaluate(context);
+                pathErrors[path] = null;
+            } catch (RuntimeException e) {
+                pathValues[path] = null;
+                pathErrors[path] = e;
+            }
+            pathStamps[path] = generation;
+        }
+        if (pathErrors[path] != null)
+            throw pathErrors[path];
+        return pathValues[path];
+    }
+    
+    boolean evaluateTest(Network network, Test test, Environment context) {
+        int index = test.index;
+        if (testStamps[index] != generation) {
+            try {
+                testResults[index] = test.test(network, context, this);
+                testErrors[index] = null;
+            } catch (RuntimeException e) {
+                testResults[index] = false;
+                testErrors[index] = e;
+            }
+            testStamps[index] = generation;
+        }
+        if (testErrors[index] != null)
+            throw testErrors[index];
+        return testResults[index];
+    }
+    
+}
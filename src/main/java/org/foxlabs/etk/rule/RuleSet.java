@@ -0,0 +1,119 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.Expression;
+
+public class RuleSet {
+    
+    private final Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+    
+    private volatile Network network = null;
+    
+    public RuleSet() {
+        super();
+    }
+    
+    public synchronized RuleSet addRule(String id, Expression rule) {
+        if (id == null || rule == null)
+            throw new NullPointerException();
+        rules.put(id, rule);
+        network = null;
+        return this;
+    }
+    
+    public synchronized Expression removeRule(String id) {
+        Expression rule = rules.remove(id);
+        if (rule != null)
+            network = null;
+        return rule;
+    }
+    
+    public synchronized Expression getRule(String id) {
+        return rules.get(id);
+    }
+    
+    public synchronized Set<String> getRuleIds() {
+        return Collections.unmodifiableSet(new LinkedHashMap<String, Expression>(rules).keySet());
+    }
+    
+    public synchronized int size() {
+        return rules.size();
+    }
+    
+    // Matching
+    
+    public List<String> match(Environment context) {
+        List<String> result = new ArrayList<String>();
+        match(context, result);
+        return result;
+    }
+    
+    public int match(Environment context, Collection<? super String> result) {
+        return getNetwork().match(context, result, null);
+    }
+    
+    // Rules whose evaluation fails do not match, their failures are put into
+    // the given map by rule id in the order the rules were added. A failure
+    // of a test shared by several rules is reported to each of them by the
+    // same exception, whose owner is not set.
+    public int match(Environment context, Collection<? super String> result,
+            Map<? super String, ? super RuntimeException> failures) {
+        if (failures == null)
+            throw new NullPointerException();
+        return getNetwork().match(context, result, failures);
+    }
+    
+    Network getNetwork() {
+        Network network = this.network;
+        if (network == null) {
+            synchronized (this) {
+                network = this.network;
+                if (network == null)
+                    this.network = network = new Network(rules);
+            }
+        }
+        return network;
+    }
+    
+    // Statistics
+    
+    public String getReport() {
+        Network network = getNetwork();
+        StringBuilder buf = new StringBuilder();
+        buf.append("rules: ").append(network.ruleIds.length);
+        buf.append(", indexed: ").append(network.getIndexedRuleCount());
+        buf.append(", paths: ").append(network.paths.length);
+        buf.append(", tests: ").append(network.tests.length);
+        buf.append(", test references: ").append(network.getTestReferenceCount());
+        return buf.toString();
+    }
+    
+    public String toString() {
+        return getReport();
+    }
+    
+}
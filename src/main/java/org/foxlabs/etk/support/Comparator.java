@@ -441,6 +441,16 @@ public abstract class Comparator extends Operator {
         return equalityTypes[index1][index2];
     }
     
+    public static final boolean isEqual(Object v1, Object v2) {
+        if (v1 == v2)
+            return true;
+        
+        if (v1 == null || v2 == null)
+            return false;
+        
+        return v1.equals(v2) && (v1.getClass() == v2.getClass() || v2.equals(v1));
+    }
+    
 }
 
 final class CharacterComparator extends Comparator {
@@ -40,6 +40,30 @@ public abstract class Operator {
         return (T) arguments[index];
     }
     
+    public static final boolean safeBooleanValueOf(Object value) {
+        return safeValueOf((Boolean) value);
+    }
+    
+    public static final int safeIntValueOf(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).intValue();
+        if (value instanceof Character)
+            return ((Character) value).charValue();
+        return safeValueOf((Integer) value);
+    }
+    
+    public static final long safeLongValueOf(Object value) {
+        if (value instanceof Long)
+            return ((Long) value).longValue();
+        return safeIntValueOf(value);
+    }
+    
+    public static final double safeDoubleValueOf(Object value) {
+        if (value instanceof Double || value instanceof Float)
+            return ((Number) value).doubleValue();
+        return safeLongValueOf(value);
+    }
+    
     public static final int safeDivisorOf(Integer value) {
         if (safeValueOf(value) == 0)
             throw ResourceManager.newDivisionByZeroException();
@@ -64,6 +88,30 @@ public abstract class Operator {
         return value;
     }
     
+    public static final int safeDivisorOf(int value) {
+        if (value == 0)
+            throw ResourceManager.newDivisionByZeroException();
+        return value;
+    }
+    
+    public static final long safeDivisorOf(long value) {
+        if (value == 0L)
+            throw ResourceManager.newDivisionByZeroException();
+        return value;
+    }
+    
+    public static final float safeDivisorOf(float value) {
+        if (value == 0F)
+            throw ResourceManager.newDivisionByZeroException();
+        return value;
+    }
+    
+    public static final double safeDivisorOf(double value) {
+        if (value == 0D)
+            throw ResourceManager.newDivisionByZeroException();
+        return value;
+    }
+    
     public static final BigInteger safeDivisorOf(BigInteger value) {
         if (safeValueOf(value).equals(BigInteger.ZERO))
             throw ResourceManager.newDivisionByZeroException();
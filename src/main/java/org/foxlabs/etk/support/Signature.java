@@ -175,7 +175,7 @@ public final class Signature implements Comparable<Signature>, java.io.Serializa
     
     public int hashCode() {
         if (hash == 0)
-            hash = (namespace + name).hashCode() ^ Types.hashCode(argtypes);
+            hash = (31 * namespace.hashCode() + name.hashCode()) ^ Types.hashCode(argtypes);
         
         return hash;
     }
@@ -202,12 +202,13 @@ public final class Signature implements Comparable<Signature>, java.io.Serializa
         return false;
     }
     
+    // Signatures with folded names are returned as is
     public Signature toCaseInsensitive() {
-        return new Signature(name.toUpperCase(),
-                             namespace == NULL_NS
-                                 ? namespace
-                                 : namespace.toUpperCase(),
-                             argtypes);
+        String name = Symbol.fold(this.name);
+        String namespace = this.namespace == NULL_NS ? NULL_NS : Symbol.fold(this.namespace);
+        return name == this.name && namespace == this.namespace
+            ? this
+            : new Signature(name, namespace, argtypes);
     }
     
     public String toString() {
@@ -0,0 +1,152 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Names folded to upper case for case insensitive lookups. Symbols are
+// interned by the exact spelling, so folding a known spelling neither
+// scans nor allocates. Plain ASCII names are folded without locale rules.
+public final class Symbol {
+    
+    // Spellings beyond this number are folded every time
+    public static final int MAX_SYMBOLS = 1 << 16;
+    
+    private static final ConcurrentHashMap<String, Symbol> symbols =
+        new ConcurrentHashMap<String, Symbol>();
+    private static final AtomicInteger count = new AtomicInteger();
+    private static final LongAdder missCount = new LongAdder();
+    private static volatile int limit = MAX_SYMBOLS;
+    
+    private final String name;
+    private final String folded;
+    
+    private Symbol(String name, String folded) {
+        this.name = name;
+        this.folded = folded;
+    }
+    
+    public static Symbol of(String name) {
+        Symbol symbol = symbols.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name, foldCase(name));
+            if (reserve()) {
+                Symbol existing = symbols.putIfAbsent(name, symbol);
+                if (existing != null) {
+                    count.decrementAndGet();
+                    symbol = existing;
+                }
+            } else {
+                missCount.increment();
+            }
+        }
+        return symbol;
+    }
+    
+    public static String fold(String name) {
+        Symbol symbol = symbols.get(name);
+        if (symbol != null)
+            return symbol.folded;
+        if (count.get() < limit)
+            return of(name).folded;
+        
+        // The table is full, there is nothing to intern
+        missCount.increment();
+        return foldCase(name);
+    }
+    
+    // Slots are taken before the spelling is added, so the table never
+    // grows beyond the limit
+    private static boolean reserve() {
+        for (;;) {
+            int current = count.get();
+            if (current >= limit)
+                return false;
+            if (count.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+    
+    // Lowers the limit so that tests do not have to fill the table
+    static void setLimit(int limit) {
+        Symbol.limit = limit;
+    }
+    
+    // Empties the table and restores the limit, for tests only
+    static void reset() {
+        symbols.clear();
+        count.set(0);
+        missCount.reset();
+        limit = MAX_SYMBOLS;
+    }
+    
+    public static int getSymbolCount() {
+        return count.get();
+    }
+    
+    // Number of spellings folded without being interned
+    public static long getMissCount() {
+        return missCount.sum();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    // Same instance as the name if it is folded already
+    public String getFolded() {
+        return folded;
+    }
+    
+    public int hashCode() {
+        return folded.hashCode();
+    }
+    
+    public boolean equals(Object obj) {
+        return obj instanceof Symbol && folded.equals(((Symbol) obj).folded);
+    }
+    
+    public String toString() {
+        return name;
+    }
+    
+    static String foldCase(String name) {
+        int length = name.length();
+        int i = 0;
+        while (i < length) {
+            char ch = name.charAt(i);
+            if (ch >= 'a' && ch <= 'z' || ch >= 0x80)
+                break;
+            i++;
+        }
+        if (i == length)
+            return name;
+        
+        char[] chars = name.toCharArray();
+        for (; i < length; i++) {
+            char ch = chars[i];
+            if (ch >= 'a' && ch <= 'z')
+                chars[i] = (char) (ch - ('a' - 'A'));
+            else if (ch >= 0x80)
+                return name.toUpperCase();
+        }
+        return new String(chars);
+    }
+    
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.variable;
+
+import org.foxlabs.etk.EtkException;
+import org.foxlabs.etk.resource.ResourceManager;
+
+public class CyclicVariableException extends EtkException {
+    private static final long serialVersionUID = 3350724186214093851L;
+    
+    private String name;
+    private String path;
+    
+    public CyclicVariableException(String name, String path) {
+        super(ResourceManager.getMessage("environment.cyclicVariable", name, path));
+        this.name = name;
+        this.path = path;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    // Variable names of the cycle separated by arrows
+    public String getPath() {
+        return path;
+    }
+    
+}
@@ -16,22 +16,54 @@
 
 package org.foxlabs.etk.variable;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import org.foxlabs.etk.DefaultEnvironment;
 import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationContext;
 import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.EvaluationLimits;
 import org.foxlabs.etk.Expression;
 import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.node.IndexNode;
+import org.foxlabs.etk.node.MethodNode;
 import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeTransformer;
+import org.foxlabs.etk.node.PropertyNode;
+import org.foxlabs.etk.node.VariableNode;
+import org.foxlabs.etk.support.Symbol;
 
 public class DefaultVariableTable implements MutableVariableTable {
     
     protected transient Map<String, Variable> table;
     private final boolean caseSensitive;
     
+    // Expression variables depending on each variable by internal names,
+    // which may refer to variables not defined yet. Changes are made under
+    // the lock of this map.
+    private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+    private final Set<String> dirty = new HashSet<String>();
+    private long modCount = 0L;
+    
+    // Cached values computed before this stamp may be invalidated
+    private volatile long stamp = 0L;
+    
+    private Environment recalculationContext;
+    private Executor recalculationExecutor;
+    
+    private static final ThreadLocal<Resolution> resolution = new ThreadLocal<Resolution>();
+    
     public DefaultVariableTable() {
         this(false);
     }
@@ -55,14 +87,18 @@ public class DefaultVariableTable implements MutableVariableTable {
     
     private final class NameItr implements Iterator<String> {
         Iterator<Variable> itr = table.values().iterator();
+        Variable current;
         public boolean hasNext() {
             return itr.hasNext();
         }
         public String next() {
-            return itr.next().name;
+            return (current = itr.next()).name;
         }
         public void remove() {
-            itr.remove();
+            if (current == null)
+                throw new IllegalStateException();
+            removeVariable(current.name);
+            current = null;
         }
     }
     
@@ -73,7 +109,62 @@ public class DefaultVariableTable implements MutableVariableTable {
     
     public Object resolveVariable(String name, Environment context)
             throws VariableNotFoundException, EvaluationException {
-        return lookupVariable(name).resolve(context);
+        return resolveVariable(lookupVariable(name), context);
+    }
+    
+    protected Object resolveVariable(Variable var, Environment context)
+            throws EvaluationException {
+        return var instanceof Expr ? resolve((Expr) var, context) : var.resolve(context);
+    }
+    
+    // Values of expression variables are cached until one of the variables
+    // they depend on changes. Values computed in contexts resolving variables
+    // elsewhere or depending on anything but variables of this table are not,
+    // but are still memoized by the evaluation context if it is given and the
+    // expression is deterministic.
+    private Object resolve(Expr var, Environment context) throws EvaluationException {
+        boolean local = context != null && context.getVariableTable() == this;
+        if (local) {
+            Cached cached = var.cached;
+            if (cached != null && cached.stamp >= var.invalidated)
+                return cached.value;
+        }
+        
+        Resolution outer = resolution.get();
+        EvaluationContext scope = var.deterministic && context instanceof EvaluationContext
+            ? (EvaluationContext) context
+            : null;
+        if (scope != null) {
+            Object value = scope.lookup(var);
+            if (value != EvaluationContext.NO_VALUE) {
+                // Only values that could not be cached are memoized
+                if (outer != null)
+                    outer.stable = false;
+                return value;
+            }
+        }
+        
+        long start = stamp;
+        Resolution inner = new Resolution(local && var.stable, var.deterministic);
+        resolution.set(inner);
+        Object value;
+        try {
+            value = var.resolve(context);
+        } finally {
+            resolution.set(outer);
+        }
+        
+        if (inner.stable) {
+            var.cached = new Cached(value, start);
+        } else {
+            if (outer != null) {
+                outer.stable = false;
+                outer.deterministic &= inner.deterministic;
+            }
+            if (scope != null && inner.deterministic)
+                scope.memoize(var, value);
+        }
+        return value;
     }
     
     public void putVariable(String name, Object value) {
@@ -106,19 +197,47 @@ public class DefaultVariableTable implements MutableVariableTable {
     private void putVariable(String name, Variable var) {
         if (name == null)
             throw new NullPointerException();
-        table.put(internalNameOf(var.name), var);
+        
+        String key = internalNameOf(var.name);
+        synchronized (dependents) {
+            if (var instanceof Expr)
+                checkCycle(key, (Expr) var);
+            unlink(key, table.put(key, var));
+            link(key, var);
+            invalidate(key);
+        }
+        recalculateIfEager();
     }
     
     public boolean removeVariable(String name) {
-        return table.remove(internalNameOf(name)) != null;
+        String key = internalNameOf(name);
+        synchronized (dependents) {
+            Variable var = table.remove(key);
+            if (var == null)
+                return false;
+            unlink(key, var);
+            invalidate(key);
+        }
+        recalculateIfEager();
+        return true;
     }
     
     public void removeAll() {
-        table.clear();
+        synchronized (dependents) {
+            table.clear();
+            dependents.clear();
+            dirty.clear();
+            stamp = ++modCount;
+        }
     }
     
     protected final String internalNameOf(String name) {
-        return caseSensitive ? name : name.toUpperCase();
+        return caseSensitive ? name : Symbol.fold(name);
+    }
+    
+    // Variable visible by the internal name, including inherited ones
+    Variable findVariable(String key) {
+        return table.get(key);
     }
     
     protected Variable lookupVariable(String name)
@@ -129,6 +248,180 @@ public class DefaultVariableTable implements MutableVariableTable {
         return var;
     }
     
+    // Dependencies
+    
+    private void checkCycle(String key, Expr var) {
+        List<String> path = new ArrayList<String>();
+        path.add(var.name);
+        if (reaches(var, key, path, new HashSet<String>())) {
+            StringBuilder buf = new StringBuilder();
+            for (String name : path)
+                buf.append(buf.length() == 0 ? "" : " -> ").append(name);
+            throw new CyclicVariableException(var.name, buf.toString());
+        }
+    }
+    
+    private boolean reaches(Expr var, String target, List<String> path, Set<String> visited) {
+        for (String name : var.dependencies) {
+            String key = internalNameOf(name);
+            path.add(name);
+            if (key.equals(target))
+                return true;
+            if (visited.add(key)) {
+                Variable next = findVariable(key);
+                if (next instanceof Expr && reaches((Expr) next, target, path, visited))
+                    return true;
+            }
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+    
+    private void link(String key, Variable var) {
+        if (var instanceof Expr) {
+            for (String name : ((Expr) var).dependencies) {
+                String dependency = internalNameOf(name);
+                Set<String> keys = dependents.get(dependency);
+                if (keys == null)
+                    dependents.put(dependency, keys = new HashSet<String>());
+                keys.add(key);
+            }
+        }
+    }
+    
+    private void unlink(String key, Variable var) {
+        if (var instanceof Expr) {
+            for (String name : ((Expr) var).dependencies) {
+                String dependency = internalNameOf(name);
+                Set<String> keys = dependents.get(dependency);
+                if (keys != null && keys.remove(key) && keys.isEmpty())
+                    dependents.remove(dependency);
+            }
+        }
+    }
+    
+    // Only the transitive dependents of the changed variable are invalidated.
+    // The stamp is published last, so values computed from the old state
+    // are never stamped after the invalidation.
+    private void invalidate(String key) {
+        long next = ++modCount;
+        List<String> queue = new ArrayList<String>();
+        Set<String> visited = new HashSet<String>();
+        queue.add(key);
+        visited.add(key);
+        for (int i = 0; i < queue.size(); i++) {
+            Set<String> keys = dependents.get(queue.get(i));
+            if (keys == null)
+                continue;
+            for (String dependent : keys) {
+                if (visited.add(dependent)) {
+                    Variable var = table.get(dependent);
+                    if (var instanceof Expr)
+                        ((Expr) var).invalidated = next;
+                    queue.add(dependent);
+                }
+            }
+        }
+        dirty.addAll(queue);
+        stamp = next;
+    }
+    
+    // Recalculation
+    
+    // Dirty expression variables are recalculated in the given context right
+    // after every change. The context must resolve variables through this
+    // table. Independent variables are computed in parallel when an executor
+    // is given. Null context turns eager recalculation off.
+    public void setEagerRecalculation(Environment context, Executor executor) {
+        recalculationContext = context;
+        recalculationExecutor = executor;
+    }
+    
+    private void recalculateIfEager() {
+        Environment context = recalculationContext;
+        if (context != null)
+            recalculate(context, recalculationExecutor);
+    }
+    
+    public int recalculate(Environment context) {
+        return recalculate(context, null);
+    }
+    
+    // Recomputes the variables invalidated since the last recalculation in
+    // topological order. Variables of the same level do not depend on each
+    // other and are computed in parallel if the executor is not null.
+    // Failures are left to be reported when the variables are resolved.
+    public int recalculate(final Environment context, Executor executor) {
+        Map<String, Expr> pending = new HashMap<String, Expr>();
+        synchronized (dependents) {
+            for (String key : dirty) {
+                Variable var = table.get(key);
+                if (var instanceof Expr && ((Expr) var).stable)
+                    pending.put(key, (Expr) var);
+            }
+            dirty.clear();
+        }
+        
+        Map<String, Integer> levels = new HashMap<String, Integer>();
+        List<List<Expr>> order = new ArrayList<List<Expr>>();
+        for (String key : pending.keySet()) {
+            int level = levelOf(key, pending, levels);
+            while (order.size() <= level)
+                order.add(new ArrayList<Expr>());
+            order.get(level).add(pending.get(key));
+        }
+        
+        for (List<Expr> vars : order) {
+            if (executor == null || vars.size() == 1) {
+                for (Expr var : vars)
+                    recalculate(var, context);
+                continue;
+            }
+            
+            final CountDownLatch latch = new CountDownLatch(vars.size());
+            for (final Expr var : vars) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            recalculate(var, context);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return pending.size();
+    }
+    
+    private void recalculate(Expr var, Environment context) {
+        try {
+            resolve(var, context);
+        } catch (RuntimeException e) {
+            // Reported when the variable is resolved
+        }
+    }
+    
+    private int levelOf(String key, Map<String, Expr> pending, Map<String, Integer> levels) {
+        Integer level = levels.get(key);
+        if (level == null) {
+            int max = 0;
+            for (String name : pending.get(key).dependencies) {
+                String dependency = internalNameOf(name);
+                if (pending.containsKey(dependency))
+                    max = Math.max(max, levelOf(dependency, pending, levels) + 1);
+            }
+            levels.put(key, level = max);
+        }
+        return level;
+    }
+    
     public String toString() {
         StringBuilder buf = new StringBuilder();
         for (Variable var : table.values()) {
@@ -189,23 +482,39 @@ public class DefaultVariableTable implements MutableVariableTable {
         
         protected final Expression expr;
         
+        // Names of the variables referenced by the expression, whether it
+        // reads nothing but them, literals and determined functions and
+        // whether it gives the same value for the same inputs
+        final String[] dependencies;
+        final boolean stable;
+        final boolean deterministic;
+        
+        volatile Cached cached;
+        volatile long invalidated;
+        
         public Expr(String name, Expression expr) {
             super(name);
             this.expr = expr;
+            
+            DependencyCollector collector = new DependencyCollector();
+            collector.transform(expr.getRootNode());
+            this.dependencies = collector.names.toArray(new String[collector.names.size()]);
+            this.stable = collector.stable && collector.deterministic;
+            this.deterministic = collector.deterministic;
         }
         
         public Expr(String name, Node root) {
-            super(name);
-            this.expr = new Expression(root);
+            this(name, new Expression(root));
         }
         
         public Class<?> getType() {
             return expr.getType();
         }
         
+        // Limits of the evaluation in progress apply to the expression too
         public Object resolve(Environment context) throws EvaluationException {
             try {
-                return expr.evaluate(context);
+                return expr.evaluate(context, EvaluationLimits.NONE);
             } catch (EvaluationException e) {
                 e.setOwnerName(name);
                 throw e;
@@ -218,4 +527,75 @@ public class DefaultVariableTable implements MutableVariableTable {
         
     }
     
+    // Cached
+    
+    static final class Cached {
+        
+        final Object value;
+        final long stamp;
+        
+        Cached(Object value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+        
+    }
+    
+    // Resolution
+    
+    // Expression variable being resolved by the current thread, which is
+    // not cached if any of its dependencies is not stable and not memoized
+    // if any of them is not deterministic
+    static final class Resolution {
+        
+        boolean stable;
+        boolean deterministic;
+        
+        Resolution(boolean stable, boolean deterministic) {
+            this.stable = stable;
+            this.deterministic = deterministic;
+        }
+        
+    }
+    
+    // DependencyCollector
+    
+    static final class DependencyCollector extends NodeTransformer {
+        
+        final Set<String> names = new LinkedHashSet<String>();
+        boolean stable = true;
+        boolean deterministic = true;
+        
+        public void visit(VariableNode node) {
+            names.add(node.getVariableName());
+            // Slot variables are resolved from frames
+            stable &= node.getVariableSlot() < 0;
+            super.visit(node);
+        }
+        
+        public void visit(FunctionNode node) {
+            deterministic &= node.getFunction().isDetermined();
+            super.visit(node);
+        }
+        
+        // Objects may change without the table knowing, so values read
+        // from them are never cached
+        public void visit(PropertyNode node) {
+            stable = false;
+            super.visit(node);
+        }
+        
+        public void visit(IndexNode node) {
+            stable = false;
+            super.visit(node);
+        }
+        
+        public void visit(MethodNode node) {
+            stable = false;
+            deterministic &= node.getAccessor().isDetermined();
+            super.visit(node);
+        }
+        
+    }
+    
 }
@@ -0,0 +1,226 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.variable;
+
+import java.util.Arrays;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EtkException;
+import org.foxlabs.etk.bean.BeanEntity;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.support.Operator;
+import org.foxlabs.etk.support.Signature;
+
+import static org.foxlabs.etk.variable.SlotVariableTable.*;
+
+public class Frame implements Environment {
+    
+    private final SlotVariableTable table;
+    private final Environment parent;
+    
+    // Slots declared after the frame was created are added on first access
+    private int[] kinds;
+    private Object[] values;
+    private long[] longs;
+    private double[] doubles;
+    
+    protected Frame(SlotVariableTable table, Environment parent) {
+        if (table == null || parent == null)
+            throw new NullPointerException();
+        this.table = table;
+        this.parent = parent;
+        this.kinds = table.getKinds();
+        this.values = new Object[kinds.length];
+        this.longs = new long[kinds.length];
+        this.doubles = new double[kinds.length];
+    }
+    
+    public final Environment getParent() {
+        return parent;
+    }
+    
+    // Slots
+    
+    private int kindOf(int slot) {
+        if (slot >= kinds.length)
+            grow();
+        return kinds[slot];
+    }
+    
+    private void grow() {
+        int[] kinds = table.getKinds();
+        this.values = Arrays.copyOf(values, kinds.length);
+        this.longs = Arrays.copyOf(longs, kinds.length);
+        this.doubles = Arrays.copyOf(doubles, kinds.length);
+        this.kinds = kinds;
+    }
+    
+    public final Object get(int slot) {
+        switch (kindOf(slot)) {
+            case BOOLEAN:
+                return Boolean.valueOf(longs[slot] != 0L);
+            case INT:
+                return Integer.valueOf((int) longs[slot]);
+            case LONG:
+                return Long.valueOf(longs[slot]);
+            case DOUBLE:
+                return Double.valueOf(doubles[slot]);
+            default:
+                return values[slot];
+        }
+    }
+    
+    public final boolean getBoolean(int slot) {
+        return kindOf(slot) == BOOLEAN
+            ? longs[slot] != 0L
+            : Operator.safeBooleanValueOf(get(slot));
+    }
+    
+    public final int getInt(int slot) {
+        return kindOf(slot) == INT
+            ? (int) longs[slot]
+            : Operator.safeIntValueOf(get(slot));
+    }
+    
+    public final long getLong(int slot) {
+        int kind = kindOf(slot);
+        return kind == INT || kind == LONG
+            ? longs[slot]
+            : Operator.safeLongValueOf(get(slot));
+    }
+    
+    public final double getDouble(int slot) {
+        switch (kindOf(slot)) {
+            case INT:
+            case LONG:
+                return longs[slot];
+            case DOUBLE:
+                return doubles[slot];
+            default:
+                return Operator.safeDoubleValueOf(get(slot));
+        }
+    }
+    
+    public final void set(int slot, Object value) {
+        switch (kindOf(slot)) {
+            case BOOLEAN:
+                setBoolean(slot, (Boolean) Operator.safeValueOf(value));
+                break;
+            case INT:
+                setInt(slot, (Integer) Operator.safeValueOf(value));
+                break;
+            case LONG:
+                setLong(slot, (Long) Operator.safeValueOf(value));
+                break;
+            case DOUBLE:
+                setDouble(slot, (Double) Operator.safeValueOf(value));
+                break;
+            default:
+                values[slot] = value;
+        }
+    }
+    
+    public final void setBoolean(int slot, boolean value) {
+        checkKind(slot, BOOLEAN);
+        longs[slot] = value ? 1L : 0L;
+    }
+    
+    public final void setInt(int slot, int value) {
+        checkKind(slot, INT);
+        longs[slot] = value;
+    }
+    
+    public final void setLong(int slot, long value) {
+        checkKind(slot, LONG);
+        longs[slot] = value;
+    }
+    
+    public final void setDouble(int slot, double value) {
+        checkKind(slot, DOUBLE);
+        doubles[slot] = value;
+    }
+    
+    public final void set(String name, Object value) throws VariableNotFoundException {
+        set(table.getVariableSlot(name), value);
+    }
+    
+    public final void setAll(Object... values) {
+        for (int i = 0; i < values.length; i++)
+            set(i, values[i]);
+    }
+    
+    public void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(longs, 0L);
+        Arrays.fill(doubles, 0D);
+    }
+    
+    private void checkKind(int slot, int kind) {
+        if (kindOf(slot) != kind)
+            throw new ClassCastException(table.getVariableName(slot));
+    }
+    
+    // Environment
+    
+    public ClassLoader getClassLoader() {
+        return parent.getClassLoader();
+    }
+    
+    public Class<?> resolveType(String name) throws EtkException {
+        return parent.resolveType(name);
+    }
+    
+    public Enum<?> resolveEnum(Class<?> type, String name) throws EtkException {
+        return parent.resolveEnum(type, name);
+    }
+    
+    public SlotVariableTable getVariableTable() {
+        return table;
+    }
+    
+    public Object resolveVariable(String name) throws EtkException {
+        return get(table.getVariableSlot(name));
+    }
+    
+    public FunctionLoader getFunctionLoader() {
+        return parent.getFunctionLoader();
+    }
+    
+    public Function resolveFunction(Signature signature) throws EtkException {
+        return parent.resolveFunction(signature);
+    }
+    
+    public BeanManager getBeanManager() {
+        return parent.getBeanManager();
+    }
+    
+    public BeanEntity resolveEntity(Class<?> type) throws EtkException {
+        return parent.resolveEntity(type);
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < table.getVariableCount(); i++) {
+            buf.append(table.getVariableName(i)).append('=').append(get(i));
+            buf.append('\n');
+        }
+        return buf.toString();
+    }
+    
+}
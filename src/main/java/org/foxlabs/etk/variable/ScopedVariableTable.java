@@ -0,0 +1,93 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationException;
+
+// Mutable scope over a parent table, which is never modified and is
+// expected not to change while the scope is in use. Variables of the scope
+// hide the parent ones with the same names. Expression variables of the
+// parent are resolved in the context given, so they see the overrides.
+public class ScopedVariableTable extends DefaultVariableTable {
+    
+    private final VariableTable parent;
+    
+    public ScopedVariableTable(VariableTable parent) {
+        this(parent, parent instanceof DefaultVariableTable &&
+                ((DefaultVariableTable) parent).isCaseSensitive());
+    }
+    
+    public ScopedVariableTable(VariableTable parent, boolean caseSensitive) {
+        super(caseSensitive);
+        if (parent == null)
+            throw new NullPointerException();
+        this.parent = parent;
+    }
+    
+    public final VariableTable getParent() {
+        return parent;
+    }
+    
+    public ScopedVariableTable createScope() {
+        return new ScopedVariableTable(this);
+    }
+    
+    public boolean hasVariable(String name) {
+        return super.hasVariable(name) || parent.hasVariable(name);
+    }
+    
+    // Names hidden by the scope are not repeated. Parent variables cannot be
+    // removed through the iterator.
+    public Iterator<String> getVariableNames() {
+        List<String> names = new ArrayList<String>();
+        for (Iterator<String> itr = super.getVariableNames(); itr.hasNext();)
+            names.add(itr.next());
+        for (Iterator<String> itr = parent.getVariableNames(); itr.hasNext();) {
+            String name = itr.next();
+            if (!table.containsKey(internalNameOf(name)))
+                names.add(name);
+        }
+        return Collections.unmodifiableList(names).iterator();
+    }
+    
+    public Class<?> getVariableType(String name)
+            throws VariableNotFoundException {
+        Variable var = table.get(internalNameOf(name));
+        return var == null ? parent.getVariableType(name) : var.getType();
+    }
+    
+    public Object resolveVariable(String name, Environment context)
+            throws VariableNotFoundException, EvaluationException {
+        Variable var = table.get(internalNameOf(name));
+        return var == null ? parent.resolveVariable(name, context) : resolveVariable(var, context);
+    }
+    
+    // Cycles through expression variables of the parent are detected too
+    Variable findVariable(String key) {
+        Variable var = table.get(key);
+        if (var == null && parent instanceof DefaultVariableTable)
+            var = ((DefaultVariableTable) parent).findVariable(key);
+        return var;
+    }
+    
+}
@@ -0,0 +1,178 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.variable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.EvaluationContext;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.resource.ResourceManager;
+import org.foxlabs.etk.support.Symbol;
+import org.foxlabs.etk.support.Types;
+
+public class SlotVariableTable implements VariableTable {
+    
+    static final int OBJECT  = 0;
+    static final int BOOLEAN = 1;
+    static final int INT     = 2;
+    static final int LONG    = 3;
+    static final int DOUBLE  = 4;
+    
+    private final Map<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    private final boolean caseSensitive;
+    
+    private volatile String[] names = new String[0];
+    private volatile Class<?>[] types = new Class<?>[0];
+    private volatile int[] kinds = new int[0];
+    
+    public SlotVariableTable() {
+        this(false);
+    }
+    
+    public SlotVariableTable(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+    }
+    
+    public final boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+    
+    public synchronized int declareVariable(String name, Class<?> type) {
+        if (name == null || type == null)
+            throw new NullPointerException();
+        
+        String key = internalNameOf(name);
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            if (types[slot] != type)
+                throw new IllegalArgumentException(name);
+            return slot;
+        }
+        
+        int index = names.length;
+        String[] newNames = Arrays.copyOf(names, index + 1);
+        Class<?>[] newTypes = Arrays.copyOf(types, index + 1);
+        int[] newKinds = Arrays.copyOf(kinds, index + 1);
+        newNames[index] = name;
+        newTypes[index] = type;
+        newKinds[index] = kindOf(type);
+        
+        types = newTypes;
+        kinds = newKinds;
+        names = newNames;
+        slots.put(key, index);
+        return index;
+    }
+    
+    public final int getVariableCount() {
+        return names.length;
+    }
+    
+    public int getVariableSlot(String name)
+            throws VariableNotFoundException {
+        Integer slot = slots.get(internalNameOf(name));
+        if (slot == null)
+            throw new VariableNotFoundException(name);
+        return slot;
+    }
+    
+    public String getVariableName(int slot) {
+        return names[slot];
+    }
+    
+    public Class<?> getVariableType(int slot) {
+        return types[slot];
+    }
+    
+    public boolean isPrimitiveVariable(int slot) {
+        return kinds[slot] != OBJECT;
+    }
+    
+    public boolean hasVariable(String name) {
+        return slots.containsKey(internalNameOf(name));
+    }
+    
+    public Iterator<String> getVariableNames() {
+        return Arrays.asList(names).iterator();
+    }
+    
+    public Class<?> getVariableType(String name)
+            throws VariableNotFoundException {
+        return types[getVariableSlot(name)];
+    }
+    
+    public Object resolveVariable(String name, Environment context)
+            throws VariableNotFoundException, EvaluationException {
+        int slot = getVariableSlot(name);
+        // Values are supplied by frames only, evaluation contexts wrapping
+        // a frame are looked through
+        for (Environment env = context; env != null; ) {
+            if (env instanceof Frame) {
+                Frame frame = (Frame) env;
+                if (frame.getVariableTable() == this)
+                    return frame.get(slot);
+                env = frame.getParent();
+            } else if (env instanceof EvaluationContext) {
+                env = ((EvaluationContext) env).getParent();
+            } else {
+                break;
+            }
+        }
+        throw ResourceManager.newEtkException("environment.frameNotFound", name);
+    }
+    
+    public Frame createFrame(Environment parent) {
+        return new Frame(this, parent);
+    }
+    
+    final int[] getKinds() {
+        return kinds;
+    }
+    
+    protected final String internalNameOf(String name) {
+        return caseSensitive ? name : Symbol.fold(name);
+    }
+    
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        String[] names = this.names;
+        for (int i = 0; i < names.length; i++) {
+            buf.append(i).append(": ").append(names[i]).append(' ');
+            buf.append(Types.toString(types[i])).append('\n');
+        }
+        return buf.toString();
+    }
+    
+    // Utility methods
+    
+    static int kindOf(Class<?> type) {
+        if (type == Boolean.TYPE)
+            return BOOLEAN;
+        if (type == Integer.TYPE)
+            return INT;
+        if (type == Long.TYPE)
+            return LONG;
+        if (type == Double.TYPE)
+            return DOUBLE;
+        return OBJECT;
+    }
+    
+}
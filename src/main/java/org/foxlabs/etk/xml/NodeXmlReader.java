@@ -158,6 +158,10 @@ public class NodeXmlReader implements XmlConstants {
                         readProperty();
                     } else if (XML_METHOD.equals(localName)) {
                         readMethod();
+                    } else if (XML_IN.equals(localName)) {
+                        readIn();
+                    } else if (XML_NOT_IN.equals(localName)) {
+                        readNotIn();
                     }
                 } catch (EtkException e) {
                     throw ResourceManager.newXmlException(in, e);
@@ -424,8 +428,29 @@ public class NodeXmlReader implements XmlConstants {
             builder.method(methodName);
         }
         
+        public void readIn() throws XmlException {
+            readInOperands();
+            builder.in();
+        }
+        
+        public void readNotIn() throws XmlException {
+            readInOperands();
+            builder.notIn();
+        }
+        
         // Utility methods
         
+        protected void readInOperands() throws XmlException {
+            in.requireStartElement(XML_IN_OPERAND, nsURI);
+            readUnary();
+            in.requireEndElement();
+            
+            in.requireStartElement(XML_IN_ELEMENTS, nsURI);
+            builder.mark();
+            readNary();
+            in.requireEndElement();
+        }
+        
         protected void readUnary() throws XmlException {
             if (!in.startElement())
                 throw ResourceManager.newXmlException(in, "xml.unaryElementExpected",
@@ -297,6 +297,21 @@ public class NodeXmlWriter implements XmlConstants {
             out.appendEndElement();
         }
         
+        public void writeIn(InNode node) throws XmlException {
+            out.appendStartElement(prefix, node.isNegated() ? XML_NOT_IN : XML_IN, nsURI);
+            
+            out.appendStartElement(prefix, XML_IN_OPERAND, nsURI);
+            node.getOperand().accept(visitor);
+            out.appendEndElement();
+            
+            out.appendStartElement(prefix, XML_IN_ELEMENTS, nsURI);
+            for (int i = 0, count = node.getElementCount(); i < count; i++)
+                node.getElement(i).accept(visitor);
+            out.appendEndElement();
+            
+            out.appendEndElement();
+        }
+        
         // Utility methods
         
         protected void writeUnary(String localName, UnaryNode node) throws XmlException {
@@ -427,6 +442,9 @@ public class NodeXmlWriter implements XmlConstants {
         public void visit(MethodNode node) throws XmlException {
             writer.writeMethod(node);
         }
+        public void visit(InNode node) throws XmlException {
+            writer.writeIn(node);
+        }
         
     }
     
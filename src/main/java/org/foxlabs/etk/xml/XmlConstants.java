@@ -67,5 +67,9 @@ public interface XmlConstants {
     String XML_METHOD_NAME      = "name";
     String XML_METHOD_OBJECT    = "Object";
     String XML_METHOD_ARGS      = "Arguments";
+    String XML_IN               = "In";
+    String XML_NOT_IN           = "NotIn";
+    String XML_IN_OPERAND       = "Operand";
+    String XML_IN_ELEMENTS      = "Elements";
     
 }
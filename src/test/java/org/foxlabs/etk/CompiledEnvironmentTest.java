@@ -0,0 +1,94 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class CompiledEnvironmentTest {
+    
+    @Test
+    public void testPooling() {
+        CompiledEnvironment env = createEnvironment(3);
+        EvaluationContext context = env.acquireContext();
+        assertSame(env, context.getParent());
+        
+        // Nested evaluations get contexts of their own
+        EvaluationContext nested = env.acquireContext();
+        assertNotSame(context, nested);
+        env.releaseContext(nested);
+        env.releaseContext(context);
+        assertNull(context.getParent());
+        try {
+            env.releaseContext(context);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Released already
+        }
+        
+        // Released contexts are reused by any environment
+        CompiledEnvironment other = createEnvironment(4);
+        EvaluationContext reused = other.acquireContext();
+        assertSame(context, reused);
+        assertSame(other, reused.getParent());
+        assertSame(EvaluationContext.NO_VALUE, reused.lookup(env));
+        other.releaseContext(reused);
+    }
+    
+    @Test
+    public void testEvaluate() {
+        CompiledEnvironment env = createEnvironment(3);
+        Expression expr = decode("i * 2", env);
+        assertEquals(6, env.evaluate(expr));
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", 5);
+        assertEquals(10, env.evaluate(expr, table));
+        assertEquals(6, env.evaluate(expr));
+    }
+    
+    @Test
+    public void testRetention() throws InterruptedException {
+        // Threads do not keep the environments they evaluated with
+        CompiledEnvironment env = createEnvironment(3);
+        assertEquals(6, env.evaluate(decode("i * 2", env)));
+        WeakReference<CompiledEnvironment> ref = new WeakReference<CompiledEnvironment>(env);
+        env = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(ref.get());
+    }
+    
+    static CompiledEnvironment createEnvironment(int i) {
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", i);
+        return new CompiledEnvironment(CompiledEnvironmentTest.class.getClassLoader(),
+                table, FunctionLoader.getDefaultRootLoader(), null);
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
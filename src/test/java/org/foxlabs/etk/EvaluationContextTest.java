@@ -0,0 +1,197 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class EvaluationContextTest {
+    
+    @Test
+    public void testMemo() {
+        EvaluationContext context = new EvaluationContext(createContext(new CountLoader()));
+        Object key = new Object();
+        assertSame(EvaluationContext.NO_VALUE, context.lookup(key));
+        context.memoize(key, null);
+        assertNull(context.lookup(key));
+        context.memoize(key, "a");
+        assertEquals("a", context.lookup(key));
+        assertSame(EvaluationContext.NO_VALUE, context.lookup(new Object()));
+        context.clear();
+        assertSame(EvaluationContext.NO_VALUE, context.lookup(key));
+    }
+    
+    @Test
+    public void testVariables() {
+        // Values read from objects are not cached by the table, but are
+        // computed once per evaluation context
+        CountLoader loader = new CountLoader();
+        DefaultEnvironment env = createContext(loader);
+        DefaultVariableTable table = (DefaultVariableTable) env.getVariableTable();
+        Point p = new Point();
+        table.putVariable("p", p);
+        table.putVariable("v", "COUNT(p.x + 1)", env);
+        table.putVariable("w", "v * 2", env);
+        Expression expr = decode("v + v * w", env);
+        
+        assertEquals(3, expr.evaluate(env));
+        assertEquals(3, loader.count.get());
+        
+        loader.count.set(0);
+        EvaluationContext context = new EvaluationContext(env);
+        assertEquals(3, expr.evaluate(context));
+        assertEquals(1, loader.count.get());
+        
+        // The memo lives as long as the context
+        p.setX(1);
+        assertEquals(3, expr.evaluate(context));
+        context.clear();
+        assertEquals(10, expr.evaluate(context));
+        assertEquals(10, expr.evaluate(new EvaluationContext(env)));
+        assertEquals(3, loader.count.get());
+    }
+    
+    @Test
+    public void testScopes() {
+        // Variables of a replaced table are memoized as well
+        CountLoader loader = new CountLoader();
+        DefaultEnvironment env = createContext(loader);
+        final DefaultVariableTable base = (DefaultVariableTable) env.getVariableTable();
+        base.putVariable("v", "COUNT(i * 2)", env);
+        Expression expr = decode("v + v", env);
+        
+        DefaultVariableTable scope = new DefaultVariableTable() {
+            public Object resolveVariable(String name, Environment context) {
+                return "i".equals(name) ? 5 : base.resolveVariable(name, context);
+            }
+        };
+        EvaluationContext context = new EvaluationContext(env, scope);
+        assertEquals(20, expr.evaluate(context));
+        assertEquals(1, loader.count.get());
+        assertEquals(12, expr.evaluate(env));
+        assertEquals(2, loader.count.get());
+    }
+    
+    @Test
+    public void testNonDetermined() {
+        // Variables using non-determined functions opt out, and so do
+        // variables depending on them
+        CountLoader loader = new CountLoader();
+        DefaultEnvironment env = createContext(loader);
+        DefaultVariableTable table = (DefaultVariableTable) env.getVariableTable();
+        table.putVariable("v", "TICK()", env);
+        table.putVariable("w", "v * 10", env);
+        
+        EvaluationContext context = new EvaluationContext(env);
+        assertEquals(3, decode("v + v", env).evaluate(context));
+        assertEquals(70, decode("w + w", env).evaluate(context));
+        assertEquals(4, loader.ticks.get());
+        assertEquals(5, decode("v", env).evaluate(context));
+    }
+    
+    static DefaultEnvironment createContext(FunctionLoader loader) {
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", 3);
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        context.setFunctionLoader(loader);
+        context.setBeanManager(BeanManager.getDefaultRootManager());
+        return context;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+    // Functions
+    
+    static class CountLoader extends FunctionLoader {
+        
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger ticks = new AtomicInteger();
+        
+        CountLoader() {
+            super(FunctionLoader.getDefaultRootLoader());
+            preloadFunctions(Arrays.<Function>asList(new CountFunction(this), new TickFunction(this)).iterator());
+        }
+        
+    }
+    
+    // Counts the calls and returns its argument
+    static class CountFunction extends Function {
+        
+        final CountLoader owner;
+        
+        CountFunction(CountLoader owner) {
+            super(new Signature("COUNT", Signature.NULL_NS, Integer.class), Integer.class);
+            this.owner = owner;
+        }
+        
+        public boolean isDetermined() {
+            return true;
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) {
+            owner.count.incrementAndGet();
+            return arguments[0];
+        }
+        
+    }
+    
+    // Returns the number of its calls
+    static class TickFunction extends Function {
+        
+        final CountLoader owner;
+        
+        TickFunction(CountLoader owner) {
+            super(new Signature("TICK", Signature.NULL_NS), Integer.class);
+            this.owner = owner;
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) {
+            return owner.ticks.incrementAndGet();
+        }
+        
+    }
+    
+    // Beans
+    
+    public static class Point {
+        
+        private int x;
+        
+        public int getX() {
+            return x;
+        }
+        
+        public void setX(int x) {
+            this.x = x;
+        }
+        
+    }
+    
+}
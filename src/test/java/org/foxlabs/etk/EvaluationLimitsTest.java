@@ -0,0 +1,131 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class EvaluationLimitsTest {
+    
+    @Test
+    public void testNodeVisits() {
+        Environment context = createContext();
+        Expression expr = decode("i * 2 + i * 3 + i * 4", context);
+        assertEquals(27, expr.evaluate(context, EvaluationLimits.NONE.withMaxNodeVisits(100L)));
+        assertLimit(expr, context, EvaluationLimits.NONE.withMaxNodeVisits(5L), EvaluationLimitException.NODE_VISITS);
+    }
+    
+    @Test
+    public void testElementVisits() {
+        // Elements of IN are evaluated by the program and counted as well
+        Environment context = createContext();
+        StringBuilder source = new StringBuilder("i in (0, i");
+        for (int i = 0; i < 50; i++)
+            source.append(" + i");
+        Expression expr = decode(source.append(')').toString(), context);
+        assertEquals(Boolean.FALSE, expr.evaluate(context, EvaluationLimits.NONE.withMaxNodeVisits(200L)));
+        assertLimit(expr, context, EvaluationLimits.NONE.withMaxNodeVisits(50L), EvaluationLimitException.NODE_VISITS);
+    }
+    
+    @Test
+    public void testVariableVisits() {
+        // Expression variables count against the limits of the expression
+        // referencing them
+        DefaultEnvironment context = createContext();
+        StringBuilder source = new StringBuilder("i");
+        for (int i = 0; i < 100; i++)
+            source.append(" + i");
+        DefaultVariableTable table = (DefaultVariableTable) context.getVariableTable();
+        table.putVariable("v", source.toString(), context);
+        
+        Expression expr = decode("v + 1", context);
+        EvaluationLimitException e =
+            assertLimit(expr, context, EvaluationLimits.NONE.withMaxNodeVisits(50L), EvaluationLimitException.NODE_VISITS);
+        assertEquals("v", e.getOwnerName());
+        assertEquals(304, expr.evaluate(context, EvaluationLimits.NONE.withMaxNodeVisits(500L)));
+    }
+    
+    @Test
+    public void testVariableDeadline() {
+        DefaultEnvironment context = createContext();
+        DefaultVariableTable table = (DefaultVariableTable) context.getVariableTable();
+        table.putVariable("v", "ABS(i) + 1", context);
+        
+        Expression expr = decode("v * 2", context);
+        EvaluationLimits limits = EvaluationLimits.NONE.withDeadline(System.nanoTime() - 1L);
+        EvaluationLimitException e = assertLimit(expr, context, limits, EvaluationLimitException.DEADLINE);
+        assertTrue(e.getNode() instanceof FunctionNode);
+        assertEquals(8, expr.evaluate(context));
+    }
+    
+    @Test
+    public void testFunctionInputs() {
+        // Regular expression functions do not start on inputs beyond the
+        // limits, whatever they would return
+        DefaultEnvironment context = createContext();
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'a');
+        ((DefaultVariableTable) context.getVariableTable()).putVariable("s", (Object) new String(chars));
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxStringLength(100);
+        
+        Expression split = decode("SPLIT(s, \",\")", context);
+        assertEquals(1, ((String[]) split.evaluate(context, EvaluationLimits.NONE.withMaxArraySize(1))).length);
+        assertLimit(split, context, limits, EvaluationLimitException.STRING_LENGTH);
+        assertLimit(decode("REPLACEALL(s, \"b\", \"c\")", context), context, limits,
+                EvaluationLimitException.STRING_LENGTH);
+        assertLimit(decode("REPLACEALL(\"aaaa\", \"a\", SUBSTRING(s, 0, 40))", context), context, limits,
+                EvaluationLimitException.STRING_LENGTH);
+        
+        Expression small = decode("SPLIT(\"a,b,c\", \",\")", context);
+        assertEquals(3, ((String[]) small.evaluate(context, limits)).length);
+        assertLimit(small, context, EvaluationLimits.NONE.withMaxArraySize(2), EvaluationLimitException.ARRAY_SIZE);
+    }
+    
+    static EvaluationLimitException assertLimit(Expression expr, Environment context,
+            EvaluationLimits limits, int limit) {
+        try {
+            expr.evaluate(context, limits);
+            fail(expr.toString());
+            return null;
+        } catch (EvaluationLimitException e) {
+            assertEquals(expr.toString(), limit, e.getLimit());
+            assertSame(expr, e.getOwner());
+            return e;
+        }
+    }
+    
+    static DefaultEnvironment createContext() {
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", 3);
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        context.setFunctionLoader(FunctionLoader.getDefaultRootLoader());
+        return context;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
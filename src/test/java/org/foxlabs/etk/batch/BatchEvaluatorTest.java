@@ -0,0 +1,243 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.batch;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationContext;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class BatchEvaluatorTest {
+    
+    static final int ROWS = 2500;
+    
+    @Test
+    public void testEquivalence() {
+        Data data = new Data(ROWS, false);
+        String[] sources = {
+            "x * 1.5 + y * 2 - i * 3",
+            "x * x + y * y < 50 ? sqrt(x * x + y * y) : x * 0.5 + i",
+            "-i + abs(i - 5) * l",
+            "i > 3 && x < 10.0 || !(y > 0.0)",
+            "i / 3 + i % 7",
+            "n * 2 + i",
+            "max(i, 3) + floor(y)",
+            "pow(x, 2) + atan2(y, x)"
+        };
+        for (String source : sources)
+            for (int batchSize : new int[]{1, 7, 1024, ROWS})
+                assertEquivalent(data, source, batchSize);
+    }
+    
+    @Test
+    public void testNulls() {
+        Data data = new Data(ROWS, true);
+        // Nulls only reach null-rejecting operators in untaken branches
+        String[] sources = {
+            "n == null ? -1 : n * 2",
+            "n != null && n > i",
+            "n == null || n * 2 > i",
+            "i > 0 ? i : n"
+        };
+        for (String source : sources)
+            assertEquivalent(data, source, 64);
+    }
+    
+    @Test
+    public void testFailure() {
+        Data data = new Data(ROWS, true);
+        String[] sources = {"n * 2 + i", "i > 0 && n > 2", "x > 0.0 ? n + 1 : 0"};
+        for (String source : sources) {
+            EvaluationException expected = null;
+            for (int row = 0; row < ROWS && expected == null; row++) {
+                try {
+                    data.evaluate(source, row);
+                } catch (EvaluationException e) {
+                    expected = e;
+                }
+            }
+            assertNotNull(source, expected);
+            
+            BatchEvaluator evaluator = new BatchEvaluator(data.decode(source), 64);
+            try {
+                evaluator.evaluate(data.batch, data.context);
+                fail(source);
+            } catch (EvaluationException e) {
+                assertEquals(source, expected.getNode().toString(), e.getNode().toString());
+                assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+                assertSame(source, evaluator.getExpression(), e.getOwner());
+            }
+        }
+    }
+    
+    @Test
+    public void testFilter() {
+        Data data = new Data(ROWS, true);
+        String[] sources = {
+            "i > 3",
+            "i > 3 && x < 10.0 && y > 0.0",
+            "i > 3 || x < 0.0 || y > 2.0",
+            "!(i > 3 && x < 10.0) || y > 2.0",
+            "n != null && n > i && !(x < 0.0)",
+            "n == null || (n * 2 > i && i != 0)",
+            "!(n == null) && i / 2 > 1"
+        };
+        for (String source : sources) {
+            for (int batchSize : new int[]{1, 7, 1024}) {
+                BitSet expected = new BitSet(ROWS);
+                for (int row = 0; row < ROWS; row++)
+                    if (Boolean.TRUE.equals(data.evaluate(source, row)))
+                        expected.set(row);
+                
+                BatchEvaluator evaluator = new BatchEvaluator(data.decode(source), batchSize);
+                assertEquals(source, expected, evaluator.filter(data.batch, data.context));
+                
+                int[] rows = evaluator.select(data.batch, data.context);
+                assertEquals(source, expected.cardinality(), rows.length);
+                for (int i = 0, row = -1; i < rows.length; i++)
+                    assertEquals(source, row = expected.nextSetBit(row + 1), rows[i]);
+            }
+        }
+    }
+    
+    @Test
+    public void testFilterFailure() {
+        Data data = new Data(ROWS, true);
+        String[] sources = {"n > 2", "i > 0 && n > 2", "i > 0 || n > 2", "!(i > 0 && n > i)"};
+        for (String source : sources) {
+            EvaluationException expected = null;
+            for (int row = 0; row < ROWS && expected == null; row++) {
+                try {
+                    data.evaluate(source, row);
+                } catch (EvaluationException e) {
+                    expected = e;
+                }
+            }
+            assertNotNull(source, expected);
+            
+            BatchEvaluator evaluator = new BatchEvaluator(data.decode(source), 64);
+            try {
+                evaluator.select(data.batch, data.context);
+                fail(source);
+            } catch (EvaluationException e) {
+                assertEquals(source, expected.getNode().toString(), e.getNode().toString());
+                assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+                assertSame(source, evaluator.getExpression(), e.getOwner());
+            }
+        }
+    }
+    
+    @Test
+    public void testEmptyBatch() {
+        Data data = new Data(0, false);
+        Column column = new BatchEvaluator(data.decode("i + 1")).evaluate(data.batch, data.context);
+        assertEquals(0, column.size());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnType() {
+        Data data = new Data(10, false);
+        // Primitive columns bind to variables of the same type only
+        data.batch.setColumn("i", Column.of(new long[10]));
+        new BatchEvaluator(data.decode("i + 1")).evaluate(data.batch, data.context);
+    }
+    
+    static void assertEquivalent(Data data, String source, int batchSize) {
+        Column column = new BatchEvaluator(data.decode(source), batchSize).evaluate(data.batch, data.context);
+        assertEquals(source, ROWS, column.size());
+        for (int row = 0; row < ROWS; row++)
+            assertEquals(source + " @ " + row, data.evaluate(source, row), column.get(row));
+    }
+    
+    // Random rows, both as a batch and as variables of a table
+    
+    static final class Data {
+        
+        final int[] i;
+        final long[] l;
+        final double[] x, y;
+        final Integer[] n;
+        
+        final Batch batch;
+        final DefaultVariableTable table = new DefaultVariableTable();
+        final Environment context = new EvaluationContext(DefaultEnvironment.getGlobalContext(), table);
+        final Map<String, Expression> expressions = new HashMap<String, Expression>();
+        
+        Data(int size, boolean nulls) {
+            Random random = new Random(size);
+            i = new int[size];
+            l = new long[size];
+            x = new double[size];
+            y = new double[size];
+            n = new Integer[size];
+            for (int row = 0; row < size; row++) {
+                i[row] = random.nextInt(21) - 10;
+                l[row] = random.nextInt(1000);
+                x[row] = random.nextDouble() * 20 - 5;
+                y[row] = random.nextGaussian() * 4;
+                n[row] = nulls && random.nextInt(4) == 0 ? null : Integer.valueOf(random.nextInt(100));
+            }
+            // The last row is never null, so that variable types are known
+            if (size > 0)
+                n[size - 1] = Integer.valueOf(1);
+            batch = new Batch(size)
+                .setColumn("i", Column.of(i))
+                .setColumn("l", Column.of(l))
+                .setColumn("x", Column.of(x))
+                .setColumn("y", Column.of(y))
+                .setColumn("n", Column.of(n, Integer.class));
+        }
+        
+        void setRow(int row) {
+            boolean empty = row < 0;
+            table.putVariable("i", empty ? Integer.valueOf(0) : Integer.valueOf(i[row]));
+            table.putVariable("l", empty ? Long.valueOf(0L) : Long.valueOf(l[row]));
+            table.putVariable("x", empty ? Double.valueOf(0D) : Double.valueOf(x[row]));
+            table.putVariable("y", empty ? Double.valueOf(0D) : Double.valueOf(y[row]));
+            table.putVariable("n", empty ? Integer.valueOf(0) : n[row]);
+        }
+        
+        Expression decode(String source) {
+            Expression expr = expressions.get(source);
+            if (expr == null) {
+                setRow(i.length - 1);
+                expr = new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+                expressions.put(source, expr);
+            }
+            return expr;
+        }
+        
+        Object evaluate(String source, int row) {
+            Expression expr = decode(source);
+            setRow(row);
+            return expr.evaluate(context);
+        }
+        
+    }
+    
+}
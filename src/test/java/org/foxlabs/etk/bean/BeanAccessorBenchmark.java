@@ -0,0 +1,134 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.bean;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.MethodDescriptor;
+import java.beans.PropertyDescriptor;
+
+public class BeanAccessorBenchmark {
+    
+    private static final int ITERATIONS = 10000000;
+    
+    public static void main(String[] args) throws Throwable {
+        Order order = new Order(new Customer(new Address("Springfield")));
+        
+        PropertyAccessor[][] chains = {
+            {new DefaultPropertyAccessor(property(Order.class, "customer")),
+             new DefaultPropertyAccessor(property(Customer.class, "address")),
+             new DefaultPropertyAccessor(property(Address.class, "city"))},
+            {new HandlePropertyAccessor(property(Order.class, "customer")),
+             new HandlePropertyAccessor(property(Customer.class, "address")),
+             new HandlePropertyAccessor(property(Address.class, "city"))},
+            {new FunctionPropertyAccessor(property(Order.class, "customer")),
+             new FunctionPropertyAccessor(property(Customer.class, "address")),
+             new FunctionPropertyAccessor(property(Address.class, "city"))}
+        };
+        
+        MethodAccessor[] methods = {
+            new DefaultMethodAccessor(String.class, method(String.class, "substring", 2)),
+            new HandleMethodAccessor(String.class, method(String.class, "substring", 2))
+        };
+        
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + (round + 1));
+            System.out.println("  reflection property chain: " + resolve(chains[0], order) + " ns/op");
+            System.out.println("  method handle property chain: " + resolve(chains[1], order) + " ns/op");
+            System.out.println("  lambda property chain: " + resolve(chains[2], order) + " ns/op");
+            System.out.println("  reflection method: " + invoke(methods[0]) + " ns/op");
+            System.out.println("  method handle method: " + invoke(methods[1]) + " ns/op");
+        }
+    }
+    
+    private static double resolve(PropertyAccessor[] chain, Object target) throws Throwable {
+        int hash = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Object value = target;
+            for (PropertyAccessor accessor : chain)
+                value = accessor.resolve(null, value);
+            hash += value.hashCode();
+        }
+        long time = System.nanoTime() - start;
+        if (hash == 42)
+            System.out.println();
+        return (double) time / ITERATIONS;
+    }
+    
+    private static double invoke(MethodAccessor accessor) throws Throwable {
+        Object[] arguments = {1, 3};
+        int hash = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            hash += accessor.invoke(null, "benchmark", arguments).hashCode();
+        long time = System.nanoTime() - start;
+        if (hash == 42)
+            System.out.println();
+        return (double) time / ITERATIONS;
+    }
+    
+    private static PropertyDescriptor property(Class<?> type, String name) throws Exception {
+        BeanInfo info = Introspector.getBeanInfo(type);
+        for (PropertyDescriptor descriptor : info.getPropertyDescriptors())
+            if (descriptor.getName().equals(name))
+                return descriptor;
+        throw new IllegalArgumentException(name);
+    }
+    
+    private static MethodDescriptor method(Class<?> type, String name, int arity) throws Exception {
+        BeanInfo info = Introspector.getBeanInfo(type);
+        for (MethodDescriptor descriptor : info.getMethodDescriptors())
+            if (descriptor.getName().equals(name) &&
+                    descriptor.getMethod().getParameterTypes().length == arity)
+                return descriptor;
+        throw new IllegalArgumentException(name);
+    }
+    
+    // Beans
+    
+    public static class Order {
+        private final Customer customer;
+        public Order(Customer customer) {
+            this.customer = customer;
+        }
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+    
+    public static class Customer {
+        private final Address address;
+        public Customer(Address address) {
+            this.address = address;
+        }
+        public Address getAddress() {
+            return address;
+        }
+    }
+    
+    public static class Address {
+        private final String city;
+        public Address(String city) {
+            this.city = city;
+        }
+        public String getCity() {
+            return city;
+        }
+    }
+    
+}
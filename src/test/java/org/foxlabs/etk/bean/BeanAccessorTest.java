@@ -0,0 +1,145 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.bean;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.MethodDescriptor;
+import java.beans.PropertyDescriptor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BeanAccessorTest {
+    
+    @Test
+    public void testPropertyAccessors() throws Throwable {
+        Item item = new Item(7, "box");
+        PropertyDescriptor count = property(Item.class, "count");
+        PropertyDescriptor name = property(Item.class, "name");
+        PropertyAccessor[][] accessors = {
+            {new DefaultPropertyAccessor(count), new DefaultPropertyAccessor(name)},
+            {new HandlePropertyAccessor(count), new HandlePropertyAccessor(name)},
+            {new FunctionPropertyAccessor(count), new FunctionPropertyAccessor(name)}
+        };
+        for (PropertyAccessor[] pair : accessors) {
+            assertSame(Integer.class, pair[0].getType());
+            assertEquals("count", pair[0].getName());
+            assertEquals(7, pair[0].resolve(null, item));
+            assertEquals("box", pair[1].resolve(null, item));
+        }
+    }
+    
+    @Test
+    public void testPropertyFailure() throws Throwable {
+        PropertyDescriptor broken = property(Item.class, "broken");
+        PropertyAccessor[] accessors = {
+            new DefaultPropertyAccessor(broken),
+            new HandlePropertyAccessor(broken),
+            new FunctionPropertyAccessor(broken)
+        };
+        for (PropertyAccessor accessor : accessors) {
+            try {
+                accessor.resolve(null, new Item(1, "a"));
+                fail();
+            } catch (IllegalStateException e) {
+                // Getter exceptions are not wrapped
+                assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+    
+    @Test
+    public void testMethodAccessors() throws Throwable {
+        MethodDescriptor substring = method(String.class, "substring", 2);
+        MethodDescriptor format = method(String.class, "format", 2);
+        MethodAccessor[][] accessors = {
+            {new DefaultMethodAccessor(String.class, substring), new DefaultMethodAccessor(String.class, format)},
+            {new HandleMethodAccessor(String.class, substring), new HandleMethodAccessor(String.class, format)}
+        };
+        for (MethodAccessor[] pair : accessors) {
+            assertSame(String.class, pair[0].getType());
+            assertEquals("ell", pair[0].invoke(null, "hello", 1, 4));
+            // Static methods ignore the target and variable arity arrays are passed as is
+            assertEquals("1-2", pair[1].invoke(null, null, "%s-%s", new Object[] {1, 2}));
+        }
+    }
+    
+    @Test
+    public void testMethodFailure() throws Throwable {
+        MethodDescriptor substring = method(String.class, "substring", 2);
+        MethodAccessor[] accessors = {
+            new DefaultMethodAccessor(String.class, substring),
+            new HandleMethodAccessor(String.class, substring)
+        };
+        for (MethodAccessor accessor : accessors) {
+            try {
+                accessor.invoke(null, "hello", 4, 1);
+                fail();
+            } catch (StringIndexOutOfBoundsException e) {
+                // Method exceptions are not wrapped
+            }
+        }
+    }
+    
+    @Test
+    public void testDefaultBeanManager() {
+        BeanEntity entity = new DefaultBeanManager().getBeanEntity(Item.class);
+        PropertyAccessor accessor = entity.getPropertyAccessor("count");
+        assertTrue(accessor instanceof FunctionPropertyAccessor);
+        assertSame(Integer.class, accessor.getType());
+    }
+    
+    private static PropertyDescriptor property(Class<?> type, String name) throws Exception {
+        BeanInfo info = Introspector.getBeanInfo(type);
+        for (PropertyDescriptor descriptor : info.getPropertyDescriptors())
+            if (descriptor.getName().equals(name))
+                return descriptor;
+        throw new IllegalArgumentException(name);
+    }
+    
+    private static MethodDescriptor method(Class<?> type, String name, int arity) throws Exception {
+        BeanInfo info = Introspector.getBeanInfo(type);
+        for (MethodDescriptor descriptor : info.getMethodDescriptors())
+            if (descriptor.getName().equals(name) &&
+                    descriptor.getMethod().getParameterTypes().length == arity)
+                return descriptor;
+        throw new IllegalArgumentException(name);
+    }
+    
+    // Beans
+    
+    public static class Item {
+        private final int count;
+        private final String name;
+        public Item(int count, String name) {
+            this.count = count;
+            this.name = name;
+        }
+        public int getCount() {
+            return count;
+        }
+        public String getName() {
+            return name;
+        }
+        public String getBroken() {
+            throw new IllegalStateException("broken");
+        }
+    }
+    
+}
@@ -0,0 +1,178 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.bean;
+
+import java.lang.ref.WeakReference;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BeanManagerTest {
+    
+    @Test
+    public void testCaching() {
+        BeanManager manager = new DefaultBeanManager();
+        BeanEntity entity = manager.getBeanEntity(Bean.class);
+        assertSame(entity, manager.getBeanEntity(Bean.class));
+        assertEquals(1L, manager.getCacheMissCount());
+        assertEquals(1L, manager.getCacheHitCount());
+        
+        manager.cleanup();
+        assertNotSame(entity, manager.getBeanEntity(Bean.class));
+        assertEquals(2L, manager.getCacheMissCount());
+        
+        manager.resetStatistics();
+        assertEquals(0L, manager.getCacheMissCount());
+        assertEquals(0L, manager.getCacheHitCount());
+    }
+    
+    @Test
+    public void testNotFound() {
+        CountingBeanManager manager = new CountingBeanManager(null);
+        for (int i = 0; i < 3; i++) {
+            try {
+                manager.getBeanEntity(Bean.class);
+                fail();
+            } catch (BeanNotFoundException e) {
+                // Negative results are cached
+            }
+        }
+        assertEquals(1, manager.lookups.get());
+        assertEquals(1L, manager.getCacheMissCount());
+        assertEquals(2L, manager.getCacheHitCount());
+    }
+    
+    @Test
+    public void testParent() {
+        BeanManager parent = new DefaultBeanManager();
+        CountingBeanManager manager = new CountingBeanManager(parent);
+        BeanEntity entity = manager.getBeanEntity(Bean.class);
+        assertSame(parent, entity.getBeanManager());
+        assertSame(entity, manager.getBeanEntity(Bean.class));
+        assertEquals(1, manager.lookups.get());
+        try {
+            manager.getBeanEntity(Bean.class, false);
+            fail();
+        } catch (BeanNotFoundException e) {
+            // Parent is not consulted
+        }
+    }
+    
+    @Test
+    public void testConcurrentNotFound() throws InterruptedException {
+        final CountingBeanManager manager = new CountingBeanManager(null);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        try {
+                            manager.getBeanEntity(Bean.class);
+                        } catch (BeanNotFoundException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        assertEquals(80000, failures.get());
+        assertEquals(1, manager.lookups.get());
+        assertEquals(80000L, manager.getCacheHitCount() + manager.getCacheMissCount());
+    }
+    
+    @Test
+    public void testCollected() throws InterruptedException {
+        // Entities cached on long lived classes do not keep their manager
+        BeanManager manager = new DefaultBeanManager();
+        BeanEntity entity = manager.getBeanEntity(String.class);
+        assertSame(manager, entity.getBeanManager());
+        manager.getBeanEntity(Bean.class);
+        WeakReference<BeanManager> ref = new WeakReference<BeanManager>(manager);
+        manager = null;
+        entity = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(ref.get());
+    }
+    
+    @Test
+    public void testDefaultManager() throws InterruptedException {
+        // Threads asking at the same time get the same manager
+        final BeanManager[] managers = new BeanManager[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[managers.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    managers[index] = BeanManager.getDefaultRootManager();
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        
+        BeanManager manager = BeanManager.getDefaultRootManager();
+        assertTrue(manager instanceof DefaultBeanManager);
+        assertNull(manager.getParent());
+        for (BeanManager other : managers)
+            assertSame(manager, other);
+        assertEquals(Integer.class, manager.getPropertyAccessor(Bean.class, "value").getType());
+    }
+    
+    // Beans
+    
+    public static class Bean {
+        public int getValue() {
+            return 1;
+        }
+    }
+    
+    static class CountingBeanManager extends BeanManager {
+        
+        final AtomicInteger lookups = new AtomicInteger();
+        
+        CountingBeanManager(BeanManager parent) {
+            super(parent);
+        }
+        
+        protected BeanEntity findBeanEntity(Class<?> type) throws BeanNotFoundException {
+            lookups.incrementAndGet();
+            throw new BeanNotFoundException(type);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,187 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.codec;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationContext;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class CachingExpressionDecoderTest {
+    
+    @Test
+    public void testHit() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(16);
+        Expression expr1 = decoder.decodeExpression("1 + 2", context);
+        Expression expr2 = decoder.decodeExpression("1 + 2", context);
+        assertSame(expr1.getRootNode(), expr2.getRootNode());
+        assertEquals(1L, decoder.getMissCount());
+        assertEquals(1L, decoder.getHitCount());
+        assertEquals(0.5, decoder.getHitRatio(), 0D);
+        
+        // Callers do not see each other changes
+        assertNotSame(expr1, expr2);
+        expr1.setSource("3");
+        assertEquals("1 + 2", expr2.getSource());
+        assertEquals("1 + 2", decoder.decodeExpression("1 + 2", context).getSource());
+    }
+    
+    @Test
+    public void testEnvironmentKey() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(16);
+        decoder.decode("1 + 2", context);
+        decoder.decode("1 + 2", new EvaluationContext(context));
+        decoder.decode("1 + 2", new EvaluationContext(context, new DefaultVariableTable()));
+        assertEquals(3L, decoder.getMissCount());
+        assertEquals(3, decoder.size());
+    }
+    
+    @Test
+    public void testEviction() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(2);
+        decoder.decode("1", context);
+        decoder.decode("2", context);
+        decoder.decode("1", context);
+        decoder.decode("3", context);
+        assertEquals(2, decoder.size());
+        assertEquals(1L, decoder.getEvictionCount());
+        
+        // The least recently used entry is gone
+        decoder.resetStatistics();
+        decoder.decode("1", context);
+        decoder.decode("3", context);
+        assertEquals(2L, decoder.getHitCount());
+        decoder.decode("2", context);
+        assertEquals(1L, decoder.getMissCount());
+    }
+    
+    @Test
+    public void testBatchEviction() {
+        // Full caches are evicted a tenth below the maximum size at once
+        Environment context = DefaultEnvironment.getGlobalContext();
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(100);
+        for (int i = 0; i < 100; i++)
+            decoder.decode(Integer.toString(i), context);
+        decoder.decode("0", context);
+        decoder.decode("1", context);
+        decoder.decode("100", context);
+        assertEquals(90, decoder.size());
+        assertEquals(11L, decoder.getEvictionCount());
+        for (int i = 101; i < 111; i++)
+            decoder.decode(Integer.toString(i), context);
+        assertEquals(100, decoder.size());
+        assertEquals(11L, decoder.getEvictionCount());
+        
+        // Recently used entries are kept
+        decoder.resetStatistics();
+        decoder.decode("0", context);
+        decoder.decode("1", context);
+        decoder.decode("13", context);
+        decoder.decode("100", context);
+        assertEquals(4L, decoder.getHitCount());
+        decoder.decode("12", context);
+        assertEquals(1L, decoder.getMissCount());
+    }
+    
+    @Test
+    public void testSelect() {
+        Random random = new Random(100);
+        for (int n = 1; n < 50; n++) {
+            long[] values = new long[n];
+            for (int i = 0; i < n; i++)
+                values[i] = random.nextInt(10);
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < n; i++)
+                assertEquals(sorted[i], CachingExpressionDecoder.select(values.clone(), i));
+        }
+    }
+    
+    @Test
+    public void testZeroSize() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(0);
+        decoder.decode("1", context);
+        decoder.decode("1", context);
+        assertEquals(0, decoder.size());
+        assertEquals(2L, decoder.getMissCount());
+    }
+    
+    @Test
+    public void testInvalidation() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        DefaultVariableTable table = new DefaultVariableTable();
+        Environment scoped = new EvaluationContext(context, table);
+        CachingExpressionDecoder decoder = new CachingExpressionDecoder(16);
+        decoder.decode("1", context);
+        decoder.decode("2", context);
+        decoder.decode("1", scoped);
+        
+        decoder.invalidate("2", context);
+        assertEquals(2, decoder.size());
+        decoder.invalidate(table);
+        assertEquals(1, decoder.size());
+        decoder.invalidate(context);
+        assertEquals(0, decoder.size());
+        
+        decoder.decode("1", context);
+        decoder.invalidateAll();
+        assertEquals(0, decoder.size());
+    }
+    
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final Environment context = DefaultEnvironment.getGlobalContext();
+        final CachingExpressionDecoder decoder = new CachingExpressionDecoder(20);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 5000; j++) {
+                        int n = (j * 7 + seed) % 50;
+                        Expression expr = decoder.decodeExpression(n + " * 2", context);
+                        if (!Integer.valueOf(n * 2).equals(expr.evaluate(context)))
+                            errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        assertEquals(0, errors.get());
+        // Excess left by threads that could not evict is removed by the evicting one
+        assertTrue(decoder.size() <= 20);
+        assertEquals(40000L, decoder.getHitCount() + decoder.getMissCount());
+    }
+    
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.foxlabs.etk.compiler;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeBuilder;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ExpressionCompilerTest {
+    
+    @Test
+    public void testArithmetic() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        NodeBuilder builder = new NodeBuilder(context);
+        
+        builder.pushLiteral(10)
+               .pushLiteral(20)
+               .multiply()
+               .pushLiteral(2.5)
+               .add()
+               .pushLiteral(100)
+               .gt()
+               .pushLiteral("yes")
+               .pushLiteral("no")
+               .condition();
+        
+        Expression expr = builder.popExpression();
+        Expression compiled = ExpressionCompiler.getDefault().compile(expr);
+        
+        assertTrue(compiled instanceof CompiledExpression);
+        assertEquals(expr, compiled);
+        assertEquals(expr.evaluate(context), compiled.evaluate(context));
+    }
+    
+    @Test
+    public void testFailure() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        NodeBuilder builder = new NodeBuilder(context);
+        
+        builder.pushLiteral(10)
+               .pushLiteral(0)
+               .divide();
+        
+        Expression compiled = ExpressionCompiler.getDefault().compile(builder.popExpression());
+        try {
+            compiled.evaluate(context);
+            fail();
+        } catch (EvaluationException e) {
+            assertSame(compiled.getRootNode(), e.getNode());
+            assertSame(compiled, e.getOwner());
+        }
+    }
+    
+    @Test
+    public void testNullOperand() {
+        Frame frame = createFrame();
+        assertSameFailure("n + i", frame);
+        assertSameFailure("i + n", frame);
+        assertSameFailure("n * 2 > i", frame);
+        assertSameFailure("n > i", frame);
+        assertSameFailure("-n", frame);
+    }
+    
+    @Test
+    public void testFailureOrder() {
+        Frame frame = createFrame();
+        assertSameFailure("n % max(2 / 0, i)", frame);
+        assertSameFailure("n % (i / 0)", frame);
+        assertSameFailure("n < i / 0", frame);
+    }
+    
+    @Test
+    public void testTooLarge() {
+        // Trees beyond the method size limit are left to the interpreter
+        Frame frame = createFrame();
+        StringBuilder source = new StringBuilder("i");
+        for (int i = 0; i < 2000; i++)
+            source.append(" + i");
+        Expression expr = new Expression(ExpressionDecoder.getDefault().decode(source.toString(), frame),
+                source.toString());
+        assertSame(expr, ExpressionCompiler.getDefault().compile(expr));
+    }
+    
+    @Test
+    public void testInvalidBytecode() {
+        // Broken bytecode is reported, not taken for a tree too large to compile
+        ExpressionCompiler compiler = new ExpressionCompiler() {
+            byte[] generate(CodeGenerator generator, Node root) {
+                byte[] bytecode = super.generate(generator, root);
+                return Arrays.copyOf(bytecode, bytecode.length - 4);
+            }
+        };
+        Frame frame = createFrame();
+        Expression expr = new Expression(ExpressionDecoder.getDefault().decode("i * 2", frame), "i * 2");
+        try {
+            compiler.compile(expr);
+            fail();
+        } catch (LinkageError e) {
+            // expected
+        }
+    }
+    
+    private static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("i", Integer.TYPE);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(null, 3);
+        return frame;
+    }
+    
+    // Compiled code must fail on the same node with the same cause as the interpreter
+    private static void assertSameFailure(String source, Environment context) {
+        Expression expr = new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+        Expression compiled = ExpressionCompiler.getDefault().compile(expr);
+        EvaluationException expected = null;
+        try {
+            expr.evaluate(context);
+            fail(source);
+        } catch (EvaluationException e) {
+            expected = e;
+        }
+        try {
+            compiled.evaluate(context);
+            fail(source);
+        } catch (EvaluationException e) {
+            assertEquals(source, expected.getNode(), e.getNode());
+            assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+        }
+    }
+    
+}
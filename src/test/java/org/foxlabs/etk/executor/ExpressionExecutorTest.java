@@ -0,0 +1,164 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.executor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.optimizer.AdaptiveExpression;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ExpressionExecutorTest {
+    
+    static final SlotVariableTable TABLE = new SlotVariableTable();
+    
+    static {
+        TABLE.declareVariable("i", Integer.TYPE);
+        TABLE.declareVariable("n", Integer.class);
+    }
+    
+    @Test
+    public void testBatches() throws InterruptedException {
+        // Every batch is submitted at once, there are never more batches
+        // than the queue capacity
+        final AtomicInteger tasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            public void execute(Runnable task) {
+                tasks.incrementAndGet();
+                task.run();
+            }
+        };
+        List<Frame> frames = createFrames(1000);
+        Expression expr = decode("i * 2");
+        for (int capacity : new int[]{1, 3, 4, 999, 1000, 5000}) {
+            tasks.set(0);
+            List<ExpressionExecutor.Result> results =
+                new ExpressionExecutor(executor, capacity).evaluate(expr, frames);
+            assertTrue(tasks.get() <= capacity);
+            assertTrue(tasks.get() >= Math.min(capacity, frames.size()) / 2);
+            for (int i = 0; i < results.size(); i++)
+                assertEquals(i * 2, results.get(i).getValue());
+        }
+    }
+    
+    @Test
+    public void testSharedAdaptiveExpression() throws InterruptedException {
+        // Statistics of a shared adaptive expression race, its results do not
+        Expression expr = decode("i % 3 == 0 && n > 2 || i % 7 == 0 && i > 5 || n < 0");
+        AdaptiveExpression adaptive = new AdaptiveExpression(expr, AdaptiveExpression.PURE_VARIABLES, 16);
+        List<Frame> frames = createFrames(20000);
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        try {
+            ExpressionExecutor[] executors = {
+                new ExpressionExecutor(new ForkJoinPool(4)),
+                new ExpressionExecutor(service, 64)
+            };
+            for (ExpressionExecutor executor : executors) {
+                List<ExpressionExecutor.Result> results = executor.evaluate(adaptive, frames);
+                for (int i = 0; i < frames.size(); i++)
+                    assertSameResult(expr, frames.get(i), results.get(i));
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    @Test
+    public void testStreams() throws InterruptedException {
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        try {
+            final List<Frame> frames = createFrames(500);
+            final Expression expr = decode("i / (i % 5)");
+            for (final boolean ordered : new boolean[]{true, false}) {
+                final AtomicInteger taken = new AtomicInteger();
+                final List<ExpressionExecutor.Result> results = new ArrayList<ExpressionExecutor.Result>();
+                Iterator<Frame> source = new Iterator<Frame>() {
+                    public boolean hasNext() {
+                        return taken.get() < frames.size();
+                    }
+                    public Frame next() {
+                        // Items in flight never exceed the queue capacity
+                        assertTrue(taken.get() - results.size() < 8);
+                        return frames.get(taken.getAndIncrement());
+                    }
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+                ExpressionExecutor.Handler handler = new ExpressionExecutor.Handler() {
+                    public void handle(ExpressionExecutor.Result result) {
+                        if (ordered)
+                            assertEquals(results.size(), result.getIndex());
+                        results.add(result);
+                    }
+                };
+                long count = new ExpressionExecutor(service, 8).execute(expr, source, ordered, handler);
+                assertEquals(frames.size(), count);
+                assertEquals(frames.size(), results.size());
+                for (ExpressionExecutor.Result result : results)
+                    assertSameResult(expr, frames.get((int) result.getIndex()), result);
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    static void assertSameResult(Expression expr, Environment context, ExpressionExecutor.Result result) {
+        assertSame(context, result.getEnvironment());
+        try {
+            Object value = expr.evaluate(context);
+            assertNull(result.getFailure());
+            assertEquals(value, result.getValue());
+        } catch (EvaluationException e) {
+            assertTrue(result.isFailed());
+            EvaluationException failure = (EvaluationException) result.getFailure();
+            assertEquals(e.getNode(), failure.getNode());
+            assertSame(e.getCause().getClass(), failure.getCause().getClass());
+        }
+    }
+    
+    static List<Frame> createFrames(int count) {
+        List<Frame> frames = new ArrayList<Frame>(count);
+        for (int i = 0; i < count; i++) {
+            Frame frame = TABLE.createFrame(DefaultEnvironment.getGlobalContext());
+            frame.setAll(i, i % 11 == 0 ? null : Integer.valueOf(i % 13 - 3));
+            frames.add(frame);
+        }
+        return frames;
+    }
+    
+    static Expression decode(String source) {
+        Environment context = TABLE.createFrame(DefaultEnvironment.getGlobalContext());
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
@@ -0,0 +1,187 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.function;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.support.Signature;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+
+public class AsyncFunctionTest {
+    
+    @Test
+    public void testChangingArguments() throws Exception {
+        // Arguments are evaluated once per call, later stages do not start
+        // calls of their own
+        SlowLoader loader = new SlowLoader();
+        try {
+            Environment context = createContext(loader);
+            Expression expr = decode("SLOW(RANDOM())", context);
+            Object value = expr.evaluateAsync(context).get(10L, TimeUnit.SECONDS);
+            assertTrue(((Double) value).doubleValue() >= 0D && ((Double) value).doubleValue() < 1D);
+            assertEquals(1, loader.calls.get());
+            
+            loader.calls.set(0);
+            expr = decode("SLOW(RANDOM()) < 2 ? SLOW(SLOW(RANDOM()) + 1) : 0", context);
+            value = expr.evaluateAsync(context).get(10L, TimeUnit.SECONDS);
+            assertTrue(((Double) value).doubleValue() >= 1D);
+            assertEquals(3, loader.calls.get());
+        } finally {
+            loader.executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testSynchronousOnce() throws Exception {
+        // Functions that are not determined run once per evaluation, not
+        // once per stage
+        SlowLoader loader = new SlowLoader();
+        try {
+            Environment context = createContext(loader);
+            Expression expr = decode("TICK() + SLOW(1) + SLOW(SLOW(2) + TICK()) + SLOW(TICK())", context);
+            expr.evaluateAsync(context).get(10L, TimeUnit.SECONDS);
+            assertEquals(3, loader.ticks.get());
+            assertEquals(4, loader.calls.get());
+        } finally {
+            loader.executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testEquivalence() throws Exception {
+        SlowLoader loader = new SlowLoader();
+        try {
+            Environment context = createContext(loader);
+            String[] sources = {
+                "SLOW(1) + SLOW(SLOW(2))", "SLOW(i) > 2 && SLOW(i * 2) > 5", "i > 5 || SLOW(i) > 2",
+                "SLOW(0) + 1 / SLOW(0)", "SLOW(i / 0)", "SLOW(-1) + SLOW(2)", "SLOW(2) + SLOW(SLOW(-1))",
+                "i > 2 ? SLOW(i) : SLOW(-i)", "SLOW(i + 1) * SLOW(i + 1)",
+                "TICK() / 0 + SLOW(1)", "SLOW(1) + SLOW(TICK() - 100) + TICK()"
+            };
+            for (String source : sources) {
+                Expression expr = decode(source, context);
+                CompletableFuture<Object> future = expr.evaluateAsync(context);
+                try {
+                    Object value = expr.evaluate(context);
+                    assertEquals(source, value, future.get());
+                } catch (EvaluationException expected) {
+                    try {
+                        future.get();
+                        fail(source);
+                    } catch (ExecutionException e) {
+                        EvaluationException cause = (EvaluationException) e.getCause();
+                        assertSame(source, expected.getNode(), cause.getNode());
+                        assertSame(source, expr, cause.getOwner());
+                        assertSame(source, expected.getCause().getClass(), cause.getCause().getClass());
+                    }
+                }
+            }
+        } finally {
+            loader.executor.shutdown();
+        }
+    }
+    
+    static Environment createContext(FunctionLoader loader) {
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", 3);
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setFunctionLoader(loader);
+        context.setVariableTable(table);
+        return context;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+    // Functions
+    
+    static class SlowLoader extends FunctionLoader {
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger ticks = new AtomicInteger();
+        
+        SlowLoader() {
+            super(FunctionLoader.getDefaultRootLoader());
+            preloadFunctions(Arrays.<Function>asList(new SlowFunction(this, Integer.class),
+                                                     new SlowFunction(this, Double.class),
+                                                     new TickFunction(this)).iterator());
+        }
+        
+    }
+    
+    // Counts its own evaluations
+    static class TickFunction extends Function {
+        
+        final SlowLoader owner;
+        
+        TickFunction(SlowLoader owner) {
+            super(new Signature("TICK", Signature.NULL_NS), Integer.class);
+            this.owner = owner;
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) {
+            return owner.ticks.incrementAndGet();
+        }
+        
+    }
+    
+    // Completes on another thread with its argument, fails on negative ones
+    static class SlowFunction extends AsyncFunction {
+        
+        final SlowLoader owner;
+        
+        SlowFunction(SlowLoader owner, Class<?> type) {
+            super(new Signature("SLOW", Signature.NULL_NS, type), type);
+            this.owner = owner;
+        }
+        
+        public CompletableFuture<?> evaluateAsync(Environment context, final Object... arguments) {
+            owner.calls.incrementAndGet();
+            return CompletableFuture.supplyAsync(new Supplier<Object>() {
+                public Object get() {
+                    try {
+                        Thread.sleep(5L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (((Number) arguments[0]).doubleValue() < 0D)
+                        throw new ArithmeticException();
+                    return arguments[0];
+                }
+            }, owner.executor);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,180 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.function;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.FunctionNode;
+import org.foxlabs.etk.support.Signature;
+
+public class FunctionLoaderTest {
+    
+    @Test
+    public void testCaching() {
+        TestLoader loader = new TestLoader(null, false);
+        Function function = loader.loadFunction(new Signature("F", Signature.NULL_NS, Integer.class));
+        assertSame(loader, function.getFunctionLoader());
+        assertSame(function, loader.loadFunction(new Signature("F", Signature.NULL_NS, Integer.class)));
+        assertSame(function, loader.loadFunction(new Signature("f", Signature.NULL_NS, Integer.class)));
+        assertNotSame(function, loader.loadFunction(new Signature("F", Signature.NULL_NS, String.class)));
+        assertEquals(2, loader.lookups.get());
+    }
+    
+    @Test
+    public void testCaseSensitive() {
+        TestLoader loader = new TestLoader(null, true);
+        loader.loadFunction(new Signature("F", Signature.NULL_NS, Integer.class));
+        try {
+            loader.loadFunction(new Signature("f", Signature.NULL_NS, Integer.class));
+            fail();
+        } catch (FunctionNotFoundException e) {
+            // Only upper case names are found
+        }
+    }
+    
+    @Test
+    public void testParent() {
+        TestLoader parent = new TestLoader(null, false);
+        TestLoader loader = new TestLoader(parent, false);
+        loader.enabled = false;
+        Function function = loader.loadFunction(new Signature("F", Signature.NULL_NS, Integer.class));
+        assertSame(parent, function.getFunctionLoader());
+        assertSame(function, parent.loadFunction(new Signature("F", Signature.NULL_NS, Integer.class)));
+    }
+    
+    @Test
+    public void testBindingCache() {
+        TestLoader parent = new TestLoader(null, false);
+        TestLoader loader = new TestLoader(parent, false);
+        Signature call = new Signature("F", Signature.NULL_NS, Integer.class);
+        FunctionBinding binding = new FunctionBinding(loader.loadFunction(call));
+        assertSame(binding, loader.cacheBinding(call, binding));
+        assertSame(binding, loader.getCachedBinding(call));
+        
+        // New functions may change the resolution
+        loader.loadFunction(new Signature("F", Signature.NULL_NS, String.class));
+        assertNull(loader.getCachedBinding(call));
+        
+        loader.cacheBinding(call, binding);
+        parent.loadFunction(new Signature("F", Signature.NULL_NS, Long.class));
+        assertNull(loader.getCachedBinding(call));
+    }
+    
+    @Test
+    public void testConcurrentLoading() throws InterruptedException {
+        final TestLoader loader = new TestLoader(null, false);
+        final Function[] functions = new Function[8];
+        Thread[] threads = new Thread[functions.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        functions[index] = loader.loadFunction(new Signature(j % 2 == 0 ? "F" : "f", Signature.NULL_NS, Integer.class));
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        for (Function function : functions)
+            assertSame(functions[0], function);
+    }
+    
+    @Test
+    public void testDefaultLoader() {
+        assertSame(FunctionLoader.getDefaultRootLoader(), FunctionLoader.getDefaultRootLoader());
+        Environment context = DefaultEnvironment.getGlobalContext();
+        FunctionNode max = (FunctionNode) ExpressionDecoder.getDefault().decode("max(1, 5, 3)", context);
+        FunctionNode upper = (FunctionNode) ExpressionDecoder.getDefault().decode("MAX(2, 4)", context);
+        assertSame(max.getFunction(), upper.getFunction());
+        assertEquals(5, max.evaluate(context));
+    }
+    
+    @Test
+    public void testConcurrentDefaultLoader() throws InterruptedException {
+        // Threads asking at the same time get the same loader
+        final FunctionLoader[] loaders = new FunctionLoader[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[loaders.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    loaders[index] = FunctionLoader.getDefaultRootLoader();
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        
+        FunctionLoader loader = FunctionLoader.getDefaultRootLoader();
+        assertTrue(loader instanceof DefaultFunctionLoader);
+        for (FunctionLoader other : loaders)
+            assertSame(loader, other);
+    }
+    
+    // Functions
+    
+    static class TestLoader extends FunctionLoader {
+        
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean enabled = true;
+        
+        TestLoader(FunctionLoader parent, boolean caseSensitive) {
+            super(parent, caseSensitive);
+        }
+        
+        protected Function findFunction(Signature signature) throws FunctionNotFoundException {
+            String name = signature.getLocalName();
+            if (!enabled || !(isCaseSensitive() ? name.equals("F") : name.equalsIgnoreCase("F")))
+                throw new FunctionNotFoundException(signature);
+            lookups.incrementAndGet();
+            return new TestFunction(signature);
+        }
+        
+    }
+    
+    static class TestFunction extends Function {
+        
+        TestFunction(Signature signature) {
+            super(signature, Object.class);
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) {
+            return arguments[0];
+        }
+        
+    }
+    
+}
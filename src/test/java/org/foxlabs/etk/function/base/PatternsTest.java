@@ -0,0 +1,51 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.function.base;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+
+public class PatternsTest {
+    
+    @Test
+    public void testCompile() {
+        assertSame(Patterns.compile("[a-z]+\\d"), Patterns.compile("[a-z]+\\d"));
+    }
+    
+    @Test
+    public void testFunctions() {
+        Environment context = DefaultEnvironment.getGlobalContext();
+        assertEquals(Boolean.TRUE, decode("MATCH(\"abc1\", \"[a-z]+[0-9]\")", context).evaluate(context));
+        assertEquals(Boolean.FALSE, decode("MATCH(\"abc\", \"[a-z]+[0-9]\")", context).evaluate(context));
+        assertEquals("a-b-", decode("REPLACEALL(\"a1b22\", \"[0-9]+\", \"-\")", context).evaluate(context));
+        assertEquals("a-b22", decode("REPLACEFIRST(\"a1b22\", \"[0-9]+\", \"-\")", context).evaluate(context));
+        assertEquals(Arrays.asList("a", "b", "c"),
+                Arrays.asList((Object[]) decode("SPLIT(\"a, b,c\", \", *\")", context).evaluate(context)));
+    }
+    
+    private static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
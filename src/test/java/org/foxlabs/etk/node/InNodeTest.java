@@ -0,0 +1,134 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.node;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class InNodeTest {
+    
+    @Test
+    public void testEvaluate() {
+        Frame frame = createFrame();
+        InNode in = (InNode) decode("i in (1, 3, 5)", frame).getRootNode();
+        assertFalse(in.isNegated());
+        assertEquals(3, in.getElementCount());
+        assertEquals(Boolean.TRUE, in.evaluate(frame));
+        
+        frame.setAll(null, 4, "b");
+        assertFalse(in.evaluateBoolean(frame));
+        assertTrue(decode("i not in (1, 3, 5)", frame).evaluateBoolean(frame));
+        assertTrue(decode("s in (\"a\", \"b\")", frame).evaluateBoolean(frame));
+        assertFalse(decode("s not in (\"a\", \"b\")", frame).evaluateBoolean(frame));
+        
+        // Operands are converted to the element type
+        assertFalse(decode("i in (1.0, 3.0)", frame).evaluateBoolean(frame));
+        assertTrue(decode("i in (1.0, 4.0)", frame).evaluateBoolean(frame));
+    }
+    
+    @Test
+    public void testNulls() {
+        Frame frame = createFrame();
+        assertTrue(decode("n in (1, null)", frame).evaluateBoolean(frame));
+        assertFalse(decode("n in (1, 2)", frame).evaluateBoolean(frame));
+        assertTrue(decode("n not in (1, 2)", frame).evaluateBoolean(frame));
+        assertFalse(decode("i in (1, null)", frame).evaluateBoolean(frame));
+        
+        frame.setAll(1, 3, null);
+        assertTrue(decode("n in (1, null)", frame).evaluateBoolean(frame));
+        assertTrue(decode("s in (\"a\", null)", frame).evaluateBoolean(frame));
+    }
+    
+    @Test
+    public void testEquivalence() {
+        // Same results as the equality chains for constant and other elements
+        Frame frame = createFrame();
+        String[][] sources = {
+            {"i in (1, 3, 5)", "i == 1 || i == 3 || i == 5"},
+            {"i not in (1, 3, 5)", "i != 1 && i != 3 && i != 5"},
+            {"i in (1, i - 2, 7)", "i == 1 || i == i - 2 || i == 7"},
+            {"i * 2 in (0, 4, 8, -6)", "i * 2 == 0 || i * 2 == 4 || i * 2 == 8 || i * 2 == -6"},
+            {"i in (1.0, 2.5, 4.0)", "i == 1.0 || i == 2.5 || i == 4.0"}
+        };
+        for (String[] pair : sources) {
+            Expression in = decode(pair[0], frame);
+            Expression chain = decode(pair[1], frame);
+            for (int i = -10; i <= 10; i++) {
+                frame.setAll(null, i, null);
+                assertEquals(pair[0] + " @ " + i, chain.evaluate(frame), in.evaluate(frame));
+            }
+        }
+    }
+    
+    @Test
+    public void testFailure() {
+        // Other elements are evaluated in order after a miss only
+        Frame frame = createFrame();
+        frame.setAll(null, 1, null);
+        Expression expr = decode("i in (1, 10 / n)", frame);
+        assertTrue(expr.evaluateBoolean(frame));
+        
+        frame.setAll(null, 2, null);
+        try {
+            expr.evaluateBoolean(frame);
+            fail();
+        } catch (EvaluationException e) {
+            assertTrue(e.getNode() instanceof DivideNode);
+        }
+    }
+    
+    @Test
+    public void testValueSet() {
+        // Boxed numbers of different types are never equal
+        assertTrue(ValueSet.create(new Object[]{1, 3, 5}) instanceof NumberValueSet);
+        assertTrue(ValueSet.create(new Object[]{1, 3, 5}).contains(3));
+        assertFalse(ValueSet.create(new Object[]{1, 3, 5}).contains(3L));
+        assertFalse(ValueSet.create(new Object[]{1, 3, 5}).contains(null));
+        assertTrue(ValueSet.create(new Object[]{1, null}).contains(null));
+        assertTrue(ValueSet.create(new Object[]{0.0, 1.5}).contains(0.0));
+        assertFalse(ValueSet.create(new Object[]{0.0, 1.5}).contains(-0.0));
+        assertTrue(ValueSet.create(new Object[]{Double.NaN}).contains(Double.NaN));
+        
+        assertTrue(ValueSet.create(new Object[]{1, 3L}) instanceof HashValueSet);
+        assertTrue(ValueSet.create(new Object[]{1, 3L}).contains(3L));
+        assertFalse(ValueSet.create(new Object[]{1, 3L}).contains(3));
+        assertFalse(ValueSet.create(new Object[0]).contains(null));
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("s", String.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(null, 3, "b");
+        return frame;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
@@ -0,0 +1,131 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.node;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class NodeInternerTest {
+    
+    @Test
+    public void testFingerprint() {
+        Frame frame = createFrame();
+        Node node1 = decode("i * 2 + j", frame, null);
+        Node node2 = decode("i * 2 + j", frame, null);
+        assertNotSame(node1, node2);
+        assertEquals(node1, node2);
+        assertEquals(node1.getFingerprint(), node2.getFingerprint());
+        assertEquals(node1.hashCode(), node2.hashCode());
+        
+        // Operand order and operators are part of the structure
+        assertFalse(node1.getFingerprint() == decode("j + i * 2", frame, null).getFingerprint());
+        assertFalse(node1.getFingerprint() == decode("i * 2 - j", frame, null).getFingerprint());
+        assertFalse(node1.getFingerprint() == decode("i * 3 + j", frame, null).getFingerprint());
+    }
+    
+    @Test
+    public void testSlotTables() {
+        // Variables of different slot tables are never merged
+        Node node1 = decode("i + j", createFrame(), null);
+        Node node2 = decode("i + j", createFrame(), null);
+        assertFalse(node1.equals(node2));
+        
+        NodeInterner interner = new NodeInterner();
+        assertNotSame(interner.internTree(node1), interner.internTree(node2));
+    }
+    
+    @Test
+    public void testIntern() {
+        Frame frame = createFrame();
+        NodeInterner interner = new NodeInterner();
+        BinaryNode node1 = (BinaryNode) decode("i * 2 + j", frame, interner);
+        BinaryNode node2 = (BinaryNode) decode("i * 2 - j", frame, interner);
+        assertSame(node1, decode("i * 2 + j", frame, interner));
+        assertNotSame(node1, node2);
+        
+        // Common subtrees are shared between different trees
+        assertSame(node1.getOperand1(), node2.getOperand1());
+        assertSame(node1.getOperand2(), node2.getOperand2());
+        assertTrue(interner.getHitCount() > 0L);
+        assertEquals(interner.getHitCount(), (long) (interner.getDedupRatio() * interner.getInternCount() + 0.5));
+        
+        interner.resetStatistics();
+        assertEquals(0L, interner.getInternCount());
+        assertEquals(0D, interner.getDedupRatio(), 0D);
+        
+        interner.clear();
+        assertEquals(0, interner.size());
+        assertNotSame(node1, decode("i * 2 + j", frame, interner));
+    }
+    
+    @Test
+    public void testInternTree() {
+        Frame frame = createFrame();
+        Node node1 = decode("(i + j) * (i + j) > j", frame, null);
+        NodeInterner interner = new NodeInterner();
+        Node node2 = interner.internTree(node1);
+        assertEquals(node1, node2);
+        assertSame(node2, interner.internTree(decode("(i + j) * (i + j) > j", frame, null)));
+        
+        // Shared nodes evaluate exactly as the original ones
+        assertEquals(node1.evaluate(frame), node2.evaluate(frame));
+        frame.setAll(-4, 7);
+        assertEquals(node1.evaluate(frame), node2.evaluate(frame));
+        
+        Expression expr = new Expression(node2, "(i + j) * (i + j) > j");
+        assertSame(expr, interner.intern(expr));
+    }
+    
+    @Test
+    public void testMemoryReport() {
+        Frame frame = createFrame();
+        NodeInterner interner = new NodeInterner();
+        Node node1 = decode("i * 2 + j", frame, null);
+        Node node2 = decode("i * 2 + j", frame, null);
+        assertEquals(10L, NodeInterner.countNodes(node1, node2));
+        assertEquals(10L, NodeInterner.countDistinctNodes(node1, node2));
+        
+        node1 = interner.internTree(node1);
+        node2 = interner.internTree(node2);
+        assertEquals(10L, NodeInterner.countNodes(node1, node2));
+        assertEquals(5L, NodeInterner.countDistinctNodes(node1, node2));
+        assertTrue(NodeInterner.getMemoryReport(node1, node2).contains("shared=5"));
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("j", Integer.TYPE);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(3, 5);
+        return frame;
+    }
+    
+    static Node decode(String source, Environment context, NodeInterner interner) {
+        ExpressionDecoder decoder = ExpressionDecoder.getDefault();
+        decoder.setProperty(ExpressionDecoder.INTERNER_PROPERTY, interner);
+        return decoder.decode(source, context);
+    }
+    
+}
@@ -0,0 +1,165 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.node;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class TypedEvaluationTest {
+    
+    @Test
+    public void testValues() {
+        Frame frame = createFrame();
+        String[] sources = {"i * 2 + 1", "i - 7", "i / 2", "i % 2", "-i", "l * i", "x * i", "x / 2",
+                            "-x", "i > 2 && x < 3", "i < 2 || x > 2", "!(i > 2)", "i > 2 ? i : 5",
+                            "m * 2", "m + i", "z > 1"};
+        for (String source : sources) {
+            Expression expr = decode(source, frame);
+            assertEquals(source, expr.evaluate(frame), evaluateTyped(expr, frame));
+        }
+    }
+    
+    @Test
+    public void testNullOperand() {
+        Frame frame = createFrame();
+        String[] sources = {"n + i", "i - n", "n * 2", "n / i", "i % n", "-n", "n + 1.5", "n > i",
+                            "i < n", "b && i > 2", "i < 2 || b", "!b", "b ? i : 1",
+                            "(i > 2 ? n : 1) + i", "-(i > 2 ? n : i)", "n * 2 > i"};
+        for (String source : sources)
+            assertSameFailure(source, frame);
+    }
+    
+    @Test
+    public void testFailureOrder() {
+        Frame frame = createFrame();
+        String[] sources = {"n % (i / 0)", "n + max(2 / 0, i)", "n > i / 0", "b && i / 0 > 1"};
+        for (String source : sources)
+            assertSameFailure(source, frame);
+    }
+    
+    @Test
+    public void testAttribution() {
+        Frame frame = createFrame();
+        Expression expr = decode("n % (i + 1)", frame);
+        try {
+            expr.evaluateInt(frame);
+            fail();
+        } catch (EvaluationException e) {
+            assertSame(expr.getRootNode(), e.getNode());
+            assertSame(expr, e.getOwner());
+        }
+    }
+    
+    @Test
+    public void testBoxedOperands() {
+        Environment context = createContext();
+        String[] sources = {"a * b + c * d - e", "a * b + c * d - x", "-(a * b) / c", "a * x > c * d",
+                            "a < b && c * d > e", "a > b ? a * c : d - e", "x * a + 1"};
+        for (String source : sources) {
+            Expression expr = decode(source, context);
+            assertEquals(source, expr.evaluate(context), evaluateTyped(expr, context));
+        }
+    }
+    
+    @Test
+    public void testBoxedFailure() {
+        Environment context = createContext();
+        String[] sources = {"a * b + c * d - n", "n * b + c / 0", "a * b + c / z", "a * b > n",
+                            "-(a - n)", "a > b || n * 2 > a", "a < b ? n * a : 1", "(a < b ? n : 1) + a"};
+        for (String source : sources)
+            assertSameFailure(source, context);
+    }
+    
+    private static Environment createContext() {
+        // Variable n is declared Integer but resolves to null
+        DefaultVariableTable table = new DefaultVariableTable() {
+            public Object resolveVariable(String name, Environment context) {
+                return "n".equals(name) ? null : super.resolveVariable(name, context);
+            }
+        };
+        table.putVariable("n", 0);
+        table.putVariable("a", 3);
+        table.putVariable("b", 4);
+        table.putVariable("c", 5);
+        table.putVariable("d", 6);
+        table.putVariable("e", 7);
+        table.putVariable("x", 2.5);
+        table.putVariable("z", 0);
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        return context;
+    }
+    
+    private static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("b", Boolean.class);
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("l", Long.TYPE);
+        table.declareVariable("x", Double.TYPE);
+        table.declareVariable("m", Integer.class);
+        table.declareVariable("z", Double.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(null, null, 3, 4L, 2.5, 6, 1.5);
+        return frame;
+    }
+    
+    private static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+    private static Object evaluateTyped(Expression expr, Environment context) {
+        Class<?> type = expr.getRootNode().getType();
+        if (type == Boolean.class)
+            return expr.evaluateBoolean(context);
+        if (type == Integer.class)
+            return expr.evaluateInt(context);
+        if (type == Long.class)
+            return expr.evaluateLong(context);
+        return expr.evaluateDouble(context);
+    }
+    
+    // Typed evaluation must fail on the same node with the same cause as evaluate()
+    private static void assertSameFailure(String source, Environment context) {
+        Expression expr = decode(source, context);
+        EvaluationException expected = null;
+        try {
+            expr.evaluate(context);
+            fail(source);
+        } catch (EvaluationException e) {
+            expected = e;
+        }
+        try {
+            evaluateTyped(expr, context);
+            fail(source);
+        } catch (EvaluationException e) {
+            assertEquals(source, expected.getNode(), e.getNode());
+            assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+        }
+    }
+    
+}
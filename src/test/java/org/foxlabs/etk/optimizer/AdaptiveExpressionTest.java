@@ -0,0 +1,186 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.optimizer.AdaptiveExpression.Chain;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class AdaptiveExpressionTest {
+    
+    @Test
+    public void testAttribution() {
+        Frame frame = createFrame();
+        String[] sources = {"b && i > 2", "i > 2 && b", "i < 2 || !b", "(i > 2 && b) || i < 0"};
+        for (String source : sources) {
+            Expression expr = decode(source, frame);
+            AdaptiveExpression adaptive = new AdaptiveExpression(expr);
+            try {
+                expr.evaluate(frame);
+                fail(source);
+            } catch (EvaluationException expected) {
+                try {
+                    adaptive.evaluateBoolean(frame);
+                    fail(source);
+                } catch (EvaluationException e) {
+                    assertSame(source, expected.getNode(), e.getNode());
+                    assertSame(source, adaptive, e.getOwner());
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testFailureOrder() {
+        // Operands that may fail are never moved ahead of others
+        Frame frame = createFrame();
+        Expression expr = decode("x > 0 && b", frame);
+        AdaptiveExpression adaptive = new AdaptiveExpression(expr, AdaptiveExpression.PURE_VARIABLES, 64);
+        Chain chain = adaptive.getChains().get(0);
+        assertFalse(chain.isPure(0));
+        assertFalse(chain.isPure(1));
+        
+        for (int i = 0; i < 256; i++) {
+            frame.setAll(Boolean.valueOf(i % 16 == 0), 3, 5);
+            assertEquals(expr.evaluateBoolean(frame), adaptive.evaluateBoolean(frame));
+        }
+        assertArrayEquals(new int[]{0, 1}, chain.getOrder());
+        
+        frame.setAll(Boolean.FALSE, 3, null);
+        assertSameFailure(expr, adaptive, frame);
+    }
+    
+    @Test
+    public void testReorderFailing() {
+        // Failures of skipped operands are not reported on request
+        Frame frame = createFrame();
+        Expression expr = decode("x > 0 && b", frame);
+        AdaptiveExpression adaptive = new AdaptiveExpression(expr,
+                AdaptiveExpression.PURE_VARIABLES | AdaptiveExpression.REORDER_FAILING, 64);
+        Chain chain = adaptive.getChains().get(0);
+        for (int i = 0; i < 256; i++) {
+            frame.setAll(Boolean.valueOf(i % 16 == 0), 3, 5);
+            assertEquals(expr.evaluateBoolean(frame), adaptive.evaluateBoolean(frame));
+        }
+        assertArrayEquals(new int[]{1, 0}, chain.getOrder());
+        
+        frame.setAll(Boolean.FALSE, 3, null);
+        assertFalse(adaptive.evaluateBoolean(frame));
+        
+        // Moved operands that fail fall back to source order
+        frame.setAll(null, 3, null);
+        assertSameFailure(expr, adaptive, frame);
+    }
+    
+    @Test
+    public void testReorder() {
+        // Operands over primitive slots cannot fail and are moved
+        Frame frame = createFrame();
+        Expression expr = decode("i > -100 && !(i == 7) && i % 16 == 0", frame);
+        AdaptiveExpression adaptive = new AdaptiveExpression(expr, AdaptiveExpression.PURE_VARIABLES, 64);
+        Chain chain = adaptive.getChains().get(0);
+        assertTrue(chain.isPure(0));
+        assertTrue(chain.isPure(1));
+        assertFalse(chain.isPure(2));
+        
+        for (int i = 0; i < 256; i++) {
+            frame.setAll(null, i % 10 == 0 ? 7 : i, null);
+            assertEquals(expr.evaluateBoolean(frame), adaptive.evaluateBoolean(frame));
+        }
+        assertArrayEquals(new int[]{1, 0, 2}, chain.getOrder());
+        
+        adaptive.restoreOrder();
+        assertArrayEquals(new int[]{0, 1, 2}, chain.getOrder());
+    }
+    
+    @Test
+    public void testReorderVariables() {
+        // Pure variables of other tables compared by == and primitive ones
+        // passed to safe functions cannot fail either
+        DefaultVariableTable table = new DefaultVariableTable() {
+            public Class<?> getVariableType(String name) {
+                return "n".equals(name) ? Integer.TYPE : super.getVariableType(name);
+            }
+        };
+        table.putVariable("n", 17);
+        table.putVariable("code", (Object) "A1");
+        table.putVariable("status", (Object) "X");
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setFunctionLoader(FunctionLoader.getDefaultRootLoader());
+        context.setVariableTable(table);
+        
+        Expression expr = decode("MATCH(STR(n), \"[0-9]+7\") && status == \"X\"", context);
+        AdaptiveExpression adaptive = new AdaptiveExpression(expr, AdaptiveExpression.PURE_VARIABLES, 64);
+        Chain chain = adaptive.getChains().get(0);
+        assertTrue(chain.isPure(0));
+        assertTrue(chain.isPure(1));
+        
+        for (int i = 0; i < 256; i++) {
+            table.putVariable("status", (Object) (i % 16 == 0 ? "X" : "Y"));
+            assertEquals(expr.evaluateBoolean(context), adaptive.evaluateBoolean(context));
+        }
+        assertArrayEquals(new int[]{1, 0}, chain.getOrder());
+        
+        // Nullable arguments and invalid patterns may fail
+        expr = decode("MATCH(code, \"[A-Z][0-9]\") && MATCH(STR(n), \"[0-9\") && status == \"X\"", context);
+        chain = new AdaptiveExpression(expr).getChains().get(0);
+        assertFalse(chain.isPure(0));
+        assertFalse(chain.isPure(1));
+        assertTrue(chain.isPure(2));
+    }
+    
+    static void assertSameFailure(Expression expr, AdaptiveExpression adaptive, Frame frame) {
+        try {
+            expr.evaluateBoolean(frame);
+            fail(expr.getSource());
+        } catch (EvaluationException expected) {
+            try {
+                adaptive.evaluateBoolean(frame);
+                fail(expr.getSource());
+            } catch (EvaluationException e) {
+                assertSame(expected.getNode(), e.getNode());
+                assertEquals(expected.getCause().getClass(), e.getCause().getClass());
+            }
+        }
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("b", Boolean.class);
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("x", Integer.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(null, 3, 1);
+        return frame;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
@@ -0,0 +1,152 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.optimizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.BinaryNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NodeInterner;
+import org.foxlabs.etk.optimizer.ExpressionCostModel.Estimate;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ExpressionCostModelTest {
+    
+    static final double DELTA = 1E-9D;
+    
+    @Test
+    public void testEstimate() {
+        Frame frame = createFrame();
+        ExpressionCostModel model = new ExpressionCostModel();
+        Estimate estimate = model.estimate(decode("i * 2 + j", frame));
+        BinaryNode root = (BinaryNode) estimate.getRootNode();
+        assertEquals(4.5D, estimate.getTotal(), DELTA);
+        assertEquals(2.5D, estimate.getCost(root.getOperand1()), DELTA);
+        assertEquals(1D, estimate.getCost(root.getOperand2()), DELTA);
+        assertTrue(Double.isNaN(estimate.getCost(decode("j", frame).getRootNode())));
+        
+        // Subtrees are listed in evaluation order
+        List<Node> nodes = estimate.getNodes();
+        assertEquals(5, nodes.size());
+        assertSame(root.getOperand1(), nodes.get(2));
+        assertSame(root, nodes.get(4));
+        assertFalse(estimate.isCalibrated());
+        assertTrue(Double.isNaN(estimate.getNanos()));
+    }
+    
+    @Test
+    public void testCondition() {
+        // The worst branch is taken
+        Frame frame = createFrame();
+        ExpressionCostModel model = new ExpressionCostModel();
+        assertEquals(6.5D, model.estimate(decode("b ? i * 2 + j : j", frame)).getTotal(), DELTA);
+        assertEquals(6.5D, model.estimate(decode("b ? j : i * 2 + j", frame)).getTotal(), DELTA);
+    }
+    
+    @Test
+    public void testSharedSubtrees() {
+        Frame frame = createFrame();
+        Node root = new NodeInterner().internTree(decode("i * 2 + i * 2", frame).getRootNode());
+        Estimate estimate = new ExpressionCostModel().estimate(root);
+        assertEquals(6D, estimate.getTotal(), DELTA);
+        assertEquals(4, estimate.getNodes().size());
+    }
+    
+    @Test
+    public void testCustomCosts() {
+        Frame frame = createFrame();
+        Expression expr = decode("i * 2 + j", frame);
+        ExpressionCostModel model = new ExpressionCostModel();
+        model.setNodeCost(Node.MUL_NODE, 10D);
+        assertEquals(10D, model.getNodeCost(Node.MUL_NODE), DELTA);
+        assertEquals(13.5D, model.estimate(expr).getTotal(), DELTA);
+        
+        try {
+            model.setNodeCost(Node.ADD_NODE, -1D);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Costs are never negative
+        }
+        try {
+            model.setRegexMultiplier(0.5D);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Regular expressions never get cheaper
+        }
+    }
+    
+    @Test
+    public void testRegexMultiplier() {
+        // Regular expressions that are not constant are compiled on every call
+        Frame frame = createFrame();
+        ExpressionCostModel model = new ExpressionCostModel();
+        double constant = model.estimate(decode("MATCH(s, \"a.*\")", frame)).getTotal();
+        double variable = model.estimate(decode("MATCH(s, r)", frame)).getTotal();
+        assertEquals(21.5D, constant, DELTA);
+        assertEquals(20D * ExpressionCostModel.DEFAULT_REGEX_MULTIPLIER + 2D, variable, DELTA);
+        
+        model.setRegexMultiplier(1D);
+        assertEquals(22D, model.estimate(decode("MATCH(s, r)", frame)).getTotal(), DELTA);
+    }
+    
+    @Test
+    public void testCalibration() {
+        Frame frame = createFrame();
+        ExpressionCostModel model = new ExpressionCostModel();
+        List<Expression> expressions = Arrays.asList(
+            decode("i * 2 + j", frame),
+            decode("b ? i * 2 + j : j", frame),
+            decode("MATCH(s, r)", frame),
+            decode("i / (j - j)", frame)
+        );
+        double nanos = model.calibrate(expressions, frame, 1000);
+        assertTrue(model.isCalibrated());
+        assertTrue(nanos > 0D);
+        assertEquals(nanos, model.getNanosPerUnit(), DELTA);
+        
+        Estimate estimate = model.estimate(expressions.get(0));
+        assertTrue(estimate.isCalibrated());
+        assertEquals(estimate.getTotal() * nanos, estimate.getNanos(), DELTA);
+        assertTrue(estimate.getReport().contains(" ns)"));
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("b", Boolean.TYPE);
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("j", Integer.TYPE);
+        table.declareVariable("s", String.class);
+        table.declareVariable("r", String.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(true, 3, 4, "abc", "a.*");
+        return frame;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}
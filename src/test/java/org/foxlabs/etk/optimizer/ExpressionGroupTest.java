@@ -0,0 +1,118 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.optimizer;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ExpressionGroupTest {
+    
+    @Test
+    public void testSharing() {
+        Frame frame = createFrame(2, 3, 4);
+        ExpressionGroup group = createGroup(frame, "i * 2 + j", "j + i * 2", "(i * 2 + j) > 5");
+        assertEquals(1, group.getSharedCount());
+        assertEquals(3, group.getSharedReferenceCount(0));
+        assertArrayEquals(new Object[]{7, 7, true}, group.evaluate(frame));
+    }
+    
+    @Test
+    public void testFailingOperands() {
+        // Operands that may fail are neither swapped nor shared across orders
+        String[][] groups = {
+            {"(j % 0) * (i / 0)", "(i / 0) * (j % 0)"},
+            {"(i / 0) * (j % 0)", "(j % 0) * (i / 0)"},
+            {"(n + 1) == (i / 0)", "(i / 0) == (n + 1)"},
+            {"(i / 0) == (n + 1)", "(n + 1) == (i / 0)"},
+            {"(n + 1) * (i / j)", "(i / j) * (n + 1)"},
+            // Short-circuited first occurrences leave the evaluation to others
+            {"i < 0 && (j % 0) * (i / 0) > 0", "(i / 0) * (j % 0)"},
+            {"i < 0 && (n + 1) == (i / 0)", "(i / 0) == (n + 1)"},
+            {"i < 0 && n * i > 0", "i * n"}
+        };
+        Frame[] frames = {createFrame(1, 0, null), createFrame(1, 0, 2), createFrame(1, 2, null), createFrame(4, 2, 3)};
+        for (String[] sources : groups)
+            for (Frame frame : frames)
+                assertSameResults(sources, frame);
+    }
+    
+    @Test
+    public void testEquivalence() {
+        String[] sources = {
+            "i + j", "j + i", "i * j + n", "n + i * j", "i * j == j * i", "(i + j) * (j + i)",
+            "i / j + j", "j + i / j", "n == i + j", "j + i == n", "n != null && n * 2 > i + j",
+            "(i + j) / j", "i + j > 2 ? (i + j) / j : n"
+        };
+        Frame[] frames = {createFrame(1, 0, null), createFrame(1, 0, 2), createFrame(3, 2, null), createFrame(4, 2, 3)};
+        for (Frame frame : frames)
+            for (int i = 0; i < sources.length; i++)
+                for (int j = 0; j < sources.length; j++)
+                    assertSameResults(new String[]{sources[i], sources[j], sources[(i + j) % sources.length]}, frame);
+    }
+    
+    static void assertSameResults(String[] sources, Frame frame) {
+        ExpressionGroup group = createGroup(frame, sources);
+        Object[] expected = new Object[sources.length];
+        EvaluationException failure = null;
+        for (int i = 0; i < sources.length && failure == null; i++) {
+            try {
+                expected[i] = group.getExpression(i).evaluate(frame);
+            } catch (EvaluationException e) {
+                failure = e;
+            }
+        }
+        
+        String message = Arrays.toString(sources) + " " + frame.get(0) + ", " + frame.get(1) + ", " + frame.get(2);
+        try {
+            assertArrayEquals(message, expected, group.evaluate(frame));
+            assertNull(message, failure);
+        } catch (EvaluationException e) {
+            assertNotNull(message, failure);
+            assertEquals(message, failure.getNode(), e.getNode());
+            assertSame(message, failure.getOwner(), e.getOwner());
+            assertSame(message, failure.getCause().getClass(), e.getCause().getClass());
+        }
+    }
+    
+    static ExpressionGroup createGroup(Environment context, String... sources) {
+        Expression[] expressions = new Expression[sources.length];
+        for (int i = 0; i < sources.length; i++)
+            expressions[i] = new Expression(ExpressionDecoder.getDefault().decode(sources[i], context), sources[i]);
+        return new ExpressionGroup(expressions);
+    }
+    
+    static Frame createFrame(int i, int j, Integer n) {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("j", Integer.TYPE);
+        table.declareVariable("n", Integer.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(i, j, n);
+        return frame;
+    }
+    
+}
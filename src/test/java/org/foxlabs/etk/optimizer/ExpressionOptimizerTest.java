@@ -0,0 +1,167 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.optimizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.DivideNode;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.node.NumberNode;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ExpressionOptimizerTest {
+    
+    @Test
+    public void testConstantFolding() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(new ConstantFolding());
+        
+        Node node = optimizer.optimize(decode("2 * 3 + 1", frame), frame).getRootNode();
+        assertTrue(node instanceof NumberNode);
+        assertEquals(7, ((NumberNode) node).getValue());
+        
+        node = optimizer.optimize(decode("max(1, 5) * 2", frame), frame).getRootNode();
+        assertEquals(10, ((NumberNode) node).getValue());
+        
+        assertEquals("i + 6", optimize(optimizer, "i + 2 * 3", frame));
+    }
+    
+    @Test
+    public void testFailingConstant() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(new ConstantFolding());
+        Expression expr = optimizer.optimize(decode("1 / 0", frame), frame);
+        assertTrue(expr.getRootNode() instanceof DivideNode);
+        try {
+            expr.evaluate(frame);
+            fail();
+        } catch (EvaluationException e) {
+            assertSame(expr.getRootNode(), e.getNode());
+        }
+    }
+    
+    @Test
+    public void testAlgebraicSimplification() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = ExpressionOptimizer.getInstance("constantFolding, algebraicSimplification");
+        assertEquals("i * 2", optimize(optimizer, "(i * 2) * 1", frame));
+        assertEquals("i + 1", optimize(optimizer, "(i + 1) + 0", frame));
+        assertEquals("i > 2", optimize(optimizer, "!(!(i > 2))", frame));
+        assertEquals("i > 2", optimize(optimizer, "true && i > 2", frame));
+        assertEquals("false", optimize(optimizer, "false && n > 2", frame));
+        assertEquals("i", optimize(optimizer, "true ? i : n", frame));
+    }
+    
+    @Test
+    public void testNullableOperands() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = ExpressionOptimizer.getDefault();
+        // Operands that may be null must still fail
+        assertEquals("n * 1", optimize(optimizer, "n * 1", frame));
+        assertEquals("n + 0", optimize(optimizer, "n + 0", frame));
+        assertEquals("n > 2 || true", optimize(optimizer, "n > 2 || true", frame));
+    }
+    
+    @Test
+    public void testEqualityMerging() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(new EqualityMerging());
+        assertEquals("i in (1, 2, 3)", optimize(optimizer, "i == 1 || i == 2 || 3 == i", frame));
+        assertEquals("i not in (1, 2)", optimize(optimizer, "i != 1 && i != 2", frame));
+        assertEquals("i in (1, 2, 3)", optimize(optimizer, "i == 1 || i in (2, 3)", frame));
+        assertEquals("ABS(i) in (1, 3)", optimize(optimizer, "abs(i) == 1 || abs(i) == 3", frame));
+        
+        // Only consecutive terms are merged, so the other terms keep their order
+        assertEquals("i in (1, 2) || n == 3 || i == 4",
+                optimize(optimizer, "i == 1 || i == 2 || n == 3 || i == 4", frame));
+        
+        // Non-constant elements and operands evaluated once per term are left alone
+        assertEquals("i == 1 || i == n", optimize(optimizer, "i == 1 || i == n", frame));
+        assertEquals("RANDOM() == 1 || RANDOM() == 2",
+                optimize(optimizer, "random() == 1 || random() == 2", frame));
+        assertEquals("i == 1 && i == 2", optimize(optimizer, "i == 1 && i == 2", frame));
+        
+        String[] sources = {"i == 1 || i == 2 || 3 == i", "i != 1 && i != 2 && n != 3",
+                            "n == 1 || n == 2", "n != 1 && n != 2"};
+        for (String source : sources) {
+            Expression expr = decode(source, frame);
+            Expression optimized = optimizer.optimize(expr, frame);
+            for (int i = -3; i <= 3; i++) {
+                frame.setAll(i == 0 ? null : Integer.valueOf(i), i);
+                assertEquals(source + " @ " + i, expr.evaluate(frame), optimized.evaluate(frame));
+            }
+        }
+    }
+    
+    @Test
+    public void testEquivalence() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = ExpressionOptimizer.getDefault();
+        String[] sources = {"2 * 3 + i", "(i * 2) * 1 - 0", "!(!(i > 2)) && true", "i == 1 || i == 3",
+                            "false || i > 2 ? i * 1.0 : 2.5", "max(i, 2) + min(1, 2)", "-(-(i + 1))"};
+        for (String source : sources) {
+            Expression expr = decode(source, frame);
+            assertEquals(source, expr.evaluate(frame), optimizer.optimize(expr, frame).evaluate(frame));
+        }
+    }
+    
+    @Test
+    public void testStatistics() {
+        Frame frame = createFrame();
+        ExpressionOptimizer optimizer = ExpressionOptimizer.getInstance("constantFolding");
+        assertEquals("constantFolding", optimizer.getPassNames());
+        
+        optimizer.optimize(decode("2 * 3 + i", frame), frame);
+        OptimizerPass pass = optimizer.getPasses().get(0);
+        assertEquals(1L, pass.getRunCount());
+        assertEquals(2L, pass.getRemovedNodeCount());
+        
+        optimizer.resetStatistics();
+        assertEquals(0L, pass.getRunCount());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPass() {
+        ExpressionOptimizer.getInstance("constantFolding, unknown");
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("i", Integer.TYPE);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(null, 3);
+        return frame;
+    }
+    
+    static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+    static String optimize(ExpressionOptimizer optimizer, String source, Environment context) {
+        return optimizer.optimize(decode(source, context), context).getRootNode().toString();
+    }
+    
+}
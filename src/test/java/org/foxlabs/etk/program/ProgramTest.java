@@ -0,0 +1,141 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.program;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.EvaluationLimits;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.node.Node;
+import org.foxlabs.etk.variable.DefaultVariableTable;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class ProgramTest {
+    
+    static final String[] SOURCES = {
+        "1 + 2 * 3", "i * 2 + x", "i / 2 - i % 2", "-i", "x > 2 && i < 5", "i == 3 || n == null",
+        "!(i > 2)", "i > 2 ? x : 1.5", "max(i, 7, 2)", "s == \"abc\"", "i in (1, 2, 3)",
+        "i not in (1, 2)", "n == null ? i : n", "(i > 1 && (x < 1 || i == 3)) ? \"yes\" : \"no\"",
+        "i in (1, x, i)", "i not in (2, i + 1)", "i in (n, 1, i - 1)", "s in (\"a\", s)"
+    };
+    
+    @Test
+    public void testEquivalence() {
+        Frame frame = createFrame();
+        for (String source : SOURCES) {
+            Node root = ExpressionDecoder.getDefault().decode(source, frame);
+            assertEquals(source, root.evaluate(frame), ProgramBuilder.build(root).evaluate(frame));
+            assertEquals(source, root.evaluate(frame), ProgramBuilder.build(root, true).evaluate(frame));
+        }
+    }
+    
+    @Test
+    public void testFailure() {
+        Frame frame = createFrame();
+        String[] sources = {"i / 0", "n + i", "1 + max(i, i / 0)", "n > 2 || i > 2", "i in (1, i / 0)"};
+        for (String source : sources) {
+            Node root = ExpressionDecoder.getDefault().decode(source, frame);
+            EvaluationException expected = null;
+            try {
+                root.evaluate(frame);
+                fail(source);
+            } catch (EvaluationException e) {
+                expected = e;
+            }
+            try {
+                ProgramBuilder.build(root, true).evaluate(frame);
+                fail(source);
+            } catch (EvaluationException e) {
+                // Debug programs report the failing node
+                assertEquals(source, expected.getNode(), e.getNode());
+                assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+            }
+            try {
+                ProgramBuilder.build(root).evaluate(frame);
+                fail(source);
+            } catch (EvaluationException e) {
+                assertNull(source, e.getNode());
+                assertEquals(source, expected.getCause().getClass(), e.getCause().getClass());
+            }
+        }
+    }
+    
+    @Test
+    public void testLayout() {
+        Frame frame = createFrame();
+        Node root = ExpressionDecoder.getDefault().decode("i * 2 + x", frame);
+        Program program = ProgramBuilder.build(root);
+        assertSame(root.getType(), program.getType());
+        assertFalse(program.hasDebugInfo());
+        assertTrue(ProgramBuilder.build(root, true).hasDebugInfo());
+        assertEquals(2, program.getMaxStack());
+        assertTrue(program.getCodeLength() >= 5);
+    }
+    
+    @Test
+    public void testStackReuse() {
+        Frame frame = createFrame();
+        Program program = ProgramBuilder.build(ExpressionDecoder.getDefault().decode("i / 0", frame));
+        for (int i = 0; i < 3; i++) {
+            try {
+                program.evaluate(frame);
+                fail();
+            } catch (EvaluationException e) {
+                // The stack is released after failures as well
+            }
+        }
+        Program other = ProgramBuilder.build(ExpressionDecoder.getDefault().decode("i + 1", frame));
+        assertEquals(4, other.evaluate(frame));
+    }
+    
+    @Test
+    public void testStackGrowth() {
+        // Nested evaluation of a deep expression variable outgrows the stack
+        // while the outer evaluation holds a value on it
+        StringBuilder source = new StringBuilder("i");
+        for (int i = 0; i < 100; i++)
+            source.insert(0, "i + (").append(')');
+        DefaultVariableTable table = new DefaultVariableTable();
+        table.putVariable("i", 1);
+        table.putVariable("k", 1000);
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        table.putVariable("v", source.toString(), context);
+        
+        Program program = ProgramBuilder.build(ExpressionDecoder.getDefault().decode("k + v", context));
+        assertEquals(1101, program.evaluate(context, EvaluationLimits.NONE.withMaxNodeVisits(1000L)));
+        for (Object slot : Program.stacks.get().slots)
+            assertNull(slot);
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("x", Double.TYPE);
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("s", String.class);
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(3, 0.5, null, "abc");
+        return frame;
+    }
+    
+}
@@ -0,0 +1,216 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.rule;
+
+import java.lang.ref.WeakReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.variable.Frame;
+import org.foxlabs.etk.variable.SlotVariableTable;
+
+public class RuleSetTest {
+    
+    @Test
+    public void testMatch() {
+        Frame frame = createFrame();
+        RuleSet rules = new RuleSet();
+        addRule(rules, "a", "k == 1 && n > 2", frame);
+        addRule(rules, "b", "k in (1, 2) && s == \"x\"", frame);
+        addRule(rules, "c", "n > 2 && k == 2", frame);
+        addRule(rules, "d", "s != \"y\"", frame);
+        addRule(rules, "e", "p.x == 5", frame);
+        
+        frame.setAll(1, 3, "x", new Item(5, "i"));
+        assertEquals(Arrays.asList("a", "b", "d", "e"), rules.match(frame));
+        frame.setAll(2, 3, "y", new Item(4, "i"));
+        assertEquals(Arrays.asList("c"), rules.match(frame));
+        
+        rules.removeRule("c");
+        assertEquals(4, rules.size());
+        assertEquals(Arrays.asList(), rules.match(frame));
+    }
+    
+    @Test
+    public void testFailures() {
+        Frame frame = createFrame();
+        RuleSet rules = new RuleSet();
+        addRule(rules, "keyed", "p.x == 5 && k == 1", frame);
+        addRule(rules, "shared", "p.x in (4, 6)", frame);
+        addRule(rules, "guarded", "n > 2 && k == 7", frame);
+        addRule(rules, "compared", "k == 1 && n < 2", frame);
+        addRule(rules, "decided", "k == 2 && n > 2", frame);
+        addRule(rules, "matched", "k == 1", frame);
+        
+        frame.setAll(1, null, "x", null);
+        List<String> result = new ArrayList<String>();
+        Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+        assertEquals(1, rules.match(frame, result, failures));
+        assertEquals(Arrays.asList("matched"), result);
+        assertEquals(Arrays.asList("keyed", "shared", "guarded", "compared"),
+                new ArrayList<String>(failures.keySet()));
+        
+        // Failures are the ones of the rule expressions, shared nodes are equal
+        // to the nodes of every rule
+        for (Map.Entry<String, RuntimeException> entry : failures.entrySet()) {
+            try {
+                rules.getRule(entry.getKey()).evaluateBoolean(frame);
+                fail(entry.getKey());
+            } catch (EvaluationException e) {
+                EvaluationException failure = (EvaluationException) entry.getValue();
+                assertEquals(entry.getKey(), e.getNode(), failure.getNode());
+                assertEquals(entry.getKey(), e.getCause().getClass(), failure.getCause().getClass());
+            }
+        }
+        assertSame(failures.get("keyed"), failures.get("shared"));
+        
+        // Failing rules do not match without collecting failures either
+        assertEquals(Arrays.asList("matched"), rules.match(frame));
+    }
+    
+    @Test
+    public void testEquivalence() {
+        Random random = new Random(5000);
+        Frame frame = createFrame();
+        RuleSet rules = new RuleSet();
+        for (int i = 0; i < 5000; i++) {
+            int count = 1 + random.nextInt(3);
+            StringBuilder buf = new StringBuilder();
+            for (int j = 0; j < count; j++)
+                buf.append(j == 0 ? "" : " && ").append(createConjunct(random));
+            addRule(rules, "r" + i, buf.toString(), frame);
+        }
+        
+        for (int i = 0; i < 100; i++) {
+            frame.setAll(random.nextInt(8) == 0 ? null : Integer.valueOf(random.nextInt(10)),
+                         random.nextInt(8) == 0 ? null : Integer.valueOf(random.nextInt(10)),
+                         "s" + random.nextInt(5),
+                         random.nextInt(8) == 0 ? null : new Item(random.nextInt(10), "i" + random.nextInt(3)));
+            
+            List<String> expected = new ArrayList<String>();
+            Map<String, Class<?>> expectedFailures = new LinkedHashMap<String, Class<?>>();
+            for (String id : rules.getRuleIds()) {
+                try {
+                    if (rules.getRule(id).evaluateBoolean(frame))
+                        expected.add(id);
+                } catch (EvaluationException e) {
+                    expectedFailures.put(id, e.getCause().getClass());
+                }
+            }
+            
+            List<String> result = new ArrayList<String>();
+            Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+            assertEquals(expected.size(), rules.match(frame, result, failures));
+            assertEquals(expected, result);
+            assertEquals(expected, rules.match(frame));
+            
+            Map<String, Class<?>> actualFailures = new LinkedHashMap<String, Class<?>>();
+            for (Map.Entry<String, RuntimeException> entry : failures.entrySet())
+                actualFailures.put(entry.getKey(), entry.getValue().getCause().getClass());
+            assertEquals(expectedFailures, actualFailures);
+        }
+    }
+    
+    @Test
+    public void testRetention() throws InterruptedException {
+        // Threads keep neither the last input nor the networks replaced by
+        // changes of the rules
+        Frame frame = createFrame();
+        RuleSet rules = new RuleSet();
+        addRule(rules, "a", "s == \"xy\"", frame);
+        addRule(rules, "b", "k == 1", frame);
+        frame.setAll(1, 2, new String(new char[]{'x', 'y'}), null);
+        assertEquals(Arrays.asList("a", "b"), rules.match(frame));
+        WeakReference<Object> input = new WeakReference<Object>(frame.get(2));
+        WeakReference<Network> network = new WeakReference<Network>(rules.getNetwork());
+        
+        rules.removeRule("b");
+        frame.setAll(1, 2, "z", null);
+        assertEquals(Arrays.asList(), rules.match(frame));
+        for (int i = 0; i < 50 && (input.get() != null || network.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(input.get());
+        assertNull(network.get());
+    }
+    
+    static String createConjunct(Random random) {
+        int c = random.nextInt(10);
+        switch (random.nextInt(10)) {
+            case 0:  return "k == " + c;
+            case 1:  return "k in (" + c + ", " + random.nextInt(10) + ")";
+            case 2:  return "n > " + c;
+            case 3:  return "n != " + c;
+            case 4:  return "s == \"s" + random.nextInt(5) + "\"";
+            case 5:  return "p.x == " + c;
+            case 6:  return "p.x < " + c;
+            case 7:  return "p.name == \"i" + random.nextInt(3) + "\"";
+            case 8:  return "k * 2 > n";
+            default: return "!(k == " + c + ")";
+        }
+    }
+    
+    static void addRule(RuleSet rules, String id, String source, Environment context) {
+        rules.addRule(id, new Expression(ExpressionDecoder.getDefault().decode(source, context), source));
+    }
+    
+    static Frame createFrame() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("k", Integer.class);
+        table.declareVariable("n", Integer.class);
+        table.declareVariable("s", String.class);
+        table.declareVariable("p", Item.class);
+        return table.createFrame(DefaultEnvironment.getGlobalContext());
+    }
+    
+    // Bean
+    
+    public static class Item {
+        
+        private final int x;
+        private final String name;
+        
+        public Item(int x, String name) {
+            this.x = x;
+            this.name = name;
+        }
+        
+        public int getX() {
+            return x;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,74 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.support;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SymbolBenchmark {
+    
+    private static final int ITERATIONS = 10000000;
+    
+    private static final String[] NAMES = {
+        "revenue", "Cost", "margin", "marginPct", "customerName", "orderDate",
+        "TOTAL", "taxRate", "discount", "shippingAddress", "city", "zipCode"
+    };
+    
+    public static void main(String[] args) {
+        Map<String, Integer> table = new HashMap<String, Integer>();
+        for (int i = 0; i < NAMES.length; i++)
+            table.put(NAMES[i].toUpperCase(), i);
+        
+        // Distinct instances, as names come from parsed sources
+        String[] names = new String[NAMES.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = new String(NAMES[i].toCharArray());
+        
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + (round + 1));
+            System.out.println("  toUpperCase lookup: " + lookup(table, names, false));
+            System.out.println("  symbol lookup: " + lookup(table, names, true));
+        }
+    }
+    
+    private static String lookup(Map<String, Integer> table, String[] names, boolean symbols) {
+        int hash = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String name = names[i % names.length];
+            String key = symbols ? Symbol.fold(name) : name.toUpperCase();
+            hash += table.get(key);
+        }
+        long time = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (hash == 42)
+            System.out.println();
+        return String.format("%.1f ns/op, %.1f bytes/op",
+                             (double) time / ITERATIONS, (double) bytes / ITERATIONS);
+    }
+    
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        return 0L;
+    }
+    
+}
@@ -0,0 +1,68 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.support;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SymbolTest {
+    
+    @After
+    public void tearDown() {
+        Symbol.reset();
+    }
+    
+    @Test
+    public void testFolding() {
+        String name = "MARGIN_PCT";
+        assertSame(name, Symbol.fold(name));
+        assertEquals("MARGINPCT", Symbol.fold("marginPct"));
+        assertEquals("ÄPFEL", Symbol.fold("äpfel"));
+        assertEquals(Symbol.of("marginPct"), Symbol.of("MarginPCT"));
+        assertEquals("marginPct", Symbol.of("marginPct").getName());
+        assertFalse(Symbol.of("margin").equals(Symbol.of("marginPct")));
+    }
+    
+    @Test
+    public void testLimit() {
+        // Spellings beyond the limit are folded correctly, but neither
+        // interned nor counted
+        String known = "symbolTestKnown";
+        String folded = Symbol.fold(known);
+        assertSame(Symbol.of(known), Symbol.of(known));
+        int limit = Symbol.getSymbolCount() + 16;
+        Symbol.setLimit(limit);
+        for (int i = 0; Symbol.getSymbolCount() < limit; i++)
+            Symbol.fold("symbolTest" + i);
+        assertEquals(limit, Symbol.getSymbolCount());
+        
+        long misses = Symbol.getMissCount();
+        String name = "symbolTestOverflow";
+        assertEquals("SYMBOLTESTOVERFLOW", Symbol.fold(name));
+        assertEquals(misses + 1, Symbol.getMissCount());
+        assertNotSame(Symbol.of(name), Symbol.of(name));
+        assertEquals(Symbol.of(name), Symbol.of("SymbolTestOverflow"));
+        assertEquals(limit, Symbol.getSymbolCount());
+        
+        // Interned spellings are still folded without allocation
+        assertSame(folded, Symbol.fold(known));
+        assertSame(Symbol.of(known), Symbol.of(known));
+        assertEquals(misses + 5, Symbol.getMissCount());
+    }
+    
+}
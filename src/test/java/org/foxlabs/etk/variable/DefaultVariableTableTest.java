@@ -0,0 +1,217 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.bean.BeanManager;
+import org.foxlabs.etk.function.Function;
+import org.foxlabs.etk.function.FunctionLoader;
+import org.foxlabs.etk.support.Signature;
+
+public class DefaultVariableTableTest {
+    
+    @Test
+    public void testInvalidation() {
+        DefaultVariableTable table = new DefaultVariableTable();
+        TraceLoader loader = new TraceLoader();
+        Environment context = createContext(table, loader);
+        table.putVariable("a", 2);
+        table.putVariable("b", 10);
+        table.putVariable("v", "TRACE(\"v\", a * 2)", context);
+        table.putVariable("w", "TRACE(\"w\", v + b)", context);
+        
+        assertEquals(14, table.resolveVariable("w", context));
+        assertEquals(14, table.resolveVariable("w", context));
+        assertEquals(Arrays.asList("v", "w"), loader.trace);
+        
+        // Only the dependents of a changed variable are computed again
+        loader.trace.clear();
+        table.putVariable("b", 20);
+        assertEquals(24, table.resolveVariable("w", context));
+        assertEquals(Arrays.asList("w"), loader.trace);
+        
+        loader.trace.clear();
+        table.putVariable("a", 3);
+        assertEquals(26, table.resolveVariable("w", context));
+        assertEquals(Arrays.asList("v", "w"), loader.trace);
+        
+        loader.trace.clear();
+        table.removeVariable("v");
+        table.putVariable("v", 1);
+        assertEquals(21, table.resolveVariable("w", context));
+        assertEquals(Arrays.asList("w"), loader.trace);
+    }
+    
+    @Test
+    public void testStaleInputs() {
+        // Values read from objects may change without the table knowing
+        DefaultVariableTable table = new DefaultVariableTable();
+        Environment context = createContext(table, new TraceLoader());
+        Point p = new Point();
+        Integer[] arr = {1, 2};
+        table.putVariable("p", p);
+        table.putVariable("arr", arr);
+        table.putVariable("v", "p.x + 1", context);
+        table.putVariable("w", "arr[0] * 2", context);
+        table.putVariable("u", "v + w", context);
+        
+        assertEquals(1, table.resolveVariable("v", context));
+        assertEquals(2, table.resolveVariable("w", context));
+        assertEquals(3, table.resolveVariable("u", context));
+        p.setX(5);
+        arr[0] = 4;
+        assertEquals(6, table.resolveVariable("v", context));
+        assertEquals(8, table.resolveVariable("w", context));
+        assertEquals(14, table.resolveVariable("u", context));
+    }
+    
+    @Test
+    public void testCycles() {
+        DefaultVariableTable table = new DefaultVariableTable();
+        Environment context = createContext(table, new TraceLoader());
+        table.putVariable("a", 1);
+        table.putVariable("b", "a + 1", context);
+        table.putVariable("c", "b + 1", context);
+        try {
+            table.putVariable("a", "c + 1", context);
+            fail();
+        } catch (CyclicVariableException e) {
+            assertEquals("a", e.getName());
+            assertEquals("a -> c -> b -> a", e.getPath());
+        }
+        try {
+            table.putVariable("b", "b * 2", context);
+            fail();
+        } catch (CyclicVariableException e) {
+            assertEquals("b -> b", e.getPath());
+        }
+        
+        // Failed definitions leave the table as it was
+        assertEquals(1, table.resolveVariable("a", context));
+        assertEquals(3, table.resolveVariable("c", context));
+    }
+    
+    @Test
+    public void testRecalculation() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+                DefaultVariableTable table = new DefaultVariableTable();
+                TraceLoader loader = new TraceLoader();
+                Environment context = createContext(table, loader);
+                table.putVariable("a", 1);
+                table.putVariable("v1", "TRACE(\"v1\", a + 1)", context);
+                table.putVariable("v2", "TRACE(\"v2\", a + 2)", context);
+                table.putVariable("w", "TRACE(\"w\", v1 * v2)", context);
+                table.putVariable("x", "TRACE(\"x\", w + v1 + v2)", context);
+                assertEquals(4, table.recalculate(context, parallel ? executor : null));
+                assertEquals(4, loader.trace.size());
+                assertEquals("x", loader.trace.get(3));
+                assertEquals("w", loader.trace.get(2));
+                
+                // Dependencies come first and nothing is computed twice
+                loader.trace.clear();
+                table.putVariable("a", 2);
+                assertEquals(4, table.recalculate(context, parallel ? executor : null));
+                assertEquals(Arrays.asList("w", "x"), loader.trace.subList(2, 4));
+                assertEquals(19, table.resolveVariable("x", context));
+                assertEquals(4, loader.trace.size());
+                assertEquals(0, table.recalculate(context));
+                
+                // Eager recalculation follows every change
+                loader.trace.clear();
+                table.setEagerRecalculation(context, parallel ? executor : null);
+                table.putVariable("a", 0);
+                assertEquals(4, loader.trace.size());
+                assertEquals(5, table.resolveVariable("x", context));
+                assertEquals(4, loader.trace.size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    static Environment createContext(DefaultVariableTable table, FunctionLoader loader) {
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        context.setFunctionLoader(loader);
+        context.setBeanManager(BeanManager.getDefaultRootManager());
+        return context;
+    }
+    
+    // Functions
+    
+    static class TraceLoader extends FunctionLoader {
+        
+        final List<String> trace = Collections.synchronizedList(new ArrayList<String>());
+        
+        TraceLoader() {
+            super(FunctionLoader.getDefaultRootLoader());
+            preloadFunctions(Collections.<Function>singletonList(new TraceFunction(this)).iterator());
+        }
+        
+    }
+    
+    // Records the name of every computed variable
+    static class TraceFunction extends Function {
+        
+        final TraceLoader owner;
+        
+        TraceFunction(TraceLoader owner) {
+            super(new Signature("TRACE", Signature.NULL_NS, String.class, Integer.class), Integer.class);
+            this.owner = owner;
+        }
+        
+        public boolean isDetermined() {
+            return true;
+        }
+        
+        public Object evaluate(Environment context, Object... arguments) {
+            owner.trace.add((String) arguments[0]);
+            return arguments[1];
+        }
+        
+    }
+    
+    // Beans
+    
+    public static class Point {
+        
+        private int x;
+        
+        public int getX() {
+            return x;
+        }
+        
+        public void setX(int x) {
+            this.x = x;
+        }
+        
+    }
+    
+}
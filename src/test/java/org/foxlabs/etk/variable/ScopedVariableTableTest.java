@@ -0,0 +1,157 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.foxlabs.etk.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EvaluationContext;
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+import org.foxlabs.etk.function.FunctionLoader;
+
+public class ScopedVariableTableTest {
+    
+    @Test
+    public void testOverrides() {
+        DefaultVariableTable parent = new DefaultVariableTable();
+        Environment global = createContext(parent);
+        parent.putVariable("a", 2);
+        parent.putVariable("b", 10);
+        parent.putVariable("v", "a * b", global);
+        
+        ScopedVariableTable scope = new ScopedVariableTable(parent);
+        scope.putVariable("a", 3);
+        assertTrue(scope.hasVariable("a"));
+        assertTrue(scope.hasVariable("V"));
+        assertFalse(scope.hasVariable("c"));
+        assertEquals(3, resolve(scope, "a", global));
+        assertEquals(10, resolve(scope, "b", global));
+        
+        // Expression variables of the parent see the overrides and values
+        // cached by the parent are not used
+        assertEquals(20, parent.resolveVariable("v", global));
+        assertEquals(30, resolve(scope, "v", global));
+        assertEquals(20, parent.resolveVariable("v", global));
+        assertEquals(2, parent.resolveVariable("a", global));
+        
+        scope.putVariable("b", 100);
+        assertEquals(300, resolve(scope, "v", global));
+        assertTrue(scope.removeVariable("a"));
+        assertFalse(scope.removeVariable("a"));
+        assertEquals(200, resolve(scope, "v", global));
+        assertTrue(parent.hasVariable("a"));
+        try {
+            resolve(scope, "c", global);
+            fail();
+        } catch (VariableNotFoundException e) {
+            // Neither the scope nor the parent have it
+        }
+    }
+    
+    @Test
+    public void testNestedScopes() {
+        DefaultVariableTable parent = new DefaultVariableTable();
+        Environment global = createContext(parent);
+        parent.putVariable("a", 1);
+        parent.putVariable("b", 2);
+        ScopedVariableTable scope = new ScopedVariableTable(parent);
+        scope.putVariable("a", 10);
+        ScopedVariableTable nested = scope.createScope();
+        nested.putVariable("b", 20);
+        assertSame(scope, nested.getParent());
+        assertFalse(nested.isCaseSensitive());
+        
+        Environment context = new EvaluationContext(global, nested);
+        nested.putVariable("v", "a + b", context);
+        assertEquals(30, nested.resolveVariable("v", context));
+        assertEquals(10, scope.resolveVariable("a", context));
+        assertEquals(2, scope.resolveVariable("b", context));
+        assertFalse(scope.hasVariable("v"));
+        
+        List<String> names = new ArrayList<String>();
+        for (Iterator<String> itr = nested.getVariableNames(); itr.hasNext();)
+            names.add(itr.next());
+        Collections.sort(names);
+        assertEquals(Arrays.asList("a", "b", "v"), names);
+    }
+    
+    @Test
+    public void testTypes() {
+        // Variable nodes are typed by the scope, whatever the parent says
+        DefaultVariableTable parent = new DefaultVariableTable();
+        Environment global = createContext(parent);
+        parent.putVariable("a", 2);
+        parent.putVariable("s", (Object) "xx");
+        ScopedVariableTable scope = new ScopedVariableTable(parent);
+        scope.putVariable("a", (Object) "yyy");
+        assertEquals(String.class, scope.getVariableType("a"));
+        assertEquals(String.class, scope.getVariableType("s"));
+        assertEquals(Integer.class, parent.getVariableType("a"));
+        
+        Environment context = new EvaluationContext(global, scope);
+        String source = "LENGTH(a) + LENGTH(s)";
+        Expression expr = new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+        assertEquals(Integer.class, expr.getType());
+        assertEquals(5, expr.evaluate(context));
+        try {
+            scope.getVariableType("c");
+            fail();
+        } catch (VariableNotFoundException e) {
+            // Neither the scope nor the parent have it
+        }
+    }
+    
+    @Test
+    public void testCycles() {
+        // Overrides may not close a cycle through the parent
+        DefaultVariableTable parent = new DefaultVariableTable();
+        Environment global = createContext(parent);
+        parent.putVariable("a", 1);
+        parent.putVariable("b", "a + 1", global);
+        ScopedVariableTable scope = new ScopedVariableTable(parent);
+        Environment context = new EvaluationContext(global, scope);
+        try {
+            scope.putVariable("a", "b * 2", context);
+            fail();
+        } catch (CyclicVariableException e) {
+            assertEquals("a -> b -> a", e.getPath());
+        }
+        assertEquals(2, scope.resolveVariable("b", context));
+    }
+    
+    // Every evaluation has a context of its own
+    static Object resolve(ScopedVariableTable scope, String name, Environment global) {
+        return scope.resolveVariable(name, new EvaluationContext(global, scope));
+    }
+    
+    static Environment createContext(DefaultVariableTable table) {
+        DefaultEnvironment context = new DefaultEnvironment() {};
+        context.setVariableTable(table);
+        context.setFunctionLoader(FunctionLoader.getDefaultRootLoader());
+        return context;
+    }
+    
+}
@@ -0,0 +1,149 @@
+/* 
+ * Copyright (C) 2008 FoxLabs
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.foxlabs.etk.variable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.foxlabs.etk.Expression;
+import org.foxlabs.etk.Environment;
+import org.foxlabs.etk.DefaultEnvironment;
+import org.foxlabs.etk.EtkException;
+import org.foxlabs.etk.EvaluationContext;
+import org.foxlabs.etk.EvaluationException;
+import org.foxlabs.etk.codec.ExpressionDecoder;
+
+public class SlotVariableTableTest {
+    
+    @Test
+    public void testDeclaration() {
+        SlotVariableTable table = new SlotVariableTable();
+        assertEquals(0, table.declareVariable("a", Integer.TYPE));
+        assertEquals(1, table.declareVariable("b", String.class));
+        assertEquals(0, table.declareVariable("A", Integer.TYPE));
+        assertEquals(2, table.getVariableCount());
+        assertEquals(1, table.getVariableSlot("B"));
+        assertSame(String.class, table.getVariableType("b"));
+        assertTrue(table.isPrimitiveVariable(0));
+        assertFalse(table.isPrimitiveVariable(1));
+        try {
+            table.declareVariable("a", Long.TYPE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Slots keep their type
+        }
+    }
+    
+    @Test(expected = VariableNotFoundException.class)
+    public void testUndeclaredVariable() {
+        new SlotVariableTable().getVariableSlot("a");
+    }
+    
+    @Test
+    public void testFrame() {
+        SlotVariableTable table = createTable();
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(3, 2.5, "x", null);
+        assertEquals(3, frame.getInt(0));
+        assertEquals(3L, frame.getLong(0));
+        assertEquals(2.5, frame.getDouble(1), 0D);
+        assertEquals("x", frame.get(2));
+        assertNull(frame.get(3));
+        
+        Expression expr = decode("i * d", frame);
+        assertEquals(7.5, expr.evaluate(frame));
+        assertEquals(7.5, expr.evaluateDouble(frame), 0D);
+        
+        frame.clear();
+        assertEquals(0, frame.getInt(0));
+        assertNull(frame.get(2));
+    }
+    
+    @Test
+    public void testWrappedFrame() {
+        SlotVariableTable table = createTable();
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(3, 2.5, "x", 4);
+        Expression expr = decode("i + n", frame);
+        assertEquals(7, expr.evaluate(new EvaluationContext(frame)));
+        assertEquals(7.5, decode("i * d", frame).evaluateDouble(new EvaluationContext(frame)), 0D);
+        
+        // Contexts replacing the table do not read the frame
+        DefaultVariableTable other = new DefaultVariableTable();
+        other.putVariable("i", 10);
+        assertEquals(20, decode("i * 2", frame).evaluate(new EvaluationContext(frame, other)));
+    }
+    
+    @Test
+    public void testLateDeclaration() {
+        // Frames take slots declared after they were created
+        SlotVariableTable table = createTable();
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        frame.setAll(3, 2.5, "x", 4);
+        assertEquals(4, table.declareVariable("m", Integer.TYPE));
+        assertEquals(5, table.declareVariable("t", String.class));
+        assertEquals(0, frame.getInt(4));
+        assertNull(frame.get(5));
+        frame.setInt(4, 5);
+        frame.set("t", "y");
+        assertEquals(15, decode("m * i", frame).evaluate(frame));
+        assertEquals(15, decode("m * i", frame).evaluateInt(frame));
+        assertEquals("y", frame.get(5));
+        assertEquals(3, frame.getInt(0));
+        
+        Frame other = table.createFrame(DefaultEnvironment.getGlobalContext());
+        table.declareVariable("k", Long.TYPE);
+        assertEquals(9L, decode("k + 9", other).evaluate(new EvaluationContext(other)));
+    }
+    
+    @Test
+    public void testMissingFrame() {
+        SlotVariableTable table = createTable();
+        Frame frame = table.createFrame(DefaultEnvironment.getGlobalContext());
+        Expression expr = decode("n + 1", frame);
+        Environment context = new EvaluationContext(DefaultEnvironment.getGlobalContext(), table);
+        try {
+            expr.evaluate(context);
+            fail();
+        } catch (EvaluationException e) {
+            assertEquals("n", e.getNode().toString());
+            assertTrue(e.getCause() instanceof EtkException);
+            assertTrue(e.getCause().getMessage().indexOf("\"n\"") >= 0);
+        }
+        try {
+            table.resolveVariable("n", DefaultEnvironment.getGlobalContext());
+            fail();
+        } catch (EtkException e) {
+            assertTrue(e.getMessage().indexOf("\"n\"") >= 0);
+        }
+    }
+    
+    private static SlotVariableTable createTable() {
+        SlotVariableTable table = new SlotVariableTable();
+        table.declareVariable("i", Integer.TYPE);
+        table.declareVariable("d", Double.TYPE);
+        table.declareVariable("s", String.class);
+        table.declareVariable("n", Integer.class);
+        return table;
+    }
+    
+    private static Expression decode(String source, Environment context) {
+        return new Expression(ExpressionDecoder.getDefault().decode(source, context), source);
+    }
+    
+}